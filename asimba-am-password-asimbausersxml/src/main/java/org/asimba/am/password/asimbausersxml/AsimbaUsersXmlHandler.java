@@ -89,4 +89,21 @@ public class AsimbaUsersXmlHandler extends AbstractPasswordHandler {
             throw new OAException(SystemErrors.ERROR_INTERNAL);
         }
 	}
+	
+	/**
+	 * Stop the resources and release the asimba-users.xml files
+	 * @see AbstractPasswordHandler#stop()
+	 */
+	@Override
+	public void stop()
+	{
+		if (_resourceHandler instanceof AsimbaUsersXmlResource)
+			((AsimbaUsersXmlResource)_resourceHandler).stop();
+		for (IResourceHandler oResourceHandler : _resourceHandlers.values())
+		{
+			if (oResourceHandler instanceof AsimbaUsersXmlResource)
+				((AsimbaUsersXmlResource)oResourceHandler).stop();
+		}
+		super.stop();
+	}
 }
@@ -22,22 +22,12 @@
 package org.asimba.am.password.asimbausersxml;
 
 import java.io.File;
-import java.io.IOException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.apache.log4j.Logger;
 import org.asimba.utility.filesystem.PathTranslator;
-import org.w3c.dom.Document;
+import org.asimba.utility.users.AsimbaUsersFile;
+import org.asimba.utility.users.AsimbaUsersModel;
 import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
 
 import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
@@ -58,6 +48,11 @@ public class AsimbaUsersXmlResource extends AbstractResourceHandler {
 	 */
 	protected String _sAsimbaUsersXmlFilename;
 	
+	/**
+	 * Shared model of the asimba-users.xml file
+	 */
+	protected volatile AsimbaUsersFile _oUsersFile;
+	
 	
 	
 	/**
@@ -70,61 +65,28 @@ public class AsimbaUsersXmlResource extends AbstractResourceHandler {
 	
 	
 	/**
-	 * Authenticate the given user with the provided password; will re-read
-	 * the file every time the method is called.
+	 * Authenticate the given user with the provided password.
 	 * <br/><br/>
-	 * This implementation does not do any optimization whatsoever, and is
-	 * purely meant for demonstration purposes. Use it wisely.
+	 * The password is looked up in the shared model of the file, which
+	 * is read again in the background when the file changes.
 	 */
 	public boolean authenticate(String password, String username)
 			throws UserException, OAException 
 	{
-		// Open the file for reading:
-		try {
-			DocumentBuilderFactory oDBF = DocumentBuilderFactory.newInstance();
-			DocumentBuilder oDocBuilder = oDBF.newDocumentBuilder();
-			Document oDoc = oDocBuilder.parse(_sAsimbaUsersXmlFilename);
-			
-			String sXPathToUserPassword;
-			sXPathToUserPassword = "//user[@id='"+username+"']/authMethod[@type='password-plain']/property[@name='password']";
-			
-			XPath xpath = XPathFactory.newInstance().newXPath();
-			XPathExpression expr = xpath.compile(sXPathToUserPassword);
-			
-			String result = (String) expr.evaluate(oDoc, XPathConstants.STRING);
-
-			if (result == null) {
-				
-				// Try the old way:
-				sXPathToUserPassword = "//user[@id='"+username+"']/password";				
-				expr = xpath.compile(sXPathToUserPassword);
-				result = (String) expr.evaluate(oDoc, XPathConstants.STRING);
-				
-				if (result == null) {
-					_oLogger.info("Could not verify password for user "+username);
-					return false;
-				}
-			}
-			
-			// Is the password correct?
-			if (result.equals(password)) return true;
-			
-			// Nothing more to try, we fail.
-			return false;
-			
-		} catch (XPathExpressionException e) {
-			_oLogger.error("Exception occured; Invalid XPath expression created: "+e.getMessage());
-			return false;
-		} catch (ParserConfigurationException e) {
-			_oLogger.error("Exception occured; Invalid Parser Configuration: "+e.getMessage());
-			return false;
-		} catch (SAXException e) {
-			_oLogger.error("Exception occured; SAX: "+e.getMessage());
-			return false;
-		} catch (IOException e) {
-			_oLogger.error("Exception occured; when reading file: "+e.getMessage());
+		AsimbaUsersFile oUsersFile = _oUsersFile;
+		if (oUsersFile == null) {
+			_oLogger.error("AsimbaUsersXmlResource is not initialized or stopped");
+			throw new OAException(SystemErrors.ERROR_NOT_INITIALIZED);
+		}
+		
+		AsimbaUsersModel.User oUser = oUsersFile.getModel().getUser(username);
+		if (oUser == null || oUser.getPassword() == null) {
+			_oLogger.info("Could not verify password for user "+username);
 			return false;
 		}
+		
+		// Is the password correct?
+		return oUser.getPassword().equals(password);
 	}
 
 	
@@ -159,6 +121,35 @@ public class AsimbaUsersXmlResource extends AbstractResourceHandler {
 			// do continue starting up though, but no valid authentications can be performed
 		}
 
+		long lCheckInterval = AsimbaUsersFile.DEFAULT_CHECK_INTERVAL;
+		String sCheckInterval = oConfigManager.getParam(elResourceSection, "check_interval");
+		if (sCheckInterval == null) {
+			_oLogger.info("No optional 'check_interval' item found in 'resource' section, using default: "+lCheckInterval);
+		} else {
+			try {
+				lCheckInterval = Long.parseLong(sCheckInterval);
+			} catch (NumberFormatException e) {
+				lCheckInterval = -1;
+			}
+			if (lCheckInterval < 0) {
+				_oLogger.error("Invalid 'check_interval' item found in 'resource' section: "+sCheckInterval);
+				throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+			}
+		}
+
+		_oUsersFile = AsimbaUsersFile.open(_sAsimbaUsersXmlFilename, lCheckInterval);
+
 		_oLogger.info("Started AsimbaUsersXmlResource for "+sFilename);
 	}
+
+	
+	
+	/**
+	 * Release the shared model of the asimba-users.xml file
+	 */
+	public void stop()
+	{
+		AsimbaUsersFile.release(_oUsersFile);
+		_oUsersFile = null;
+	}
 }
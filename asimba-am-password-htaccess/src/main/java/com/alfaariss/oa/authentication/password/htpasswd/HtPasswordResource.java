@@ -24,10 +24,12 @@ package com.alfaariss.oa.authentication.password.htpasswd;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -48,6 +50,12 @@ import com.alfaariss.oa.authentication.password.encode.IEncoder;
 /**
  * HtPassword resource. Handles a standard htpasswd file.
  *
+ * The file is read into an in-memory index, so a login is a hash lookup.
+ * The modification time and size of the file are checked at most once per
+ * <code>check_interval</code> milliseconds (default 1000); a changed file is
+ * read again and replaces the index at once. If the changed file can not be
+ * read the previous index stays in use.
+ *
  * @author BNE
  * @author Alfa & Ariss
  */
@@ -58,6 +66,11 @@ public class HtPasswordResource extends AbstractResourceHandler
     private IDigest         _md5digest;
     private IDigest         _shadigest;
     private IEncoder        _encoder;
+    private long            _lCheckInterval;
+    private volatile Map<String, byte[]> _mapPasswords;
+    private volatile long   _lLastModified;
+    private volatile long   _lLength;
+    private volatile long   _lNextCheck;
 
     /**
      * Constructor.
@@ -66,6 +79,8 @@ public class HtPasswordResource extends AbstractResourceHandler
     {
         _logger = LogFactory.getLog(this.getClass());
         _encoder = new BinaryPwdEncoder();
+        _lCheckInterval = 1000;
+        _mapPasswords = Collections.emptyMap();
     }
 
     /**
@@ -125,6 +140,36 @@ public class HtPasswordResource extends AbstractResourceHandler
         }
 
         _sFilename = fFile.getAbsolutePath();
+        
+        String sCheckInterval = cm.getParam(eResourceSection, "check_interval");
+        if (sCheckInterval == null)
+            _logger.info("No optional 'check_interval' item found in 'resource' section, using default: " + _lCheckInterval);
+        else
+        {
+            try
+            {
+                _lCheckInterval = Long.parseLong(sCheckInterval);
+            }
+            catch (NumberFormatException e)
+            {
+                _lCheckInterval = -1;
+            }
+            if (_lCheckInterval < 0)
+            {
+                _logger.error("Invalid 'check_interval' item found in 'resource' section: " + sCheckInterval);
+                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+            }
+        }
+        
+        try
+        {
+            load(fFile);
+        }
+        catch (IOException e)
+        {
+            _logger.error("Can't read file: " + _sFilename, e);
+            throw new OAException(SystemErrors.ERROR_INIT);
+        }
     }
 
     /**
@@ -178,48 +223,70 @@ public class HtPasswordResource extends AbstractResourceHandler
      */
     private byte[] getData(String username) throws OAException
     {
-        byte[] result = null;
-
+        long lNow = System.currentTimeMillis();
+        if (lNow >= _lNextCheck)
+            checkFile(lNow);
+        
+        return _mapPasswords.get(username);
+    }
+    
+    //Read the file again if it changed; one thread at a time
+    private synchronized void checkFile(long lNow) throws OAException
+    {
+        if (lNow < _lNextCheck)
+            return; //checked by another thread
+        
+        File fFile = new File(_sFilename);
+        if (!fFile.isFile())
+        {
+            _logger.error("File not found: " + _sFilename);
+            throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
+        }
+        
+        _lNextCheck = lNow + _lCheckInterval;
+        if (fFile.lastModified() != _lLastModified || fFile.length() != _lLength)
+        {
+            try
+            {
+                load(fFile);
+            }
+            catch (IOException e)
+            {
+                _logger.error("Error reading changed file, using previous contents: " + _sFilename, e);
+            }
+        }
+    }
+    
+    //Read all users; the first line of a user is used, like a file scan does
+    private void load(File fFile) throws IOException
+    {
+        long lLastModified = fFile.lastModified();
+        long lLength = fFile.length();
+        
+        Map<String, byte[]> mapPasswords = new HashMap<String, byte[]>();
+        BufferedReader in = new BufferedReader(new FileReader(fFile));
         try
         {
-            BufferedReader in= new BufferedReader(new FileReader(_sFilename));
             String s;
-
-            do
+            while ((s = in.readLine()) != null)
             {
-                s = in.readLine();
-
-                if ((s!=null) && s.startsWith(username+':'))
+                int iSeparator = s.indexOf(':');
+                if (iSeparator > 0)
                 {
-                    // User found!
-                    // Split on ":"
-
-                    String[] userhash = s.split(":",2);
-
-                    if (userhash.length==2)
-                    {
-                        // Take second part.
-                        result = userhash[1].getBytes();
-
-                        _logger.debug("Result from file: " + new String(result));
-                        break;
-                    }
+                    String sUser = s.substring(0, iSeparator);
+                    if (!mapPasswords.containsKey(sUser))
+                        mapPasswords.put(sUser, s.substring(iSeparator + 1).getBytes());
                 }
-            } while (s!=null);
-        }
-        catch (FileNotFoundException e)
-        {
-            _logger.error("File not found" , e);
-
-            throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
+            }
         }
-        catch (IOException e)
+        finally
         {
-            _logger.error("Error reading file" , e);
-
-            throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
+            in.close();
         }
-
-        return result;
+        
+        _mapPasswords = Collections.unmodifiableMap(mapPasswords);
+        _lLastModified = lLastModified;
+        _lLength = lLength;
+        _logger.info("Read " + mapPasswords.size() + " user(s) from file: " + _sFilename);
     }
 }
\ No newline at end of file
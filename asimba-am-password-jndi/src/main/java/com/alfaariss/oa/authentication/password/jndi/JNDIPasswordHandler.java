@@ -93,4 +93,21 @@ public class JNDIPasswordHandler extends AbstractPasswordHandler
             throw new OAException(SystemErrors.ERROR_INTERNAL, e);
         }
     }
+
+    /**
+     * Releases the directories of the resources.
+     * @see AbstractPasswordHandler#stop()
+     */
+    @Override
+    public void stop()
+    {
+        if (_resourceHandler instanceof JNDIProtocolResource)
+            ((JNDIProtocolResource)_resourceHandler).stop();
+        for (IResourceHandler oResourceHandler : _resourceHandlers.values())
+        {
+            if (oResourceHandler instanceof JNDIProtocolResource)
+                ((JNDIProtocolResource)oResourceHandler).stop();
+        }
+        super.stop();
+    }
 }
\ No newline at end of file
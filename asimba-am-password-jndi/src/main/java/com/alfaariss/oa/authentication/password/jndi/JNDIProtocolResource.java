@@ -22,15 +22,11 @@
  */
 package com.alfaariss.oa.authentication.password.jndi;
 
-import java.util.Hashtable;
-
 import javax.naming.AuthenticationException;
 import javax.naming.CommunicationException;
-import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 
@@ -44,12 +40,19 @@ import com.alfaariss.oa.UserEvent;
 import com.alfaariss.oa.UserException;
 import com.alfaariss.oa.api.configuration.IConfigurationManager;
 import com.alfaariss.oa.authentication.password.AbstractResourceHandler;
+import com.alfaariss.oa.util.ldap.JNDIContextPool;
+import com.alfaariss.oa.util.ldap.JNDIDirectory;
+import com.alfaariss.oa.util.ldap.JNDIDirectoryRegistry;
 import com.alfaariss.oa.util.ldap.JNDIUtil;
 
 /**
  * A JNDI protocol resource. For every JNDI resource configured in the
  * Password Authentication Handler section a JNDIProtocolResource will be initialized.
  * 
+ * Users are searched with the pooled service connections of the directory,
+ * passwords are verified with a new connection per request. The directory 
+ * can be shared with other modules, see {@link JNDIDirectoryRegistry}.
+ * 
  * @author JVG
  * @author Alfa & Ariss
  *
@@ -59,22 +62,14 @@ public class JNDIProtocolResource extends AbstractResourceHandler
     /** The system logger */
     private final Log _logger;
 
-    /** The JNDI URL. */
-    protected String _sJNDIUrl;
-    /** The JNDI driver. */
-    protected String _sDriver;
+    /** The directory. */
+    protected JNDIDirectory _oDirectory;
     /** The base DN. */
     protected String _sBaseDn;
     /** The user DN. */
     protected String _sUserDn;
     /** The filter. */
     protected String _sFilter;
-    /** The principal DN */
-    protected String _sPrincipalDn;
-    /** The principal password. */
-    protected String _sPrincipalPwd;
-    /** Use SSL. */
-    protected boolean _bSSL;
 
     /**
      * Default constructor of <code>JNDIProtocolResource</code>.
@@ -95,35 +90,6 @@ public class JNDIProtocolResource extends AbstractResourceHandler
         super.init(_configurationManager, eResourceSection);
 
         Element eDNSection = null;
-        Element ePrincipalSection = null;
-
-        _sJNDIUrl = _configurationManager.getParam(eResourceSection, "url");
-        if ((_sJNDIUrl == null) || _sJNDIUrl.equals(""))
-        {
-            _logger.error("No url defined for realm: "+_sResourceRealm);
-            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
-        }
-
-        if (_sJNDIUrl.length() >= 5 && 
-            _sJNDIUrl.substring(0,5).equalsIgnoreCase("ldaps"))
-        {
-            // Request SSL transport
-            _bSSL = true;
-            _logger.info("SSL enabled");
-        }
-        else
-        {
-            _bSSL = false;
-            _logger.info("SSL disabled");
-        }
-        
-        // Get driver
-        _sDriver = _configurationManager.getParam(eResourceSection, "driver");
-        if ((_sDriver == null) || _sDriver.equals(""))
-        {
-            _logger.error("No driver defined for realm: "+_sResourceRealm);
-            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
-        }
 
         // Get dn section
         eDNSection = _configurationManager.getSection(eResourceSection, "dn");
@@ -151,38 +117,15 @@ public class JNDIProtocolResource extends AbstractResourceHandler
             throw new OAException(SystemErrors.ERROR_CONFIG_READ);
         }
         
-        // Get security_principal section
-        ePrincipalSection = _configurationManager.getSection(eResourceSection, "security_principal");
-        if (ePrincipalSection == null)
-        {
-            _sPrincipalDn = ""; // use default
-            _sPrincipalPwd = ""; // use default
-            _logger.info("No 'security_principal' section configured for realm '" + _sResourceRealm + "', using default");
-        }
-        else
-        {
-            // Get security_principal dn
-            _sPrincipalDn = _configurationManager.getParam(ePrincipalSection, "dn");
-            if (_sPrincipalDn == null)
-            {
-                _sPrincipalDn = ""; // use default
-                _logger.info("No 'dn' item in 'security_principal' section configured for realm '"+_sResourceRealm+"', using default");
-            }
-
-            // Get security_principal password
-            _sPrincipalPwd = _configurationManager.getParam(ePrincipalSection, "password");
-            if (_sPrincipalPwd == null)
-            {
-                _sPrincipalPwd = ""; // use default
-                _logger.info("No 'password' item in 'security_principal' section configured for realm '"+_sResourceRealm+"', using default: empty");
-            }
-        }
+        _oDirectory = JNDIDirectoryRegistry.getInstance().getDirectory(
+            _configurationManager, eResourceSection);
         
-        if (_sPrincipalDn.length() <= 0)
+        if (_oDirectory.getPrincipal() == null)
         {
             if (_sUserDn == null)
             {
                 _logger.error("Invalid configuration: No security principal dn and user dn available; simple bind is not possible");
+                stop();
                 throw new OAException(SystemErrors.ERROR_INIT);
             }
             
@@ -193,12 +136,25 @@ public class JNDIProtocolResource extends AbstractResourceHandler
             if (_sUserDn != null)
             {
                 _logger.error("Invalid configuration: Both user dn and filter are configured");
+                stop();
                 throw new OAException(SystemErrors.ERROR_INIT);
             }
             
             _logger.info("Using configured search filter: " + _sFilter);
         }
     }
+    
+    /**
+     * Releases the directory.
+     */
+    public void stop()
+    {
+        if (_oDirectory != null)
+        {
+            JNDIDirectoryRegistry.getInstance().release(_oDirectory);
+            _oDirectory = null;
+        }
+    }
 
     /**
      * Authenticate against the configured resource.
@@ -236,86 +192,77 @@ public class JNDIProtocolResource extends AbstractResourceHandler
     private boolean doBind(String sUserID, String sPassword)
     throws OAException, UserException
     {
-        StringBuffer sbTemp = null;
-        DirContext oDirContext = null;
-        String sQuery = null;
-        String sRelUserDn = null;
-        boolean bResult = false;
-        NamingEnumeration enumSearchResults = null;
-
-        Hashtable<String, String> htEnvironment = new Hashtable<String, String>();
-
-        htEnvironment.put(Context.PROVIDER_URL, _sJNDIUrl);
-        htEnvironment.put(Context.INITIAL_CONTEXT_FACTORY, _sDriver);
-        htEnvironment.put(Context.SECURITY_AUTHENTICATION, "simple");
-
-        if(_bSSL)
-        {
-            htEnvironment.put(Context.SECURITY_PROTOCOL, "ssl");
-        }
-
-        if (_sPrincipalDn.length() <= 0)
+        String sUserDn = null;
+        if (_oDirectory.getPrincipal() == null)
             // If no principal dn is known, we do a simple binding
         {
             String sEscUserID = JNDIUtil.escapeDN(sUserID);
             _logger.debug("Escaped user: " + sEscUserID);
-            sbTemp = new StringBuffer(_sUserDn);
+            StringBuffer sbTemp = new StringBuffer(_sUserDn);
             sbTemp.append('=');
             sbTemp.append(sEscUserID);
             sbTemp.append(", ");
             sbTemp.append(_sBaseDn);
-            htEnvironment.put(Context.SECURITY_PRINCIPAL, sbTemp.toString());
-
-            htEnvironment.put(Context.SECURITY_CREDENTIALS, sPassword);
+            sUserDn = sbTemp.toString();
+        }
+        else //search through the subtree
+            sUserDn = searchUserDn(sUserID);
 
+        // Bind user using supplied credentials, on a connection of its own
+        boolean bResult = false;
+        DirContext oDirContext = null;
+        try
+        {
+            oDirContext = _oDirectory.createContext(sUserDn, sPassword);
+            bResult = true;
+        }
+        catch (AuthenticationException e)
+        {
+            // If supplied credentials are invalid or when authentication fails
+            // while accessing the directory or naming service.
+            _logger.debug("Could not authenticate user (invalid password): "+sUserID, e);
+        }
+        catch (CommunicationException eC)
+        {
+            // If communication with the directory or naming service fails.
+            _logger.warn("A communication error has occured", eC);
+            throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
+        }
+        catch(NamingException eN)
+        {
+            // The initial dir context could not be created.
+            _logger.warn("A naming error has occured", eN);
+            throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
+        }
+        finally
+        {
             try
             {
-                oDirContext = new InitialDirContext(htEnvironment);
-                bResult = true;
-            }
-            catch (AuthenticationException e)
-            {
-                // If supplied credentials are invalid or when authentication fails
-                // while accessing the directory or naming service.
-                _logger.debug("Could not authenticate user (invalid password): "+sUserID, e);
-            }
-            catch (CommunicationException eC)
-            {
-                // If communication with the directory or naming service fails.
-                _logger.warn("A communication error has occured", eC);
-                throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
-            }
-            catch(NamingException eN)
-            {
-                // The initial dir context could not be created.
-                _logger.warn("A naming error has occured", eN);
-                throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
-            }
-            finally
-            {
-
-                try
-                {
-                    if(oDirContext != null)
-                    {
-                        oDirContext.close();
-                    }
-                }
-                catch (Exception e)
+                if(oDirContext != null)
                 {
-                    _logger.warn("Could not close connection with '"+_sJNDIUrl+'\'', e);
+                    oDirContext.close();
                 }
             }
+            catch (Exception e)
+            {
+                _logger.warn("Could not close connection with '"+_oDirectory.getURL()+"'.", e);
+            }
         }
-        else //search through the subtree
-        {
-            // 1 - Try to bind to LDAP using the security principal's DN and its password
-            htEnvironment.put(Context.SECURITY_PRINCIPAL, _sPrincipalDn);
-            htEnvironment.put(Context.SECURITY_CREDENTIALS, _sPrincipalPwd);
+        return bResult;
+    }
 
+    //Search the DN of the user with a pooled service connection
+    private String searchUserDn(String sUserID) 
+        throws OAException, UserException
+    {
+        DirContext oDirContext = null;
+        NamingEnumeration enumSearchResults = null;
+        boolean bReusable = true;
+        try
+        {
             try
             {
-                oDirContext = new InitialDirContext(htEnvironment);
+                oDirContext = _oDirectory.getContext();
             }
             catch (AuthenticationException eA)
             {
@@ -333,8 +280,8 @@ public class JNDIProtocolResource extends AbstractResourceHandler
                 throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
             }
 
-            // 2 - Search through the context for user's DN relative to the base DN
-            sQuery = resolveSearchQuery(sUserID);
+            // Search through the context for user's DN relative to the base DN
+            String sQuery = resolveSearchQuery(sUserID);
 
             SearchControls oScope = new SearchControls();
             oScope.setSearchScope(SearchControls.SUBTREE_SCOPE);
@@ -345,22 +292,14 @@ public class JNDIProtocolResource extends AbstractResourceHandler
             }
             catch (NamingException eN)
             {
-                _logger.warn("User id not found in password backend for user: " + sUserID, eN);
-                throw new UserException(UserEvent.AUTHN_METHOD_NOT_SUPPORTED);
-            }
-            finally
-            {
-                try
+                if (JNDIContextPool.isConnectionFailure(eN))
                 {
-
-                    oDirContext.close();
-                    oDirContext = null;
-
-                }
-                catch (Exception e)
-                {
-                    _logger.warn("Could not close connection with '"+_sJNDIUrl+"'", e);
+                    bReusable = false;
+                    _logger.warn("A communication error has occured", eN);
+                    throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
                 }
+                _logger.warn("User id not found in password backend for user: " + sUserID, eN);
+                throw new UserException(UserEvent.AUTHN_METHOD_NOT_SUPPORTED);
             }
 
             try
@@ -377,63 +316,40 @@ public class JNDIProtocolResource extends AbstractResourceHandler
                 }
 
                 SearchResult searchResult = (SearchResult)enumSearchResults.next();
-                sRelUserDn = searchResult.getName();
+                String sRelUserDn = searchResult.getName();
                 if (sRelUserDn == null)
                 {
                     _logger.warn("no user dn was returned for '"+sUserID+"'.");
                     throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
                 }
+                
+                StringBuffer sbUserDn = new StringBuffer(sRelUserDn);
+                sbUserDn.append(",");
+                sbUserDn.append(_sBaseDn);
+                return sbUserDn.toString();
             }
             catch (NamingException eN)
             {
-
+                bReusable = !JNDIContextPool.isConnectionFailure(eN);
                 _logger.warn("failed to fetch profile of user '"+sUserID+"'.", eN);
                 throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
             }
-
-            // 3 - Bind user using supplied credentials
-            sbTemp = new StringBuffer(sRelUserDn);
-            sbTemp.append(",");
-            sbTemp.append(_sBaseDn);
-
-            htEnvironment.put(Context.SECURITY_PRINCIPAL, sbTemp.toString());
-            htEnvironment.put(Context.SECURITY_CREDENTIALS, sPassword);
-
-            try
-            {
-                oDirContext = new InitialDirContext(htEnvironment);
-                bResult = true;
-            }
-            catch (AuthenticationException e)
-            {
-                _logger.debug("Could not authenticate user (invalid password): "+sUserID, e);
-            }
-            catch (CommunicationException eC)
-            {
-                _logger.warn("A communication error has occured", eC);
-                throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
-            }
-            catch(NamingException eN)
-            {
-                _logger.warn("A naming error has occured", eN);
-                throw new OAException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
-            }
-            finally
+        }
+        finally
+        {
+            if (enumSearchResults != null)
             {
                 try
                 {
-                    if(oDirContext != null)
-                    {
-                        oDirContext.close();
-                    }
+                    enumSearchResults.close();
                 }
                 catch (Exception e)
                 {
-                    _logger.warn("Could not close connection with '"+_sJNDIUrl+"'.", e);
+                    _logger.warn("Could not close search results for user: " + sUserID, e);
                 }
             }
+            _oDirectory.releaseContext(oDirContext, bReusable);
         }
-        return bResult;
     }
     
     private String resolveSearchQuery(String user)
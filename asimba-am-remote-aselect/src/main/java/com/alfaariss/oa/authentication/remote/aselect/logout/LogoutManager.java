@@ -24,8 +24,6 @@ package com.alfaariss.oa.authentication.remote.aselect.logout;
 
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.security.PrivateKey;
-import java.security.Signature;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -163,18 +161,22 @@ public class LogoutManager implements ITGTListener, IAuthority
                     return;
                 }
                 
-                //Create thread safe HTTP client from parent config
-                MultiThreadedHttpConnectionManager connectionManager = 
-                    new MultiThreadedHttpConnectionManager();
-                _httpClient = new HttpClient(connectionManager);
-                
+                Element eHTTP = null;
                 if (config != null)
+                    eHTTP = configurationManager.getSection(config, "http");
+                
+                if (eHTTP != null)
+                {
+                    //Create thread safe HTTP client from parent config
+                    MultiThreadedHttpConnectionManager connectionManager = 
+                        new MultiThreadedHttpConnectionManager();
+                    _httpClient = new HttpClient(connectionManager);
+                    readHTTPConfig(configurationManager, eHTTP);
+                }
+                else
                 {
-                    Element eHTTP = configurationManager.getSection(config, "http");
-                    if (eHTTP != null)
-                        readHTTPConfig(configurationManager, eHTTP);
-                    else
-                        _logger.info("No optional 'http' section configured, using default http connection settings");
+                    _logger.info("No optional 'http' section configured, using shared http client");
+                    _httpClient = engine.getHttpClientManager().getHttpClient();
                 }
             }
             
@@ -524,13 +526,6 @@ public class LogoutManager implements ITGTListener, IAuthority
                 throw new OAException(SystemErrors.ERROR_INTERNAL);
             }
             
-            Signature signature = _cryptoManager.getSignature();
-            if (signature == null)
-            {
-                _logger.warn("No signature object found");
-                throw new OAException(SystemErrors.ERROR_INTERNAL);
-            }
-    
             StringBuffer sbSignatureData = new StringBuffer();
             TreeSet<String> sortedSet = new TreeSet<String>(mapRequest.keySet());
             for (Iterator<String> iter = sortedSet.iterator(); iter.hasNext();)
@@ -539,16 +534,8 @@ public class LogoutManager implements ITGTListener, IAuthority
                 sbSignatureData.append(mapRequest.get(sKey));
             }
     
-            PrivateKey keyPrivate = _cryptoManager.getPrivateKey();
-            if (keyPrivate == null)
-            {
-                _logger.error("No private key available");
-                throw new OAException(SystemErrors.ERROR_INTERNAL);
-            }
-            signature.initSign(keyPrivate);
-            signature.update(sbSignatureData.toString().getBytes(CHARSET));
-    
-            byte[] baSignature = signature.sign();
+            byte[] baSignature = _cryptoManager.sign(
+                sbSignatureData.toString().getBytes(CHARSET));
     
             byte[] baEncSignature = Base64.encodeBase64(baSignature);
             sSignature = new String(baEncSignature, CHARSET);
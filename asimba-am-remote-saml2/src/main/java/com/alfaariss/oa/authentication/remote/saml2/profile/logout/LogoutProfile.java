@@ -59,7 +59,6 @@ import org.opensaml.saml2.metadata.provider.MetadataProvider;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
 import org.opensaml.ws.message.encoder.MessageEncodingException;
 import org.opensaml.ws.soap.client.BasicSOAPMessageContext;
-import org.opensaml.ws.soap.client.http.HttpClientBuilder;
 import org.opensaml.ws.soap.client.http.HttpSOAPClient;
 import org.opensaml.ws.soap.common.SOAPException;
 import org.opensaml.ws.soap.soap11.Body;
@@ -82,6 +81,7 @@ import com.alfaariss.oa.authentication.remote.saml2.SAML2AuthNConstants;
 import com.alfaariss.oa.authentication.remote.saml2.beans.SAMLRemoteUser;
 import com.alfaariss.oa.authentication.remote.saml2.profile.AbstractAuthNMethodSAML2Profile;
 import com.alfaariss.oa.authentication.remote.saml2.util.ResponseValidator;
+import com.alfaariss.oa.engine.core.Engine;
 import com.alfaariss.oa.engine.core.idp.storage.IIDPStorage;
 import com.alfaariss.oa.util.saml2.SAML2ConditionsWindow;
 import com.alfaariss.oa.util.saml2.SAML2Exchange;
@@ -329,11 +329,9 @@ public class LogoutProfile extends AbstractAuthNMethodSAML2Profile
         BasicSOAPMessageContext soapContext = new BasicSOAPMessageContext();
         soapContext.setOutboundMessage(envelope);
         
-        HttpClientBuilder clientBuilder = new HttpClientBuilder();
-        clientBuilder.setConnectionTimeout(5000);
-        
         HttpSOAPClient soapClient = new HttpSOAPClient(
-            clientBuilder.buildClient(), _parserPool);
+            Engine.getInstance().getHttpClientManager().getHttpClient(), 
+            _parserPool);
         
         if (_logger.isDebugEnabled())
             logXML(soapContext.getOutboundMessage());
@@ -25,40 +25,48 @@ package org.gluu.asimba.authentication.remote.saml2.idp.storage.ldap;
 
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Hashtable;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.w3c.dom.Element;
 
 import com.alfaariss.oa.OAException;
-import com.alfaariss.oa.SystemErrors;
 import com.alfaariss.oa.api.configuration.IConfigurationManager;
 import com.alfaariss.oa.authentication.remote.saml2.idp.storage.config.IDPConfigStorage;
 import com.alfaariss.oa.engine.core.idp.storage.IIDP;
 import java.util.ArrayList;
-import java.util.Comparator;
+import org.gluu.asimba.util.ldap.LDAPSynchronizer;
 import org.gluu.asimba.util.ldap.LDAPUtility;
 import org.gluu.asimba.util.ldap.idp.IDPEntry;
+import org.gluu.asimba.util.ldap.idp.LdapIDPEntry;
 
 /**
  * IDP Storage implementation using LDAP.
  * 
+ * The IDP's are kept up to date by a background {@link LDAPSynchronizer},
+ * configured by the optional <code>sync</code> section.
+ * 
  * @author Dmitry Ognyannikov
  */
 abstract public class AbstractLDAPStorageDerived<IDP extends IIDP> extends IDPConfigStorage {
     
     /** System logger */
     private static final Log _logger = LogFactory.getLog(AbstractLDAPStorageDerived.class);;
-    /** Hashtable containing all IDP's */
-    protected Hashtable<String, IDP> _htIDPsLDAP;
-    /** List containing all IDP's*/
-    protected List<IIDP> _listIDPsLDAP;
+    /** Map containing all enabled IDP's by id */
+    protected final Map<String, IDP> _mapIDPsLDAP;
+    /** List containing all enabled IDP's, replaced as a whole on every change */
+    protected volatile List<IIDP> _listIDPsLDAP;
+    
+    private IDPSynchronizer _synchronizer;
     
     public AbstractLDAPStorageDerived() {
-        _htIDPsLDAP = new Hashtable<String, IDP>();
-        _listIDPsLDAP = new ArrayList<IIDP>();
+        _mapIDPsLDAP = new ConcurrentHashMap<String, IDP>();
+        _listIDPsLDAP = Collections.emptyList();
     }
 
     /**
@@ -66,7 +74,7 @@ abstract public class AbstractLDAPStorageDerived<IDP extends IIDP> extends IDPCo
      */
     @Override
     public boolean exists(String id) {
-        return _htIDPsLDAP.containsKey(id) || super.exists(id);
+        return _mapIDPsLDAP.containsKey(id) || super.exists(id);
     }
 
     /**
@@ -91,8 +99,9 @@ abstract public class AbstractLDAPStorageDerived<IDP extends IIDP> extends IDPCo
      */
     @Override
     public IIDP getIDP(String id) {
-        if (_htIDPsLDAP.containsKey(id))
-            return _htIDPsLDAP.get(id);
+        IIDP idp = _mapIDPsLDAP.get(id);
+        if (idp != null)
+            return idp;
         else
             return super.getIDP(id);
     }
@@ -105,37 +114,10 @@ abstract public class AbstractLDAPStorageDerived<IDP extends IIDP> extends IDPCo
         throws OAException {
         super.start(configManager, config);
         
-        List<IDPEntry> idpEntries = LDAPUtility.loadIDPs();
-        
-        // sort by priority field
-        Collections.sort(idpEntries, new Comparator<IDPEntry>() {
-            @Override
-            public int compare(IDPEntry entry1, IDPEntry entry2) {
-                return (entry1.getViewPriorityIndex() < entry2.getViewPriorityIndex()) ? -1 : (entry1.getViewPriorityIndex() > entry2.getViewPriorityIndex()) ? 1 : 0;
-            }
-        });
-        
-        for (IDPEntry idpEntry : idpEntries) {
-            try {
-                IDP idp = createIDP(idpEntry);
-
-                if (_htIDPsLDAP.containsKey(idp.getID())) {
-                    _logger.error("Configured IDP is not unique: " + idp.getID());
-                    throw new OAException(SystemErrors.ERROR_INIT);
-                }
-
-                if (idpEntry.isEnabled()) {
-                    _htIDPsLDAP.put(idp.getID(), idp);
-                    _listIDPsLDAP.add(idp);
-
-                    _logger.info("Found IDP with ID: " + idp.getID());
-                } else  {
-                    _logger.info("IDP disabled: " + idp.getID());
-                }
-            } catch (Exception e) {
-                _logger.error("Cannot read LDAP IDPEntry, id: " + idpEntry.getId(), e);
-            }
-        }
+        IDPSynchronizer synchronizer = new IDPSynchronizer();
+        synchronizer.init(configManager, config);
+        synchronizer.start();
+        _synchronizer = synchronizer;
     }
 
     /**
@@ -145,11 +127,21 @@ abstract public class AbstractLDAPStorageDerived<IDP extends IIDP> extends IDPCo
     public void stop() {
         super.stop();
         
-        if (_listIDPsLDAP != null)
-            _listIDPsLDAP.clear();
+        if (_synchronizer != null) {
+            _synchronizer.stop();
+            _synchronizer = null;
+        }
         
-        if (_htIDPsLDAP != null)
-            _htIDPsLDAP.clear();
+        _listIDPsLDAP = Collections.emptyList();
+        _mapIDPsLDAP.clear();
+    }
+
+    /**
+     * @return The synchronizer that keeps the LDAP IDP's up to date, null if
+     * not started.
+     */
+    public LDAPSynchronizer getSynchronizer() {
+        return _synchronizer;
     }
 
     /**
@@ -161,4 +153,147 @@ abstract public class AbstractLDAPStorageDerived<IDP extends IIDP> extends IDPCo
      */
     abstract protected IDP createIDP(IDPEntry idpEntry) throws OAException;
     
+    /**
+     * Called from the synchronizer after an IDP was added, replaced or
+     * removed, so subclasses can maintain their own lookups.
+     * 
+     * @param oldIDP The previous version, null if the IDP was added.
+     * @param newIDP The new version, null if the IDP was removed.
+     */
+    protected void updated(IDP oldIDP, IDP newIDP) {
+    }
+    
+    /**
+     * Applies LDAP changes to the IDP's of the storage.
+     * 
+     * Entries are tracked by DN, so a changed id removes the previous
+     * version as well.
+     */
+    private class IDPSynchronizer extends LDAPSynchronizer {
+        
+        private Map<String, LdapIDPEntry> _mapEntries;
+        private final Map<String, IDP> _mapCreated;
+        
+        IDPSynchronizer() {
+            super("IDPs");
+            _mapEntries = new HashMap<>();
+            _mapCreated = new HashMap<>();
+        }
+
+        @Override
+        protected Date synchronizeAll() throws Exception {
+            List<LdapIDPEntry> idpEntries = LDAPUtility.findIDPs(null);
+            
+            Date latest = null;
+            boolean changed = false;
+            Map<String, LdapIDPEntry> entries = new HashMap<>();
+            for (LdapIDPEntry entry : idpEntries) {
+                entries.put(entry.getDn(), entry);
+            }
+            for (LdapIDPEntry old : _mapEntries.values()) {
+                if (!entries.containsKey(old.getDn())) {
+                    changed |= apply(old.getDn(), old, null);
+                }
+            }
+            for (LdapIDPEntry entry : idpEntries) {
+                changed |= apply(entry.getDn(), _mapEntries.get(entry.getDn()), entry);
+                latest = getLatest(latest, entry.getModifyTimestamp());
+            }
+            _mapEntries = entries;
+            
+            if (changed) {
+                updateList();
+            }
+            return latest;
+        }
+
+        @Override
+        protected Date synchronizeModified(Date since) throws Exception {
+            List<LdapIDPEntry> idpEntries = LDAPUtility.findIDPs(since);
+            
+            Date latest = null;
+            boolean changed = false;
+            for (LdapIDPEntry entry : idpEntries) {
+                if (apply(entry.getDn(), _mapEntries.get(entry.getDn()), entry)) {
+                    _mapEntries.put(entry.getDn(), entry);
+                    changed = true;
+                }
+                latest = getLatest(latest, entry.getModifyTimestamp());
+            }
+            
+            if (changed) {
+                updateList();
+            }
+            return latest;
+        }
+        
+        /**
+         * Registers the new version of an entry before the old version is
+         * removed, so the IDP can always be found.
+         */
+        private boolean apply(String dn, LdapIDPEntry old, LdapIDPEntry entry) {
+            if (old != null && entry != null && !isModified(old.getModifyTimestamp(), old.getEntry().getLastModified(),
+                    entry.getModifyTimestamp(), entry.getEntry().getLastModified())) {
+                return false;
+            }
+            
+            IDP oldIDP = _mapCreated.remove(dn);
+            IDP newIDP = null;
+            if (entry != null) {
+                IDPEntry idpEntry = entry.getEntry();
+                if (!idpEntry.isEnabled()) {
+                    _logger.info("IDP disabled: " + idpEntry.getId());
+                } else {
+                    try {
+                        newIDP = createIDP(idpEntry);
+                        IDP registered = _mapIDPsLDAP.get(newIDP.getID());
+                        if (registered != null && registered != oldIDP) {
+                            _logger.error("Configured IDP is not unique: " + newIDP.getID());
+                            newIDP = null;
+                        }
+                    } catch (Exception e) {
+                        _logger.error("Cannot read LDAP IDPEntry, id: " + idpEntry.getId(), e);
+                        newIDP = null;
+                    }
+                }
+            }
+            
+            if (newIDP != null) {
+                _mapCreated.put(dn, newIDP);
+                _mapIDPsLDAP.put(newIDP.getID(), newIDP);
+                _logger.info("Found IDP with ID: " + newIDP.getID());
+            }
+            if (oldIDP != null && _mapIDPsLDAP.get(oldIDP.getID()) == oldIDP) {
+                _mapIDPsLDAP.remove(oldIDP.getID());
+            }
+            if (oldIDP != null || newIDP != null) {
+                updated(oldIDP, newIDP);
+            }
+            
+            applied(entry == null ? null : LDAPUtility.parseGeneralizedTime(entry.getModifyTimestamp()));
+            return true;
+        }
+        
+        /**
+         * Replaces the list of IDP's, sorted by priority field.
+         */
+        private void updateList() {
+            List<String> dns = new ArrayList<>(_mapCreated.keySet());
+            Collections.sort(dns, new Comparator<String>() {
+                @Override
+                public int compare(String dn1, String dn2) {
+                    int index1 = _mapEntries.get(dn1).getEntry().getViewPriorityIndex();
+                    int index2 = _mapEntries.get(dn2).getEntry().getViewPriorityIndex();
+                    return (index1 < index2) ? -1 : (index1 > index2) ? 1 : 0;
+                }
+            });
+            
+            List<IIDP> list = new ArrayList<>(dns.size());
+            for (String dn : dns) {
+                list.add(_mapCreated.get(dn));
+            }
+            _listIDPsLDAP = Collections.unmodifiableList(list);
+        }
+    }
+    
 }
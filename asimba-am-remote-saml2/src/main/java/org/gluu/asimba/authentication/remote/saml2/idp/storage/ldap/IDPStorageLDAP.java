@@ -26,17 +26,13 @@ package org.gluu.asimba.authentication.remote.saml2.idp.storage.ldap;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.w3c.dom.Element;
-
 import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
-import com.alfaariss.oa.api.configuration.IConfigurationManager;
 import com.alfaariss.oa.authentication.remote.saml2.idp.storage.config.SourceID;
 import com.alfaariss.oa.engine.core.idp.storage.IIDP;
 import com.alfaariss.oa.util.saml2.idp.SAML2IDP;
@@ -79,24 +75,29 @@ public class IDPStorageLDAP extends AbstractLDAPStorageDerived
      */
     public IDPStorageLDAP()
     {
-        _mapIDPsOnSourceIDLDAP = new Hashtable<SourceID, SAML2IDP>();
+        _mapIDPsOnSourceIDLDAP = new ConcurrentHashMap<SourceID, SAML2IDP>();
     }
 
     /**
-     * @see com.alfaariss.oa.engine.idp.storage.configuration.AbstractConfigurationStorage#start(com.alfaariss.oa.api.configuration.IConfigurationManager, org.w3c.dom.Element)
+     * Maintains the SourceID lookup for the IDP's found in LDAP.
+     * 
+     * @see org.gluu.asimba.authentication.remote.saml2.idp.storage.ldap.AbstractLDAPStorageDerived#updated(com.alfaariss.oa.engine.core.idp.storage.IIDP, com.alfaariss.oa.engine.core.idp.storage.IIDP)
      */
     @Override
-    public void start(IConfigurationManager configManager, Element config)
-        throws OAException
+    protected void updated(IIDP oldIDP, IIDP newIDP)
     {
-        super.start(configManager, config);
-        
-        Enumeration<?> enumIDPs = _htIDPsLDAP.elements();
-        while (enumIDPs.hasMoreElements())
+        if (newIDP != null)
         {
-            SAML2IDP saml2IDP = (SAML2IDP)enumIDPs.nextElement();
+            SAML2IDP saml2IDP = (SAML2IDP)newIDP;
             _mapIDPsOnSourceIDLDAP.put(new SourceID(saml2IDP.getSourceID()), saml2IDP);
         }
+        
+        if (oldIDP != null)
+        {
+            SourceID key = new SourceID(((SAML2IDP)oldIDP).getSourceID());
+            if (_mapIDPsOnSourceIDLDAP.get(key) == oldIDP)
+                _mapIDPsOnSourceIDLDAP.remove(key);
+        }
     }
 
     /**
@@ -168,9 +169,9 @@ public class IDPStorageLDAP extends AbstractLDAPStorageDerived
     @Override
     protected SAML2IDP getIDPBySourceID(byte[] baSourceID)
     {
-        SourceID key = new SourceID(baSourceID);
-        if (_mapIDPsOnSourceIDLDAP.containsKey(key))
-            return _mapIDPsOnSourceIDLDAP.get(new SourceID(baSourceID));
+        SAML2IDP saml2IDP = _mapIDPsOnSourceIDLDAP.get(new SourceID(baSourceID));
+        if (saml2IDP != null)
+            return saml2IDP;
         else
             return super.getIDPBySourceID(baSourceID);
     }
@@ -25,8 +25,6 @@ package com.alfaariss.oa.authentication.remote;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.security.PrivateKey;
-import java.security.Signature;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -178,16 +176,20 @@ abstract public class AbstractRemoteMethod implements IWebAuthenticationMethod
             
             if (_bEnabled)
             {   
-                //Create thread safe HTTP client
-                MultiThreadedHttpConnectionManager connectionManager = 
-                    new MultiThreadedHttpConnectionManager();
-                _httpClient = new HttpClient(connectionManager);
-                
                 Element eHTTP = _configurationManager.getSection(eConfig, "http");
                 if (eHTTP != null)
+                {
+                    //Create thread safe HTTP client with own connection settings
+                    MultiThreadedHttpConnectionManager connectionManager = 
+                        new MultiThreadedHttpConnectionManager();
+                    _httpClient = new HttpClient(connectionManager);
                     readHTTPConfig(eHTTP);
+                }
                 else
-                    _logger.info("No optional 'http' section configured, using default http connection settings");
+                {
+                    _logger.info("No optional 'http' section configured, using shared http client");
+                    _httpClient = _engine.getHttpClientManager().getHttpClient();
+                }
                 
                 Element eIDMapper = _configurationManager.getSection(eConfig, "idmapper");
                 if (eIDMapper != null)
@@ -403,13 +405,6 @@ abstract public class AbstractRemoteMethod implements IWebAuthenticationMethod
         String sSignature = null;
         try
         {
-            Signature oSignature = _cryptoManager.getSignature();
-            if (oSignature == null)
-            {
-                _logger.warn("No signature object found");
-                throw new OAException(SystemErrors.ERROR_INTERNAL);
-            }
-            
             StringBuffer sbSignatureData = new StringBuffer();
             TreeSet<String> sortedSet = new TreeSet<String>(mapRequest.keySet());
             for (Iterator<String> iter = sortedSet.iterator(); iter.hasNext();)
@@ -418,16 +413,8 @@ abstract public class AbstractRemoteMethod implements IWebAuthenticationMethod
                 sbSignatureData.append(mapRequest.get(sKey));
             }
             
-            PrivateKey keyPrivate = _cryptoManager.getPrivateKey();
-            if (keyPrivate == null)
-            {
-                _logger.error("No private key available");
-                throw new OAException(SystemErrors.ERROR_INTERNAL);
-            }
-            oSignature.initSign(keyPrivate);
-            oSignature.update(sbSignatureData.toString().getBytes(CHARSET));
-
-            byte[] baSignature = oSignature.sign();
+            byte[] baSignature = _cryptoManager.sign(
+                sbSignatureData.toString().getBytes(CHARSET));
             
             byte[] baEncSignature = Base64.encodeBase64(baSignature);
             sSignature = new String(baEncSignature, CHARSET);
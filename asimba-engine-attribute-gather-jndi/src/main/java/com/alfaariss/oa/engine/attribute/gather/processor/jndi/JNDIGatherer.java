@@ -21,36 +21,46 @@
  * 
  */
 package com.alfaariss.oa.engine.attribute.gather.processor.jndi;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
-import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.InvalidSearchFilterException;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.cache.ExpiringCache;
 import org.w3c.dom.Element;
 
+import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
 import com.alfaariss.oa.api.attribute.IAttributes;
+import com.alfaariss.oa.api.configuration.ConfigurationException;
 import com.alfaariss.oa.api.configuration.IConfigurationManager;
 import com.alfaariss.oa.engine.core.attribute.AttributeException;
 import com.alfaariss.oa.engine.core.attribute.gather.processor.IProcessor;
+import com.alfaariss.oa.util.ldap.JNDIContextPool;
+import com.alfaariss.oa.util.ldap.JNDIDirectory;
+import com.alfaariss.oa.util.ldap.JNDIDirectoryRegistry;
 import com.alfaariss.oa.util.ldap.JNDIUtil;
 
 /**
  * Attribute gatherer that resolves attributes from JNDI storage.
  *
- * Reads attributes from a JNDI storage.
+ * Reads attributes from a JNDI storage. The directory connections are 
+ * pooled, the gathered attributes can optionally be cached per user. The
+ * directory can be shared with other modules, see 
+ * {@link JNDIDirectoryRegistry}.
  * @author MHO
  * @author Alfa & Ariss
  *
@@ -64,9 +74,11 @@ public class JNDIGatherer implements IProcessor
     private String _sDNBase;
     private String _sDNUser;
     private String _sFilter;
-    private Hashtable<String,String> _htJNDIEnvironment;
     private Hashtable<String, String> _htMapper;
     private List<String> _listGather;
+    private JNDIDirectory _oDirectory;
+    private ExpiringCache<String, Map<String, Object>> _oCache;
+    private long _lNegativeTTL;
     
 	/**
 	 * Creates the object.
@@ -80,7 +92,7 @@ public class JNDIGatherer implements IProcessor
         _sDNBase = null;
         _sDNUser = null;
         _sFilter = null;
-        _htJNDIEnvironment = null;
+        _oDirectory = null;
         _htMapper = new Hashtable<String, String>();
         _listGather = new Vector<String>();
 	}
@@ -202,10 +214,17 @@ public class JNDIGatherer implements IProcessor
                     + _listGather.toString());
             }
             
-            _htJNDIEnvironment = readJNDIContext(oConfigurationManager, eResource);
+            try
+            {
+                _oDirectory = JNDIDirectoryRegistry.getInstance().getDirectory(
+                    oConfigurationManager, eResource);
+            }
+            catch (OAException e)
+            {
+                throw new AttributeException(e.getCode(), e);
+            }
             
-            //test connection
-            new InitialDirContext(_htJNDIEnvironment);
+            _oCache = createCache(oConfigurationManager, eConfig);
             
             Element eMapper = oConfigurationManager.getSection(eConfig, "mapper");
             if (eMapper == null)
@@ -265,18 +284,165 @@ public class JNDIGatherer implements IProcessor
      * @see com.alfaariss.oa.engine.core.attribute.gather.processor.IProcessor#process(java.lang.String, com.alfaariss.oa.api.attribute.IAttributes)
      */
     public void process(String sUserId, IAttributes oAttributes) throws AttributeException
+    {
+        Map<String, Object> mapGathered = null;
+        if (_oCache != null)
+            mapGathered = _oCache.get(sUserId);
+        
+        if (mapGathered == null)
+        {
+            try
+            {
+                mapGathered = search(sUserId);
+            }
+            catch (NamingException e)
+            {
+                //A pooled connection can be dropped by the directory; the 
+                //pool closed all idle connections, so the retry connects again
+                _logger.debug("Connection failed, retrying with a new connection for user: " 
+                    + sUserId, e);
+                try
+                {
+                    mapGathered = search(sUserId);
+                }
+                catch (NamingException e1)
+                {
+                    _logger.debug("Failed to fetch attributes for user: " + sUserId, e1);
+                }
+            }
+            
+            if (mapGathered == null)
+                return;
+            
+            if (_oCache != null)
+            {
+                if (mapGathered.isEmpty())
+                    _oCache.put(sUserId, mapGathered, _lNegativeTTL);
+                else
+                    _oCache.put(sUserId, mapGathered);
+            }
+        }
+        
+        for (Map.Entry<String, Object> entry : mapGathered.entrySet())
+        {
+            Object oValue = entry.getValue();
+            if (oValue instanceof Vector)//copy; the cached value is shared
+                oValue = new Vector<Object>((Vector<?>)oValue);
+            oAttributes.put(entry.getKey(), oValue);
+        }
+    }
+
+    /**
+     * Stops the object.
+     * @see com.alfaariss.oa.engine.core.attribute.gather.processor.IProcessor#stop()
+     */
+    public void stop()
+    {
+        if (_oDirectory != null)
+        {
+            _logger.info("JNDI pool: " + _oDirectory.getPool());
+            JNDIDirectoryRegistry.getInstance().release(_oDirectory);
+            _oDirectory = null;
+        }
+        if (_oCache != null)
+        {
+            _logger.info(_oCache.toString());
+            _oCache.clear();
+        }
+        if (_htMapper != null)
+            _htMapper.clear();
+        if (_listGather != null)
+            _listGather.clear();
+    }
+
+    /**
+     * Returns the gatherer id.
+     * @see com.alfaariss.oa.api.IManagebleItem#getID()
+     */
+    public String getID()
+    {
+        return _sID;
+    }
+
+    /**
+     * Returns the gatherer friendly name.
+     * @see com.alfaariss.oa.api.IManagebleItem#getFriendlyName()
+     */
+    public String getFriendlyName()
+    {
+        return _sFriendlyName;
+    }
+
+    /**
+     * Returns TRUE if the gatherer is enabled.
+     * @see com.alfaariss.oa.api.IManagebleItem#isEnabled()
+     */
+    public boolean isEnabled()
+    {
+        return _bEnabled;
+    }
+    
+    /**
+     * @return The number of users that were found in the attribute cache.
+     */
+    public long getCacheHitCount()
+    {
+        ExpiringCache<String, Map<String, Object>> oCache = _oCache;
+        return oCache == null ? 0 : oCache.getHits();
+    }
+    
+    /**
+     * @return The number of users that were not found in the attribute cache.
+     */
+    public long getCacheMissCount()
+    {
+        ExpiringCache<String, Map<String, Object>> oCache = _oCache;
+        return oCache == null ? 0 : oCache.getMisses();
+    }
+    
+    /**
+     * @return The number of times a pooled directory context was reused.
+     */
+    public long getPoolReusedCount()
+    {
+        JNDIDirectory oDirectory = _oDirectory;
+        return oDirectory == null ? 0 : oDirectory.getPool().getReusedCount();
+    }
+    
+    /**
+     * @return The number of directory contexts created by the pool.
+     */
+    public long getPoolCreatedCount()
+    {
+        JNDIDirectory oDirectory = _oDirectory;
+        return oDirectory == null ? 0 : oDirectory.getPool().getCreatedCount();
+    }
+
+    /**
+     * Searches the attributes of the user.
+     * 
+     * @param sUserId The user id.
+     * @return The mapped attributes, an empty map if the user does not exist
+     *  or <code>null</code> if the attributes could not be retrieved.
+     * @throws AttributeException If the search fails.
+     * @throws NamingException If the connection failed.
+     */
+    private Map<String, Object> search(String sUserId) 
+        throws AttributeException, NamingException
     {
         DirContext oDirContext = null;
         NamingEnumeration oNamingEnumeration = null;
+        boolean bReusable = true;
         try
         {
             try
             {
-                oDirContext = new InitialDirContext(_htJNDIEnvironment);
+                oDirContext = _oDirectory.getContext();
             }
             catch (NamingException e)
             {
-                _logger.error("Could not create the connection: " + _htJNDIEnvironment);
+                _logger.error("Could not create the connection: " 
+                    + _oDirectory.getURL());
                 throw new AttributeException(SystemErrors.ERROR_RESOURCE_CONNECT, e);
             }
             
@@ -305,10 +471,13 @@ public class JNDIGatherer implements IProcessor
             }
             catch (NamingException e)
             {
+                if (JNDIContextPool.isConnectionFailure(e))
+                    throw e;
                 _logger.debug("User unknown: " + sUserId);
-                return;
+                return null;
             }
         
+            Map<String, Object> mapGathered = new LinkedHashMap<String, Object>();
             if (oNamingEnumeration.hasMore())
             {
                 SearchResult oSearchResult = (SearchResult)oNamingEnumeration.next();
@@ -329,16 +498,20 @@ public class JNDIGatherer implements IProcessor
                         while (neAttribute.hasMore())
                             vValue.add(neAttribute.next());
                         
-                        oAttributes.put(sAttributeName, vValue);                                                        
+                        mapGathered.put(sAttributeName, vValue);                                                        
                     }
                     else
                     {                      
                         Object oValue = oAttribute.get();
                         if (oValue == null) oValue = "";
-                        oAttributes.put(sAttributeName, oValue);
+                        mapGathered.put(sAttributeName, oValue);
                     }  
                 }
             }
+            else
+                _logger.debug("User not found: " + sUserId);
+            
+            return Collections.unmodifiableMap(mapGathered);
         }
         catch (AttributeException e)
         {
@@ -346,7 +519,13 @@ public class JNDIGatherer implements IProcessor
         }
         catch (NamingException e)
         {
+            if (JNDIContextPool.isConnectionFailure(e))
+            {
+                bReusable = false;
+                throw e;
+            }
             _logger.debug("Failed to fetch attributes for user: " + sUserId, e);
+            return null;
         }
         catch (Exception e)
         {
@@ -367,141 +546,79 @@ public class JNDIGatherer implements IProcessor
                         + sUserId, e);
                 }
             }
-            if (oDirContext != null)
-            {
-                try
-                {
-                    oDirContext.close();
-                }
-                catch (NamingException e)
-                {
-                    _logger.error("Could not close Dir Context after searching for user with id: " 
-                        + sUserId, e);
-                }
-            }
+            _oDirectory.releaseContext(oDirContext, bReusable);
         }
     }
-
-    /**
-     * Stops the object.
-     * @see com.alfaariss.oa.engine.core.attribute.gather.processor.IProcessor#stop()
-     */
-    public void stop()
-    {
-        if (_htMapper != null)
-            _htMapper.clear();
-        if (_htJNDIEnvironment != null)
-            _htJNDIEnvironment.clear();
-        if (_listGather != null)
-            _listGather.clear();
-    }
-
-    /**
-     * Returns the gatherer id.
-     * @see com.alfaariss.oa.api.IManagebleItem#getID()
-     */
-    public String getID()
-    {
-        return _sID;
-    }
-
-    /**
-     * Returns the gatherer friendly name.
-     * @see com.alfaariss.oa.api.IManagebleItem#getFriendlyName()
-     */
-    public String getFriendlyName()
-    {
-        return _sFriendlyName;
-    }
-
-    /**
-     * Returns TRUE if the gatherer is enabled.
-     * @see com.alfaariss.oa.api.IManagebleItem#isEnabled()
-     */
-    public boolean isEnabled()
-    {
-        return _bEnabled;
-    }
-
+    
     /**
-     * Reads JNDI connection information from the configuration.
+     * Creates the attribute cache from the optional 'cache' section:
      * <br>
-     * Creates an <code>Hashtable</code> containing the JNDI environment variables.
-     * @param oConfigurationManager The configuration manager
-     * @param eConfig the configuration section
-     * @return <code>DirContext</code> that contains the JNDI connection
-     * @throws AttributeException if configuration reading fails
+     * <code>&lt;cache enabled="true" size="1000" ttl="60" negative_ttl="10"/&gt;</code>
+     * with the time to live in seconds.
      */
-    private Hashtable<String,String> readJNDIContext(IConfigurationManager oConfigurationManager, 
-        Element eConfig) throws AttributeException
+    private ExpiringCache<String, Map<String, Object>> createCache(
+        IConfigurationManager oConfigurationManager, Element eConfig) 
+        throws AttributeException, ConfigurationException
     {
-        Hashtable<String,String> htEnvironment = new Hashtable<String,String>(11);
+        Element eCache = oConfigurationManager.getSection(eConfig, "cache");
+        if (eCache == null)
+        {
+            _logger.info("No optional 'cache' section found in configuration, attributes are not cached");
+            return null;
+        }
         
-        try
+        String sEnabled = oConfigurationManager.getParam(eCache, "enabled");
+        if (sEnabled != null)
         {
-            Element eSecurityPrincipal = oConfigurationManager.getSection(eConfig, "security_principal");
-            if (eSecurityPrincipal == null)
+            if (sEnabled.equalsIgnoreCase("FALSE"))
             {
-                _logger.error("No 'security_principal' section found in 'resource' configuration");
-                throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
+                _logger.info("Attribute cache is disabled");
+                return null;
             }
-    
-            String sPrincipal = oConfigurationManager.getParam(eSecurityPrincipal, "dn");
-            if(sPrincipal == null)
+            else if (!sEnabled.equalsIgnoreCase("TRUE"))
             {
-                _logger.error("No item 'dn' item found in configuration");
+                _logger.error("Unknown value in 'enabled' item in 'cache' section: " + sEnabled);
                 throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
             }
+        }
+        
+        int iSize = (int)readNumber(oConfigurationManager, eCache, "size", 1000);
+        long lTTL = readNumber(oConfigurationManager, eCache, "ttl", 60) * 1000;
+        _lNegativeTTL = readNumber(oConfigurationManager, eCache, "negative_ttl", 10) * 1000;
+        
+        StringBuffer sbInfo = new StringBuffer("Caching attributes of max ");
+        sbInfo.append(iSize).append(" users for ");
+        sbInfo.append(lTTL / 1000).append(" seconds, unknown users for ");
+        sbInfo.append(_lNegativeTTL / 1000).append(" seconds");
+        _logger.info(sbInfo.toString());
+        return new ExpiringCache<String, Map<String, Object>>(
+            "JNDI attribute cache '" + _sID + "'", iSize, lTTL);
+    }
     
-            String sPassword = oConfigurationManager.getParam(eSecurityPrincipal, "password");
-            if(sPassword == null)
-            {
-                _logger.error("No 'password' item found in configuration ");
-                throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
-            }
-            
-            String sDriver = oConfigurationManager.getParam(eConfig, "driver");
-            if(sDriver == null)
-            {
-                _logger.error("No 'driver' item found in configuration");
-                throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
-            }
-            
-            String sUrl = oConfigurationManager.getParam(eConfig, "url");
-            if(sUrl == null)
-            {
-                _logger.error("No valid config item 'url' found in configuration");
-                throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
-            }
-            
-            if (sUrl.length() >= 5 && 
-                sUrl.substring(0,5).equalsIgnoreCase("ldaps"))
-            {
-                // Request SSL transport
-                htEnvironment.put(Context.SECURITY_PROTOCOL, "ssl");
-                _logger.info("SSL enabled");
-            }
-            else
-            {
-                _logger.info("SSL disabled");
-            }
-            
-            htEnvironment.put(Context.INITIAL_CONTEXT_FACTORY, sDriver);
-            htEnvironment.put(Context.SECURITY_AUTHENTICATION, "simple");
-            htEnvironment.put(Context.SECURITY_PRINCIPAL, sPrincipal);
-            htEnvironment.put(Context.SECURITY_CREDENTIALS, sPassword);
-            htEnvironment.put(Context.PROVIDER_URL, sUrl);
+    //Read an optional positive number
+    private long readNumber(IConfigurationManager oConfigurationManager, 
+        Element eConfig, String sName, long lDefault) 
+        throws AttributeException, ConfigurationException
+    {
+        String sValue = oConfigurationManager.getParam(eConfig, sName);
+        if (sValue == null)
+        {
+            _logger.info("No optional '" + sName + "' item found in configuration, using default: " + lDefault);
+            return lDefault;
         }
-        catch (AttributeException e)
+        
+        try
         {
-            throw e;
+            long lValue = Long.parseLong(sValue);
+            if (lValue > 0)
+                return lValue;
         }
-        catch (Exception e)
+        catch (NumberFormatException e)
         {
-            _logger.error("Could not create a connection", e);
-            throw new AttributeException(SystemErrors.ERROR_INTERNAL);
+            //handled below
         }
-        return htEnvironment;
+        _logger.error("Invalid '" + sName + "' item found in configuration: " + sValue);
+        throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
     }
     
     private String resolveSearchQuery(String user)
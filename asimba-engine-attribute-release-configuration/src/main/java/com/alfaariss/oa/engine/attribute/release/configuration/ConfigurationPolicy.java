@@ -23,10 +23,13 @@
 package com.alfaariss.oa.engine.attribute.release.configuration;
 
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Vector;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.attributes.AttributeNameMatcher;
 import org.w3c.dom.Element;
 
 import com.alfaariss.oa.SystemErrors;
@@ -40,7 +43,8 @@ import com.alfaariss.oa.engine.core.attribute.release.IAttributeReleasePolicy;
  * Release policy class.
  *
  * Reads configuration from the configuration document and matches the 
- * attribute names with or without wildcard (*).
+ * attribute names with or without wildcard (*), see 
+ * {@link AttributeNameMatcher}.
  * @author MHO
  * @author Alfa & Ariss
  *
@@ -51,7 +55,7 @@ public class ConfigurationPolicy implements IAttributeReleasePolicy
     private String _sID;
     private String _sFriendlyName;
     private boolean _bEnabled;
-    private Vector<String> _vAttributeNames;
+    private AttributeNameMatcher _oMatcher;
     
     /**
      * Initializes the policy.
@@ -91,7 +95,7 @@ public class ConfigurationPolicy implements IAttributeReleasePolicy
                     throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
                 }
             }
-            _vAttributeNames = new Vector<String>();
+            Vector<String> vAttributeNames = new Vector<String>();
             Element eAttribute = oConfigurationManager.getSection(eConfig, "attribute");
             while (eAttribute != null)
             {
@@ -101,10 +105,11 @@ public class ConfigurationPolicy implements IAttributeReleasePolicy
                     _logger.error("No 'name' item in 'attribute' section configured");
                     throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
                 }
-                _vAttributeNames.add(sName);
+                vAttributeNames.add(sName);
                 
                 eAttribute = oConfigurationManager.getNextSection(eAttribute);
             }
+            _oMatcher = new AttributeNameMatcher(vAttributeNames);
         }
         catch (AttributeException e)
         {
@@ -129,14 +134,14 @@ public class ConfigurationPolicy implements IAttributeReleasePolicy
         {
             if (_bEnabled)
             {
+                Set<String> setNames = new HashSet<String>();
                 Enumeration enumNames = oAttributes.getNames();
                 while (enumNames.hasMoreElements())
-                {
-                    String sName = (String)enumNames.nextElement();
-                    if (matches(sName))
-                        oReturnAttributes.put(sName, 
-                            oAttributes.getFormat(sName), oAttributes.get(sName));
-                }
+                    setNames.add((String)enumNames.nextElement());
+                
+                for (String sName : _oMatcher.getReleased(setNames))
+                    oReturnAttributes.put(sName, 
+                        oAttributes.getFormat(sName), oAttributes.get(sName));
             }
         }
         catch(Exception e)
@@ -176,51 +181,5 @@ public class ConfigurationPolicy implements IAttributeReleasePolicy
     {
         return _bEnabled;
     }
-    
-    /**
-     * Matches the supplied attribute name with the policy.
-     *
-     * Matches agains the configured attribute names or wildcard combination:
-     * <ul>
-     * <li>*</li>
-     * <li>*[matching chars]</li>
-     * <li>*[matching chars]*</li>
-     * <li>[matching chars]*</li> 
-     * <li>exact match</li>
-     * </ul>
-     * @param sName the name to match the policy
-     * @return TRUE if the attribute matches the policy
-     */
-    private boolean matches(String sName)
-    {
-        if (_vAttributeNames.contains(sName))
-            return true;
-            
-        for (String sReleaseName: _vAttributeNames)
-        {
-            int iWildcard = sReleaseName.indexOf("*");
-            if (iWildcard == 0)
-            {
-                String sEnd = sReleaseName.substring(1, sReleaseName.length());
-                if (sEnd.length() == 0)//support: *
-                    return true;
-                else if (sName.endsWith(sEnd))//support: *[name]
-                    return true;
-                else if (sEnd.endsWith("*"))
-                {
-                    String sIntermediate = sEnd.substring(0, sEnd.length() - 1);
-                    if (sName.contains(sIntermediate))//support: *[name]*
-                        return true;
-                }
-            }  
-            else if (iWildcard == sReleaseName.length()-1)
-            {
-                String sStart = sReleaseName.substring(0, iWildcard);
-                if (sName.startsWith(sStart))//support: [name]*
-                    return true;
-            }
-        }
-        return false;
-    }
 
 }
@@ -33,6 +33,7 @@ import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.cache.VersionedCache;
 import org.w3c.dom.Element;
 
 import com.alfaariss.oa.OAException;
@@ -51,7 +52,8 @@ import com.alfaariss.oa.util.database.jdbc.DataSourceFactory;
 /**
  * Release policy factory.
  *
- * Reads the policy information from jdbc.
+ * Reads the policy information from jdbc. Policies can be cached, see
+ * {@link VersionedCache} for the optional <code>cache</code> section.
  * @author MHO
  * @author Alfa & Ariss
  */
@@ -66,6 +68,7 @@ public class JDBCFactory implements IAttributeReleasePolicyFactory, IComponent
     private String _sPolicyTable;
     private String _sAttributeTable;
     private boolean _bEnabled;
+    private final VersionedCache<String, IAttributeReleasePolicy> _cache;
     
     /**
      * Creates the object. 
@@ -76,6 +79,8 @@ public class JDBCFactory implements IAttributeReleasePolicyFactory, IComponent
         _sPolicyTable = null;
         _sAttributeTable = null;
         _bEnabled = false;
+        _cache = new VersionedCache<String, IAttributeReleasePolicy>(
+            "JDBC attribute release policies");
     }
     
     /**
@@ -86,12 +91,16 @@ public class JDBCFactory implements IAttributeReleasePolicyFactory, IComponent
     public IAttributeReleasePolicy getPolicy(String policy) 
         throws AttributeException
     {
-        IAttributeReleasePolicy oPolicy = null;
+        IAttributeReleasePolicy oPolicy = _cache.get(policy);
+        if (oPolicy != null)
+            return oPolicy;
+        
         Connection oConnection = null;
         PreparedStatement oPreparedStatement = null;
         ResultSet oResultSet = null;
         try
         {
+            long lGeneration = _cache.getGeneration();
             oConnection = _oDataSource.getConnection();
             StringBuffer sbSelect = new StringBuffer("SELECT * FROM ");
             sbSelect.append(_sPolicyTable);
@@ -106,6 +115,7 @@ public class JDBCFactory implements IAttributeReleasePolicyFactory, IComponent
                 oPolicy = new JDBCPolicy(_oDataSource, oResultSet, _sAttributeTable);
             
             _logger.debug("Retrieved profile: " + oPolicy);
+            _cache.put(policy, oPolicy, lGeneration);
         }
         catch(Exception e)
         {
@@ -301,6 +311,9 @@ public class JDBCFactory implements IAttributeReleasePolicyFactory, IComponent
             sbAttributeVerify.append(_sAttributeTable);
             sbAttributeVerify.append(" LIMIT 1"); 
             validateTable(oConnection, eValidation, "attribute", sbAttributeVerify.toString());
+            
+            _cache.start(_configurationManager, 
+                _configurationManager.getSection(config, "cache"), _oDataSource);
             _bEnabled = true;
         }
         catch (OAException e)
@@ -332,7 +345,7 @@ public class JDBCFactory implements IAttributeReleasePolicyFactory, IComponent
      */
     public void stop()
     {
-        //nothing to do
+        _cache.stop();
     }
 
     //TODO move to utility class
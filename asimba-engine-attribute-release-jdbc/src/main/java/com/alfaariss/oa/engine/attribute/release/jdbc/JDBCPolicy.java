@@ -28,12 +28,15 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Vector;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.attributes.AttributeNameMatcher;
 
 import com.alfaariss.oa.SystemErrors;
 import com.alfaariss.oa.api.attribute.IAttributes;
@@ -45,7 +48,8 @@ import com.alfaariss.oa.engine.core.attribute.release.IAttributeReleasePolicy;
  * Release policy class.
  *
  * Reads configuration from the configuration document and matches the 
- * attribute names with or without wildcard (*).
+ * attribute names with or without wildcard (*), see 
+ * {@link AttributeNameMatcher}.
  * @author MHO
  * @author Alfa & Ariss
  */
@@ -66,7 +70,7 @@ public class JDBCPolicy implements IAttributeReleasePolicy
     private String _sID;
     private String _sFriendlyName;
     private boolean _bEnabled;
-    private Vector<String> _vAttributeNames;
+    private AttributeNameMatcher _oMatcher;
     
     /**
      * Initializes the policy.
@@ -87,7 +91,8 @@ public class JDBCPolicy implements IAttributeReleasePolicy
             _sFriendlyName = resultSet.getString(COLUMN_POLICY_FRIENDLYNAME);
             _bEnabled = resultSet.getBoolean(COLUMN_POLICY_ENABLED);
             
-            _vAttributeNames = readAttributes(dataSource, attributeTable);
+            _oMatcher = new AttributeNameMatcher(
+                readAttributes(dataSource, attributeTable));
         }
         catch(Exception e)
         {
@@ -107,14 +112,14 @@ public class JDBCPolicy implements IAttributeReleasePolicy
         {
             if (_bEnabled)
             {
+                Set<String> setNames = new HashSet<String>();
                 Enumeration enumNames = attributes.getNames();
                 while (enumNames.hasMoreElements())
-                {
-                    String sName = (String)enumNames.nextElement();
-                    if (matches(sName))
-                        oReturnAttributes.put(sName, 
-                            attributes.getFormat(sName), attributes.get(sName));
-                }
+                    setNames.add((String)enumNames.nextElement());
+                
+                for (String sName : _oMatcher.getReleased(setNames))
+                    oReturnAttributes.put(sName, 
+                        attributes.getFormat(sName), attributes.get(sName));
             }
         }
         catch(Exception e)
@@ -226,50 +231,4 @@ public class JDBCPolicy implements IAttributeReleasePolicy
         }
         return vAttributeNames;
     }
-
-    /**
-     * Matches the supplied attribute name with the policy.
-     *
-     * Matches agains the configured attribute names or wildcard combination:
-     * <ul>
-     * <li>*</li>
-     * <li>*[matching chars]</li>
-     * <li>*[matching chars]*</li>
-     * <li>[matching chars]*</li> 
-     * <li>exact match</li>
-     * </ul>
-     * @param sName the name to match the policy
-     * @return TRUE if the attribute matches the policy
-     */
-    private boolean matches(String sName)
-    {
-        if (_vAttributeNames.contains(sName))
-            return true;
-            
-        for (String sReleaseName: _vAttributeNames)
-        {
-            int iWildcard = sReleaseName.indexOf("*");
-            if (iWildcard == 0)
-            {
-                String sEnd = sReleaseName.substring(1, sReleaseName.length());
-                if (sEnd.length() == 0)//support: *
-                    return true;
-                else if (sName.endsWith(sEnd))//support: *[name]
-                    return true;
-                else if (sEnd.endsWith("*"))
-                {
-                    String sIntermediate = sEnd.substring(0, sEnd.length() - 1);
-                    if (sName.contains(sIntermediate))//support: *[name]*
-                        return true;
-                }
-            }  
-            else if (iWildcard == sReleaseName.length()-1)
-            {
-                String sStart = sReleaseName.substring(0, iWildcard);
-                if (sName.startsWith(sStart))//support: [name]*
-                    return true;
-            }
-        }
-        return false;
-    }
 }
@@ -30,6 +30,7 @@ import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.cache.VersionedCache;
 import org.w3c.dom.Element;
 
 import com.alfaariss.oa.OAException;
@@ -48,7 +49,9 @@ import com.alfaariss.oa.util.database.jdbc.DataSourceFactory;
 /**
  * The JDBC authentication profile factory implementation.
  *
- * Reads factory information from database resource.
+ * Reads factory information from database resource. Profiles can be cached,
+ * see {@link VersionedCache} for the optional <code>cache</code> section.
+ * Callers always receive a copy, so a cached profile can not be changed.
  * @author MHO
  * @author Alfa & Ariss
  *
@@ -65,6 +68,7 @@ public class JDBCFactory implements IAuthenticationProfileFactory, IComponent
     private String _sProfilesTable;
     private String _sMethodsTable;
     private String _sProfilesPropertiesTable;
+    private final VersionedCache<String, AuthenticationProfile> _cache;
     
     /**
      * Creates the object. 
@@ -75,21 +79,27 @@ public class JDBCFactory implements IAuthenticationProfileFactory, IComponent
         _sProfilesTable = null;
         _sMethodsTable = null;
         _sProfilesPropertiesTable = null;
+        _cache = new VersionedCache<String, AuthenticationProfile>(
+            "JDBC authentication profiles");
 	}
 
     /**
-     * Returns the authentication profile identified by the supplied id.
+     * Returns a copy of the authentication profile identified by the supplied id.
      * @see com.alfaariss.oa.engine.core.authentication.factory.IAuthenticationProfileFactory#getProfile(java.lang.String)
      */
     public AuthenticationProfile getProfile(String sProfile) 
         throws AuthenticationException
     {
-        AuthenticationProfile oProfile = null;
+        AuthenticationProfile oProfile = _cache.get(sProfile);
+        if (oProfile != null)
+            return copy(oProfile);
+        
         Connection oConnection = null;
         PreparedStatement oPreparedStatement = null;
         ResultSet oResultSet = null;
         try
         {
+            long lGeneration = _cache.getGeneration();
             oConnection = _oDataSource.getConnection();
             StringBuffer sbSelect = new StringBuffer("SELECT * FROM ");
             sbSelect.append(_sProfilesTable);
@@ -105,6 +115,7 @@ public class JDBCFactory implements IAuthenticationProfileFactory, IComponent
                     _sMethodsTable, _sProfilesPropertiesTable);
             
             _logger.debug("Retrieved profile: " + oProfile);
+            _cache.put(sProfile, oProfile, lGeneration);
         }
         catch(Exception e)
         {
@@ -144,7 +155,7 @@ public class JDBCFactory implements IAuthenticationProfileFactory, IComponent
                 _logger.error("Could not close connection", e);
             }
         }
-        return oProfile;
+        return copy(oProfile);
     }
 
     /**
@@ -307,6 +318,9 @@ public class JDBCFactory implements IAuthenticationProfileFactory, IComponent
             sbVerify.append(_sProfilesPropertiesTable);
             sbVerify.append(" LIMIT 1");  
             validateTable(oConnection, eValidation, "profile_properties", sbVerify.toString());
+            
+            _cache.start(_configurationManager, 
+                _configurationManager.getSection(eConfig, "cache"), _oDataSource);
         }
         catch (OAException e)
         {
@@ -350,7 +364,18 @@ public class JDBCFactory implements IAuthenticationProfileFactory, IComponent
      */
     public void stop()
     {
-        //nothing to do
+        _cache.stop();
+    }
+    
+    //Returns a copy of the supplied profile; the methods are immutable
+    private static AuthenticationProfile copy(AuthenticationProfile oProfile)
+    {
+        if (oProfile == null)
+            return null;
+        
+        return new AuthenticationProfile(oProfile.getID(), 
+            oProfile.getFriendlyName(), oProfile.isEnabled(), 
+            oProfile.getAuthenticationMethods(), oProfile.getProperties());
     }
     
     //TODO move to utility class
@@ -31,6 +31,7 @@ import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.cache.VersionedCache;
 import org.w3c.dom.Element;
 
 import com.alfaariss.oa.OAException;
@@ -49,7 +50,8 @@ import com.alfaariss.oa.util.database.jdbc.DataSourceFactory;
 /**
  * The JDBC authorization profile factory implementation.
  * 
- * Reads factory information from database resource.
+ * Reads factory information from database resource. Profiles can be cached,
+ * see {@link VersionedCache} for the optional <code>cache</code> section.
  * @author MHO
  * @author Alfa & Ariss
  *
@@ -65,6 +67,7 @@ public class JDBCFactory implements IAuthorizationFactory, IComponent
     private DataSource _oDataSource;
     private String _sProfilesTable;
     private String _sMethodsTable;
+    private final VersionedCache<String, AuthorizationProfile> _cache;
     
 	/**
 	 * Creates the object. 
@@ -75,6 +78,8 @@ public class JDBCFactory implements IAuthorizationFactory, IComponent
         _bEnabled = true;
         _sProfilesTable = null;
         _sMethodsTable = null;
+        _cache = new VersionedCache<String, AuthorizationProfile>(
+            "JDBC authorization profiles");
 	}
 
 	/**
@@ -85,12 +90,17 @@ public class JDBCFactory implements IAuthorizationFactory, IComponent
 	public AuthorizationProfile getProfile(String id) 
         throws AuthorizationException
     {
+        AuthorizationProfile oCachedProfile = _cache.get(id);
+        if (oCachedProfile != null)
+            return oCachedProfile;
+        
         JDBCProfile oProfile = null;
         Connection oConnection = null;
         PreparedStatement oPreparedStatement = null;
         ResultSet oResultSet = null;
         try
         {
+            long lGeneration = _cache.getGeneration();
             oConnection = _oDataSource.getConnection();
             
             StringBuffer sbSelect = new StringBuffer("SELECT * FROM ");
@@ -106,6 +116,7 @@ public class JDBCFactory implements IAuthorizationFactory, IComponent
                 oProfile = new JDBCProfile(_oDataSource, oResultSet, _sMethodsTable);
             
             _logger.debug("Retrieved profile: " + oProfile);
+            _cache.put(id, oProfile, lGeneration);
         }
         catch(Exception e)
         {
@@ -294,9 +305,12 @@ public class JDBCFactory implements IAuthorizationFactory, IComponent
                 sbVerify.append(_sMethodsTable);
                 sbVerify.append(" LIMIT 1");   
                 validateTable(oConnection, eValidation, "methods", sbVerify.toString());
+                
+                _cache.start(_configurationManager, 
+                    _configurationManager.getSection(eConfig, "cache"), _oDataSource);
             }
         }
-        catch (AuthorizationException e)
+        catch (OAException e)
         {
             throw e;
         }
@@ -338,7 +352,7 @@ public class JDBCFactory implements IAuthorizationFactory, IComponent
      */
     public void stop()
     {
-        //do nothing
+        _cache.stop();
     }
 
     /**
@@ -42,6 +42,7 @@ import com.alfaariss.oa.engine.core.authentication.factory.IAuthenticationProfil
 import com.alfaariss.oa.engine.core.authorization.AuthorizationProfile;
 import com.alfaariss.oa.engine.core.authorization.factory.IAuthorizationFactory;
 import com.alfaariss.oa.engine.core.crypto.CryptoManager;
+import com.alfaariss.oa.engine.core.http.HttpClientManager;
 import com.alfaariss.oa.engine.core.idp.IDPStorageManager;
 import com.alfaariss.oa.engine.core.requestor.factory.IRequestorPoolFactory;
 import com.alfaariss.oa.engine.core.server.Server;
@@ -78,6 +79,7 @@ public class Engine implements IComponent
     //The managers
     private IConfigurationManager _configurationManager;
     private CryptoManager _cryptoManager;
+    private HttpClientManager _httpClientManager;
     //Attribute gatherer
     private AttributeGatherer _attributeGatherer;
     private ITGTFactory _tgtFactory;
@@ -159,6 +161,17 @@ public class Engine implements IComponent
     {
         return _cryptoManager;
     }
+    
+    /**
+     * Retrieve the HTTP client manager for outbound HTTP calls.
+     *
+     * @return The HTTP client manager.
+     * @since 4.0
+     */
+    public HttpClientManager getHttpClientManager()
+    {
+        return _httpClientManager;
+    }
 
     /**
      * Retrieve the RequestorPoolFactory.
@@ -428,6 +441,10 @@ public class Engine implements IComponent
             }            
             _cryptoManager.start(_configurationManager, eCrypto);
             
+            //Start HTTP client manager
+            Element eHTTP = _configurationManager.getSection(eConfig, "http");
+            _httpClientManager.start(_configurationManager, eHTTP);
+            
             //Start TGT manager 
             Element eTGTConfig = _configurationManager.getSection(
                 eConfig, "tgtfactory");
@@ -753,6 +770,10 @@ public class Engine implements IComponent
             }
             _cryptoManager.restart(eCrypto);                        
             
+            //Restart HTTP client manager
+            _httpClientManager.restart(
+                _configurationManager.getSection(eConfig, "http"));
+            
             //Restart TGT Factory
             IStorageFactory factory = restartFactory(
                 eConfig, "tgtfactory", _tgtFactory);
@@ -1102,6 +1123,9 @@ public class Engine implements IComponent
         {
             listnerComponent.stop();                
         }
+        //Outbound HTTP, after all components that use it
+        if (_httpClientManager != null)
+            _httpClientManager.stop();
     }
     
     //Create Engine, _logger and _configurationManager.
@@ -1112,6 +1136,7 @@ public class Engine implements IComponent
         _lComponents = new Vector<IComponent>();
         //Create standard managers
         _cryptoManager = new CryptoManager(); 
+        _httpClientManager = new HttpClientManager();
         _attributeGatherer = new AttributeGatherer();
     }
     
@@ -194,6 +194,26 @@ public class SessionAttributes implements ISessionAttributes {
         return _htAttributes.size();
     }
 
+    /**
+     * Retrieve an attribute by its full name, as returned by {@link #getNames()}.
+     *
+     * @param sName The full attribute name.
+     * @return The attribute value, or <code>null</code> if not available.
+     */
+    public Object getByName(String sName) {
+        return _htAttributes.get(sName);
+    }
+
+    /**
+     * Add or overwrite an attribute by its full name.
+     *
+     * @param sName The full attribute name, as returned by {@link #getNames()}.
+     * @param oValue The attribute value.
+     */
+    public void putByName(String sName, Object oValue) {
+        _htAttributes.put(sName, oValue);
+    }
+
     private static String generateAttributeName(Class<?> oClass, String sID, String sName) {
         StringBuilder sbName = new StringBuilder(oClass.getName());
         sbName.append(".");
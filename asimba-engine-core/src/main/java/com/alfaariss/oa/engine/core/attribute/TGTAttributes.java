@@ -199,4 +199,24 @@ public class TGTAttributes implements ITGTAttributes
     {
         return _htAttributes.size();
     }
+
+    /**
+     * Retrieve an attribute by its full name, as returned by {@link #getNames()}.
+     * @param sName The full attribute name.
+     * @return The attribute value, or <code>null</code> if not available.
+     */
+    public Object getByName(String sName)
+    {
+        return _htAttributes.get(sName);
+    }
+
+    /**
+     * Add or overwrite an attribute by its full name.
+     * @param sName The full attribute name, as returned by {@link #getNames()}.
+     * @param oValue The attribute value.
+     */
+    public void putByName(String sName, Object oValue)
+    {
+        _htAttributes.put(sName, oValue);
+    }
 }
\ No newline at end of file
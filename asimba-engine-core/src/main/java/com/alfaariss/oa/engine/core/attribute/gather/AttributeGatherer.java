@@ -21,11 +21,26 @@
  * 
  */
 package com.alfaariss.oa.engine.core.attribute.gather;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.metrics.LatencyHistogram;
 import org.w3c.dom.Element;
 
 import com.alfaariss.oa.OAException;
@@ -34,41 +49,127 @@ import com.alfaariss.oa.api.IComponent;
 import com.alfaariss.oa.api.attribute.IAttributes;
 import com.alfaariss.oa.api.configuration.IConfigurationManager;
 import com.alfaariss.oa.engine.core.attribute.AttributeException;
+import com.alfaariss.oa.engine.core.attribute.UserAttributes;
 import com.alfaariss.oa.engine.core.attribute.gather.processor.IProcessor;
 
 
 /**
  * The Attribute gather.
  *
- * Calls all <code>IProcessor</code> components.
+ * Calls all <code>IProcessor</code> components. By default the processors
+ * are called one after the other. With the optional <code>parallel</code>
+ * section processors can be called concurrently:
+ * <br>
+ * <code>&lt;parallel enabled="true" threads="16" queue="64" timeout="5000"/&gt;</code>
+ * <br>
+ * Only processors that have the item <code>parallel="true"</code> run 
+ * concurrently, all other processors are still called one after the other.
+ * Consecutive parallel processors are started together, every one of them 
+ * gathers into an attributes object of its own; the results are merged in 
+ * the configured order before the next processor is called, so the last 
+ * processor is still leading. A parallel processor can not see the 
+ * attributes of the processors before it, so processors that read or 
+ * remove gathered attributes must not be marked parallel.
+ * 
+ * When all threads are busy the processors wait in a queue of at most 
+ * <code>queue</code> entries; a processor that does not fit in the queue 
+ * is rejected. The timeout of a processor includes the time it waits in the
+ * queue. After a timeout the processor is interrupted, but this does not 
+ * stop blocking network I/O such as JNDI or JDBC calls, which keeps the 
+ * thread busy until the I/O ends. Such processors should configure their 
+ * own connect and read timeouts.
+ * 
+ * Every <code>processor</code> section can have the optional items
+ * <code>timeout</code>, the time in milliseconds a parallel processor may 
+ * take (default: the <code>parallel</code> timeout), and 
+ * <code>on_failure</code>, which is <code>fail</code> (default) to fail 
+ * gathering or <code>ignore</code> to continue without the attributes of the
+ * processor when it fails, times out or is rejected. The duration of every 
+ * processor is kept in a {@link LatencyHistogram} that is logged at stop.
  * @author MHO
  * @author Alfa & Ariss
  *
  */
 public class AttributeGatherer implements IComponent, IProcessor
 {
+    /** The default number of threads in parallel mode. */
+    public static final int DEFAULT_THREADS = 16;
+    /** The default processor timeout in milliseconds in parallel mode. */
+    public static final long DEFAULT_TIMEOUT = 5000;
+    /** The default maximum number of waiting processors in parallel mode. */
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+    
     private static Log _logger = LogFactory.getLog(AttributeGatherer.class);  
     
-    private final List<IProcessor> _listProcessors;
+    private final List<ProcessorEntry> _listProcessors;
     private boolean _bEnabled;
     private IConfigurationManager _configurationManager;
     private String _sID;
     private String _sFriendlyName;
+    private ThreadPoolExecutor _executor;
+    
+    /**
+     * A configured processor with its settings and metrics.
+     */
+    private static class ProcessorEntry
+    {
+        final IProcessor _oProcessor;
+        final String _sName;
+        final long _lTimeout;
+        final boolean _bIgnoreFailure;
+        final boolean _bParallel;
+        final LatencyHistogram _histogram;
+        final AtomicLong _lFailures;
+        final AtomicLong _lTimeouts;
+        final AtomicLong _lRejected;
+        
+        ProcessorEntry(IProcessor oProcessor, String sName, long lTimeout, 
+            boolean bIgnoreFailure, boolean bParallel)
+        {
+            _oProcessor = oProcessor;
+            _sName = sName;
+            _lTimeout = lTimeout;
+            _bIgnoreFailure = bIgnoreFailure;
+            _bParallel = bParallel;
+            _histogram = new LatencyHistogram("Attribute processor '" + sName + "'");
+            _lFailures = new AtomicLong();
+            _lTimeouts = new AtomicLong();
+            _lRejected = new AtomicLong();
+        }
+        
+        //Run the processor and record its duration
+        void process(String sUserId, IAttributes oAttributes) 
+            throws AttributeException
+        {
+            long lStart = System.currentTimeMillis();
+            try
+            {
+                _oProcessor.process(sUserId, oAttributes);
+            }
+            finally
+            {
+                _histogram.record(System.currentTimeMillis() - lStart);
+            }
+        }
+    }
     
 	/**
 	 * Create new <code>AttributeGatherer</code>.
 	 */
 	public AttributeGatherer()
     {
-        _listProcessors = new Vector<IProcessor>();
+        _listProcessors = new Vector<ProcessorEntry>();
         _bEnabled = false;
+        _executor = null;
 	}
 
 	/**
      * Gather attributes with input from the processors components.
      * 
      * The processor components will update the attributes object sequentially, 
-     * so the last processor component is leading.
+     * so the last processor component is leading. In parallel mode 
+     * consecutive parallel processors run concurrently and their results are
+     * applied in the same order.
      * @param sUserId the user id for who the attributes must be gathered
      * @param oAttributes the attributes object that will be updated
      * @throws AttributeException if gathering fails
@@ -77,9 +178,31 @@ public class AttributeGatherer implements IComponent, IProcessor
     {
         if (_bEnabled)
         {
-            for(IProcessor processor : _listProcessors)
+            int iSize = _listProcessors.size();
+            int i = 0;
+            while (i < iSize)
             {
-               processor.process(sUserId, oAttributes); 
+                ProcessorEntry processor = _listProcessors.get(i);
+                if (processor._bParallel && _executor != null)
+                {
+                    int iEnd = i + 1;
+                    while (iEnd < iSize && _listProcessors.get(iEnd)._bParallel)
+                        iEnd++;
+                    processParallel(_listProcessors.subList(i, iEnd), 
+                        sUserId, oAttributes);
+                    i = iEnd;
+                    continue;
+                }
+                
+                try
+                {
+                    processor.process(sUserId, oAttributes);
+                }
+                catch (AttributeException e)
+                {
+                    handleFailure(processor, sUserId, e);
+                }
+                i++;
             }
         }
     }
@@ -121,13 +244,21 @@ public class AttributeGatherer implements IComponent, IProcessor
                 throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
             }
             
+            long lDefaultTimeout = DEFAULT_TIMEOUT;
+            Element eParallel = _configurationManager.getSection(eConfig, "parallel");
+            if (eParallel == null)
+                _logger.info("No optional 'parallel' section found in configuration, processors are called sequentially");
+            else
+                lDefaultTimeout = startParallel(eParallel);
+            
             Element eProcessor = _configurationManager.getSection(eConfig, "processor");
             //DD there can be zero or more processors configured
             while (eProcessor != null)
             {
                 IProcessor oProcessor = getProcessor(eProcessor);
                 oProcessor.start(_configurationManager, eProcessor);
-                _listProcessors.add(oProcessor);
+                _listProcessors.add(createEntry(oProcessor, eProcessor, 
+                    lDefaultTimeout));
                 eProcessor = _configurationManager.getNextSection(eProcessor);
             }
         }
@@ -165,9 +296,23 @@ public class AttributeGatherer implements IComponent, IProcessor
         {
             _bEnabled = false;
             
-    	    for(IProcessor processor : _listProcessors)
+            if (_executor != null)
             {
-                processor.stop(); 
+                _executor.shutdownNow();
+                _executor = null;
+            }
+            
+    	    for(ProcessorEntry processor : _listProcessors)
+            {
+                StringBuffer sbReport = new StringBuffer("Attribute processor '");
+                sbReport.append(processor._sName);
+                sbReport.append("': failures=").append(processor._lFailures.get());
+                sbReport.append(", timeouts=").append(processor._lTimeouts.get());
+                sbReport.append(", rejected=").append(processor._lRejected.get());
+                _logger.info(sbReport.toString());
+                processor._histogram.logReport(_logger);
+                
+                processor._oProcessor.stop(); 
             }
             
             _listProcessors.clear();
@@ -198,7 +343,292 @@ public class AttributeGatherer implements IComponent, IProcessor
     {
     	return _bEnabled;
     }
+    
+    /**
+     * @param sProcessorID The processor ID.
+     * @return The number of failures of the processor, including timeouts 
+     *  and rejections.
+     */
+    public long getFailureCount(String sProcessorID)
+    {
+        ProcessorEntry processor = getEntry(sProcessorID);
+        return processor == null ? 0 : processor._lFailures.get();
+    }
+    
+    /**
+     * @param sProcessorID The processor ID.
+     * @return The number of times the parallel processor did not finish in 
+     *  time.
+     */
+    public long getTimeoutCount(String sProcessorID)
+    {
+        ProcessorEntry processor = getEntry(sProcessorID);
+        return processor == null ? 0 : processor._lTimeouts.get();
+    }
+    
+    /**
+     * @param sProcessorID The processor ID.
+     * @return The number of times the parallel processor was rejected 
+     *  because all threads were busy and the queue was full.
+     */
+    public long getRejectedCount(String sProcessorID)
+    {
+        ProcessorEntry processor = getEntry(sProcessorID);
+        return processor == null ? 0 : processor._lRejected.get();
+    }
+    
+    /**
+     * @param sProcessorID The processor ID.
+     * @return The durations of the processor or <code>null</code> if the 
+     *  processor is unknown.
+     */
+    public LatencyHistogram getHistogram(String sProcessorID)
+    {
+        ProcessorEntry processor = getEntry(sProcessorID);
+        return processor == null ? null : processor._histogram;
+    }
+    
+    private ProcessorEntry getEntry(String sProcessorID)
+    {
+        synchronized (_listProcessors)
+        {
+            for (ProcessorEntry processor : _listProcessors)
+            {
+                if (processor._sName.equals(sProcessorID))
+                    return processor;
+            }
+        }
+        return null;
+    }
 
+    //Run the processors concurrently and merge their results in order
+    private void processParallel(List<ProcessorEntry> listProcessors, 
+        String sUserId, IAttributes oAttributes) throws AttributeException
+    {
+        long lStart = System.currentTimeMillis();
+        List<Future<IAttributes>> listFutures = 
+            new ArrayList<Future<IAttributes>>(listProcessors.size());
+        try
+        {
+            for (ProcessorEntry processor : listProcessors)
+            {
+                Future<IAttributes> future = null;
+                try
+                {
+                    future = _executor.submit(new GatherTask(processor, sUserId));
+                }
+                catch (RejectedExecutionException e)
+                {
+                    //handled in order below
+                }
+                listFutures.add(future);
+            }
+            
+            for (int i = 0; i < listFutures.size(); i++)
+            {
+                ProcessorEntry processor = listProcessors.get(i);
+                Future<IAttributes> future = listFutures.get(i);
+                IAttributes oGathered = null;
+                if (future == null)
+                {
+                    processor._lRejected.incrementAndGet();
+                    _logger.warn("Attribute processor '" + processor._sName 
+                        + "' rejected, all threads are busy, for user: " + sUserId);
+                    handleFailure(processor, sUserId, 
+                        new AttributeException(SystemErrors.ERROR_RESOURCE_RETRIEVE));
+                    continue;
+                }
+                try
+                {
+                    long lWait = lStart + processor._lTimeout 
+                        - System.currentTimeMillis();
+                    oGathered = future.get(Math.max(lWait, 0), TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException e)
+                {
+                    future.cancel(true);
+                    processor._lTimeouts.incrementAndGet();
+                    _logger.warn("Attribute processor '" + processor._sName 
+                        + "' did not finish within " + processor._lTimeout 
+                        + " ms for user: " + sUserId);
+                    handleFailure(processor, sUserId, 
+                        new AttributeException(SystemErrors.ERROR_RESOURCE_RETRIEVE));
+                }
+                catch (CancellationException e)
+                {
+                    handleFailure(processor, sUserId, 
+                        new AttributeException(SystemErrors.ERROR_INTERNAL));
+                }
+                catch (ExecutionException e)
+                {
+                    Throwable tCause = e.getCause();
+                    if (tCause instanceof AttributeException)
+                        handleFailure(processor, sUserId, (AttributeException)tCause);
+                    else
+                    {
+                        _logger.error("Attribute processor '" + processor._sName 
+                            + "' failed for user: " + sUserId, tCause);
+                        handleFailure(processor, sUserId, 
+                            new AttributeException(SystemErrors.ERROR_INTERNAL, tCause));
+                    }
+                }
+                
+                if (oGathered != null)
+                    merge(oGathered, oAttributes);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            _logger.warn("Interrupted while gathering attributes for user: " + sUserId);
+            throw new AttributeException(SystemErrors.ERROR_INTERNAL, e);
+        }
+        finally
+        {
+            //Stop processors that are not needed anymore
+            for (Future<IAttributes> future : listFutures)
+            {
+                if (future != null)
+                    future.cancel(true);
+            }
+        }
+    }
+    
+    //Apply the failure policy of a processor
+    private void handleFailure(ProcessorEntry processor, String sUserId, 
+        AttributeException e) throws AttributeException
+    {
+        processor._lFailures.incrementAndGet();
+        if (!processor._bIgnoreFailure)
+            throw e;
+        
+        _logger.warn("Ignoring failure of attribute processor '" + processor._sName 
+            + "' for user: " + sUserId, e);
+    }
+    
+    //Copy gathered attributes, keeping the format if one was set
+    private void merge(IAttributes oGathered, IAttributes oAttributes)
+    {
+        Enumeration<?> enumNames = oGathered.getNames();
+        while (enumNames.hasMoreElements())
+        {
+            String sName = (String)enumNames.nextElement();
+            String sFormat = oGathered.getFormat(sName);
+            if (sFormat != null)
+                oAttributes.put(sName, sFormat, oGathered.get(sName));
+            else
+                oAttributes.put(sName, oGathered.get(sName));
+        }
+    }
+    
+    //Read the 'parallel' section and create the executor; returns the timeout
+    private long startParallel(Element eParallel) throws AttributeException, OAException
+    {
+        String sEnabled = _configurationManager.getParam(eParallel, "enabled");
+        if (sEnabled != null)
+        {
+            if (sEnabled.equalsIgnoreCase("FALSE"))
+            {
+                _logger.info("Parallel attribute gathering is disabled");
+                return DEFAULT_TIMEOUT;
+            }
+            else if (!sEnabled.equalsIgnoreCase("TRUE"))
+            {
+                _logger.error("Unknown value in 'enabled' item in 'parallel' section: " + sEnabled);
+                throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
+            }
+        }
+        
+        int iThreads = (int)readNumber(eParallel, "threads", DEFAULT_THREADS);
+        int iQueue = (int)readNumber(eParallel, "queue", DEFAULT_QUEUE_SIZE);
+        long lTimeout = readNumber(eParallel, "timeout", DEFAULT_TIMEOUT);
+        
+        //Never run a processor on the requesting thread, it has no timeout there
+        _executor = new ThreadPoolExecutor(iThreads, iThreads, 60, 
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(iQueue), 
+            new GatherThreadFactory(_sID), new ThreadPoolExecutor.AbortPolicy());
+        _executor.allowCoreThreadTimeOut(true);
+        
+        StringBuffer sbInfo = new StringBuffer("Calling parallel processors with max ");
+        sbInfo.append(iThreads);
+        sbInfo.append(" threads, max ");
+        sbInfo.append(iQueue);
+        sbInfo.append(" waiting and default timeout (ms): ");
+        sbInfo.append(lTimeout);
+        _logger.info(sbInfo.toString());
+        return lTimeout;
+    }
+    
+    //Read the failure policy and timeout of a processor
+    private ProcessorEntry createEntry(IProcessor oProcessor, Element eProcessor,
+        long lDefaultTimeout) throws AttributeException, OAException
+    {
+        String sName = oProcessor.getID();
+        if (sName == null)
+            sName = oProcessor.getClass().getName();
+        
+        boolean bIgnoreFailure = false;
+        String sOnFailure = _configurationManager.getParam(eProcessor, "on_failure");
+        if (sOnFailure != null)
+        {
+            if (sOnFailure.equalsIgnoreCase("IGNORE"))
+                bIgnoreFailure = true;
+            else if (!sOnFailure.equalsIgnoreCase("FAIL"))
+            {
+                _logger.error("Unknown value in 'on_failure' item in 'processor' section: " + sOnFailure);
+                throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
+            }
+        }
+        
+        boolean bParallel = false;
+        long lTimeout = lDefaultTimeout;
+        if (_executor != null)
+        {
+            String sParallel = _configurationManager.getParam(eProcessor, "parallel");
+            if (sParallel != null)
+            {
+                if (sParallel.equalsIgnoreCase("TRUE"))
+                    bParallel = true;
+                else if (!sParallel.equalsIgnoreCase("FALSE"))
+                {
+                    _logger.error("Unknown value in 'parallel' item in 'processor' section: " + sParallel);
+                    throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
+                }
+            }
+            
+            if (bParallel)
+                lTimeout = readNumber(eProcessor, "timeout", lDefaultTimeout);
+        }
+        
+        return new ProcessorEntry(oProcessor, sName, lTimeout, bIgnoreFailure, 
+            bParallel);
+    }
+    
+    //Read an optional positive number
+    private long readNumber(Element eConfig, String sName, long lDefault) 
+        throws AttributeException, OAException
+    {
+        String sValue = _configurationManager.getParam(eConfig, sName);
+        if (sValue == null)
+        {
+            _logger.info("No optional '" + sName + "' item found in configuration, using default: " + lDefault);
+            return lDefault;
+        }
+        
+        try
+        {
+            long lValue = Long.parseLong(sValue);
+            if (lValue > 0)
+                return lValue;
+        }
+        catch (NumberFormatException e)
+        {
+            //handled below
+        }
+        _logger.error("Invalid '" + sName + "' item found in configuration: " + sValue);
+        throw new AttributeException(SystemErrors.ERROR_CONFIG_READ);
+    }
+    
     private IProcessor getProcessor(Element eConfig) throws AttributeException
     {
         IProcessor oProcessor = null;
@@ -247,5 +677,48 @@ public class AttributeGatherer implements IComponent, IProcessor
         }
         return oProcessor;
     }
-
+    
+    /**
+     * Runs one processor on a private attributes object.
+     */
+    private static class GatherTask implements Callable<IAttributes>
+    {
+        private final ProcessorEntry _processor;
+        private final String _sUserId;
+        
+        GatherTask(ProcessorEntry processor, String sUserId)
+        {
+            _processor = processor;
+            _sUserId = sUserId;
+        }
+        
+        public IAttributes call() throws AttributeException
+        {
+            IAttributes oAttributes = new UserAttributes();
+            _processor.process(_sUserId, oAttributes);
+            return oAttributes;
+        }
+    }
+    
+    /**
+     * Creates named daemon threads.
+     */
+    private static class GatherThreadFactory implements ThreadFactory
+    {
+        private final String _sName;
+        private final AtomicInteger _iCount;
+        
+        GatherThreadFactory(String sID)
+        {
+            _sName = "AttributeGatherer '" + sID + "' worker-";
+            _iCount = new AtomicInteger();
+        }
+        
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, _sName + _iCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
 }
\ No newline at end of file
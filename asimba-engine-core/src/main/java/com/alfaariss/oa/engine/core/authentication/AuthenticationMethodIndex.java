@@ -0,0 +1,118 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.core.authentication;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.alfaariss.oa.api.authentication.IAuthenticationMethod;
+
+/**
+ * Interns authentication method IDs to small integers.
+ *
+ * Every method ID gets a bit number the first time it is seen; numbers are
+ * never reused, so a mask stays valid for the lifetime of the JVM. A set of
+ * methods is represented as a mask of <code>long</code> words, which makes
+ * the sufficiency check of a profile a few AND operations.
+ *
+ * Numbers are local to the JVM, so masks must not be persisted.
+ *
+ * @since 4.0
+ */
+public final class AuthenticationMethodIndex
+{
+    private static final ConcurrentMap<String, Integer> _mapIndex =
+        new ConcurrentHashMap<String, Integer>();
+    private static final AtomicInteger _iNext = new AtomicInteger();
+
+    private AuthenticationMethodIndex()
+    {
+    }
+
+    /**
+     * Returns the bit number of a method ID, which is assigned if the ID is
+     * new.
+     *
+     * @param sMethodID The authentication method ID.
+     * @return The bit number.
+     */
+    public static int getIndex(String sMethodID)
+    {
+        Integer iIndex = _mapIndex.get(sMethodID);
+        if (iIndex == null)
+        {
+            Integer iNew = Integer.valueOf(_iNext.getAndIncrement());
+            iIndex = _mapIndex.putIfAbsent(sMethodID, iNew);
+            if (iIndex == null)
+                iIndex = iNew;
+        }
+        return iIndex.intValue();
+    }
+
+    /**
+     * Create the mask of a list of methods.
+     *
+     * @param listMethods The authentication methods.
+     * @return The mask or <code>null</code> if a method has no ID.
+     */
+    public static long[] createMask(List<IAuthenticationMethod> listMethods)
+    {
+        int[] iaIndexes = new int[listMethods.size()];
+        int iMax = -1;
+        int i = 0;
+        for (IAuthenticationMethod oMethod : listMethods)
+        {
+            String sID = oMethod.getID();
+            if (sID == null)
+                return null;
+            iaIndexes[i] = getIndex(sID);
+            iMax = Math.max(iMax, iaIndexes[i]);
+            i++;
+        }
+
+        long[] laMask = new long[(iMax >> 6) + 1];
+        for (int iIndex : iaIndexes)
+            laMask[iIndex >> 6] |= 1L << (iIndex & 63);
+        return laMask;
+    }
+
+    /**
+     * Verifies whether a mask contains all bits of another mask.
+     *
+     * @param laMask The mask.
+     * @param laSubset The mask that must be contained.
+     * @return <code>true</code> if every bit of <code>laSubset</code> is set
+     *  in <code>laMask</code>.
+     */
+    public static boolean containsAll(long[] laMask, long[] laSubset)
+    {
+        for (int i = 0; i < laSubset.length; i++)
+        {
+            long lWord = i < laMask.length ? laMask[i] : 0L;
+            if ((laSubset[i] & ~lWord) != 0L)
+                return false;
+        }
+        return true;
+    }
+}
@@ -52,6 +52,30 @@ public class AuthenticationProfile implements IAuthenticationProfile, Serializab
     protected Properties _properties;
     /** serialVersionUID */
     private static final long serialVersionUID = 7667587169082046403L;
+    /** method mask, reset by every mutator and recalculated when needed */
+    private transient volatile MethodMask _oMethodMask;
+
+    /**
+     * Mask of the authentication methods and the list it was created from.
+     */
+    private static class MethodMask
+    {
+        private final List<IAuthenticationMethod> _list;
+        private final int _iSize;
+        private final long[] _laMask;
+
+        MethodMask(List<IAuthenticationMethod> list)
+        {
+            _list = list;
+            _iSize = list.size();
+            _laMask = AuthenticationMethodIndex.createMask(list);
+        }
+
+        boolean isValid(List<IAuthenticationMethod> list)
+        {
+            return _list == list && _iSize == list.size();
+        }
+    }
     
     /**
      * Creates the profile object with empty items.
@@ -88,6 +112,27 @@ public class AuthenticationProfile implements IAuthenticationProfile, Serializab
         _properties = new Properties();
 	}
 
+    /**
+     * Creates the profile object with the supplied methods and properties.
+     * 
+     * Used to restore a profile from storage.
+     * 
+     * @param sID the ID of the authentication method
+     * @param sFriendlyName the friendly name of the authentication method
+     * @param bEnabled TRUE if the authentication method is enabled
+     * @param listMethods the authentication methods
+     * @param mapProperties the extended properties
+     * @since 4.0
+     */
+    public AuthenticationProfile(String sID, String sFriendlyName
+        , boolean bEnabled, List<IAuthenticationMethod> listMethods
+        , Map<?, ?> mapProperties)
+    {
+        this(sID, sFriendlyName, bEnabled);
+        _listAuthenticationMethods.addAll(listMethods);
+        _properties.putAll(mapProperties);
+    }
+
     /**
      * The unique ID of this profile.
      * @see com.alfaariss.oa.api.IManagebleItem#getID()
@@ -122,15 +167,19 @@ public class AuthenticationProfile implements IAuthenticationProfile, Serializab
     public void addAuthenticationMethod(IAuthenticationMethod oAuthenticationMethod)
     {
         _listAuthenticationMethods.add(oAuthenticationMethod);
+        _oMethodMask = null;
     }
     
 	/**
      * Returns the list of authentication methods.
-	 * @return the list with authentication methods
+     * 
+     * The list can not be modified, use 
+     * {@link #addAuthenticationMethod(IAuthenticationMethod)} instead.
+	 * @return the unmodifiable list with authentication methods
 	 */
 	public List<IAuthenticationMethod> getAuthenticationMethods()
     {
-		return _listAuthenticationMethods;
+		return Collections.unmodifiableList(_listAuthenticationMethods);
 	}
 	
 	/**
@@ -153,12 +202,24 @@ public class AuthenticationProfile implements IAuthenticationProfile, Serializab
      * <li>Returns 1 if the supplied profile contains a subset of methods that 
      * profile contains (sufficient).</li>
      * </ul>
+     * 
+     * If both profiles are an <code>AuthenticationProfile</code> the methods 
+     * are compared by their interned IDs, see 
+     * {@link AuthenticationMethodIndex}.
      * 
 	 * @param profile An AuthenticationProfile object
 	 * @return -1, 0 or 1
 	 */
 	public int compareTo(IAuthenticationProfile profile)
     {
+        if (profile instanceof AuthenticationProfile)
+        {
+            long[] laOther = ((AuthenticationProfile)profile).getMethodMask();
+            long[] laThis = getMethodMask();
+            if (laOther != null && laThis != null)
+                return AuthenticationMethodIndex.containsAll(laThis, laOther) ? 0 : -1;
+        }
+        
          List<IAuthenticationMethod> setAuthenticationMethods =
              profile.getAuthenticationMethods();
         if (_listAuthenticationMethods.containsAll(setAuthenticationMethods))
@@ -173,6 +234,29 @@ public class AuthenticationProfile implements IAuthenticationProfile, Serializab
         return 1;
 	}
 	
+    /**
+     * Returns the mask of the authentication methods of this profile.
+     * 
+     * The mask is created once and created again after a method is added. 
+     * Subclasses that change the method list directly are detected when 
+     * the list is replaced or its size changed.
+     * 
+     * @return The mask or <code>null</code> if a method has no ID.
+     * @see AuthenticationMethodIndex
+     * @since 4.0
+     */
+    public long[] getMethodMask()
+    {
+        List<IAuthenticationMethod> list = _listAuthenticationMethods;
+        MethodMask oMask = _oMethodMask;
+        if (oMask == null || !oMask.isValid(list))
+        {
+            oMask = new MethodMask(list);
+            _oMethodMask = oMask;
+        }
+        return oMask._laMask;
+    }
+	
     /**
      * Retrieve the extended properties of this authentication profile.
      * This collection should be properted by means of 
@@ -21,6 +21,7 @@
  * 
  */
 package com.alfaariss.oa.engine.core.crypto;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -28,6 +29,9 @@ import java.security.PrivateKey;
 import java.security.SecureRandom;
 import java.security.Signature;
 import java.security.cert.Certificate;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
@@ -61,6 +65,8 @@ public class CryptoManager implements IComponent
     private static final String DEFAULT_RANDOM_ALGORITHM = "SHA1PRNG";
     private static final String DEFAULT_ENCRYPTION_ALGORITHM = "DESede";
     private static final String DEFAULT_DIGEST_ALGORITHM = "SHA1";
+    /** Maximum number of idle Signature and MessageDigest instances */
+    private static final int MAX_IDLE_PRIMITIVES = 32;
     
     private static Log _logger;
     private IConfigurationManager _configManager;
@@ -77,6 +83,32 @@ public class CryptoManager implements IComponent
     private PrivateKey _privateKey;
     private Certificate _certificate;
     private AbstractSigningFactory _signingFactory;
+    private volatile PrimitivePool _pool;
+    
+    private final AtomicLong _lSignCount;
+    private final AtomicLong _lSignTime;
+    private final AtomicLong _lVerifyCount;
+    private final AtomicLong _lVerifyTime;
+    private final AtomicLong _lVerifyFailures;
+    private final AtomicLong _lDigestCount;
+    
+    /**
+     * Idle Signature and MessageDigest instances of the configured 
+     * algorithms, which are replaced by a new pool on restart.
+     */
+    private static class PrimitivePool
+    {
+        private final BlockingQueue<Signature> _queueSignatures;
+        private final BlockingQueue<MessageDigest> _queueDigests;
+        private final PrivateKey _privateKey;
+        
+        PrimitivePool(PrivateKey privateKey)
+        {
+            _queueSignatures = new ArrayBlockingQueue<Signature>(MAX_IDLE_PRIMITIVES);
+            _queueDigests = new ArrayBlockingQueue<MessageDigest>(MAX_IDLE_PRIMITIVES);
+            _privateKey = privateKey;
+        }
+    }
     
     /**
      * Create a new <code>CryptoManager</code>.
@@ -85,6 +117,12 @@ public class CryptoManager implements IComponent
     {
         //retrieve handle to configuration and logger
         _logger = LogFactory.getLog(CryptoManager.class); 
+        _lSignCount = new AtomicLong();
+        _lSignTime = new AtomicLong();
+        _lVerifyCount = new AtomicLong();
+        _lVerifyTime = new AtomicLong();
+        _lVerifyFailures = new AtomicLong();
+        _lDigestCount = new AtomicLong();
     }
 
     /**
@@ -110,6 +148,8 @@ public class CryptoManager implements IComponent
         readRandomConfig(eConfig);
         //read message digest configuration
         readMessageDigestConfig(eConfig);       
+        
+        _pool = new PrimitivePool(_privateKey);
     }
 
     /**
@@ -132,6 +172,9 @@ public class CryptoManager implements IComponent
                 readRandomConfig(eConfig); 
                 //read message digest configuration
                 readMessageDigestConfig(eConfig);
+                
+                //Instances of the previous configuration are discarded
+                _pool = new PrimitivePool(_privateKey);
             }
         }
         catch (CryptoException e)
@@ -158,6 +201,9 @@ public class CryptoManager implements IComponent
     
     /**
      * Retrieve an instance of the configured {@link MessageDigest}.    
+     * 
+     * A new instance is created for every call; use {@link #digest(byte[])} 
+     * to create a digest with a pooled instance.
      * @return The configured type of message digest.
      * @throws CryptoException  If creation fails. 
      * @see <a href="http://java.sun.com/j2se/1.5.0/docs/guide/security/CryptoSpec.html#MessageDigest">The MessageDigest Class</a>
@@ -245,6 +291,10 @@ public class CryptoManager implements IComponent
   
     /**
      * Retrieve an instance of the configured {@link Signature}.    
+     * 
+     * A new instance is created for every call; use {@link #sign(byte[])} 
+     * and {@link #verify(Certificate, byte[], byte[])} to sign or verify 
+     * with a pooled instance.
      * @return The configured type of Signature.
      * @throws CryptoException If creation fails. 
      * @see <a href="http://java.sun.com/j2se/1.5.0/docs/guide/security/CryptoSpec.html#Signature">
@@ -282,6 +332,154 @@ public class CryptoManager implements IComponent
         return signature;
     }
     
+    /**
+     * Sign data with the server private key.
+     * 
+     * @param baData The data to be signed.
+     * @return The signature.
+     * @throws CryptoException If signing is disabled or fails.
+     * @since 4.0
+     */
+    public byte[] sign(byte[] baData) throws CryptoException
+    {
+        PrimitivePool pool = _pool;
+        if (pool == null || pool._privateKey == null)
+        {
+            _logger.error("No private key available");
+            throw new CryptoException(SystemErrors.ERROR_INTERNAL);
+        }
+        
+        long lStart = System.nanoTime();
+        Signature signature = borrowSignature(pool);
+        try
+        {
+            signature.initSign(pool._privateKey);
+            signature.update(baData);
+            byte[] baSignature = signature.sign();
+            //Only reuse an instance that did not fail
+            pool._queueSignatures.offer(signature);
+            return baSignature;
+        }
+        catch (GeneralSecurityException e)
+        {
+            _logger.error("Could not create signature", e);
+            throw new CryptoException(SystemErrors.ERROR_CRYPTO_CREATE);
+        }
+        finally
+        {
+            _lSignCount.incrementAndGet();
+            _lSignTime.addAndGet(System.nanoTime() - lStart);
+        }
+    }
+    
+    /**
+     * Verify a signature with the public key of a certificate.
+     * 
+     * @param certificate The certificate of the signer.
+     * @param baData The signed data.
+     * @param baSignature The signature.
+     * @return <code>true</code> if the signature is valid.
+     * @throws CryptoException If verification could not be performed.
+     * @since 4.0
+     */
+    public boolean verify(Certificate certificate, byte[] baData, 
+        byte[] baSignature) throws CryptoException
+    {
+        PrimitivePool pool = _pool;
+        if (pool == null)
+        {
+            _logger.error("Crypto manager not started");
+            throw new CryptoException(SystemErrors.ERROR_INTERNAL);
+        }
+        
+        long lStart = System.nanoTime();
+        boolean bVerified = false;
+        Signature signature = borrowSignature(pool);
+        try
+        {
+            signature.initVerify(certificate);
+            signature.update(baData);
+            bVerified = signature.verify(baSignature);
+            pool._queueSignatures.offer(signature);
+            return bVerified;
+        }
+        catch (GeneralSecurityException e)
+        {
+            _logger.debug("Could not verify signature", e);
+            throw new CryptoException(SystemErrors.ERROR_CRYPTO_VERIFY);
+        }
+        finally
+        {
+            _lVerifyCount.incrementAndGet();
+            _lVerifyTime.addAndGet(System.nanoTime() - lStart);
+            if (!bVerified)
+                _lVerifyFailures.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Create a digest of data with the configured message digest.
+     * 
+     * @param baData The data.
+     * @return The digest.
+     * @throws CryptoException If the digest could not be created.
+     * @since 4.0
+     */
+    public byte[] digest(byte[] baData) throws CryptoException
+    {
+        PrimitivePool pool = _pool;
+        MessageDigest messageDigest = null;
+        if (pool != null)
+            messageDigest = pool._queueDigests.poll();
+        if (messageDigest == null)
+            messageDigest = getMessageDigest();
+        
+        //digest() resets the instance, so it can be reused
+        byte[] baDigest = messageDigest.digest(baData);
+        if (pool != null)
+            pool._queueDigests.offer(messageDigest);
+        _lDigestCount.incrementAndGet();
+        return baDigest;
+    }
+    
+    /**
+     * @return The number of signatures created with {@link #sign(byte[])}.
+     * @since 4.0
+     */
+    public long getSignCount()
+    {
+        return _lSignCount.get();
+    }
+    
+    /**
+     * @return The number of signatures checked with 
+     *  {@link #verify(Certificate, byte[], byte[])}.
+     * @since 4.0
+     */
+    public long getVerifyCount()
+    {
+        return _lVerifyCount.get();
+    }
+    
+    /**
+     * @return The number of signatures that were invalid or could not be 
+     *  checked.
+     * @since 4.0
+     */
+    public long getVerifyFailureCount()
+    {
+        return _lVerifyFailures.get();
+    }
+    
+    /**
+     * @return The number of digests created with {@link #digest(byte[])}.
+     * @since 4.0
+     */
+    public long getDigestCount()
+    {
+        return _lDigestCount.get();
+    }
+    
     /**
      * Retrieve the server PrivateKey for signing purposes.    
      * 
@@ -341,8 +539,52 @@ public class CryptoManager implements IComponent
     {
         if(_cipherFactory != null)
             _cipherFactory.stop();
+        
+        _pool = null;
+        logStatistics();
 	}
     
+    private Signature borrowSignature(PrimitivePool pool) 
+        throws CryptoException
+    {
+        Signature signature = pool._queueSignatures.poll();
+        if (signature == null)
+        {
+            signature = getSignature();
+            if (signature == null)
+            {
+                _logger.error("No signature algorithm available");
+                throw new CryptoException(SystemErrors.ERROR_INTERNAL);
+            }
+        }
+        return signature;
+    }
+    
+    private void logStatistics()
+    {
+        long lSignCount = _lSignCount.get();
+        long lVerifyCount = _lVerifyCount.get();
+        
+        StringBuffer sbInfo = new StringBuffer("Crypto statistics: signed=");
+        sbInfo.append(lSignCount);
+        if (lSignCount > 0)
+        {
+            sbInfo.append(" (avg ");
+            sbInfo.append(_lSignTime.get() / lSignCount / 1000);
+            sbInfo.append(" us)");
+        }
+        sbInfo.append(", verified=").append(lVerifyCount);
+        if (lVerifyCount > 0)
+        {
+            sbInfo.append(" (avg ");
+            sbInfo.append(_lVerifyTime.get() / lVerifyCount / 1000);
+            sbInfo.append(" us)");
+        }
+        sbInfo.append(", verify failures=").append(_lVerifyFailures.get());
+        sbInfo.append(", digests=").append(_lDigestCount.get());
+        _logger.info(sbInfo.toString());
+    }
+    
     //Read the crypto
     private void readEncryptionConfig(
         Element eCryptoSection) throws CryptoException 
@@ -407,7 +649,6 @@ public class CryptoManager implements IComponent
                 //Instantiate factory and retrieve key
                 _cipherFactory = AbstractCipherFactory.createInstance(
                     _configManager, eCipherFactorySection);                        
-                _cipherFactory.start();
                 _secretKey = _cipherFactory.getSecretKey(
                     _sCipherAlgorithm, _sCipherProvider);
                         
@@ -26,6 +26,8 @@ import javax.crypto.SecretKey;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.storage.clean.CleanerRegistration;
+import org.asimba.utility.storage.clean.CleanerService;
 import org.w3c.dom.Element;
 
 import com.alfaariss.oa.OAException;
@@ -34,11 +36,14 @@ import com.alfaariss.oa.api.configuration.ConfigurationException;
 import com.alfaariss.oa.api.configuration.IConfigurationManager;
 import com.alfaariss.oa.api.storage.clean.ICleanable;
 import com.alfaariss.oa.engine.core.crypto.CryptoException;
-import com.alfaariss.oa.util.storage.clean.Cleaner;
 
 /**
  * Abstract factory to be used for key providers.
  *
+ * Expired keys are removed by the shared {@link CleanerService}; 
+ * {@link #createInstance(IConfigurationManager, Element)} registers the 
+ * factory after starting it, unless cleaning is disabled.
+ *
  * @author JRE
  * @author Alfa & Ariss
  *
@@ -53,8 +58,6 @@ public abstract class AbstractCipherFactory implements ICleanable
      * the request for the key
      */
     protected static final String DEFAULT_KEY = "default_key";
-    /** cleaner thread */
-    protected Thread _tCleaner;
     /** configuration manager */
     protected IConfigurationManager _configurationManager;
     /** configuration section */
@@ -63,7 +66,7 @@ public abstract class AbstractCipherFactory implements ICleanable
     protected long _lExpiration;
     
     private long _lInterval;
-    private Cleaner _oCleaner;
+    private CleanerRegistration _oCleanerRegistration;
     
     /**
      * Create a new <code>AbstractCipherFactory</code>.
@@ -162,18 +165,6 @@ public abstract class AbstractCipherFactory implements ICleanable
                 else
                 {
                     cipherFactory._lInterval *= 1000;
-                    //Create cleaner
-                    cipherFactory._oCleaner = new Cleaner(cipherFactory._lInterval, 
-                        cipherFactory, _logger);
-                    
-                    cipherFactory._tCleaner = new Thread(cipherFactory._oCleaner);
-                    
-                    String sOrigName = cipherFactory._tCleaner.getName();
-                    StringBuffer sbName = new StringBuffer(cipherFactory.getClass().getName());
-                    sbName.append("(");
-                    sbName.append(sOrigName);
-                    sbName.append(")");
-                    cipherFactory._tCleaner.setName(sbName.toString());
                 }
             }  
             catch(NumberFormatException e)
@@ -182,9 +173,20 @@ public abstract class AbstractCipherFactory implements ICleanable
                 throw new CryptoException(SystemErrors.ERROR_CONFIG_READ);
             }
             
-            
+            cipherFactory.start();
+            cipherFactory.startCleaner();
             return cipherFactory;            
         }        
+        catch (CryptoException e)
+        {
+            throw e;
+        }
+        catch (OAException e)
+        {
+            _logger.error("Could not start cipher factory with name: " 
+                + sCipherFactory, e);
+            throw new CryptoException(SystemErrors.ERROR_INIT, e);
+        }
         catch (InstantiationException e)
         {
             _logger.error("Could not instantiate cipher factory with name: " 
@@ -249,11 +251,28 @@ public abstract class AbstractCipherFactory implements ICleanable
      */
     public void stop()
     {
-        if (_oCleaner != null)
-            _oCleaner.stop();
-        
-        if (_tCleaner != null)
-            _tCleaner.interrupt();
+        if (_oCleanerRegistration != null)
+        {
+            _oCleanerRegistration.cancel();
+            _oCleanerRegistration = null;
+        }
     } 
+    
+    /**
+     * Register this factory at the shared {@link CleanerService}, unless 
+     * cleaning is disabled or the factory is already registered.
+     * 
+     * Called after {@link #start()} by 
+     * {@link #createInstance(IConfigurationManager, Element)}.
+     * @since 4.0
+     */
+    protected void startCleaner()
+    {
+        if (_lInterval > 0 && _oCleanerRegistration == null)
+        {
+            _oCleanerRegistration = CleanerService.registerShared(
+                this, getClass().getName(), _lInterval, 0);
+        }
+    }
 
 }
@@ -0,0 +1,498 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.core.http;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.metrics.LatencyHistogram;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.OAException;
+import com.alfaariss.oa.SystemErrors;
+import com.alfaariss.oa.api.IComponent;
+import com.alfaariss.oa.api.configuration.IConfigurationManager;
+
+/**
+ * Shared HTTP client for outbound calls, e.g. metadata retrieval, SOAP 
+ * artifact resolution, SOAP logout and A-Select API calls.
+ *
+ * All clients share one pool of keep-alive connections. Connections are kept
+ * per destination (scheme, host and port), so TLS connections are reused 
+ * instead of negotiated again for every call; new connections use the 
+ * shared socket factory and therefore its TLS session cache. The number of 
+ * connections per destination is limited, a caller waits at most the 
+ * connection manager timeout for a free connection. Idle connections are 
+ * closed by a background thread.
+ * 
+ * The clients are shared by all users, so they don't keep any HTTP state:
+ * cookies are ignored and every call gets its own <code>HttpState</code>. 
+ * A restart updates the settings of the existing shared client, so callers
+ * may keep a reference to it.
+ * 
+ * The latency and the number of failures of all calls are counted per 
+ * destination and logged at stop.
+ *
+ * The manager can be used before it is started; it then uses the default 
+ * settings. Configuration (all items optional):
+ * <pre>
+ * &lt;http connection_timeout="5000" socket_timeout="30000" 
+ *  connection_manager_timeout="10000" idle_timeout="60000" 
+ *  max_connections="200" max_per_host="20"&gt;
+ *  &lt;destination scheme="https" host="idp.example.com" port="443" 
+ *   max_connections="5"/&gt;
+ * &lt;/http&gt;
+ * </pre>
+ *
+ * @since 4.0
+ */
+public class HttpClientManager implements IComponent
+{
+    /** Default time in ms to establish a connection */
+    public static final int DEFAULT_CONNECTION_TIMEOUT = 5000;
+    /** Default time in ms to wait for data */
+    public static final int DEFAULT_SOCKET_TIMEOUT = 30000;
+    /** Default time in ms to wait for a free connection */
+    public static final int DEFAULT_CONNECTION_MANAGER_TIMEOUT = 10000;
+    /** Default time in ms after which an idle connection is closed */
+    public static final int DEFAULT_IDLE_TIMEOUT = 60000;
+    /** Default maximum number of connections */
+    public static final int DEFAULT_MAX_CONNECTIONS = 200;
+    /** Default maximum number of connections per destination */
+    public static final int DEFAULT_MAX_PER_HOST = 20;
+    
+    private static Log _logger = LogFactory.getLog(HttpClientManager.class);
+    
+    private IConfigurationManager _configurationManager;
+    private MultiThreadedHttpConnectionManager _connectionManager;
+    private IdleConnectionTimeoutThread _idleThread;
+    private HttpClient _httpClient;
+    private volatile int _iSocketTimeout;
+    private volatile long _lConnectionManagerTimeout;
+    private final ConcurrentHashMap<String, Destination> _mapDestinations;
+    
+    /**
+     * Metrics of one destination.
+     */
+    private static class Destination
+    {
+        final LatencyHistogram _histogram;
+        final AtomicLong _lFailures;
+        
+        Destination(String sName)
+        {
+            _histogram = new LatencyHistogram("HTTP destination '" + sName + "'");
+            _lFailures = new AtomicLong();
+        }
+    }
+    
+    /**
+     * HTTP client that records the latency of every call and doesn't share
+     * HTTP state between calls.
+     */
+    private class MeteredHttpClient extends HttpClient
+    {
+        MeteredHttpClient(int iSocketTimeout)
+        {
+            super(_connectionManager);
+            getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
+            getParams().setSoTimeout(iSocketTimeout);
+            getParams().setConnectionManagerTimeout(_lConnectionManagerTimeout);
+        }
+        
+        /**
+         * All other <code>executeMethod</code> methods call this one; they 
+         * supply no state, so a new state is used for every call.
+         * @see HttpClient#executeMethod(HostConfiguration, HttpMethod, HttpState)
+         */
+        public int executeMethod(HostConfiguration hostconfig, 
+            HttpMethod method, HttpState state) throws IOException
+        {
+            if (state == null)
+                state = new HttpState();
+            
+            Destination destination = getDestination(hostconfig, method);
+            long lStart = System.currentTimeMillis();
+            try
+            {
+                return super.executeMethod(hostconfig, method, state);
+            }
+            catch (IOException e)
+            {
+                destination._lFailures.incrementAndGet();
+                throw e;
+            }
+            finally
+            {
+                destination._histogram.record(
+                    System.currentTimeMillis() - lStart);
+            }
+        }
+    }
+    
+    /**
+     * Create a new <code>HttpClientManager</code> with default settings.
+     */
+    public HttpClientManager()
+    {
+        _mapDestinations = new ConcurrentHashMap<String, Destination>();
+        init();
+    }
+    
+    /**
+     * Start the manager.
+     * @param oConfigurationManager The configuration manager.
+     * @param eConfig The <code>http</code> section, may be <code>null</code>.
+     * @see IComponent#start(IConfigurationManager, Element)
+     */
+    public void start(IConfigurationManager oConfigurationManager, 
+        Element eConfig) throws OAException
+    {
+        _configurationManager = oConfigurationManager;
+        synchronized (this)
+        {
+            if (_connectionManager == null)
+                init();
+            readConfig(eConfig);
+        }
+    }
+
+    /**
+     * Apply new settings; the pooled connections and the shared client are 
+     * kept.
+     * @see IComponent#restart(Element)
+     */
+    public void restart(Element eConfig) throws OAException
+    {
+        synchronized (this)
+        {
+            if (_connectionManager == null)
+                init();
+            readConfig(eConfig);
+        }
+    }
+
+    /**
+     * Close all connections and log the metrics.
+     * @see IComponent#stop()
+     */
+    public void stop()
+    {
+        synchronized (this)
+        {
+            if (_connectionManager == null)
+                return;
+            
+            _idleThread.shutdown();
+            _connectionManager.shutdown();
+            _idleThread = null;
+            _connectionManager = null;
+            _httpClient = null;
+        }
+        
+        for (Map.Entry<String, Destination> entry : _mapDestinations.entrySet())
+        {
+            _logger.info("HTTP destination '" + entry.getKey() + "': " 
+                + entry.getValue()._lFailures.get() + " failure(s)");
+            entry.getValue()._histogram.logReport(_logger);
+        }
+        _mapDestinations.clear();
+    }
+    
+    /**
+     * Returns the shared client that uses the configured socket timeout.
+     * @return The client.
+     */
+    public synchronized HttpClient getHttpClient()
+    {
+        if (_connectionManager == null)
+            init();
+        return _httpClient;
+    }
+    
+    /**
+     * Returns a client that shares the connection pool, but waits at most 
+     * the given time for data.
+     * @param iSocketTimeout The socket timeout in ms, 0 or less to use 
+     *  the configured timeout.
+     * @return The client.
+     */
+    public synchronized HttpClient createHttpClient(int iSocketTimeout)
+    {
+        if (_connectionManager == null)
+            init();
+        if (iSocketTimeout <= 0)
+            return _httpClient;
+        return new MeteredHttpClient(iSocketTimeout);
+    }
+    
+    /**
+     * Returns the latency of the calls to a destination.
+     * @param sDestination The destination, e.g. <code>https://host</code>.
+     * @return The latency or <code>null</code> if it was not called.
+     */
+    public LatencyHistogram getLatency(String sDestination)
+    {
+        Destination destination = _mapDestinations.get(sDestination);
+        if (destination == null)
+            return null;
+        return destination._histogram;
+    }
+    
+    /**
+     * Returns the number of failed calls to a destination.
+     * @param sDestination The destination, e.g. <code>https://host</code>.
+     * @return The number of calls that failed with an I/O error.
+     */
+    public long getFailureCount(String sDestination)
+    {
+        Destination destination = _mapDestinations.get(sDestination);
+        if (destination == null)
+            return 0;
+        return destination._lFailures.get();
+    }
+    
+    /**
+     * @return The number of open connections in the pool.
+     */
+    public synchronized int getConnectionsInPool()
+    {
+        if (_connectionManager == null)
+            return 0;
+        return _connectionManager.getConnectionsInPool();
+    }
+    
+    private void init()
+    {
+        _connectionManager = new MultiThreadedHttpConnectionManager();
+        _iSocketTimeout = DEFAULT_SOCKET_TIMEOUT;
+        _lConnectionManagerTimeout = DEFAULT_CONNECTION_MANAGER_TIMEOUT;
+        
+        HttpConnectionManagerParams params = _connectionManager.getParams();
+        params.setConnectionTimeout(DEFAULT_CONNECTION_TIMEOUT);
+        params.setSoTimeout(DEFAULT_SOCKET_TIMEOUT);
+        params.setMaxTotalConnections(DEFAULT_MAX_CONNECTIONS);
+        params.setDefaultMaxConnectionsPerHost(DEFAULT_MAX_PER_HOST);
+        params.setStaleCheckingEnabled(true);
+        
+        _httpClient = new MeteredHttpClient(_iSocketTimeout);
+        
+        _idleThread = new IdleConnectionTimeoutThread();
+        _idleThread.setName("HttpClientManager idle connection closer");
+        _idleThread.addConnectionManager(_connectionManager);
+        _idleThread.setConnectionTimeout(DEFAULT_IDLE_TIMEOUT);
+        _idleThread.setTimeoutInterval(getIdleInterval(DEFAULT_IDLE_TIMEOUT));
+        _idleThread.start();
+    }
+    
+    private void readConfig(Element eConfig) throws OAException
+    {
+        HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+        params.setStaleCheckingEnabled(true);
+        
+        int iConnectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+        int iSocketTimeout = DEFAULT_SOCKET_TIMEOUT;
+        int iConnectionManagerTimeout = DEFAULT_CONNECTION_MANAGER_TIMEOUT;
+        int iIdleTimeout = DEFAULT_IDLE_TIMEOUT;
+        int iMaxConnections = DEFAULT_MAX_CONNECTIONS;
+        int iMaxPerHost = DEFAULT_MAX_PER_HOST;
+        if (eConfig == null)
+        {
+            _logger.info("No optional 'http' section configured, using default http connection settings");
+        }
+        else
+        {
+            iConnectionTimeout = readNumber(eConfig, "connection_timeout", 
+                iConnectionTimeout, true);
+            iSocketTimeout = readNumber(eConfig, "socket_timeout", 
+                iSocketTimeout, true);
+            iConnectionManagerTimeout = readNumber(eConfig, 
+                "connection_manager_timeout", iConnectionManagerTimeout, true);
+            iIdleTimeout = readNumber(eConfig, "idle_timeout", 
+                iIdleTimeout, false);
+            iMaxConnections = readNumber(eConfig, "max_connections", 
+                iMaxConnections, false);
+            iMaxPerHost = readNumber(eConfig, "max_per_host", 
+                iMaxPerHost, false);
+            
+            Element eDestination = _configurationManager.getSection(
+                eConfig, "destination");
+            while (eDestination != null)
+            {
+                readDestination(eDestination, params);
+                eDestination = _configurationManager.getNextSection(eDestination);
+            }
+        }
+        
+        params.setConnectionTimeout(iConnectionTimeout);
+        params.setSoTimeout(iSocketTimeout);
+        params.setMaxTotalConnections(iMaxConnections);
+        params.setDefaultMaxConnectionsPerHost(iMaxPerHost);
+        _connectionManager.setParams(params);
+        
+        _iSocketTimeout = iSocketTimeout;
+        _lConnectionManagerTimeout = iConnectionManagerTimeout;
+        //update the shared client, callers may keep a reference to it
+        _httpClient.getParams().setSoTimeout(iSocketTimeout);
+        _httpClient.getParams().setConnectionManagerTimeout(
+            iConnectionManagerTimeout);
+        
+        _idleThread.setConnectionTimeout(iIdleTimeout);
+        _idleThread.setTimeoutInterval(getIdleInterval(iIdleTimeout));
+        
+        StringBuffer sbInfo = new StringBuffer("HTTP client: max ");
+        sbInfo.append(iMaxConnections).append(" connection(s), ");
+        sbInfo.append(iMaxPerHost).append(" per destination, connection timeout ");
+        sbInfo.append(iConnectionTimeout).append(" ms, socket timeout ");
+        sbInfo.append(iSocketTimeout).append(" ms");
+        _logger.info(sbInfo.toString());
+    }
+    
+    private static long getIdleInterval(int iIdleTimeout)
+    {
+        //an interval of 0 would make the idle thread wait forever
+        return Math.max(1, iIdleTimeout / 2);
+    }
+    
+    private void readDestination(Element eDestination, 
+        HttpConnectionManagerParams params) throws OAException
+    {
+        String sHost = _configurationManager.getParam(eDestination, "host");
+        if (sHost == null)
+        {
+            _logger.error("No 'host' item found in 'destination' section");
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        
+        String sScheme = _configurationManager.getParam(eDestination, "scheme");
+        if (sScheme == null)
+            sScheme = "https";
+        
+        int iPort = -1;
+        String sPort = _configurationManager.getParam(eDestination, "port");
+        if (sPort != null)
+            iPort = readNumber(eDestination, "port", -1, false);
+        
+        int iMax = readNumber(eDestination, "max_connections", -1, false);
+        if (iMax == -1)
+        {
+            _logger.error("No 'max_connections' item found in 'destination' section for host: " + sHost);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        
+        HostConfiguration hostConfiguration = new HostConfiguration();
+        try
+        {
+            hostConfiguration.setHost(sHost, iPort, sScheme);
+        }
+        catch (IllegalStateException e)
+        {
+            _logger.error("Unsupported 'scheme' in 'destination' section: " + sScheme, e);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        params.setMaxConnectionsPerHost(hostConfiguration, iMax);
+        _logger.info("HTTP client: max " + iMax + " connection(s) to " 
+            + hostConfiguration.getHostURL());
+    }
+    
+    private int readNumber(Element eConfig, String sName, int iDefault, 
+        boolean bAllowZero) throws OAException
+    {
+        String sValue = _configurationManager.getParam(eConfig, sName);
+        if (sValue == null)
+        {
+            if (iDefault >= 0)
+                _logger.info("No optional '" + sName + "' item found in configuration, using default: " + iDefault);
+            return iDefault;
+        }
+        
+        int iValue = -1;
+        try
+        {
+            iValue = Integer.parseInt(sValue);
+        }
+        catch (NumberFormatException e)
+        {
+            //invalid value, handled below
+        }
+        if (iValue < 0 || (iValue == 0 && !bAllowZero))
+        {
+            _logger.error("Invalid '" + sName + "' item found in configuration: " + sValue);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        return iValue;
+    }
+    
+    private Destination getDestination(HostConfiguration hostconfig, 
+        HttpMethod method)
+    {
+        String sDestination = null;
+        try
+        {
+            URI uri = method.getURI();
+            if (uri.isAbsoluteURI())
+            {
+                StringBuffer sbDestination = new StringBuffer(uri.getScheme());
+                sbDestination.append("://").append(uri.getHost());
+                if (uri.getPort() != -1)
+                    sbDestination.append(":").append(uri.getPort());
+                sDestination = sbDestination.toString();
+            }
+        }
+        catch (URIException e)
+        {
+            //use host configuration
+        }
+        if (sDestination == null)
+        {
+            if (hostconfig != null && hostconfig.getHost() != null)
+                sDestination = hostconfig.getHostURL();
+            else
+                sDestination = "unknown";
+        }
+        
+        Destination destination = _mapDestinations.get(sDestination);
+        if (destination == null)
+        {
+            destination = new Destination(sDestination);
+            Destination existing = _mapDestinations.putIfAbsent(
+                sDestination, destination);
+            if (existing != null)
+                destination = existing;
+        }
+        return destination;
+    }
+}
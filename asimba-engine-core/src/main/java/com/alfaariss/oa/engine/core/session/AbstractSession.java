@@ -22,12 +22,19 @@
  */
 package com.alfaariss.oa.engine.core.session;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Vector;
 
+import org.asimba.engine.core.storage.codec.StorageCodecFactory;
+import org.asimba.utility.storage.codec.IStorageCodec;
+
 import com.alfaariss.oa.api.attribute.ISessionAttributes;
 import com.alfaariss.oa.api.authentication.IAuthenticationProfile;
 import com.alfaariss.oa.api.session.ISession;
@@ -38,6 +45,10 @@ import com.alfaariss.oa.engine.core.attribute.SessionAttributes;
 
 /**
  * A simple session implementation which can be stored in memory.
+ * 
+ * When serialized (e.g. for replication), the owner, locale, profiles and 
+ * attributes are written with the storage codec of the session factory, or 
+ * with the default codec if the factory didn't set one.
  * @author EVB
  * @author Alfa & Ariss
  */
@@ -49,18 +60,19 @@ public abstract class AbstractSession implements ISession, Serializable
     /** expire time */
     protected long _lExpireTime;
     /** session attributes */
-    protected ISessionAttributes _attributes;
+    protected transient ISessionAttributes _attributes;
     private final String _requestorId;
-    private List<IAuthenticationProfile> _listAuthNProfiles;
+    private transient List<IAuthenticationProfile> _listAuthNProfiles;
     private int _iSelectedAuthNProfile;
-    private IUser _uOwner;
+    private transient IUser _uOwner;
     private String _tgtId;
     private SessionState _state;
     private String _sProfileURL;
     private boolean _forcedAuthentication;
     private String _sForcedUserID;
-    private Locale _locale;
+    private transient Locale _locale;
     private boolean _isPassive;
+    private transient IStorageCodec _oCodec;
     
     /**
      * Create a new <code>AbstractSession</code>.
@@ -372,4 +384,70 @@ public abstract class AbstractSession implements ISession, Serializable
         return new Date(_lExpireTime);
     }
 
+    /**
+     * Set the codec that is used to write the transient state when this 
+     * session is serialized.
+     * 
+     * The codec isn't serialized; a session factory must set it again after 
+     * deserialization.
+     * @param oCodec The storage codec, or <code>null</code> for the default
+     *  codec.
+     * @since 4.0
+     */
+    protected void setStorageCodec(IStorageCodec oCodec)
+    {
+        _oCodec = oCodec;
+    }
+    
+    /**
+     * Serialize the session; the transient state is written with the storage 
+     * codec.
+     * @param out The object output stream.
+     * @throws IOException If writing fails.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        
+        List<Object> listState = new ArrayList<Object>(4);
+        listState.add(_uOwner);
+        listState.add(_locale);
+        listState.add(_listAuthNProfiles);
+        listState.add(_attributes);
+        
+        IStorageCodec oCodec = _oCodec;
+        if (oCodec == null)
+            oCodec = StorageCodecFactory.getDefault();
+        
+        byte[] baState = oCodec.encode(listState);
+        out.writeInt(baState.length);
+        out.write(baState);
+    }
+    
+    /**
+     * Deserialize the session.
+     * 
+     * The default codec reads both the binary format and Java serialization, 
+     * so the state is readable whatever <code>write_legacy</code> setting the 
+     * writing node used.
+     * @param in The object input stream.
+     * @throws IOException If reading fails.
+     * @throws ClassNotFoundException If a class could not be found.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) 
+        throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        
+        byte[] baState = new byte[in.readInt()];
+        in.readFully(baState);
+        List<Object> listState = 
+            (List<Object>)StorageCodecFactory.getDefault().decode(baState);
+        
+        _uOwner = (IUser)listState.get(0);
+        _locale = (Locale)listState.get(1);
+        _listAuthNProfiles = (List<IAuthenticationProfile>)listState.get(2);
+        _attributes = (ISessionAttributes)listState.get(3);
+    }
 }
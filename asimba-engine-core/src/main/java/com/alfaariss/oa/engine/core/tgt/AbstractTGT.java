@@ -21,12 +21,19 @@
  * 
  */
 package com.alfaariss.oa.engine.core.tgt;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Vector;
 
+import org.asimba.engine.core.storage.codec.StorageCodecFactory;
+import org.asimba.utility.storage.codec.IStorageCodec;
+
 import com.alfaariss.oa.api.attribute.ITGTAttributes;
 import com.alfaariss.oa.api.authentication.IAuthenticationProfile;
 import com.alfaariss.oa.api.tgt.ITGT;
@@ -36,6 +43,10 @@ import com.alfaariss.oa.engine.core.authentication.AuthenticationProfile;
 
 /**
  * A base TGT (ticket-granting ticket) implementation.
+ * 
+ * When serialized (e.g. for replication), the owner, profiles, requestor list 
+ * and attributes are written with the storage codec of the TGT factory, or 
+ * with the default codec if the factory didn't set one.
  * @author EVB
  * @author Alfa & Ariss
  *
@@ -48,14 +59,15 @@ public abstract class AbstractTGT implements ITGT, Serializable
     /** expire time */
     protected long _lExpireTime;
     /** requestor list */
-    protected List<String> _listRequestorIDs;
+    protected transient List<String> _listRequestorIDs;
     /** modifiable authn profile list */ 
-    protected List<String> _authNProfileIDs;
+    protected transient List<String> _authNProfileIDs;
     /** TGT attributes */
-    protected ITGTAttributes _attributes;
+    protected transient ITGTAttributes _attributes;
     
-    private IUser _uOwner;
-    private IAuthenticationProfile _authNProfile;
+    private transient IUser _uOwner;
+    private transient IAuthenticationProfile _authNProfile;
+    private transient IStorageCodec _oCodec;
     
 	/**
 	 * Create a new <code>AbstractTGT</code>.
@@ -229,4 +241,72 @@ public abstract class AbstractTGT implements ITGT, Serializable
     {
         return _attributes;
     }
-}
\ No newline at end of file
+    
+    /**
+     * Set the codec that is used to write the transient state when this TGT 
+     * is serialized.
+     * 
+     * The codec isn't serialized; a TGT factory must set it again after 
+     * deserialization.
+     * @param oCodec The storage codec, or <code>null</code> for the default
+     *  codec.
+     * @since 4.0
+     */
+    protected void setStorageCodec(IStorageCodec oCodec)
+    {
+        _oCodec = oCodec;
+    }
+    
+    /**
+     * Serialize the TGT; the transient state is written with the storage codec.
+     * @param out The object output stream.
+     * @throws IOException If writing fails.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        
+        List<Object> listState = new ArrayList<Object>(5);
+        listState.add(_uOwner);
+        listState.add(_authNProfile);
+        listState.add(_authNProfileIDs);
+        listState.add(_listRequestorIDs);
+        listState.add(_attributes);
+        
+        IStorageCodec oCodec = _oCodec;
+        if (oCodec == null)
+            oCodec = StorageCodecFactory.getDefault();
+        
+        byte[] baState = oCodec.encode(listState);
+        out.writeInt(baState.length);
+        out.write(baState);
+    }
+    
+    /**
+     * Deserialize the TGT.
+     * 
+     * The default codec reads both the binary format and Java serialization, 
+     * so the state is readable whatever <code>write_legacy</code> setting the 
+     * writing node used.
+     * @param in The object input stream.
+     * @throws IOException If reading fails.
+     * @throws ClassNotFoundException If a class could not be found.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) 
+        throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        
+        byte[] baState = new byte[in.readInt()];
+        in.readFully(baState);
+        List<Object> listState = 
+            (List<Object>)StorageCodecFactory.getDefault().decode(baState);
+        
+        _uOwner = (IUser)listState.get(0);
+        _authNProfile = (IAuthenticationProfile)listState.get(1);
+        _authNProfileIDs = (List<String>)listState.get(2);
+        _listRequestorIDs = (List<String>)listState.get(3);
+        _attributes = (ITGTAttributes)listState.get(4);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.engine.core.storage.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.asimba.utility.storage.codec.BinaryStorageCodec;
+import org.asimba.utility.storage.codec.ICodecTypeHandler;
+
+import com.alfaariss.oa.api.authentication.IAuthenticationMethod;
+import com.alfaariss.oa.engine.core.authentication.AuthenticationProfile;
+
+/**
+ * Codec handler for {@link AuthenticationProfile} and its subclasses.
+ *
+ * A plain <code>AuthenticationProfile</code> is written field by field, 
+ * and so is a subclass that adds no serializable fields of its own, e.g. the
+ * profiles of the configuration and JDBC factories; these are restored as 
+ * plain <code>AuthenticationProfile</code> objects. Other subclasses are 
+ * written with Java serialization, so their type and state are restored.
+ *
+ * Schema version 1 only contained the fields; such values are restored as
+ * plain <code>AuthenticationProfile</code> objects.
+ *
+ * @since 4.0
+ */
+public class AuthenticationProfileHandler 
+    implements ICodecTypeHandler<AuthenticationProfile>
+{
+    /** Schema id */
+    public final static int SCHEMA_ID = 2;
+    
+    private final static byte FORMAT_FIELDS = 0;
+    private final static byte FORMAT_SERIALIZED = 1;
+    
+    /** Per profile class: <code>true</code> if its fields can be written */
+    private final Map<Class<?>, Boolean> _mapFieldsOnly = 
+        new ConcurrentHashMap<Class<?>, Boolean>();
+
+    /**
+     * @see org.asimba.utility.storage.codec.ICodecTypeHandler#getSchemaID()
+     */
+    @Override
+    public int getSchemaID()
+    {
+        return SCHEMA_ID;
+    }
+
+    /**
+     * @see org.asimba.utility.storage.codec.ICodecTypeHandler#getSchemaVersion()
+     */
+    @Override
+    public int getSchemaVersion()
+    {
+        return 2;
+    }
+
+    /**
+     * @see org.asimba.utility.storage.codec.ICodecTypeHandler#getType()
+     */
+    @Override
+    public Class<AuthenticationProfile> getType()
+    {
+        return AuthenticationProfile.class;
+    }
+
+    /**
+     * @see org.asimba.utility.storage.codec.ICodecTypeHandler#write(org.asimba.utility.storage.codec.BinaryStorageCodec, java.io.DataOutput, java.lang.Object)
+     */
+    @Override
+    public void write(BinaryStorageCodec codec, DataOutput out,
+        AuthenticationProfile oValue) throws IOException
+    {
+        if (!isFieldsOnly(oValue.getClass()))
+        {
+            out.writeByte(FORMAT_SERIALIZED);
+            BinaryStorageCodec.writeSerialized(out, oValue);
+            return;
+        }
+        
+        out.writeByte(FORMAT_FIELDS);
+        BinaryStorageCodec.writeString(out, oValue.getID());
+        BinaryStorageCodec.writeString(out, oValue.getFriendlyName());
+        out.writeBoolean(oValue.isEnabled());
+        
+        List<IAuthenticationMethod> listMethods = oValue.getAuthenticationMethods();
+        BinaryStorageCodec.writeVarInt(out, listMethods.size());
+        for (IAuthenticationMethod oMethod : listMethods)
+            codec.writeValue(out, oMethod);
+        
+        Map<?, ?> mapProperties = oValue.getProperties();
+        BinaryStorageCodec.writeVarInt(out, mapProperties.size());
+        for (Map.Entry<?, ?> entry : mapProperties.entrySet())
+        {
+            codec.writeValue(out, entry.getKey());
+            codec.writeValue(out, entry.getValue());
+        }
+    }
+
+    /**
+     * @see org.asimba.utility.storage.codec.ICodecTypeHandler#read(org.asimba.utility.storage.codec.BinaryStorageCodec, java.io.DataInput, int)
+     */
+    @Override
+    public AuthenticationProfile read(BinaryStorageCodec codec, DataInput in,
+        int iSchemaVersion) throws IOException
+    {
+        if (iSchemaVersion >= 2)
+        {
+            byte bFormat = in.readByte();
+            if (bFormat == FORMAT_SERIALIZED)
+                return (AuthenticationProfile)BinaryStorageCodec.readSerialized(in);
+            if (bFormat != FORMAT_FIELDS)
+                throw new IOException("Unknown authentication profile format: " + bFormat);
+        }
+        
+        String sID = BinaryStorageCodec.readString(in);
+        String sFriendlyName = BinaryStorageCodec.readString(in);
+        boolean bEnabled = in.readBoolean();
+        
+        int iMethods = BinaryStorageCodec.readVarInt(in);
+        List<IAuthenticationMethod> listMethods = 
+            new ArrayList<IAuthenticationMethod>(iMethods);
+        for (int i = 0; i < iMethods; i++)
+            listMethods.add((IAuthenticationMethod)codec.readValue(in));
+        
+        int iProperties = BinaryStorageCodec.readVarInt(in);
+        Map<Object, Object> mapProperties = new HashMap<Object, Object>();
+        for (int i = 0; i < iProperties; i++)
+        {
+            Object oKey = codec.readValue(in);
+            mapProperties.put(oKey, codec.readValue(in));
+        }
+        
+        return new AuthenticationProfile(sID, sFriendlyName, bEnabled, 
+            listMethods, mapProperties);
+    }
+    
+    private boolean isFieldsOnly(Class<?> cProfile)
+    {
+        Boolean boolFieldsOnly = _mapFieldsOnly.get(cProfile);
+        if (boolFieldsOnly == null)
+        {
+            boolFieldsOnly = Boolean.TRUE;
+            for (Class<?> c = cProfile; boolFieldsOnly.booleanValue()
+                && c != AuthenticationProfile.class; 
+                c = c.getSuperclass())
+            {
+                for (Field field : c.getDeclaredFields())
+                {
+                    int iModifiers = field.getModifiers();
+                    if (!Modifier.isStatic(iModifiers) 
+                        && !Modifier.isTransient(iModifiers))
+                    {
+                        boolFieldsOnly = Boolean.FALSE;
+                        break;
+                    }
+                }
+            }
+            _mapFieldsOnly.put(cProfile, boolFieldsOnly);
+        }
+        return boolFieldsOnly.booleanValue();
+    }
+}
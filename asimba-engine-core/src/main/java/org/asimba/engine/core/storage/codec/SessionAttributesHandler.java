@@ -0,0 +1,112 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.engine.core.storage.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.asimba.utility.storage.codec.BinaryStorageCodec;
+import org.asimba.utility.storage.codec.ICodecTypeHandler;
+
+import com.alfaariss.oa.engine.core.attribute.SessionAttributes;
+
+/**
+ * Codec handler for {@link SessionAttributes}.
+ *
+ * @since 4.0
+ */
+public class SessionAttributesHandler 
+    implements ICodecTypeHandler<SessionAttributes>
+{
+    /** Schema id */
+    public final static int SCHEMA_ID = 3;
+
+    /**
+     * @see org.asimba.utility.storage.codec.ICodecTypeHandler#getSchemaID()
+     */
+    @Override
+    public int getSchemaID()
+    {
+        return SCHEMA_ID;
+    }
+
+    /**
+     * @see org.asimba.utility.storage.codec.ICodecTypeHandler#getSchemaVersion()
+     */
+    @Override
+    public int getSchemaVersion()
+    {
+        return 1;
+    }
+
+    /**
+     * @see org.asimba.utility.storage.codec.ICodecTypeHandler#getType()
+     */
+    @Override
+    public Class<SessionAttributes> getType()
+    {
+        return SessionAttributes.class;
+    }
+
+    /**
+     * @see org.asimba.utility.storage.codec.ICodecTypeHandler#write(org.asimba.utility.storage.codec.BinaryStorageCodec, java.io.DataOutput, java.lang.Object)
+     */
+    @Override
+    public void write(BinaryStorageCodec codec, DataOutput out,
+        SessionAttributes oValue) throws IOException
+    {
+        List<String> listNames = new ArrayList<String>();
+        Enumeration<?> enumNames = oValue.getNames();
+        while (enumNames.hasMoreElements())
+            listNames.add((String)enumNames.nextElement());
+        
+        BinaryStorageCodec.writeVarInt(out, listNames.size());
+        for (String sName : listNames)
+        {
+            BinaryStorageCodec.writeString(out, sName);
+            codec.writeValue(out, oValue.getByName(sName));
+        }
+    }
+
+    /**
+     * @see org.asimba.utility.storage.codec.ICodecTypeHandler#read(org.asimba.utility.storage.codec.BinaryStorageCodec, java.io.DataInput, int)
+     */
+    @Override
+    public SessionAttributes read(BinaryStorageCodec codec, DataInput in,
+        int iSchemaVersion) throws IOException
+    {
+        SessionAttributes oAttributes = new SessionAttributes();
+        int iSize = BinaryStorageCodec.readVarInt(in);
+        for (int i = 0; i < iSize; i++)
+        {
+            String sName = BinaryStorageCodec.readString(in);
+            Object oValue = codec.readValue(in);
+            if (oValue != null)
+                oAttributes.putByName(sName, oValue);
+        }
+        return oAttributes;
+    }
+}
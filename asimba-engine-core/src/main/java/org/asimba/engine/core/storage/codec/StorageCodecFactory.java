@@ -0,0 +1,144 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.engine.core.storage.codec;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.storage.codec.BinaryStorageCodec;
+import org.asimba.utility.storage.codec.IStorageCodec;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.OAException;
+import com.alfaariss.oa.SystemErrors;
+import com.alfaariss.oa.api.configuration.IConfigurationManager;
+
+/**
+ * Creates the storage codec that is used by session and TGT stores.
+ *
+ * The codec can be configured with an optional <code>codec</code> section
+ * in the storage configuration:
+ * <pre>
+ * &lt;codec class="..." write_legacy="false" /&gt;
+ * </pre>
+ * <ul>
+ * <li><code>class</code>: optional custom {@link IStorageCodec} 
+ * implementation with a public default constructor.</li>
+ * <li><code>write_legacy</code>: optional; if <code>TRUE</code> the default 
+ * codec keeps writing Java serialization, which allows nodes that still run 
+ * a previous version to read the stored data. Both formats are always read.
+ * </li>
+ * </ul>
+ *
+ * @since 4.0
+ */
+public class StorageCodecFactory
+{
+    private static Log _logger = LogFactory.getLog(StorageCodecFactory.class);
+    
+    private final static IStorageCodec DEFAULT_CODEC = createEngineCodec(false);
+    
+    /**
+     * @return The shared default codec that writes the binary format.
+     */
+    public static IStorageCodec getDefault()
+    {
+        return DEFAULT_CODEC;
+    }
+    
+    /**
+     * Create a binary codec with handlers for the engine storage types.
+     * 
+     * @param bWriteLegacy <code>true</code> if the codec must write Java 
+     *  serialization.
+     * @return The codec.
+     */
+    public static BinaryStorageCodec createEngineCodec(boolean bWriteLegacy)
+    {
+        BinaryStorageCodec codec = new BinaryStorageCodec(bWriteLegacy);
+        codec.registerHandler(new AuthenticationMethodHandler());
+        codec.registerHandler(new AuthenticationProfileHandler());
+        codec.registerHandler(new SessionAttributesHandler());
+        codec.registerHandler(new TGTAttributesHandler());
+        return codec;
+    }
+    
+    /**
+     * Create the codec that is configured in the supplied section.
+     * 
+     * @param oConfigurationManager The configuration manager.
+     * @param eConfig The storage configuration section.
+     * @return The configured codec, or the default codec if none is configured.
+     * @throws OAException If the configuration is invalid.
+     */
+    public static IStorageCodec createCodec(
+        IConfigurationManager oConfigurationManager, Element eConfig) 
+        throws OAException
+    {
+        Element eCodec = oConfigurationManager.getSection(eConfig, "codec");
+        if (eCodec == null)
+        {
+            _logger.info("No optional 'codec' section found in configuration, using default storage codec");
+            return DEFAULT_CODEC;
+        }
+        
+        String sClass = oConfigurationManager.getParam(eCodec, "class");
+        if (sClass != null)
+        {
+            IStorageCodec codec = null;
+            try
+            {
+                codec = (IStorageCodec)Class.forName(sClass).newInstance();
+            }
+            catch (ClassCastException e)
+            {
+                _logger.error("Configured codec class isn't of type 'IStorageCodec': " + sClass, e);
+                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+            }
+            catch (Exception e)
+            {
+                _logger.error("Can't create an instance of the configured codec: " + sClass, e);
+                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+            }
+            _logger.info("Using storage codec: " + sClass);
+            return codec;
+        }
+        
+        boolean bWriteLegacy = false;
+        String sWriteLegacy = oConfigurationManager.getParam(eCodec, "write_legacy");
+        if (sWriteLegacy != null)
+        {
+            if (sWriteLegacy.equalsIgnoreCase("TRUE"))
+                bWriteLegacy = true;
+            else if (!sWriteLegacy.equalsIgnoreCase("FALSE"))
+            {
+                _logger.error("Unknown value in 'write_legacy' configuration item: " + sWriteLegacy);
+                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+            }
+        }
+        
+        if (!bWriteLegacy)
+            return DEFAULT_CODEC;
+        
+        _logger.info("Storage codec writes Java serialization (write_legacy)");
+        return createEngineCodec(true);
+    }
+}
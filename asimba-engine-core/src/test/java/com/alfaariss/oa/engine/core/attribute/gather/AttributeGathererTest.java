@@ -0,0 +1,219 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.core.attribute.gather;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.api.attribute.IAttributes;
+import com.alfaariss.oa.api.configuration.IConfigurationManager;
+import com.alfaariss.oa.engine.core.attribute.AttributeException;
+import com.alfaariss.oa.engine.core.attribute.UserAttributes;
+import com.alfaariss.oa.engine.core.attribute.gather.processor.IProcessor;
+import com.alfaariss.oa.engine.core.configuration.ConfigurationManager;
+
+public class AttributeGathererTest {
+
+    /**
+     * Puts one attribute after an optional delay; with 'copy' the value is
+     * read from an attribute gathered by an earlier processor.
+     */
+    public static class TestProcessor implements IProcessor {
+        private String _sID;
+        private String _sName;
+        private String _sValue;
+        private String _sCopy;
+        private long _lDelay;
+
+        public void start(IConfigurationManager oConfigurationManager,
+            Element eConfig) throws AttributeException {
+            try {
+                _sID = oConfigurationManager.getParam(eConfig, "id");
+                _sName = oConfigurationManager.getParam(eConfig, "attribute");
+                _sValue = oConfigurationManager.getParam(eConfig, "value");
+                _sCopy = oConfigurationManager.getParam(eConfig, "copy");
+                String sDelay = oConfigurationManager.getParam(eConfig, "delay");
+                _lDelay = sDelay == null ? 0 : Long.parseLong(sDelay);
+            }
+            catch (Exception e) {
+                throw new AttributeException(0, e);
+            }
+        }
+
+        public void process(String sUserId, IAttributes oAttributes)
+            throws AttributeException {
+            if (_lDelay > 0) {
+                try {
+                    Thread.sleep(_lDelay);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (_sCopy != null)
+                oAttributes.put(_sName, oAttributes.get(_sCopy));
+            else
+                oAttributes.put(_sName, _sValue);
+        }
+
+        public void stop() {
+        }
+
+        public String getID() {
+            return _sID;
+        }
+
+        public String getFriendlyName() {
+            return _sID;
+        }
+
+        public boolean isEnabled() {
+            return true;
+        }
+    }
+
+    private static final String PROCESSOR = "<processor class=\""
+        + TestProcessor.class.getName() + "\" ";
+
+    private static final String PROCESSORS =
+        PROCESSOR + "id=\"first\" attribute=\"mail\" value=\"first\"/>"
+        + PROCESSOR + "id=\"a\" attribute=\"a\" value=\"a\" delay=\"100\" parallel=\"true\"/>"
+        + PROCESSOR + "id=\"b\" attribute=\"mail\" value=\"b\" delay=\"100\" parallel=\"true\"/>"
+        + PROCESSOR + "id=\"c\" attribute=\"c\" value=\"c\" delay=\"100\" parallel=\"true\"/>"
+        + PROCESSOR + "id=\"copy\" attribute=\"copied\" copy=\"mail\"/>"
+        + PROCESSOR + "id=\"last\" attribute=\"a\" value=\"last\"/>";
+
+    private AttributeGatherer _gatherer;
+
+    @After
+    public void tearDown() {
+        if (_gatherer != null)
+            _gatherer.stop();
+    }
+
+    @Test
+    public void testParallelEqualsSequential() throws Exception {
+        Map<String, Object> mapSequential = gather(start(PROCESSORS));
+        _gatherer.stop();
+
+        AttributeGatherer gatherer = start(
+            "<parallel enabled=\"true\" threads=\"4\" timeout=\"5000\"/>" + PROCESSORS);
+        long lStart = System.currentTimeMillis();
+        Map<String, Object> mapParallel = gather(gatherer);
+        long lDuration = System.currentTimeMillis() - lStart;
+
+        assertEquals(mapSequential, mapParallel);
+        assertEquals("b", mapParallel.get("mail"));
+        assertEquals("b", mapParallel.get("copied"));
+        assertEquals("last", mapParallel.get("a"));
+        assertTrue("Parallel processors ran one after the other: " + lDuration,
+            lDuration < 300);
+        assertEquals(1, gatherer.getHistogram("b").getCount());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        AttributeGatherer gatherer = start(
+            "<parallel enabled=\"true\" threads=\"2\" timeout=\"5000\"/>"
+            + PROCESSOR + "id=\"slow\" attribute=\"slow\" value=\"slow\" delay=\"2000\" "
+            + "parallel=\"true\" timeout=\"50\" on_failure=\"ignore\"/>"
+            + PROCESSOR + "id=\"fast\" attribute=\"fast\" value=\"fast\" parallel=\"true\"/>");
+        long lStart = System.currentTimeMillis();
+        Map<String, Object> mapGathered = gather(gatherer);
+        assertTrue(System.currentTimeMillis() - lStart < 1000);
+        assertFalse(mapGathered.containsKey("slow"));
+        assertEquals("fast", mapGathered.get("fast"));
+        assertEquals(1, gatherer.getTimeoutCount("slow"));
+        assertEquals(1, gatherer.getFailureCount("slow"));
+        assertEquals(0, gatherer.getFailureCount("fast"));
+        gatherer.stop();
+
+        gatherer = start(
+            "<parallel enabled=\"true\" threads=\"2\" timeout=\"50\"/>"
+            + PROCESSOR + "id=\"slow\" attribute=\"slow\" value=\"slow\" delay=\"2000\" "
+            + "parallel=\"true\"/>");
+        try {
+            gather(gatherer);
+            fail("Timeout should fail gathering");
+        }
+        catch (AttributeException e) {
+            //expected
+        }
+        assertEquals(1, gatherer.getTimeoutCount("slow"));
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        AttributeGatherer gatherer = start(
+            "<parallel enabled=\"true\" threads=\"1\" queue=\"1\" timeout=\"5000\"/>"
+            + PROCESSOR + "id=\"a\" attribute=\"a\" value=\"a\" delay=\"50\" parallel=\"true\"/>"
+            + PROCESSOR + "id=\"b\" attribute=\"b\" value=\"b\" parallel=\"true\"/>"
+            + PROCESSOR + "id=\"c\" attribute=\"c\" value=\"c\" parallel=\"true\" "
+            + "on_failure=\"ignore\"/>");
+        Map<String, Object> mapGathered = gather(gatherer);
+        assertEquals("a", mapGathered.get("a"));
+        assertEquals("b", mapGathered.get("b"));
+        assertFalse(mapGathered.containsKey("c"));
+        assertEquals(1, gatherer.getRejectedCount("c"));
+        assertEquals(0, gatherer.getRejectedCount("b"));
+    }
+
+    private AttributeGatherer start(String sProcessors) throws Exception {
+        Properties properties = new Properties();
+        properties.put("configuration.handler.class",
+            "com.alfaariss.oa.util.configuration.handler.text.PlainTextConfigurationHandler");
+        properties.put("config", "<root><gather id=\"test\" friendlyname=\"Test\">"
+            + sProcessors + "</gather></root>");
+        ConfigurationManager configurationManager = ConfigurationManager.getInstance();
+        configurationManager.start(properties);
+
+        _gatherer = new AttributeGatherer();
+        _gatherer.start(configurationManager,
+            configurationManager.getSection(null, "gather"));
+        return _gatherer;
+    }
+
+    private Map<String, Object> gather(AttributeGatherer gatherer)
+        throws AttributeException {
+        IAttributes oAttributes = new UserAttributes();
+        gatherer.process("user", oAttributes);
+        Map<String, Object> mapGathered = new HashMap<String, Object>();
+        Enumeration<?> enumNames = oAttributes.getNames();
+        while (enumNames.hasMoreElements()) {
+            String sName = (String)enumNames.nextElement();
+            mapGathered.put(sName, oAttributes.get(sName));
+        }
+        return mapGathered;
+    }
+}
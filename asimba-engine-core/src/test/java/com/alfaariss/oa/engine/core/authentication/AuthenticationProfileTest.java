@@ -0,0 +1,125 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.core.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.alfaariss.oa.api.authentication.IAuthenticationMethod;
+
+public class AuthenticationProfileTest {
+
+    private static final String[] METHODS = {"password", "otp", "sms", "cert"};
+
+    /**
+     * Profile that changes the protected method list directly.
+     */
+    private static class DirectProfile extends AuthenticationProfile {
+        private static final long serialVersionUID = 1L;
+
+        DirectProfile(String sID) {
+            super(sID, sID, true);
+        }
+
+        void addDirect(IAuthenticationMethod method) {
+            _listAuthenticationMethods.add(method);
+        }
+    }
+
+    @Test
+    public void testMaskMatchesContainsAll() {
+        List<AuthenticationProfile> listProfiles = createProfiles();
+        assertCompareTo(listProfiles);
+    }
+
+    @Test
+    public void testMaskAfterAddingMethod() {
+        List<AuthenticationProfile> listProfiles = createProfiles();
+        assertCompareTo(listProfiles);
+
+        for (AuthenticationProfile profile : listProfiles)
+            profile.addAuthenticationMethod(new AuthenticationMethod("new"));
+        listProfiles.get(1).addAuthenticationMethod(new AuthenticationMethod("cert"));
+        assertCompareTo(listProfiles);
+    }
+
+    @Test
+    public void testMaskAfterDirectChange() {
+        DirectProfile profile = new DirectProfile("direct");
+        profile.addAuthenticationMethod(new AuthenticationMethod("password"));
+        AuthenticationProfile required = new AuthenticationProfile("required", "required", true);
+        required.addAuthenticationMethod(new AuthenticationMethod("password"));
+        required.addAuthenticationMethod(new AuthenticationMethod("otp"));
+        assertEquals(-1, profile.compareTo(required));
+
+        profile.addDirect(new AuthenticationMethod("otp"));
+        assertEquals(0, profile.compareTo(required));
+    }
+
+    @Test
+    public void testMethodsCanNotBeModified() {
+        AuthenticationProfile profile = new AuthenticationProfile("profile", "profile", true);
+        profile.addAuthenticationMethod(new AuthenticationMethod("password"));
+        long[] laMask = profile.getMethodMask();
+        assertNotNull(laMask);
+        try {
+            profile.getAuthenticationMethods().add(new AuthenticationMethod("otp"));
+            fail("method list can be modified");
+        }
+        catch (UnsupportedOperationException e) {
+            //expected
+        }
+        assertEquals(1, profile.getAuthenticationMethods().size());
+    }
+
+    //all combinations of the methods, including the empty profile
+    private List<AuthenticationProfile> createProfiles() {
+        List<AuthenticationProfile> listProfiles = new ArrayList<AuthenticationProfile>();
+        for (int i = 0; i < (1 << METHODS.length); i++) {
+            AuthenticationProfile profile =
+                new AuthenticationProfile("profile" + i, "profile" + i, true);
+            for (int j = 0; j < METHODS.length; j++) {
+                if ((i & (1 << j)) != 0)
+                    profile.addAuthenticationMethod(new AuthenticationMethod(METHODS[j]));
+            }
+            listProfiles.add(profile);
+        }
+        return listProfiles;
+    }
+
+    private void assertCompareTo(List<AuthenticationProfile> listProfiles) {
+        for (AuthenticationProfile profile : listProfiles) {
+            for (AuthenticationProfile other : listProfiles) {
+                int iExpected = profile.getAuthenticationMethods().containsAll(
+                    other.getAuthenticationMethods()) ? 0 : -1;
+                assertEquals(profile + " compared to " + other,
+                    iExpected, profile.compareTo(other));
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.core.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.util.Enumeration;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.engine.core.configuration.ConfigurationManager;
+import com.alfaariss.oa.engine.core.crypto.factory.AbstractSigningFactory;
+
+public class CryptoManagerTest {
+
+    private static final KeyPair KEY_PAIR = createKeyPair();
+
+    /**
+     * Certificate that only holds the public key of the test key pair.
+     */
+    private static class TestCertificate extends Certificate {
+        private static final long serialVersionUID = 1L;
+
+        TestCertificate() {
+            super("test");
+        }
+
+        public byte[] getEncoded() {
+            return KEY_PAIR.getPublic().getEncoded();
+        }
+
+        public void verify(PublicKey key) {
+        }
+
+        public void verify(PublicKey key, String sigProvider) {
+        }
+
+        public String toString() {
+            return "test certificate";
+        }
+
+        public PublicKey getPublicKey() {
+            return KEY_PAIR.getPublic();
+        }
+    }
+
+    /**
+     * Signing factory with the test key pair.
+     */
+    public static class TestSigningFactory extends AbstractSigningFactory {
+        private static final Certificate CERTIFICATE = new TestCertificate();
+
+        public void start() {
+        }
+
+        public PrivateKey getPrivateKey() {
+            return KEY_PAIR.getPrivate();
+        }
+
+        public String getPrivateKeyPassword() {
+            return null;
+        }
+
+        public String getAlias() {
+            return "test";
+        }
+
+        public Enumeration<String> getAliases() {
+            return null;
+        }
+
+        public Certificate getCertificate() {
+            return CERTIFICATE;
+        }
+
+        public Certificate getCertificate(String sAlias) {
+            return CERTIFICATE;
+        }
+
+        public String getCertificateAlias(Certificate cert) {
+            return "test";
+        }
+
+        public String getAliasForX509Cert(String issuer, BigInteger serialNumber) {
+            return null;
+        }
+
+        public KeyStore getKeyStore() {
+            return null;
+        }
+    }
+
+    private static final String CONFIG = "<root><crypto>"
+        + "<signing algorithm=\"SHA256withRSA\">"
+        + "<signingfactory class=\"" + TestSigningFactory.class.getName() + "\"/>"
+        + "</signing>"
+        + "<message_digest algorithm=\"SHA-256\"/>"
+        + "</crypto></root>";
+
+    private CryptoManager _cryptoManager;
+    private Element _eConfig;
+
+    @Before
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.put("configuration.handler.class",
+            "com.alfaariss.oa.util.configuration.handler.text.PlainTextConfigurationHandler");
+        properties.put("config", CONFIG);
+        ConfigurationManager configurationManager = ConfigurationManager.getInstance();
+        configurationManager.start(properties);
+        _eConfig = configurationManager.getSection(null, "crypto");
+
+        _cryptoManager = new CryptoManager();
+        _cryptoManager.start(configurationManager, _eConfig);
+    }
+
+    @After
+    public void tearDown() {
+        if (_cryptoManager != null)
+            _cryptoManager.stop();
+    }
+
+    @Test
+    public void testSignAndVerifyAcrossRestart() throws Exception {
+        byte[] baData = "data".getBytes("UTF-8");
+        Certificate certificate = _cryptoManager.getCertificate();
+
+        byte[] baSignature = _cryptoManager.sign(baData);
+        assertTrue(_cryptoManager.verify(certificate, baData, baSignature));
+
+        _cryptoManager.restart(_eConfig);
+
+        assertTrue(_cryptoManager.verify(certificate, baData, baSignature));
+        byte[] baRestarted = _cryptoManager.sign(baData);
+        assertTrue(_cryptoManager.verify(certificate, baData, baRestarted));
+        assertFalse(_cryptoManager.verify(certificate,
+            "other".getBytes("UTF-8"), baRestarted));
+
+        assertEquals(2, _cryptoManager.getSignCount());
+        assertEquals(4, _cryptoManager.getVerifyCount());
+        assertEquals(1, _cryptoManager.getVerifyFailureCount());
+    }
+
+    @Test
+    public void testDigestAcrossRestart() throws Exception {
+        byte[] baData = "data".getBytes("UTF-8");
+        byte[] baExpected = MessageDigest.getInstance("SHA-256").digest(baData);
+
+        assertArrayEquals(baExpected, _cryptoManager.digest(baData));
+        assertArrayEquals(baExpected, _cryptoManager.digest(baData));
+        _cryptoManager.restart(_eConfig);
+        assertArrayEquals(baExpected, _cryptoManager.digest(baData));
+
+        assertEquals(3, _cryptoManager.getDigestCount());
+        assertEquals(0, _cryptoManager.getSignCount());
+    }
+
+    private static KeyPair createKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(1024);
+            return generator.generateKeyPair();
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
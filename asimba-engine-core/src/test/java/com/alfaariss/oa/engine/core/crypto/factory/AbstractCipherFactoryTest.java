@@ -0,0 +1,112 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.core.crypto.factory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import javax.crypto.SecretKey;
+
+import org.asimba.utility.storage.clean.CleanerService;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alfaariss.oa.engine.core.configuration.ConfigurationManager;
+
+public class AbstractCipherFactoryTest {
+
+    private static final String CONFIG = "<root>"
+        + "<cipherfactory id=\"enabled\" class=\""
+        + "com.alfaariss.oa.engine.core.crypto.factory.AbstractCipherFactoryTest$TestCipherFactory\""
+        + " expire=\"60\" interval=\"60\"/>"
+        + "<cipherfactory id=\"disabled\" class=\""
+        + "com.alfaariss.oa.engine.core.crypto.factory.AbstractCipherFactoryTest$TestCipherFactory\""
+        + " expire=\"60\" interval=\"0\"/>"
+        + "</root>";
+
+    /**
+     * Cipher factory that doesn't register itself for cleaning.
+     */
+    public static class TestCipherFactory extends AbstractCipherFactory {
+        private boolean _bStarted;
+
+        public void start() {
+            _bStarted = true;
+        }
+
+        public SecretKey getSecretKey(String sCipherAlgorithm,
+            String sCipherProvider) {
+            return null;
+        }
+
+        public SecretKey getSecretKey(String sCipherAlgorithm,
+            String sCipherProvider, String sName) {
+            return null;
+        }
+
+        public void removeExpired() {
+        }
+    }
+
+    private ConfigurationManager _configurationManager;
+
+    @Before
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.put("configuration.handler.class",
+            "com.alfaariss.oa.util.configuration.handler.text.PlainTextConfigurationHandler");
+        properties.put("config", CONFIG);
+        _configurationManager = ConfigurationManager.getInstance();
+        _configurationManager.start(properties);
+    }
+
+    @Test
+    public void testCreateInstanceRegistersCleaner() throws Exception {
+        int iRegistrations = CleanerService.getInstance().getRegistrationCount();
+
+        TestCipherFactory factory = (TestCipherFactory)
+            AbstractCipherFactory.createInstance(_configurationManager,
+                _configurationManager.getSection(null, "cipherfactory", "id=enabled"));
+        assertTrue(factory._bStarted);
+        assertEquals(iRegistrations + 1,
+            CleanerService.getInstance().getRegistrationCount());
+
+        factory.stop();
+        assertEquals(iRegistrations,
+            CleanerService.getInstance().getRegistrationCount());
+    }
+
+    @Test
+    public void testCleaningDisabled() throws Exception {
+        int iRegistrations = CleanerService.getInstance().getRegistrationCount();
+
+        TestCipherFactory factory = (TestCipherFactory)
+            AbstractCipherFactory.createInstance(_configurationManager,
+                _configurationManager.getSection(null, "cipherfactory", "id=disabled"));
+        assertTrue(factory._bStarted);
+        assertEquals(iRegistrations,
+            CleanerService.getInstance().getRegistrationCount());
+        factory.stop();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.core.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Properties;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alfaariss.oa.engine.core.configuration.ConfigurationManager;
+
+public class HttpClientManagerTest {
+
+    private static final String CONFIG = "<root>"
+        + "<http id=\"first\" socket_timeout=\"1000\" idle_timeout=\"1\"/>"
+        + "<http id=\"second\" socket_timeout=\"2000\" "
+        + "connection_manager_timeout=\"3000\"/>"
+        + "</root>";
+
+    private ConfigurationManager _configurationManager;
+    private HttpClientManager _httpClientManager;
+
+    @Before
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.put("configuration.handler.class",
+            "com.alfaariss.oa.util.configuration.handler.text.PlainTextConfigurationHandler");
+        properties.put("config", CONFIG);
+        _configurationManager = ConfigurationManager.getInstance();
+        _configurationManager.start(properties);
+
+        _httpClientManager = new HttpClientManager();
+        _httpClientManager.start(_configurationManager,
+            _configurationManager.getSection(null, "http", "id=first"));
+    }
+
+    @After
+    public void tearDown() {
+        if (_httpClientManager != null)
+            _httpClientManager.stop();
+    }
+
+    @Test
+    public void testRestartKeepsSharedClient() throws Exception {
+        HttpClient client = _httpClientManager.getHttpClient();
+        assertEquals(1000, client.getParams().getSoTimeout());
+
+        _httpClientManager.restart(
+            _configurationManager.getSection(null, "http", "id=second"));
+
+        assertSame(client, _httpClientManager.getHttpClient());
+        assertEquals(2000, client.getParams().getSoTimeout());
+        assertEquals(3000, client.getParams().getConnectionManagerTimeout());
+    }
+
+    @Test
+    public void testCookiesIgnored() throws Exception {
+        assertEquals(CookiePolicy.IGNORE_COOKIES,
+            _httpClientManager.getHttpClient().getParams().getCookiePolicy());
+        assertEquals(CookiePolicy.IGNORE_COOKIES,
+            _httpClientManager.createHttpClient(500).getParams().getCookiePolicy());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.core.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Locale;
+
+import org.asimba.utility.storage.codec.BinaryStorageCodec;
+import org.junit.Test;
+
+import com.alfaariss.oa.api.persistence.PersistenceException;
+
+public class AbstractSessionTest {
+
+    public static class TestSession extends AbstractSession {
+        private static final long serialVersionUID = 1L;
+
+        public TestSession(String requestorId) {
+            super(requestorId);
+        }
+
+        public void useCodec(BinaryStorageCodec codec) {
+            setStorageCodec(codec);
+        }
+
+        @Override
+        public void persist() throws PersistenceException {
+        }
+    }
+
+    /**
+     * Codec that remembers whether the last encoded value was legacy.
+     */
+    private static class RecordingCodec extends BinaryStorageCodec {
+        private boolean _bLegacy;
+
+        public RecordingCodec(boolean bWriteLegacy) {
+            super(bWriteLegacy);
+        }
+
+        @Override
+        public byte[] encode(Object o) throws IOException {
+            byte[] baEncoded = super.encode(o);
+            _bLegacy = isLegacy(baEncoded);
+            return baEncoded;
+        }
+    }
+
+    @Test
+    public void testSerializeWithLegacyCodec() throws Exception {
+        TestSession session = new TestSession("requestor");
+        session.setLocale(Locale.ENGLISH);
+        session.getAttributes().put(AbstractSessionTest.class, "name", "value");
+
+        RecordingCodec codec = new RecordingCodec(true);
+        session.useCodec(codec);
+
+        TestSession decoded = roundTrip(session);
+        assertTrue(codec._bLegacy);
+        assertEquals("requestor", decoded.getRequestorId());
+        assertEquals(Locale.ENGLISH, decoded.getLocale());
+        assertEquals("value", decoded.getAttributes().get(AbstractSessionTest.class, "name"));
+    }
+
+    @Test
+    public void testSerializeWithDefaultCodec() throws Exception {
+        TestSession session = new TestSession("requestor");
+        session.getAttributes().put(AbstractSessionTest.class, "name", "value");
+
+        TestSession decoded = roundTrip(session);
+        assertEquals("value", decoded.getAttributes().get(AbstractSessionTest.class, "name"));
+    }
+
+    private TestSession roundTrip(TestSession session) throws Exception {
+        ByteArrayOutputStream osBytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(osBytes);
+        out.writeObject(session);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(osBytes.toByteArray()));
+        return (TestSession)in.readObject();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.engine.core.storage.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import org.asimba.utility.storage.codec.BinaryStorageCodec;
+import org.junit.Test;
+
+import com.alfaariss.oa.api.authentication.IAuthenticationMethod;
+import com.alfaariss.oa.engine.core.authentication.AuthenticationMethod;
+import com.alfaariss.oa.engine.core.authentication.AuthenticationProfile;
+
+public class AuthenticationProfileHandlerTest {
+
+    /**
+     * Profile subclass with its own state.
+     */
+    public static class CustomProfile extends AuthenticationProfile {
+        private static final long serialVersionUID = 1L;
+        private final String _sSource;
+
+        public CustomProfile(String sID, String sSource) {
+            super(sID, "Custom " + sID, true);
+            _sSource = sSource;
+            addAuthenticationMethod(new AuthenticationMethod("password"));
+        }
+
+        public String getSource() {
+            return _sSource;
+        }
+    }
+
+    /**
+     * Profile subclass without state of its own, like the profiles of the
+     * configuration and JDBC factories.
+     */
+    public static class FactoryProfile extends AuthenticationProfile {
+        private static final long serialVersionUID = 1L;
+
+        public FactoryProfile(String sID) {
+            super(sID, "Factory " + sID, true);
+            addAuthenticationMethod(new AuthenticationMethod("password"));
+        }
+    }
+
+    private BinaryStorageCodec _codec = StorageCodecFactory.createEngineCodec(false);
+
+    @Test
+    public void testPlainProfile() throws Exception {
+        AuthenticationProfile profile = createProfile();
+
+        AuthenticationProfile decoded =
+            (AuthenticationProfile)_codec.decode(_codec.encode(profile));
+        assertEquals(AuthenticationProfile.class, decoded.getClass());
+        assertProfile(profile, decoded);
+    }
+
+    @Test
+    public void testSubclassRoundTrip() throws Exception {
+        CustomProfile profile = new CustomProfile("custom", "jdbc");
+
+        Object decoded = _codec.decode(_codec.encode(profile));
+        assertEquals(CustomProfile.class, decoded.getClass());
+        assertEquals("jdbc", ((CustomProfile)decoded).getSource());
+        assertProfile(profile, (AuthenticationProfile)decoded);
+    }
+
+    @Test
+    public void testStatelessSubclassWrittenAsFields() throws Exception {
+        FactoryProfile profile = new FactoryProfile("factory");
+
+        ByteArrayOutputStream osBytes = new ByteArrayOutputStream();
+        new AuthenticationProfileHandler().write(_codec,
+            new DataOutputStream(osBytes), profile);
+        assertEquals(0, osBytes.toByteArray()[0]);
+
+        Object decoded = _codec.decode(_codec.encode(profile));
+        assertEquals(AuthenticationProfile.class, decoded.getClass());
+        assertProfile(profile, (AuthenticationProfile)decoded);
+    }
+
+    @Test
+    public void testSubclassInCollection() throws Exception {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("profile", new CustomProfile("nested", "config"));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> decoded = (Map<String, Object>)_codec.decode(_codec.encode(map));
+        assertTrue(decoded.get("profile") instanceof CustomProfile);
+    }
+
+    @Test
+    public void testReadVersion1() throws Exception {
+        AuthenticationProfileHandler handler = new AuthenticationProfileHandler();
+        AuthenticationProfile profile = createProfile();
+
+        ByteArrayOutputStream osBytes = new ByteArrayOutputStream();
+        handler.write(_codec, new DataOutputStream(osBytes), profile);
+        byte[] baWritten = osBytes.toByteArray();
+
+        //version 1 had no format byte
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+            baWritten, 1, baWritten.length - 1));
+        AuthenticationProfile decoded = handler.read(_codec, in, 1);
+        assertProfile(profile, decoded);
+    }
+
+    private AuthenticationProfile createProfile() {
+        Map<String, String> mapProperties = new HashMap<String, String>();
+        mapProperties.put("level", "2");
+        AuthenticationProfile profile = new AuthenticationProfile("plain",
+            "Plain", true, new Vector<IAuthenticationMethod>(),
+            mapProperties);
+        profile.addAuthenticationMethod(new AuthenticationMethod("guest"));
+        profile.addAuthenticationMethod(new AuthenticationMethod("password"));
+        return profile;
+    }
+
+    private void assertProfile(AuthenticationProfile expected, AuthenticationProfile actual) {
+        assertEquals(expected.getID(), actual.getID());
+        assertEquals(expected.getFriendlyName(), actual.getFriendlyName());
+        assertEquals(expected.isEnabled(), actual.isEnabled());
+        assertEquals(expected.getAuthenticationMethods(), actual.getAuthenticationMethods());
+        assertEquals(expected.getProperties(), actual.getProperties());
+        assertEquals(0, actual.compareTo(expected));
+    }
+}
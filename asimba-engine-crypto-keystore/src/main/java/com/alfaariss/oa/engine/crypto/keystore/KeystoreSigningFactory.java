@@ -44,7 +44,10 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.security.auth.x500.X500Principal;
 
@@ -73,10 +76,93 @@ public class KeystoreSigningFactory extends AbstractSigningFactory
 
     private Log _logger;
     private KeyStore _keystore;
-    private KeyStore _certificatestore;
     private String _sKeystorePassword;
     private String _sPassword;
     private String _sAlias;
+    private volatile PrivateKey _privateKey;
+    private volatile CertificateIndex _index;
+
+    /**
+     * The trust store and lookup tables for its certificates, built when the 
+     * trust store is loaded and published together.
+     * 
+     * For every alias the first certificate of its chain, or its trusted 
+     * certificate, is indexed. If several aliases match, the first alias in 
+     * trust store order is returned, like a search over all aliases.
+     */
+    private static class CertificateIndex
+    {
+        /** the trust store */
+        private final KeyStore _store;
+        /** canonical issuer + serial number -> alias */
+        private final Map<String, String> _mapIssuerSerial;
+        /** canonical issuer -> alias */
+        private final Map<String, String> _mapIssuer;
+        /** certificate -> alias */
+        private final Map<Certificate, String> _mapCertificates;
+        /** alias -> certificate */
+        private final Map<String, Certificate> _mapAliases;
+
+        CertificateIndex(KeyStore store) throws KeyStoreException
+        {
+            Map<String, String> mapIssuerSerial = new HashMap<String, String>();
+            Map<String, String> mapIssuer = new HashMap<String, String>();
+            Map<Certificate, String> mapCertificates = 
+                new HashMap<Certificate, String>();
+            Map<String, Certificate> mapAliases = 
+                new HashMap<String, Certificate>();
+
+            Enumeration<String> aliases = store.aliases();
+            while (aliases.hasMoreElements())
+            {
+                String alias = aliases.nextElement();
+                Certificate cert = null;
+                Certificate[] certs = store.getCertificateChain(alias);
+                if (certs == null || certs.length == 0)
+                    cert = store.getCertificate(alias);
+                else
+                    cert = certs[0];
+                if (cert == null)
+                    continue;
+
+                mapAliases.put(alias, cert);
+                if (!mapCertificates.containsKey(cert))
+                    mapCertificates.put(cert, alias);
+
+                if (cert instanceof X509Certificate)
+                {
+                    X509Certificate x509cert = (X509Certificate)cert;
+                    String sIssuer = getIssuerKey(new X500Principal(
+                        x509cert.getIssuerDN().getName()));
+                    String sIssuerSerial = getIssuerSerialKey(sIssuer, 
+                        x509cert.getSerialNumber());
+
+                    if (!mapIssuer.containsKey(sIssuer))
+                        mapIssuer.put(sIssuer, alias);
+                    if (!mapIssuerSerial.containsKey(sIssuerSerial))
+                        mapIssuerSerial.put(sIssuerSerial, alias);
+                }
+            }
+
+            _mapIssuerSerial = Collections.unmodifiableMap(mapIssuerSerial);
+            _mapIssuer = Collections.unmodifiableMap(mapIssuer);
+            _mapCertificates = Collections.unmodifiableMap(mapCertificates);
+            _mapAliases = Collections.unmodifiableMap(mapAliases);
+            _store = store;
+        }
+
+        static String getIssuerKey(X500Principal issuer)
+        {
+            return issuer.getName(X500Principal.CANONICAL);
+        }
+
+        static String getIssuerSerialKey(String sIssuer, BigInteger serial)
+        {
+            StringBuffer sbKey = new StringBuffer(sIssuer);
+            sbKey.append("#").append(serial.toString(16));
+            return sbKey.toString();
+        }
+    }
 
     /**
      * Create a new <code>KeystoreSigningFactory</code> instance.
@@ -119,6 +205,7 @@ public class KeystoreSigningFactory extends AbstractSigningFactory
      */
     public void start() throws CryptoException
     {
+        _privateKey = null;
         try
         {
             Element eKeystore = _configurationManager.getSection(_eSection,
@@ -182,12 +269,13 @@ public class KeystoreSigningFactory extends AbstractSigningFactory
 
             if (eTruststore != null)
             {
-                _certificatestore = loadKeystore(eTruststore);
-                _logger.info("Succesfully loaded: truststore");
+                _index = new CertificateIndex(loadKeystore(eTruststore));
+                _logger.info("Succesfully loaded: truststore (" 
+                    + _index._mapAliases.size() + " certificates)");
             }
             else
             {
-                _certificatestore = null;
+                _index = null;
                 _logger.info("Disabled: truststore");
             }
         }
@@ -214,10 +302,16 @@ public class KeystoreSigningFactory extends AbstractSigningFactory
         Certificate certificate = null;
         try
         {
-            if (_certificatestore == null)
+            CertificateIndex index = _index;
+            if (index == null)
                 return null;
 
-            certificate = _certificatestore.getCertificate(sAlias);
+            certificate = index._mapAliases.get(sAlias);
+            if (certificate == null)
+            {
+                //Aliases may be case insensitive in the store
+                certificate = index._store.getCertificate(sAlias);
+            }
             if (!(certificate instanceof java.security.cert.X509Certificate))
             {
                 _logger.error("Could not find a valid certificate with alias "
@@ -273,10 +367,16 @@ public class KeystoreSigningFactory extends AbstractSigningFactory
     /**
      * Retrieve the private key from the key store.
      * 
+     * The key is decrypted once and kept until the factory is started 
+     * again.
+     * 
      * @see AbstractSigningFactory#getPrivateKey()
      */
     public PrivateKey getPrivateKey() throws CryptoException
     {
+        if (_privateKey != null)
+            return _privateKey;
+        
         Key key = null;
         try
         {
@@ -310,7 +410,8 @@ public class KeystoreSigningFactory extends AbstractSigningFactory
             _logger.error("Could not load keystore,unrecoverable key error", e);
             throw new CryptoException(SystemErrors.ERROR_RESOURCE_RETRIEVE, e);
         }
-        return (PrivateKey)key;
+        _privateKey = (PrivateKey)key;
+        return _privateKey;
     }
 
     /**
@@ -347,9 +448,13 @@ public class KeystoreSigningFactory extends AbstractSigningFactory
     @Override
     public Enumeration<String> getAliases() throws CryptoException
     {
+        CertificateIndex index = _index;
+        if (index == null)
+            return Collections.<String>emptyEnumeration();
+        
         try
         {
-            return _certificatestore.aliases();
+            return index._store.aliases();
         }
         catch (KeyStoreException e)
         {
@@ -368,7 +473,14 @@ public class KeystoreSigningFactory extends AbstractSigningFactory
     {
         try
         {
-            return _certificatestore.getCertificateAlias(cert);
+            CertificateIndex index = _index;
+            if (index == null)
+                return null;
+            
+            String alias = index._mapCertificates.get(cert);
+            if (alias != null)
+                return alias;
+            return index._store.getCertificateAlias(cert);
         }
         catch (KeyStoreException e)
         {
@@ -379,6 +491,9 @@ public class KeystoreSigningFactory extends AbstractSigningFactory
 
     /**
      * Retrieve alias from the certificate store.
+     * 
+     * The alias is looked up in the index that is built when the trust 
+     * store is loaded.
      * @see AbstractSigningFactory#getAliasForX509Cert(
      *  java.lang.String, java.math.BigInteger)
      */
@@ -386,53 +501,16 @@ public class KeystoreSigningFactory extends AbstractSigningFactory
     public String getAliasForX509Cert(String issuer, BigInteger serialNumber)
         throws CryptoException
     {
-        X500Principal issuerRDN = new X500Principal(issuer);
-        Certificate cert = null;
-
-        try
-        {
-            Enumeration<String> aliases = _certificatestore.aliases();
-            while (aliases.hasMoreElements())
-            {
-                String alias = aliases.nextElement();
-                Certificate[] certs = _certificatestore
-                    .getCertificateChain(alias);
-                if (certs == null || certs.length == 0)
-                {
-                    // no cert chain
-                    cert = _certificatestore.getCertificate(alias);
-                    if (cert == null)
-                    {
-                        return null;
-                    }
-                }
-                else
-                {
-                    cert = certs[0];
-                }
-
-                if (cert instanceof X509Certificate)
-                {
-                    X509Certificate x509cert = (X509Certificate)cert;
-                    if (serialNumber == null
-                        || x509cert.getSerialNumber().compareTo(serialNumber) == 0)
-                    {
-                        X500Principal certRDN = new X500Principal(x509cert
-                            .getIssuerDN().getName());
-                        if (certRDN.equals(issuerRDN))
-                        {
-                            return alias;
-                        }
-                    }
-                }
-            }
-        }
-        catch (KeyStoreException e)
-        {
-            _logger.error("Could not read alias from trust store", e);
-            throw new CryptoException(SystemErrors.ERROR_RESOURCE_RETRIEVE, e);
-        }
-        return null;
+        CertificateIndex index = _index;
+        if (index == null)
+            return null;
+
+        String sIssuer = CertificateIndex.getIssuerKey(
+            new X500Principal(issuer));
+        if (serialNumber == null)
+            return index._mapIssuer.get(sIssuer);
+        return index._mapIssuerSerial.get(
+            CertificateIndex.getIssuerSerialKey(sIssuer, serialNumber));
     }
 
     private KeyStore loadKeystore(Element eKeystore) throws CryptoException
@@ -0,0 +1,219 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.crypto.keystore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.alfaariss.oa.engine.core.configuration.ConfigurationManager;
+import com.alfaariss.oa.engine.core.crypto.factory.AbstractSigningFactory;
+
+public class KeystoreSigningFactoryTest {
+
+    private static final String PASSWORD = "secret";
+    private static final String ISSUER = "CN=Test Issuer, O=Asimba";
+
+    @ClassRule
+    public static TemporaryFolder _folder = new TemporaryFolder();
+
+    private static File _fileKeys;
+    private static File _fileTruststore;
+    private static X509Certificate _certOne;
+    private static X509Certificate _certTwo;
+    private static X509Certificate _certOther;
+
+    /**
+     * Creates a trust store with two certificates of the same issuer, one 
+     * of another issuer and a second alias for the first certificate.
+     */
+    @BeforeClass
+    public static void createTruststore() throws Exception {
+        _fileKeys = new File(_folder.getRoot(), "keys.jks");
+        generateKey(_fileKeys, "one", ISSUER);
+        generateKey(_fileKeys, "two", ISSUER);
+        generateKey(_fileKeys, "other", "CN=Other Issuer, O=Asimba");
+
+        KeyStore keys = load(_fileKeys);
+        _certOne = (X509Certificate)keys.getCertificate("one");
+        _certTwo = (X509Certificate)keys.getCertificate("two");
+        _certOther = (X509Certificate)keys.getCertificate("other");
+
+        KeyStore truststore = KeyStore.getInstance("JKS");
+        truststore.load(null, null);
+        truststore.setCertificateEntry("one", _certOne);
+        truststore.setCertificateEntry("two", _certTwo);
+        truststore.setCertificateEntry("other", _certOther);
+        truststore.setCertificateEntry("copy", _certOne);
+
+        _fileTruststore = new File(_folder.getRoot(), "truststore.jks");
+        OutputStream out = new FileOutputStream(_fileTruststore);
+        try {
+            truststore.store(out, PASSWORD.toCharArray());
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testIssuerSerial() throws Exception {
+        AbstractSigningFactory factory = createFactory();
+
+        assertEquals("two", factory.getAliasForX509Cert(
+            _certTwo.getIssuerX500Principal().getName(), _certTwo.getSerialNumber()));
+        assertEquals("other", factory.getAliasForX509Cert(
+            _certOther.getIssuerX500Principal().getName(), _certOther.getSerialNumber()));
+        //the issuer is compared in canonical form
+        assertEquals("other", factory.getAliasForX509Cert(
+            "cn=other issuer,o=asimba", _certOther.getSerialNumber()));
+        assertNull(factory.getAliasForX509Cert(ISSUER,
+            _certOther.getSerialNumber().add(BigInteger.ONE)));
+        assertNull(factory.getAliasForX509Cert("CN=Unknown", _certTwo.getSerialNumber()));
+    }
+
+    @Test
+    public void testIssuerOnly() throws Exception {
+        AbstractSigningFactory factory = createFactory();
+
+        assertEquals(firstAlias(Arrays.asList("one", "two", "copy")),
+            factory.getAliasForX509Cert(ISSUER, null));
+        assertEquals("other", factory.getAliasForX509Cert(
+            "CN=Other Issuer, O=Asimba", null));
+        assertNull(factory.getAliasForX509Cert("CN=Unknown", null));
+    }
+
+    @Test
+    public void testFirstAliasWins() throws Exception {
+        AbstractSigningFactory factory = createFactory();
+        String sFirst = firstAlias(Arrays.asList("one", "copy"));
+
+        assertEquals(sFirst, factory.getAliasForX509Cert(
+            _certOne.getIssuerX500Principal().getName(), _certOne.getSerialNumber()));
+        assertEquals(sFirst, factory.getCertificateAlias(_certOne));
+        assertEquals(_certOne, factory.getCertificate("one"));
+        assertEquals(_certOne, factory.getCertificate("copy"));
+    }
+
+    @Test
+    public void testCaseInsensitiveAlias() throws Exception {
+        AbstractSigningFactory factory = createFactory();
+
+        assertEquals(_certOther, factory.getCertificate("OTHER"));
+        assertEquals(_certOther, factory.getCertificate("Other"));
+    }
+
+    @Test
+    public void testWithoutTruststore() throws Exception {
+        AbstractSigningFactory factory = createFactory(
+            "<keystore file=\"" + _fileKeys.getAbsolutePath() + "\""
+            + " type=\"JKS\" keystore_password=\"" + PASSWORD + "\""
+            + " alias=\"one\" password=\"" + PASSWORD + "\"/>");
+
+        assertNull(factory.getCertificate("one"));
+        assertNull(factory.getCertificateAlias(_certOne));
+        assertNull(factory.getAliasForX509Cert(ISSUER, _certOne.getSerialNumber()));
+        assertFalse(factory.getAliases().hasMoreElements());
+    }
+
+    private AbstractSigningFactory createFactory() throws Exception {
+        return createFactory("<truststore file=\"" + _fileTruststore.getAbsolutePath() + "\""
+            + " type=\"JKS\" keystore_password=\"" + PASSWORD + "\"/>");
+    }
+
+    private AbstractSigningFactory createFactory(String sStores) throws Exception {
+        Properties properties = new Properties();
+        properties.put("configuration.handler.class",
+            "com.alfaariss.oa.util.configuration.handler.text.PlainTextConfigurationHandler");
+        properties.put("config", "<root><signingfactory class=\""
+            + KeystoreSigningFactory.class.getName() + "\">"
+            + sStores
+            + "</signingfactory></root>");
+        ConfigurationManager configurationManager = ConfigurationManager.getInstance();
+        configurationManager.start(properties);
+
+        AbstractSigningFactory factory = AbstractSigningFactory.createInstance(
+            configurationManager, configurationManager.getSection(null, "signingfactory"));
+        factory.start();
+        return factory;
+    }
+
+    //the first of the supplied aliases in trust store order
+    private String firstAlias(List<String> listAliases) throws Exception {
+        Enumeration<String> aliases = load(_fileTruststore).aliases();
+        while (aliases.hasMoreElements()) {
+            String sAlias = aliases.nextElement();
+            if (listAliases.contains(sAlias))
+                return sAlias;
+        }
+        return null;
+    }
+
+    private static KeyStore load(File file) throws Exception {
+        KeyStore store = KeyStore.getInstance("JKS");
+        InputStream in = new FileInputStream(file);
+        try {
+            store.load(in, PASSWORD.toCharArray());
+        }
+        finally {
+            in.close();
+        }
+        return store;
+    }
+
+    private static void generateKey(File file, String sAlias, String sName)
+        throws Exception {
+        String sKeytool = System.getProperty("java.home")
+            + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(sKeytool, "-genkeypair",
+            "-alias", sAlias, "-dname", sName, "-keyalg", "RSA", "-keysize", "1024",
+            "-validity", "1", "-storetype", "JKS", "-keystore", file.getAbsolutePath(),
+            "-storepass", PASSWORD, "-keypass", PASSWORD)
+            .redirectErrorStream(true).start();
+        InputStream in = process.getInputStream();
+        try {
+            while (in.read() != -1);
+        }
+        finally {
+            in.close();
+        }
+        assertEquals("keytool failed for " + sAlias, 0, process.waitFor());
+    }
+}
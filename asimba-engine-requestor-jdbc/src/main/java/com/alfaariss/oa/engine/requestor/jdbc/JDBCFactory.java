@@ -28,15 +28,18 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.cache.ExpiringCache;
 import org.w3c.dom.Element;
 
 import com.alfaariss.oa.OAException;
@@ -89,24 +92,30 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
     private String _sQuerySelectAllRequestors;
     private String _sQuerySelectAllEnabledRequestors;
     
+    private String _sQuerySelectPoolsVersion;
+    private String _sQuerySelectRequestorsVersion;
+    
     /** Setting to control requestorpool-cache; default: false */
     protected boolean _isCacheEnabled;
     
-    /**
-     * RequestorPool Cache entries 
-     */
-    private class RequestorPoolEntry {
-    	public Date _dLastModified;
-    	public RequestorPool _oRequestorPool;
-    	
-    	public RequestorPoolEntry(Date dLastModified, RequestorPool oRequestorPool) {
-    		_dLastModified = dLastModified;
-    		_oRequestorPool = oRequestorPool;
-    	}
-    }
+    /** Default time to live of cached requestors and pools in ms */
+    private final static long DEFAULT_CACHE_TTL = 600000;
+    /** Default maximum number of cached requestors */
+    private final static int DEFAULT_CACHE_SIZE = 10000;
+    /** Default interval between two version checks in ms */
+    private final static long DEFAULT_CACHE_CHECK_INTERVAL = 60000;
     
-    /** Map with PoolId->RequestorPool for caching purposes */
-    private Map<String, RequestorPoolEntry> _mRequestorPoolMap;
+    /** Requestor id -> requestor */
+    private ExpiringCache<String, IRequestor> _cacheRequestors;
+    /** Requestor id -> pool of the requestor; requestors of one pool share the pool object */
+    private ExpiringCache<String, RequestorPool> _cachePools;
+    /** Incremented when the cache is cleared, so loads that started before are not cached */
+    private final AtomicLong _lCacheGeneration;
+    private long _lCacheTTL;
+    private int _iCacheSize;
+    private long _lCacheCheckInterval;
+    private String _sCacheVersion;
+    private ScheduledExecutorService _cacheChecker;
 
     
 	/**
@@ -129,8 +138,11 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
         _sQuerySelectAllEnabledRequestorpools = null;
         _sQuerySelectAllRequestors = null;
         _sQuerySelectAllEnabledRequestors = null;
+        _sQuerySelectPoolsVersion = null;
+        _sQuerySelectRequestorsVersion = null;
         
         _isCacheEnabled = false;
+        _lCacheGeneration = new AtomicLong();
 	}
 
     /**
@@ -140,12 +152,23 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
     @Override
     public RequestorPool getRequestorPool(String sRequestor) throws RequestorException
     {
+        if (_isCacheEnabled)
+        {
+            RequestorPool oCachedPool = _cachePools.get(sRequestor);
+            if (oCachedPool != null)
+            {
+                _logger.debug("Retrieved requestorpool from cache: " + oCachedPool.getID());
+                return oCachedPool;
+            }
+        }
+        
         JDBCRequestorPool oRequestorPool = null;
         Connection oConnection = null;
         PreparedStatement oPreparedStatement = null;
         ResultSet oResultSet = null;
         try
         {
+            long lGeneration = _lCacheGeneration.get();
             oConnection = _oDataSource.getConnection();
                         
             oPreparedStatement = oConnection.prepareStatement(_sQuerySelectPool);
@@ -153,39 +176,12 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
             oResultSet = oPreparedStatement.executeQuery();
             if (oResultSet.next())
             {
-            	String sPoolId = oResultSet.getString(JDBCRequestorPool.COLUMN_ID);
-            	
-            	// Work with cache:
-            	if (_isCacheEnabled) {
-            		RequestorPoolEntry oRPE = _mRequestorPoolMap.get(sPoolId);
-            		
-            		if (oRPE != null) {
-                		long lCachedDateLastModified = 0;
-                		if (oRPE._dLastModified != null) lCachedDateLastModified = oRPE._dLastModified.getTime();
-                		
-                		long lRealDateLastModified = getMostRecentDate(
-                				oResultSet.getTimestamp("date_last_modified"), oResultSet.getTimestamp("requestor_date"));
-            			
-                		if (lRealDateLastModified > 0 && (lRealDateLastModified <= lCachedDateLastModified)) {
-                			// Cached version is recent; RequestorPool established: return it
-                			 _logger.debug("Retrieved requestorpool from cache: " + sPoolId);
-                			return oRPE._oRequestorPool;
-                		}
-            		}
-            		// No cached RequestorPool, or RequestorPool is expired
-            	}
-            	
                 oRequestorPool = new JDBCRequestorPool(oResultSet, _oDataSource, 
                     _sPoolsTable, _sRequestorsTable, _sRequestorPropertiesTable, 
                     _sAuthenticationTable, _sPoolPropertiesTable);
                 
-                if (_isCacheEnabled) {
-                	// Add to or update cache
-                	Date dLastModified = oResultSet.getDate(JDBCRequestorPool.COLUMN_DATE_LAST_MODIFIED); 
-                	RequestorPoolEntry oRPE = new RequestorPoolEntry(dLastModified, oRequestorPool);
-                	
-                	_mRequestorPoolMap.put(oRequestorPool.getID(), oRPE);
-                }
+                if (_isCacheEnabled)
+                    cachePool(sRequestor, oRequestorPool, lGeneration);
             }
             
             if (oRequestorPool != null)
@@ -250,6 +246,13 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
     @Override
     public IRequestor getRequestor(String sRequestor) throws RequestorException
     {
+        if (_isCacheEnabled)
+        {
+            IRequestor oCachedRequestor = _cacheRequestors.get(sRequestor);
+            if (oCachedRequestor != null)
+                return oCachedRequestor;
+        }
+        
         IRequestor oRequestor = null;
         Connection oConnection = null;
         PreparedStatement oPreparedStatement = null;
@@ -257,6 +260,7 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
         ResultSet rsProperties = null;
         try
         {
+            long lGeneration = _lCacheGeneration.get();
             oConnection = _oDataSource.getConnection();
             
             oPreparedStatement = oConnection.prepareStatement(_sQuerySelectRequestor);
@@ -273,6 +277,9 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
                     rsRequestor, rsProperties);
                 oRequestor = oJDBCRequestor.getRequestor();
                 _logger.debug("Retrieved requestor: " + oRequestor);
+                
+                if (_isCacheEnabled && lGeneration == _lCacheGeneration.get())
+                    _cacheRequestors.put(sRequestor, oRequestor, _lCacheTTL);
             }
             else
                 _logger.debug("Requestor not found: " + sRequestor);
@@ -418,7 +425,7 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
         {
             _configurationManager = oConfigurationManager;
 
-        	// Manage a cache: Map< PoolID -> JDBCRequestorPoolEntry-instance >
+        	// Manage a cache: requestor id -> requestor and requestor id -> pool
         	Element elCache = _configurationManager.getSection(eConfig, "cache");
         	if (elCache != null) {
         		String sEnabled =_configurationManager.getParam(elCache, "enabled");
@@ -430,7 +437,9 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
         	}
         	
         	if (_isCacheEnabled) {
-    			_mRequestorPoolMap = new HashMap<String, RequestorPoolEntry>();
+        		readCacheConfig(elCache);
+        		_cacheRequestors = new ExpiringCache<String, IRequestor>("JDBC requestors", _iCacheSize, _lCacheTTL);
+        		_cachePools = new ExpiringCache<String, RequestorPool>("JDBC requestorpools", _iCacheSize, _lCacheTTL);
     			_logger.info("Enabling RequestorPool cache");
         	}
             
@@ -647,6 +656,9 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
             validateTable(oConnection, eValidation, "requestor_properties", sbVerify.toString());
             
             createQueries();
+            
+            if (_isCacheEnabled)
+                startCacheChecker();
         }
         catch(RequestorException e)
         {
@@ -709,12 +721,26 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
         _sQuerySelectAllEnabledRequestorpools = null;
         _sQuerySelectAllRequestors = null;
         _sQuerySelectAllEnabledRequestors = null;
+        _sQuerySelectPoolsVersion = null;
+        _sQuerySelectRequestorsVersion = null;
 
         // Clean up cache
-        if (_mRequestorPoolMap != null) {
-        	_mRequestorPoolMap.clear();
-        	_mRequestorPoolMap = null;
+        if (_cacheChecker != null)
+        {
+            _cacheChecker.shutdownNow();
+            _cacheChecker = null;
+        }
+        if (_cacheRequestors != null)
+        {
+            _logger.info(_cacheRequestors);
+            _logger.info(_cachePools);
+            _cacheRequestors.clear();
+            _cachePools.clear();
+            _cacheRequestors = null;
+            _cachePools = null;
         }
+        _sCacheVersion = null;
+        _isCacheEnabled = false;
     }
 
     /**
@@ -1068,6 +1094,9 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
     @Override
     public boolean isRequestor(String requestorID) throws RequestorException
     {
+        if (_isCacheEnabled && _cacheRequestors.get(requestorID) != null)
+            return true;
+        
         boolean bIsRequestor = false;
         Connection oConnection = null;
         PreparedStatement oPreparedStatement = null;
@@ -1372,11 +1401,6 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
     {
         StringBuffer sbSelectPool = new StringBuffer("SELECT ");
         sbSelectPool.append(_sPoolsTable).append(".*");
-        if (_isCacheEnabled) {
-        	// Backwards compatibility; it is possible that the attribute does not exist
-        	sbSelectPool.append(",").append(_sRequestorsTable).append(".").append(JDBCRequestor.COLUMN_DATELASTMODIFIED)
-        		.append(" AS requestor_date");
-        }
         sbSelectPool.append(" FROM ");
         sbSelectPool.append(_sRequestorsTable);
         sbSelectPool.append(",");
@@ -1470,27 +1494,199 @@ public class JDBCFactory implements IRequestorPoolFactory, IComponent
         sbSelectAllEnabledRequestors.append(" =? ");
         _sQuerySelectAllEnabledRequestors = sbSelectAllEnabledRequestors.toString();
         _logger.debug("Using select all enabled requestors query: " + _sQuerySelectAllEnabledRequestors);
+        
+        StringBuffer sbSelectPoolsVersion = new StringBuffer("SELECT COUNT(*),MAX(");
+        sbSelectPoolsVersion.append(JDBCRequestorPool.COLUMN_DATE_LAST_MODIFIED);
+        sbSelectPoolsVersion.append(") FROM ");
+        sbSelectPoolsVersion.append(_sPoolsTable);
+        _sQuerySelectPoolsVersion = sbSelectPoolsVersion.toString();
+        _logger.debug("Using requestorpools version query: " + _sQuerySelectPoolsVersion);
+        
+        StringBuffer sbSelectRequestorsVersion = new StringBuffer("SELECT COUNT(*),MAX(");
+        sbSelectRequestorsVersion.append(JDBCRequestor.COLUMN_DATELASTMODIFIED);
+        sbSelectRequestorsVersion.append(") FROM ");
+        sbSelectRequestorsVersion.append(_sRequestorsTable);
+        _sQuerySelectRequestorsVersion = sbSelectRequestorsVersion.toString();
+        _logger.debug("Using requestors version query: " + _sQuerySelectRequestorsVersion);
+    }
+    
+    
+    private void readCacheConfig(Element elCache) throws OAException
+    {
+        _lCacheTTL = readCacheParam(elCache, "ttl", DEFAULT_CACHE_TTL);
+        long lCacheSize = readCacheParam(elCache, "max_size", DEFAULT_CACHE_SIZE);
+        if (lCacheSize == 0 || lCacheSize > Integer.MAX_VALUE)
+        {
+            _logger.error("Invalid value for cache@max_size: " + lCacheSize);
+            throw new RequestorException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        _iCacheSize = (int)lCacheSize;
+        _lCacheCheckInterval = readCacheParam(elCache, "check_interval", DEFAULT_CACHE_CHECK_INTERVAL);
+    }
+    
+    private long readCacheParam(Element elCache, String sName, long lDefault) 
+        throws OAException
+    {
+        String sValue = _configurationManager.getParam(elCache, sName);
+        if (sValue == null)
+        {
+            _logger.info("No optional 'cache@" + sName + "' found in configuration, using default: " + lDefault);
+            return lDefault;
+        }
+        
+        long lValue;
+        try
+        {
+            lValue = Long.parseLong(sValue);
+        }
+        catch (NumberFormatException e)
+        {
+            lValue = -1;
+        }
+        if (lValue < 0)
+        {
+            _logger.error("Invalid value for cache@" + sName + ": " + sValue);
+            throw new RequestorException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        return lValue;
     }
     
+    /**
+     * Caches a pool for all its requestors, and the requestors themselves.
+     * 
+     * @param sRequestor The requestor the pool was retrieved for.
+     * @param oRequestorPool The pool.
+     * @param lGeneration The cache generation from before the pool was read.
+     */
+    private void cachePool(String sRequestor, RequestorPool oRequestorPool, long lGeneration)
+    {
+        if (lGeneration != _lCacheGeneration.get())
+            return; //Cache was cleared while reading; the pool may be outdated
+        
+        for (IRequestor oRequestor : oRequestorPool.getRequestors())
+        {
+            _cachePools.put(oRequestor.getID(), oRequestorPool, _lCacheTTL);
+            _cacheRequestors.put(oRequestor.getID(), oRequestor, _lCacheTTL);
+        }
+        _cachePools.put(sRequestor, oRequestorPool, _lCacheTTL);
+    }
     
     /**
-     * Establish the most recent timestamp from the two Timestamps; returns -1 when 
-     * @param ts1 Value for date 1; may be null
-     * @param ts2 Value for date 2; may be null
-     * @return Most recent date in ms since 1970, or -1 when it could not be established
+     * Reads the version of the pools and requestors and starts checking it
+     * in the background; the cache is cleared when it changes.
+     * 
+     * If the version can not be read, e.g. because there is no 
+     * date_last_modified column, cached items only expire.
      */
-    private long getMostRecentDate(Timestamp ts1, Timestamp ts2) {
-    	// Both null? Then we don't know
-    	if (ts1 == null && ts2 == null) return -1;
-
-    	// Not both null, but tsPool is null? Then tsRequestors contains the time we want
-    	if (ts1 == null) return ts2.getTime(); 
-    	// Or tsPool is it when tsRequestors is null...
-    	if (ts2 == null) return ts1.getTime();
-
-    	// So, both are non-null; which one is most recent:
-    	if (ts1.before(ts2)) return ts2.getTime();
-    	return ts1.getTime();
+    private void startCacheChecker()
+    {
+        if (_lCacheCheckInterval <= 0)
+        {
+            _logger.info("RequestorPool cache version check disabled, items expire after " + _lCacheTTL + " ms");
+            return;
+        }
+        
+        try
+        {
+            _sCacheVersion = readCacheVersion();
+        }
+        catch (SQLException e)
+        {
+            _logger.warn("Could not read requestorpool version, items expire after " + _lCacheTTL + " ms", e);
+            return;
+        }
+        
+        _cacheChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "JDBC requestorpool cache check");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        _cacheChecker.scheduleWithFixedDelay(new Runnable() {
+            public void run()
+            {
+                checkCacheVersion();
+            }
+        }, _lCacheCheckInterval, _lCacheCheckInterval, TimeUnit.MILLISECONDS);
+    }
+    
+    private void checkCacheVersion()
+    {
+        try
+        {
+            String sVersion = readCacheVersion();
+            if (!sVersion.equals(_sCacheVersion))
+            {
+                _lCacheGeneration.incrementAndGet();
+                _cacheRequestors.clear();
+                _cachePools.clear();
+                _sCacheVersion = sVersion;
+                _logger.info("Requestors changed, RequestorPool cache cleared");
+            }
+        }
+        catch (Exception e)
+        {
+            //Keep the cached items, they expire anyway
+            _logger.error("Could not check requestorpool version", e);
+        }
+    }
+    
+    /**
+     * Returns the number of rows and the last modification of the pools and 
+     * requestors tables; an added, changed or removed row changes it.
+     */
+    private String readCacheVersion() throws SQLException
+    {
+        StringBuffer sbVersion = new StringBuffer();
+        Connection oConnection = _oDataSource.getConnection();
+        try
+        {
+            appendVersion(oConnection, _sQuerySelectPoolsVersion, sbVersion);
+            sbVersion.append("/");
+            appendVersion(oConnection, _sQuerySelectRequestorsVersion, sbVersion);
+        }
+        finally
+        {
+            try
+            {
+                oConnection.close();
+            }
+            catch (Exception e)
+            {
+                _logger.error("Could not close connection", e);
+            }
+        }
+        return sbVersion.toString();
+    }
+    
+    private void appendVersion(Connection oConnection, String sQuery, 
+        StringBuffer sbVersion) throws SQLException
+    {
+        PreparedStatement oPreparedStatement = oConnection.prepareStatement(sQuery);
+        try
+        {
+            ResultSet oResultSet = oPreparedStatement.executeQuery();
+            try
+            {
+                if (oResultSet.next())
+                {
+                    sbVersion.append(oResultSet.getLong(1));
+                    sbVersion.append(",");
+                    Timestamp tsModified = oResultSet.getTimestamp(2);
+                    sbVersion.append(tsModified == null ? -1 : tsModified.getTime());
+                }
+            }
+            finally
+            {
+                oResultSet.close();
+            }
+        }
+        finally
+        {
+            oPreparedStatement.close();
+        }
     }
 
 }
@@ -25,7 +25,11 @@ package org.gluu.asimba.engine.requestor.ldap;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -42,13 +46,22 @@ import com.alfaariss.oa.engine.requestor.configuration.ConfigurationFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import org.gluu.asimba.util.ldap.LDAPSynchronizer;
 import org.gluu.asimba.util.ldap.LDAPUtility;
+import org.gluu.asimba.util.ldap.sp.LDAPRequestorEntry;
+import org.gluu.asimba.util.ldap.sp.LDAPRequestorPoolEntry;
+import org.gluu.asimba.util.ldap.sp.RequestorEntry;
 import org.gluu.asimba.util.ldap.sp.RequestorPoolEntry;
 
 /**
  * The requestor pool factory.
  *
  * Reads factory information from LDAP items.
+ * 
+ * The pools and requestors are kept up to date by a background
+ * {@link LDAPSynchronizer}, configured by the optional <code>sync</code>
+ * section. A changed pool or requestor replaces the pool object it belongs
+ * to, so a lookup always sees a complete pool.
  *
  * @author Dmitry Ognyannikov
  */
@@ -56,15 +69,16 @@ public class LDAPFactory extends ConfigurationFactory {
 
     private static final Log _logger = LogFactory.getLog(LDAPFactory.class);
 
-    private HashMap<String, RequestorPool> _mapPools;
-    private HashMap<String, IRequestor> _mapRequestors;
+    private final Map<String, RequestorPool> _mapPools;
+    private final Map<String, IRequestor> _mapRequestors;
+    private RequestorSynchronizer _synchronizer;
 
     /**
      * Creates the object.
      */
     public LDAPFactory() {
-        _mapPools = new HashMap<>();
-        _mapRequestors = new HashMap<>();
+        _mapPools = new ConcurrentHashMap<>();
+        _mapRequestors = new ConcurrentHashMap<>();
     }
 
     /**
@@ -92,8 +106,9 @@ public class LDAPFactory extends ConfigurationFactory {
      */
     @Override
     public IRequestor getRequestor(String sRequestor) throws RequestorException {
-        if (_mapRequestors.containsKey(sRequestor)) {
-            return _mapRequestors.get(sRequestor);
+        IRequestor oRequestor = _mapRequestors.get(sRequestor);
+        if (oRequestor != null) {
+            return oRequestor;
         } else {
             return super.getRequestor(sRequestor);
         }
@@ -121,60 +136,31 @@ public class LDAPFactory extends ConfigurationFactory {
     public void start(IConfigurationManager oConfigurationManager, Element eConfig) throws OAException {
         super.start(oConfigurationManager, eConfig);
         
+        RequestorSynchronizer synchronizer = createSynchronizer();
+        synchronizer.init(oConfigurationManager, eConfig);
         try {
-            HashMap<String, RequestorPool> pools = new HashMap<>();
-            HashMap<String, IRequestor> requestors = new HashMap<>();
-
-            // load LDAP pools
-            List<RequestorPoolEntry> poolEntries = LDAPUtility.loadRequestorPools();
-
-            for (RequestorPoolEntry entry : poolEntries) {
-                try {
-                    String entityId = entry.getId();
-
-                    if (!entry.isEnabled()) {
-                        _logger.info("RequestorPool is disabled. Id: " + entityId + ", friendlyName: " + entry.getFriendlyName());
-                        continue;
-                    }
-
-                    if (pools.containsKey(entityId)) {
-                        _logger.error("Dublicated RequestorPool. Id: " + entityId + ", friendlyName: " + entry.getFriendlyName());
-                        continue;
-                    }
-
-                    _logger.info("RequestorPool loaded. Id: " + entityId + ", friendlyName: " + entry.getFriendlyName());
-
-                    RequestorPool oRequestorPool = new LDAPRequestorPool(entry);
-
-                    // add pool
-                    pools.put(oRequestorPool.getID(), oRequestorPool);
-                    _logger.info("RequestorPool has been loded to LDAPFactory, id: " + entry.getId());
-
-                    // add pool's requestors
-                    Set<IRequestor> poolRequestors = oRequestorPool.getRequestors();
-                    for (IRequestor requestor : poolRequestors) {
-                        if (!requestor.isEnabled()) {
-                            _logger.info("Requestor is disabled. Id: " + requestor.getID() + ", friendlyName: " + requestor.getFriendlyName());
-                        }
-
-                        if (requestors.containsKey(requestor.getID())) {
-                            _logger.info("Dublicated Requestor. Id: " + requestor.getID() + ", friendlyName: " + requestor.getFriendlyName());
-                        }
-                        
-                        _logger.info("Requestor has been registered to LDAPRequestorPool, id: " + requestor.getID());
-                        requestors.put(requestor.getID(), requestor);
-                    }
-                } catch (Exception e) {
-                    _logger.error("LDAPFactory Internal error while reading requestor pool: " + entry.getId());
-                }
-            }              
-
-            _mapPools = pools;
-            _mapRequestors = requestors;
-        } catch (Exception e) {
+            synchronizer.start();
+        } catch (OAException e) {
             _logger.fatal("Internal error during initialization from LDAP settings", e);
-            throw new RequestorException(SystemErrors.ERROR_INTERNAL);
+            throw new RequestorException(SystemErrors.ERROR_INTERNAL, e);
         }
+        _synchronizer = synchronizer;
+    }
+
+    /**
+     * @return A new synchronizer that applies the LDAP entries to this
+     * factory.
+     */
+    RequestorSynchronizer createSynchronizer() {
+        return new RequestorSynchronizer();
+    }
+
+    /**
+     * @return The synchronizer that keeps the LDAP requestors up to date,
+     * null if not started.
+     */
+    public LDAPSynchronizer getSynchronizer() {
+        return _synchronizer;
     }
 
     /**
@@ -200,13 +186,13 @@ public class LDAPFactory extends ConfigurationFactory {
     public void stop() {
         super.stop();
         
-        if (_mapPools != null) {
-            _mapPools.clear();
-        }
-
-        if (_mapRequestors != null) {
-            _mapRequestors.clear();
+        if (_synchronizer != null) {
+            _synchronizer.stop();
+            _synchronizer = null;
         }
+        
+        _mapPools.clear();
+        _mapRequestors.clear();
     }
 
     /**
@@ -367,4 +353,211 @@ public class LDAPFactory extends ConfigurationFactory {
         return super.isRequestorIDSupported(type);
     }
 
+    private static String getPoolKey(String poolID) {
+        return poolID == null ? "" : poolID.toLowerCase();
+    }
+
+    /**
+     * Applies LDAP changes to the pools and requestors of the factory.
+     * 
+     * Entries are tracked by DN, so a changed id or pool membership removes
+     * the previous version as well. Every pool that is touched by a change
+     * is rebuilt from the known entries and replaces the previous pool.
+     */
+    class RequestorSynchronizer extends LDAPSynchronizer {
+
+        private Map<String, LDAPRequestorPoolEntry> _mapPoolEntries;
+        private Map<String, LDAPRequestorEntry> _mapRequestorEntries;
+        private final Map<String, RequestorPool> _mapPoolsByKey;
+
+        RequestorSynchronizer() {
+            super("requestors");
+            _mapPoolEntries = new HashMap<>();
+            _mapRequestorEntries = new HashMap<>();
+            _mapPoolsByKey = new HashMap<>();
+        }
+
+        @Override
+        protected Date synchronizeAll() throws Exception {
+            List<LDAPRequestorPoolEntry> poolEntries = findRequestorPools(null);
+            List<LDAPRequestorEntry> requestorEntries = findRequestors(null);
+
+            Date latest = null;
+            Set<String> affected = new HashSet<>();
+
+            Map<String, LDAPRequestorPoolEntry> pools = new HashMap<>();
+            for (LDAPRequestorPoolEntry entry : poolEntries) {
+                pools.put(entry.getDn(), entry);
+            }
+            for (LDAPRequestorPoolEntry old : _mapPoolEntries.values()) {
+                if (!pools.containsKey(old.getDn())) {
+                    poolChanged(old, null, affected);
+                }
+            }
+            for (LDAPRequestorPoolEntry entry : poolEntries) {
+                poolChanged(_mapPoolEntries.get(entry.getDn()), entry, affected);
+                latest = getLatest(latest, entry.getModifyTimestamp());
+            }
+            _mapPoolEntries = pools;
+
+            Map<String, LDAPRequestorEntry> requestors = new HashMap<>();
+            for (LDAPRequestorEntry entry : requestorEntries) {
+                requestors.put(entry.getDn(), entry);
+            }
+            for (LDAPRequestorEntry old : _mapRequestorEntries.values()) {
+                if (!requestors.containsKey(old.getDn())) {
+                    requestorChanged(old, null, affected);
+                }
+            }
+            for (LDAPRequestorEntry entry : requestorEntries) {
+                requestorChanged(_mapRequestorEntries.get(entry.getDn()), entry, affected);
+                latest = getLatest(latest, entry.getModifyTimestamp());
+            }
+            _mapRequestorEntries = requestors;
+
+            rebuildPools(affected);
+            return latest;
+        }
+
+        @Override
+        protected Date synchronizeModified(Date since) throws Exception {
+            List<LDAPRequestorPoolEntry> poolEntries = findRequestorPools(since);
+            List<LDAPRequestorEntry> requestorEntries = findRequestors(since);
+
+            Date latest = null;
+            Set<String> affected = new HashSet<>();
+            for (LDAPRequestorPoolEntry entry : poolEntries) {
+                if (poolChanged(_mapPoolEntries.get(entry.getDn()), entry, affected)) {
+                    _mapPoolEntries.put(entry.getDn(), entry);
+                }
+                latest = getLatest(latest, entry.getModifyTimestamp());
+            }
+            for (LDAPRequestorEntry entry : requestorEntries) {
+                if (requestorChanged(_mapRequestorEntries.get(entry.getDn()), entry, affected)) {
+                    _mapRequestorEntries.put(entry.getDn(), entry);
+                }
+                latest = getLatest(latest, entry.getModifyTimestamp());
+            }
+
+            rebuildPools(affected);
+            return latest;
+        }
+
+        /**
+         * @param since The modifyTimestamp to search from, null for all.
+         * @return The pool entries.
+         * @throws Exception If the entries could not be loaded.
+         */
+        List<LDAPRequestorPoolEntry> findRequestorPools(Date since) throws Exception {
+            return LDAPUtility.findRequestorPools(since);
+        }
+
+        /**
+         * @param since The modifyTimestamp to search from, null for all.
+         * @return The requestor entries.
+         * @throws Exception If the entries could not be loaded.
+         */
+        List<LDAPRequestorEntry> findRequestors(Date since) throws Exception {
+            return LDAPUtility.findRequestors(since);
+        }
+
+        private boolean poolChanged(LDAPRequestorPoolEntry old, LDAPRequestorPoolEntry entry, Set<String> affected) {
+            if (old != null && entry != null && !isModified(old.getModifyTimestamp(), old.getEntry().getLastModified(),
+                    entry.getModifyTimestamp(), entry.getEntry().getLastModified())) {
+                return false;
+            }
+            if (old != null) {
+                affected.add(getPoolKey(old.getEntry().getId()));
+            }
+            if (entry != null) {
+                affected.add(getPoolKey(entry.getEntry().getId()));
+            }
+            applied(entry == null ? null : LDAPUtility.parseGeneralizedTime(entry.getModifyTimestamp()));
+            return true;
+        }
+
+        private boolean requestorChanged(LDAPRequestorEntry old, LDAPRequestorEntry entry, Set<String> affected) {
+            if (old != null && entry != null && !isModified(old.getModifyTimestamp(), old.getEntry().getLastModified(),
+                    entry.getModifyTimestamp(), entry.getEntry().getLastModified())) {
+                return false;
+            }
+            if (old != null) {
+                affected.add(getPoolKey(old.getEntry().getPoolID()));
+            }
+            if (entry != null) {
+                affected.add(getPoolKey(entry.getEntry().getPoolID()));
+            }
+            applied(entry == null ? null : LDAPUtility.parseGeneralizedTime(entry.getModifyTimestamp()));
+            return true;
+        }
+
+        private void rebuildPools(Set<String> affected) {
+            for (String key : affected) {
+                rebuildPool(key);
+            }
+        }
+
+        /**
+         * Replaces a pool, registers its requestors and then removes what is
+         * not part of it anymore.
+         */
+        private void rebuildPool(String key) {
+            RequestorPoolEntry poolEntry = null;
+            for (LDAPRequestorPoolEntry entry : _mapPoolEntries.values()) {
+                RequestorPoolEntry candidate = entry.getEntry();
+                if (candidate.getId() == null || !key.equals(getPoolKey(candidate.getId()))) {
+                    continue;
+                }
+                if (!candidate.isEnabled()) {
+                    _logger.info("RequestorPool is disabled. Id: " + candidate.getId() + ", friendlyName: " + candidate.getFriendlyName());
+                } else if (poolEntry != null) {
+                    _logger.error("Dublicated RequestorPool. Id: " + candidate.getId() + ", friendlyName: " + candidate.getFriendlyName());
+                } else {
+                    poolEntry = candidate;
+                }
+            }
+
+            RequestorPool newPool = null;
+            if (poolEntry != null) {
+                List<RequestorEntry> members = new ArrayList<>();
+                for (LDAPRequestorEntry entry : _mapRequestorEntries.values()) {
+                    if (entry.getEntry().getPoolID() != null && key.equals(getPoolKey(entry.getEntry().getPoolID()))) {
+                        members.add(entry.getEntry());
+                    }
+                }
+                try {
+                    newPool = new LDAPRequestorPool(poolEntry, members);
+                    _logger.info("RequestorPool has been loded to LDAPFactory, id: " + poolEntry.getId());
+                } catch (Exception e) {
+                    _logger.error("LDAPFactory Internal error while reading requestor pool: " + poolEntry.getId());
+                }
+            }
+
+            RequestorPool oldPool;
+            if (newPool != null) {
+                oldPool = _mapPoolsByKey.put(key, newPool);
+                _mapPools.put(newPool.getID(), newPool);
+                for (IRequestor requestor : newPool.getRequestors()) {
+                    if (!requestor.isEnabled()) {
+                        _logger.info("Requestor is disabled. Id: " + requestor.getID() + ", friendlyName: " + requestor.getFriendlyName());
+                    }
+                    _mapRequestors.put(requestor.getID(), requestor);
+                }
+            } else {
+                oldPool = _mapPoolsByKey.remove(key);
+            }
+
+            if (oldPool != null) {
+                if (_mapPools.get(oldPool.getID()) == oldPool) {
+                    _mapPools.remove(oldPool.getID());
+                }
+                for (IRequestor requestor : oldPool.getRequestors()) {
+                    //Only remove the old version, it may be registered by another pool by now
+                    if (_mapRequestors.get(requestor.getID()) == requestor) {
+                        _mapRequestors.remove(requestor.getID());
+                    }
+                }
+            }
+        }
+    }
 }
@@ -33,8 +33,8 @@ import com.alfaariss.oa.engine.core.requestor.Requestor;
 import com.alfaariss.oa.engine.core.requestor.RequestorException;
 import com.alfaariss.oa.engine.core.requestor.RequestorPool;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
-import java.util.List;
 import org.gluu.asimba.util.ldap.LDAPUtility;
 import org.gluu.asimba.util.ldap.sp.RequestorPoolEntry;
 import org.gluu.asimba.util.ldap.sp.RequestorEntry;
@@ -59,6 +59,17 @@ public class LDAPRequestorPool extends RequestorPool {
      * @throws RequestorException
      */
     public LDAPRequestorPool(RequestorPoolEntry entry) throws RequestorException {
+        this(entry, null);
+    }
+
+    /**
+     * Creates the object with already loaded requestors.
+     *
+     * @param entry The pool entry.
+     * @param requestors The requestors of the pool, loaded from LDAP if null.
+     * @throws RequestorException
+     */
+    public LDAPRequestorPool(RequestorPoolEntry entry, Collection<RequestorEntry> requestors) throws RequestorException {
         super("", "", true, false, "", "", "", new HashSet<IRequestor>(), new ArrayList<String>());
         
         try {
@@ -100,7 +111,9 @@ public class LDAPRequestorPool extends RequestorPool {
             }
             
             // load requestors
-            List<RequestorEntry> requestors = LDAPUtility.loadRequestorsForPool(_sID);
+            if (requestors == null) {
+                requestors = LDAPUtility.loadRequestorsForPool(_sID);
+            }
             for (RequestorEntry rEntry : requestors) {
                 try {
                     addRequestor(createRequestor(rEntry));
@@ -0,0 +1,168 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.gluu.asimba.engine.requestor.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.gluu.asimba.util.ldap.LDAPUtility;
+import org.gluu.asimba.util.ldap.sp.LDAPRequestorEntry;
+import org.gluu.asimba.util.ldap.sp.LDAPRequestorPoolEntry;
+import org.gluu.asimba.util.ldap.sp.RequestorEntry;
+import org.gluu.asimba.util.ldap.sp.RequestorPoolEntry;
+import org.junit.Test;
+
+import com.alfaariss.oa.engine.core.requestor.RequestorPool;
+
+public class LDAPFactoryTest {
+
+    private static final String FIRST = "20150101120000Z";
+    private static final String SECOND = "20150101120100Z";
+
+    /** Serves the entries from memory, like a directory. */
+    private static class TestFactory extends LDAPFactory {
+        final List<LDAPRequestorPoolEntry> _listPools = new ArrayList<>();
+        final List<LDAPRequestorEntry> _listRequestors = new ArrayList<>();
+
+        @Override
+        RequestorSynchronizer createSynchronizer() {
+            return new RequestorSynchronizer() {
+                @Override
+                List<LDAPRequestorPoolEntry> findRequestorPools(Date since) {
+                    List<LDAPRequestorPoolEntry> result = new ArrayList<>();
+                    for (LDAPRequestorPoolEntry entry : _listPools) {
+                        if (isModifiedSince(entry.getModifyTimestamp(), since)) {
+                            result.add(entry);
+                        }
+                    }
+                    return result;
+                }
+
+                @Override
+                List<LDAPRequestorEntry> findRequestors(Date since) {
+                    List<LDAPRequestorEntry> result = new ArrayList<>();
+                    for (LDAPRequestorEntry entry : _listRequestors) {
+                        if (isModifiedSince(entry.getModifyTimestamp(), since)) {
+                            result.add(entry);
+                        }
+                    }
+                    return result;
+                }
+            };
+        }
+    }
+
+    @Test
+    public void testFullSync() throws Exception {
+        TestFactory factory = createFactory();
+        LDAPFactory.RequestorSynchronizer synchronizer = factory.createSynchronizer();
+        assertTrue(synchronizer.sync());
+
+        assertTrue(factory.isPool("pool1"));
+        assertEquals("pool1", factory.getRequestorPool("r1").getID());
+        assertEquals("pool1", factory.getRequestorPool("r2").getID());
+        assertNotNull(factory.getRequestor("r2"));
+        assertEquals(1, synchronizer.getFullSyncCount());
+    }
+
+    @Test
+    public void testDeltaMovesRequestor() throws Exception {
+        TestFactory factory = createFactory();
+        LDAPFactory.RequestorSynchronizer synchronizer = factory.createSynchronizer();
+        assertTrue(synchronizer.sync());
+        RequestorPool oldPool = factory.getRequestorPool("r1");
+
+        factory._listPools.add(pool("cn=pool2", "pool2", SECOND));
+        factory._listRequestors.set(1, requestor("cn=r2", "r2", "pool2", SECOND));
+        assertTrue(synchronizer.sync());
+        assertEquals(1, synchronizer.getFullSyncCount());
+
+        assertEquals("pool2", factory.getRequestorPool("r2").getID());
+        RequestorPool pool1 = factory.getRequestorPool("r1");
+        assertEquals("pool1", pool1.getID());
+        assertFalse(pool1.existRequestor("r2"));
+        //The changed pool was replaced, the old one is left intact
+        assertTrue(oldPool != pool1);
+        assertTrue(oldPool.existRequestor("r2"));
+    }
+
+    @Test
+    public void testFullSyncRemovesDeleted() throws Exception {
+        TestFactory factory = createFactory();
+        LDAPFactory.RequestorSynchronizer synchronizer = factory.createSynchronizer();
+        assertTrue(synchronizer.sync());
+
+        factory._listRequestors.remove(0);
+        //A delta query does not return deleted entries
+        assertTrue(synchronizer.sync());
+        assertNotNull(factory.getRequestor("r1"));
+
+        synchronizer.synchronizeAll();
+        assertNull(factory.getRequestor("r1"));
+        assertNull(factory.getRequestorPool("r1"));
+        assertEquals("pool1", factory.getRequestorPool("r2").getID());
+    }
+
+    private static boolean isModifiedSince(String timestamp, Date since) {
+        return since == null || !LDAPUtility.parseGeneralizedTime(timestamp).before(since);
+    }
+
+    private static TestFactory createFactory() {
+        TestFactory factory = new TestFactory();
+        factory._listPools.add(pool("cn=pool1", "pool1", FIRST));
+        factory._listRequestors.add(requestor("cn=r1", "r1", "pool1", FIRST));
+        factory._listRequestors.add(requestor("cn=r2", "r2", "pool1", FIRST));
+        return factory;
+    }
+
+    private static LDAPRequestorPoolEntry pool(String dn, String id, String timestamp) {
+        RequestorPoolEntry entry = new RequestorPoolEntry();
+        entry.setId(id);
+        entry.setFriendlyName(id);
+        entry.setEnabled(true);
+        LDAPRequestorPoolEntry ldapEntry = new LDAPRequestorPoolEntry();
+        ldapEntry.setEntry(entry);
+        ldapEntry.setDn(dn);
+        ldapEntry.setModifyTimestamp(timestamp);
+        return ldapEntry;
+    }
+
+    private static LDAPRequestorEntry requestor(String dn, String id, String poolID, String timestamp) {
+        RequestorEntry entry = new RequestorEntry();
+        entry.setId(id);
+        entry.setFriendlyName(id);
+        entry.setPoolID(poolID);
+        entry.setEnabled(true);
+        LDAPRequestorEntry ldapEntry = new LDAPRequestorEntry();
+        ldapEntry.setEntry(entry);
+        ldapEntry.setDn(dn);
+        ldapEntry.setModifyTimestamp(timestamp);
+        return ldapEntry;
+    }
+}
@@ -21,12 +21,14 @@
  * 
  */
 package com.alfaariss.oa.engine.session.jdbc;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -34,6 +36,8 @@ import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.engine.core.storage.codec.StorageCodecFactory;
+import org.asimba.utility.storage.codec.IStorageCodec;
 import org.w3c.dom.Element;
 
 import com.alfaariss.oa.OAException;
@@ -55,7 +59,6 @@ import com.alfaariss.oa.engine.core.authentication.AuthenticationProfile;
 import com.alfaariss.oa.engine.core.session.SessionException;
 import com.alfaariss.oa.engine.core.session.factory.ISessionFactory;
 import com.alfaariss.oa.util.ModifiedBase64;
-import com.alfaariss.oa.util.Serialize;
 import com.alfaariss.oa.util.database.DatabaseException;
 import com.alfaariss.oa.util.database.jdbc.DataSourceFactory;
 import com.alfaariss.oa.util.logging.UserEventLogItem;
@@ -88,6 +91,10 @@ public class JDBCSessionFactory extends AbstractStorageFactory
     private final static String COLUMN_AUTHN_PROFILES = "authn_profiles";
     private final static String COLUMN_PASSIVE = "passive";
     
+    private final static long WRITE_BEHIND_DELAY = 50;
+    private final static long WRITE_BEHIND_BATCH_SIZE = 100;
+    private final static long WRITE_BEHIND_MAX_PENDING = 10000;
+    
     private String _sTableName;
     private String _sColumnID;
     private String _sColumnTGT_ID;
@@ -114,6 +121,10 @@ public class JDBCSessionFactory extends AbstractStorageFactory
     
     //The JDBC manager 
     private DataSource _oDataSource;
+    //The codec for the serialized columns
+    private IStorageCodec _oCodec;
+    //The optional write-behind queue
+    private SessionWriteBehind _oWriteBehind;
     //The system logger
     private Log _logger;
     private Log _eventLogger;
@@ -161,13 +172,33 @@ public class JDBCSessionFactory extends AbstractStorageFactory
             }
         }
         
+        _oCodec = StorageCodecFactory.createCodec(_configurationManager, _eConfig);
+        
         //Read query configuration
         createQueries(_eConfig);
         
         verifyTableConfig(_eConfig);
         
-        if(_tCleaner != null)
-            _tCleaner.start();    
+        _oWriteBehind = createWriteBehind(_eConfig);
+        if (_oWriteBehind != null)
+            _oWriteBehind.start();
+        
+        startCleaner();
+    }
+    
+    /**
+     * Stop the cleaner and write all queued sessions.
+     * @see IStorageFactory#stop()
+     */
+    public void stop()
+    {
+        super.stop();
+        if (_oWriteBehind != null)
+        {
+            _oWriteBehind.stop();
+            _logger.info("Write-behind stopped: " + _oWriteBehind);
+            _oWriteBehind = null;
+        }
     }
 
 	/**
@@ -199,6 +230,13 @@ public class JDBCSessionFactory extends AbstractStorageFactory
         if(id == null || !(id instanceof String))
             throw new IllegalArgumentException("Suplied id is empty or invalid");
         
+        if (_oWriteBehind != null)
+        {
+            SessionWriteBehind.Write write = _oWriteBehind.get((String)id);
+            if (write != null)
+                return write._iOperation != SessionWriteBehind.OP_DELETE;
+        }
+        
         boolean bRet = false;
         Connection oConnection = null;
         PreparedStatement psSelect = null;
@@ -262,13 +300,33 @@ public class JDBCSessionFactory extends AbstractStorageFactory
 	 * @return The Session, or null if a Session with the given id does not exist.
 	 * @throws PersistenceException If retrieving fails.
 	 */
-    @SuppressWarnings("unchecked") //Serialize value can not be checked
 	public JDBCSession retrieve(Object id)
 	  throws PersistenceException
     {
         if(id == null || !(id instanceof String))
             throw new IllegalArgumentException("Suplied id is empty or invalid");
         
+        if (_oWriteBehind != null)
+        {
+            //Read your own writes that are not in the database yet
+            SessionWriteBehind.Write write = _oWriteBehind.get((String)id);
+            if (write != null)
+            {
+                if (write._iOperation == SessionWriteBehind.OP_DELETE)
+                    return null;
+                
+                try
+                {
+                    return createSession(write._record);
+                }
+                catch (Exception e)
+                {
+                    _logger.error("Could not decode queued session with id: " + id, e);
+                    throw new PersistenceException(SystemErrors.ERROR_RESOURCE_RETRIEVE);
+                }
+            }
+        }
+        
         Connection oConnection = null;
         JDBCSession session = null;
         PreparedStatement ps = null;
@@ -282,47 +340,21 @@ public class JDBCSessionFactory extends AbstractStorageFactory
             rs = ps.executeQuery();
             if(rs.next())
             {   
-               session = new JDBCSession(this, rs.getString(_sColumnREQUESTOR));
-               session.setId((String)id);
-               
-               String sTGTID = rs.getString(_sColumnTGT_ID);
-               if (sTGTID != null)
-                   session.setTGTId(sTGTID);
-               
-               session.setState(SessionState.values()[rs.getInt(_sColumnSTATE)]);              
-                            
-               String sUrl = rs.getString(_sColumnURL);
-               if (sUrl != null)
-                   session.setProfileURL(sUrl);
-               
-               IUser oUser = (IUser)Serialize.decode(rs.getBytes(_sColumnOWNER));
-               if (oUser != null)
-                   session.setUser(oUser);
-               
-               session.setExpTime(rs.getTimestamp(_sColumnEXPIRATION).getTime());
-               session.setForcedAuthentication(rs.getBoolean(_sColumnFORCED_AUTHENTICATE));
-               session.setPassive(rs.getBoolean(_sColumnPASSIVE));
-               
-               SessionAttributes oAttributes = 
-                   (SessionAttributes)Serialize.decode(rs.getBytes(_sColumnATTRIBUTES));
-               if (oAttributes != null)
-                   session.setAttributes(oAttributes);
-               
-               String sForcedUid = rs.getString(_sColumnFORCED_USERID);
-               if (sForcedUid != null)
-                   session.setForcedUserID(sForcedUid);
-               
-               Locale oLocale = (Locale)Serialize.decode(rs.getBytes(_sColumnLOCALE));
-               if (oLocale != null)
-                   session.setLocale(oLocale);
-               
-               List listProfiles = (List)Serialize.decode(rs.getBytes(_sColumnAUTHN_PROFILES));
-               if (listProfiles != null)
-                   session.setAuthNProfiles(listProfiles);
-               
-               AuthenticationProfile oProfile = (AuthenticationProfile)Serialize.decode(rs.getBytes(_sColumnSELECTED_AUTHN_PROFILE));
-               if (oProfile != null)
-                   session.setSelectedAuthNProfile(oProfile);
+               SessionRecord record = new SessionRecord((String)id, 
+                   rs.getString(_sColumnTGT_ID), 
+                   rs.getInt(_sColumnSTATE), 
+                   rs.getString(_sColumnREQUESTOR), 
+                   rs.getString(_sColumnURL), 
+                   rs.getBytes(_sColumnOWNER), 
+                   rs.getTimestamp(_sColumnEXPIRATION).getTime(), 
+                   rs.getBoolean(_sColumnFORCED_AUTHENTICATE), 
+                   rs.getBoolean(_sColumnPASSIVE), 
+                   rs.getBytes(_sColumnATTRIBUTES), 
+                   rs.getString(_sColumnFORCED_USERID), 
+                   rs.getBytes(_sColumnLOCALE), 
+                   rs.getBytes(_sColumnSELECTED_AUTHN_PROFILE), 
+                   rs.getBytes(_sColumnAUTHN_PROFILES));
+               session = createSession(record);
             }      
         }
         catch (SQLException e)
@@ -387,6 +419,12 @@ public class JDBCSessionFactory extends AbstractStorageFactory
             throw new IllegalArgumentException(
                 "Suplied session is empty or invalid");
         
+        if (_oWriteBehind != null)
+        {
+            queue(session);
+            return;
+        }
+        
         Connection oConnection = null;
         PreparedStatement psInsert = null;
         PreparedStatement psDelete = null;
@@ -428,15 +466,15 @@ public class JDBCSessionFactory extends AbstractStorageFactory
                     psInsert.setInt(3, session.getState().ordinal());                   
                     psInsert.setString(4, session.getRequestorId());
                     psInsert.setString(5, session.getProfileURL());
-                    psInsert.setBytes(6, Serialize.encode(session.getUser())); 
+                    psInsert.setBytes(6, _oCodec.encode(session.getUser())); 
                     psInsert.setTimestamp(7, new Timestamp(expiration));
                     psInsert.setBoolean(8, session.isForcedAuthentication());
                     psInsert.setBoolean(9, session.isPassive());
-                    psInsert.setBytes(10, Serialize.encode(session.getAttributes()));
+                    psInsert.setBytes(10, _oCodec.encode(session.getAttributes()));
                     psInsert.setString(11, session.getForcedUserID());
-                    psInsert.setBytes(12, Serialize.encode(session.getLocale()));
-                    psInsert.setBytes(13, Serialize.encode(session.getSelectedAuthNProfile()));
-                    psInsert.setBytes(14, Serialize.encode(session.getAuthNProfiles()));
+                    psInsert.setBytes(12, _oCodec.encode(session.getLocale()));
+                    psInsert.setBytes(13, _oCodec.encode(session.getSelectedAuthNProfile()));
+                    psInsert.setBytes(14, _oCodec.encode(session.getAuthNProfiles()));
                     
                     int i = psInsert.executeUpdate();
                     _logger.info(i + " new session(s) added: " + id + " for requestor '"+session.getRequestorId() + "'");
@@ -480,15 +518,15 @@ public class JDBCSessionFactory extends AbstractStorageFactory
                     psUpdate.setInt(2, session.getState().ordinal());                  
                     psUpdate.setString(3, session.getRequestorId());
                     psUpdate.setString(4, session.getProfileURL());
-                    psUpdate.setBytes(5, Serialize.encode(session.getUser()));                                    
+                    psUpdate.setBytes(5, _oCodec.encode(session.getUser()));                                    
                     psUpdate.setTimestamp(6, new Timestamp(expiration));
                     psUpdate.setBoolean(7, session.isForcedAuthentication());
                     psUpdate.setBoolean(8, session.isPassive());
-                    psUpdate.setBytes(9, Serialize.encode(session.getAttributes()));
+                    psUpdate.setBytes(9, _oCodec.encode(session.getAttributes()));
                     psUpdate.setString(10, session.getForcedUserID());
-                    psUpdate.setBytes(11, Serialize.encode(session.getLocale()));
-                    psUpdate.setBytes(12, Serialize.encode(session.getSelectedAuthNProfile()));
-                    psUpdate.setBytes(13, Serialize.encode(session.getAuthNProfiles()));
+                    psUpdate.setBytes(11, _oCodec.encode(session.getLocale()));
+                    psUpdate.setBytes(12, _oCodec.encode(session.getSelectedAuthNProfile()));
+                    psUpdate.setBytes(13, _oCodec.encode(session.getAuthNProfiles()));
                     psUpdate.setString(14, id);
                    
                     int i = psUpdate.executeUpdate();
@@ -565,6 +603,13 @@ public class JDBCSessionFactory extends AbstractStorageFactory
             throw new IllegalArgumentException(
                 "Suplied session array is empty or invalid");  
         
+        if (_oWriteBehind != null)
+        {
+            for(JDBCSession session : sessions)
+                queue(session);
+            return;
+        }
+        
         Connection connection = null;
         PreparedStatement psInsert = null;
         PreparedStatement psDelete = null;
@@ -608,15 +653,15 @@ public class JDBCSessionFactory extends AbstractStorageFactory
                     psInsert.setInt(3, session.getState().ordinal());                   
                     psInsert.setString(4, session.getRequestorId());
                     psInsert.setString(5, session.getProfileURL());
-                    psInsert.setBytes(6, Serialize.encode(session.getUser()));  
+                    psInsert.setBytes(6, _oCodec.encode(session.getUser()));  
                     psInsert.setTimestamp(7, new Timestamp(expiration));
                     psInsert.setBoolean(8, session.isForcedAuthentication());
                     psInsert.setBoolean(9, session.isPassive());
-                    psInsert.setBytes(10, Serialize.encode(session.getAttributes()));
+                    psInsert.setBytes(10, _oCodec.encode(session.getAttributes()));
                     psInsert.setString(11, session.getForcedUserID());
-                    psInsert.setBytes(12, Serialize.encode(session.getLocale()));
-                    psInsert.setBytes(13, Serialize.encode(session.getSelectedAuthNProfile()));
-                    psInsert.setBytes(14, Serialize.encode(session.getAuthNProfiles()));
+                    psInsert.setBytes(12, _oCodec.encode(session.getLocale()));
+                    psInsert.setBytes(13, _oCodec.encode(session.getSelectedAuthNProfile()));
+                    psInsert.setBytes(14, _oCodec.encode(session.getAuthNProfiles()));
                     psInsert.addBatch();      
                 }
                 else if(session.isExpired()) //Expired
@@ -638,15 +683,15 @@ public class JDBCSessionFactory extends AbstractStorageFactory
                     psUpdate.setInt(2, session.getState().ordinal());                   
                     psUpdate.setString(3, session.getRequestorId());
                     psUpdate.setString(4, session.getProfileURL());
-                    psUpdate.setBytes(5, Serialize.encode(session.getUser()));                                    
+                    psUpdate.setBytes(5, _oCodec.encode(session.getUser()));                                    
                     psUpdate.setTimestamp(6, new Timestamp(expiration));
                     psUpdate.setBoolean(7, session.isForcedAuthentication());
                     psInsert.setBoolean(8, session.isPassive());
-                    psUpdate.setBytes(9, Serialize.encode(session.getAttributes()));
+                    psUpdate.setBytes(9, _oCodec.encode(session.getAttributes()));
                     psUpdate.setString(10, session.getForcedUserID());
-                    psUpdate.setBytes(11, Serialize.encode(session.getLocale()));
-                    psUpdate.setBytes(12, Serialize.encode(session.getSelectedAuthNProfile()));
-                    psUpdate.setBytes(13, Serialize.encode(session.getAuthNProfiles()));
+                    psUpdate.setBytes(11, _oCodec.encode(session.getLocale()));
+                    psUpdate.setBytes(12, _oCodec.encode(session.getSelectedAuthNProfile()));
+                    psUpdate.setBytes(13, _oCodec.encode(session.getAuthNProfiles()));
                     psUpdate.setString(14, id);
                     psUpdate.addBatch();        
                 } 
@@ -789,6 +834,12 @@ public class JDBCSessionFactory extends AbstractStorageFactory
     public void removeExpired() throws PersistenceException
     {
         //DD does not log a user event when session is expired, because this will cost an unnecesary select (eventlogging should be done with DB trigger)
+        if (_oWriteBehind != null)
+        {
+            //Write extended expiration times before deleting expired rows
+            _oWriteBehind.flush();
+        }
+        
         Connection oConnection = null;
         PreparedStatement ps = null;
         try
@@ -850,6 +901,301 @@ public class JDBCSessionFactory extends AbstractStorageFactory
         return ISessionFactory.AUTHORITY_NAME;
     }
 
+    /**
+     * Write a batch of queued sessions in one transaction.
+     * 
+     * @param listWrites The writes, at most one per session.
+     * @throws PersistenceException If the batch could not be written.
+     */
+    void writeBatch(List<SessionWriteBehind.Write> listWrites) 
+        throws PersistenceException
+    {
+        Connection connection = null;
+        PreparedStatement psInsert = null;
+        PreparedStatement psDelete = null;
+        PreparedStatement psUpdate = null;
+        int iInserts = 0;
+        int iUpdates = 0;
+        int iDeletes = 0;
+        try
+        {
+            connection = _oDataSource.getConnection();
+            connection.setAutoCommit(false);
+            
+            for (SessionWriteBehind.Write write : listWrites)
+            {
+                switch (write._iOperation)
+                {
+                    case SessionWriteBehind.OP_INSERT:
+                        if (psInsert == null)
+                            psInsert = connection.prepareStatement(_sInsertQuery);
+                        write._record.setInsertParameters(psInsert);
+                        psInsert.addBatch();
+                        iInserts++;
+                        break;
+                    case SessionWriteBehind.OP_UPDATE:
+                        if (psUpdate == null)
+                            psUpdate = connection.prepareStatement(_sUpdateQuery);
+                        write._record.setUpdateParameters(psUpdate);
+                        psUpdate.addBatch();
+                        iUpdates++;
+                        break;
+                    default:
+                        if (psDelete == null)
+                            psDelete = connection.prepareStatement(_sRemoveQuery);
+                        psDelete.setString(1, write._sID);
+                        psDelete.addBatch();
+                        iDeletes++;
+                }
+            }
+            
+            if (psInsert != null)
+                psInsert.executeBatch();
+            if (psUpdate != null)
+                psUpdate.executeBatch();
+            if (psDelete != null)
+                psDelete.executeBatch();
+            connection.commit();
+            
+            if (_logger.isDebugEnabled())
+            {
+                StringBuffer sbDebug = new StringBuffer("Session batch written: ");
+                sbDebug.append(iInserts).append(" added, ");
+                sbDebug.append(iUpdates).append(" updated, ");
+                sbDebug.append(iDeletes).append(" removed");
+                _logger.debug(sbDebug.toString());
+            }
+        }
+        catch (SQLException e)
+        {
+            _logger.error("Could not execute session batch", e); 
+            try
+            {
+                if(connection != null)
+                    connection.rollback();
+            }
+            catch (SQLException e1)
+            {
+                _logger.warn("Could not rollback batch", e1);
+            }
+            throw new PersistenceException(SystemErrors.ERROR_RESOURCE_UPDATE);
+        }
+        finally
+        {
+            try
+            {  
+                if(psInsert != null)
+                    psInsert.close();
+            }
+            catch (SQLException e)
+            {
+                _logger.debug("Could not close insert statement", e);
+            }
+            try
+            {
+                if(psUpdate != null)
+                    psUpdate.close(); 
+            }
+            catch (SQLException e)
+            {
+                _logger.debug("Could not close update statement", e);
+            }
+            try
+            {
+                if(psDelete != null)
+                    psDelete.close(); 
+            }
+            catch (SQLException e)
+            {
+                _logger.debug("Could not close delete statement", e);
+            }
+            try
+            {
+                if(connection != null)
+                    connection.close();
+            }
+            catch (SQLException e)
+            {
+                _logger.debug("Could not close connection", e);
+            }
+        }
+    }
+
+    //Queue the session in the write-behind queue, like persist() writes it
+    private void queue(JDBCSession session) throws PersistenceException
+    {
+        String id = session.getId();
+        try
+        {
+            if (id == null) // New Session
+            {
+                byte[] baId = new byte[ISession.ID_BYTE_LENGTH];
+                do
+                {                
+                    _random.nextBytes(baId);
+                    try
+                    {
+                        id = ModifiedBase64.encode(baId);
+                    }
+                    catch (UnsupportedEncodingException e)
+                    {
+                        _logger.error("Could not create id for byte[]: " + baId, e);
+                        throw new PersistenceException(SystemErrors.ERROR_INTERNAL);
+                    }
+                }
+                while(exists(id)); //Key allready exists  
+                
+                long expiration = System.currentTimeMillis() + _lExpiration;
+                session.setTgtExpTime(expiration);
+                session.setId(id);
+                _oWriteBehind.queue(id, SessionWriteBehind.OP_INSERT, 
+                    new SessionRecord(session, expiration, _oCodec));
+                _logger.info("New session queued: " + id + " for requestor '"+session.getRequestorId() + "'");
+            }
+            else if (session.isExpired()) // Expired
+            {
+                _logger.info("Session Expired: " + id);
+                
+                _eventLogger.info(new UserEventLogItem(session, null, 
+                    UserEvent.SESSION_EXPIRED, this, null));
+                
+                _oWriteBehind.queue(id, SessionWriteBehind.OP_DELETE, null);
+            }
+            else // Update
+            {
+                long expiration = System.currentTimeMillis() + _lExpiration;
+                session.setExpTime(expiration);
+                _oWriteBehind.queue(id, SessionWriteBehind.OP_UPDATE, 
+                    new SessionRecord(session, expiration, _oCodec));
+                _logger.debug("Session update queued: " + id);
+            }
+        }
+        catch (PersistenceException e)
+        {
+            throw e;
+        }
+        catch (IOException e)
+        {
+            _logger.error("Could not encode session with id: " + id, e);
+            throw new PersistenceException(SystemErrors.ERROR_RESOURCE_UPDATE);
+        }
+    }
+    
+    //Create a session from its stored column values
+    @SuppressWarnings("unchecked") //Decoded value can not be checked
+    private JDBCSession createSession(SessionRecord record) throws IOException
+    {
+        JDBCSession session = new JDBCSession(this, record._sRequestorID);
+        session.setId(record._sID);
+        
+        if (record._sTGTID != null)
+            session.setTGTId(record._sTGTID);
+        
+        session.setState(SessionState.values()[record._iState]);              
+        
+        if (record._sProfileURL != null)
+            session.setProfileURL(record._sProfileURL);
+        
+        IUser oUser = (IUser)_oCodec.decode(record._baUser);
+        if (oUser != null)
+            session.setUser(oUser);
+        
+        session.setExpTime(record._lExpiration);
+        session.setForcedAuthentication(record._bForcedAuthenticate);
+        session.setPassive(record._bPassive);
+        
+        SessionAttributes oAttributes = 
+            (SessionAttributes)_oCodec.decode(record._baAttributes);
+        if (oAttributes != null)
+            session.setAttributes(oAttributes);
+        
+        if (record._sForcedUserID != null)
+            session.setForcedUserID(record._sForcedUserID);
+        
+        Locale oLocale = (Locale)_oCodec.decode(record._baLocale);
+        if (oLocale != null)
+            session.setLocale(oLocale);
+        
+        List listProfiles = (List)_oCodec.decode(record._baAuthNProfiles);
+        if (listProfiles != null)
+            session.setAuthNProfiles(listProfiles);
+        
+        AuthenticationProfile oProfile = 
+            (AuthenticationProfile)_oCodec.decode(record._baSelectedAuthNProfile);
+        if (oProfile != null)
+            session.setSelectedAuthNProfile(oProfile);
+        
+        return session;
+    }
+    
+    /*
+     * Read the optional write-behind configuration:
+     * <write_behind enabled="true" delay="50" batch_size="100" max_pending="10000"/>
+     */
+    private SessionWriteBehind createWriteBehind(Element eConfig) 
+        throws OAException
+    {
+        Element eWriteBehind = _configurationManager.getSection(eConfig, "write_behind");
+        if (eWriteBehind == null)
+        {
+            _logger.info("No optional 'write_behind' section found in configuration, sessions are written directly");
+            return null;
+        }
+        
+        String sEnabled = _configurationManager.getParam(eWriteBehind, "enabled");
+        if (sEnabled != null && !sEnabled.equalsIgnoreCase("true"))
+        {
+            if (!sEnabled.equalsIgnoreCase("false"))
+            {
+                _logger.error("Invalid 'enabled' item in 'write_behind' section: " + sEnabled);
+                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+            }
+            _logger.info("Write-behind is disabled, sessions are written directly");
+            return null;
+        }
+        
+        long lDelay = readPositive(eWriteBehind, "delay", WRITE_BEHIND_DELAY);
+        int iBatchSize = (int)readPositive(eWriteBehind, "batch_size", WRITE_BEHIND_BATCH_SIZE);
+        int iMaxPending = (int)readPositive(eWriteBehind, "max_pending", WRITE_BEHIND_MAX_PENDING);
+        
+        StringBuffer sbInfo = new StringBuffer("Using write-behind with delay ");
+        sbInfo.append(lDelay).append(" ms, batch size ");
+        sbInfo.append(iBatchSize).append(" and max pending ");
+        sbInfo.append(iMaxPending);
+        _logger.info(sbInfo.toString());
+        return new SessionWriteBehind(this, lDelay, iBatchSize, iMaxPending);
+    }
+    
+    //Read an optional positive number from the configuration
+    private long readPositive(Element eConfig, String sName, long lDefault) 
+        throws OAException
+    {
+        String sValue = _configurationManager.getParam(eConfig, sName);
+        if (sValue == null)
+        {
+            _logger.info("No optional '" + sName + "' item found in configuration, using default: " + lDefault);
+            return lDefault;
+        }
+        
+        long lValue;
+        try
+        {
+            lValue = Long.parseLong(sValue);
+        }
+        catch (NumberFormatException e)
+        {
+            _logger.error("Invalid '" + sName + "' item found in configuration: " + sValue, e);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ, e);
+        }
+        
+        if (lValue <= 0)
+        {
+            _logger.error("'" + sName + "' item in configuration must be positive: " + sValue);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        return lValue;
+    }
+
     /*
      * Read the entity storage configuration. 
      * 
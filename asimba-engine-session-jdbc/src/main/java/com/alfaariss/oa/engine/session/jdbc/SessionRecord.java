@@ -0,0 +1,154 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.session.jdbc;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import org.asimba.utility.storage.codec.IStorageCodec;
+
+/**
+ * Column values of one session row, with the serialized columns encoded.
+ *
+ * A record is an immutable snapshot of a session at the moment it was
+ * persisted, so it can be written later and decoded into a new session
+ * object without sharing state with the session it was taken from.
+ *
+ * @since 4.0
+ */
+class SessionRecord
+{
+    final String _sID;
+    final String _sTGTID;
+    final int _iState;
+    final String _sRequestorID;
+    final String _sProfileURL;
+    final byte[] _baUser;
+    final long _lExpiration;
+    final boolean _bForcedAuthenticate;
+    final boolean _bPassive;
+    final byte[] _baAttributes;
+    final String _sForcedUserID;
+    final byte[] _baLocale;
+    final byte[] _baSelectedAuthNProfile;
+    final byte[] _baAuthNProfiles;
+
+    /**
+     * Create a record from a session.
+     *
+     * @param session The session, with its id set.
+     * @param lExpiration The expiration time to store.
+     * @param oCodec The codec for the serialized columns.
+     * @throws IOException If a column could not be encoded.
+     */
+    SessionRecord(JDBCSession session, long lExpiration, IStorageCodec oCodec)
+        throws IOException
+    {
+        _sID = session.getId();
+        _sTGTID = session.getTGTId();
+        _iState = session.getState().ordinal();
+        _sRequestorID = session.getRequestorId();
+        _sProfileURL = session.getProfileURL();
+        _baUser = oCodec.encode(session.getUser());
+        _lExpiration = lExpiration;
+        _bForcedAuthenticate = session.isForcedAuthentication();
+        _bPassive = session.isPassive();
+        _baAttributes = oCodec.encode(session.getAttributes());
+        _sForcedUserID = session.getForcedUserID();
+        _baLocale = oCodec.encode(session.getLocale());
+        _baSelectedAuthNProfile = oCodec.encode(session.getSelectedAuthNProfile());
+        _baAuthNProfiles = oCodec.encode(session.getAuthNProfiles());
+    }
+
+    /**
+     * Create a record from stored column values.
+     */
+    SessionRecord(String sID, String sTGTID, int iState, String sRequestorID,
+        String sProfileURL, byte[] baUser, long lExpiration,
+        boolean bForcedAuthenticate, boolean bPassive, byte[] baAttributes,
+        String sForcedUserID, byte[] baLocale, byte[] baSelectedAuthNProfile,
+        byte[] baAuthNProfiles)
+    {
+        _sID = sID;
+        _sTGTID = sTGTID;
+        _iState = iState;
+        _sRequestorID = sRequestorID;
+        _sProfileURL = sProfileURL;
+        _baUser = baUser;
+        _lExpiration = lExpiration;
+        _bForcedAuthenticate = bForcedAuthenticate;
+        _bPassive = bPassive;
+        _baAttributes = baAttributes;
+        _sForcedUserID = sForcedUserID;
+        _baLocale = baLocale;
+        _baSelectedAuthNProfile = baSelectedAuthNProfile;
+        _baAuthNProfiles = baAuthNProfiles;
+    }
+
+    /**
+     * Set the parameters of the insert query.
+     * @param psInsert The insert statement.
+     * @throws SQLException If a parameter could not be set.
+     */
+    void setInsertParameters(PreparedStatement psInsert) throws SQLException
+    {
+        psInsert.setString(1, _sID);
+        psInsert.setString(2, _sTGTID);
+        psInsert.setInt(3, _iState);
+        psInsert.setString(4, _sRequestorID);
+        psInsert.setString(5, _sProfileURL);
+        psInsert.setBytes(6, _baUser);
+        psInsert.setTimestamp(7, new Timestamp(_lExpiration));
+        psInsert.setBoolean(8, _bForcedAuthenticate);
+        psInsert.setBoolean(9, _bPassive);
+        psInsert.setBytes(10, _baAttributes);
+        psInsert.setString(11, _sForcedUserID);
+        psInsert.setBytes(12, _baLocale);
+        psInsert.setBytes(13, _baSelectedAuthNProfile);
+        psInsert.setBytes(14, _baAuthNProfiles);
+    }
+
+    /**
+     * Set the parameters of the update query.
+     * @param psUpdate The update statement.
+     * @throws SQLException If a parameter could not be set.
+     */
+    void setUpdateParameters(PreparedStatement psUpdate) throws SQLException
+    {
+        psUpdate.setString(1, _sTGTID);
+        psUpdate.setInt(2, _iState);
+        psUpdate.setString(3, _sRequestorID);
+        psUpdate.setString(4, _sProfileURL);
+        psUpdate.setBytes(5, _baUser);
+        psUpdate.setTimestamp(6, new Timestamp(_lExpiration));
+        psUpdate.setBoolean(7, _bForcedAuthenticate);
+        psUpdate.setBoolean(8, _bPassive);
+        psUpdate.setBytes(9, _baAttributes);
+        psUpdate.setString(10, _sForcedUserID);
+        psUpdate.setBytes(11, _baLocale);
+        psUpdate.setBytes(12, _baSelectedAuthNProfile);
+        psUpdate.setBytes(13, _baAuthNProfiles);
+        psUpdate.setString(14, _sID);
+    }
+}
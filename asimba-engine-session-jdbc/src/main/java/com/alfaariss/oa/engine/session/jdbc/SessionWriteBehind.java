@@ -0,0 +1,394 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.session.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.alfaariss.oa.api.persistence.PersistenceException;
+
+/**
+ * Write-behind queue for session rows.
+ *
+ * Writes are queued per session id; a newer write for the same id replaces
+ * the queued one, so a session that is persisted several times within the
+ * flush delay is written once. A background writer flushes the queue in
+ * JDBC batches every delay, or as soon as a batch is full.
+ *
+ * Queued and in-flight writes can be read back with {@link #get(String)},
+ * which gives read-your-writes on the member that persisted the session.
+ * Other members read the database and see the write after the flush.
+ *
+ * Writes are flushed by one thread at a time, so writes for the same id
+ * reach the database in the order they were queued. The rows of a failed 
+ * batch are written one at a time, so only the rows that fail by themselves
+ * are queued again, up to {@link #MAX_ATTEMPTS} times.
+ *
+ * @since 4.0
+ */
+class SessionWriteBehind implements Runnable
+{
+    /** Insert a new row. */
+    static final int OP_INSERT = 0;
+    /** Update an existing row. */
+    static final int OP_UPDATE = 1;
+    /** Delete a row. */
+    static final int OP_DELETE = 2;
+    /** The number of times a write is attempted before it is dropped. */
+    static final int MAX_ATTEMPTS = 3;
+
+    private static Log _logger = LogFactory.getLog(SessionWriteBehind.class);
+
+    private final JDBCSessionFactory _oFactory;
+    private final long _lDelay;
+    private final int _iBatchSize;
+    private final int _iMaxPending;
+    private final ConcurrentMap<String, Write> _mapPending;
+    private final ConcurrentMap<String, Write> _mapInFlight;
+    private final ReentrantLock _lockFlush;
+    private final AtomicLong _lQueued;
+    private final AtomicLong _lCoalesced;
+    private final AtomicLong _lWritten;
+    private final AtomicLong _lBatches;
+    private final AtomicLong _lDropped;
+    private ScheduledExecutorService _executor;
+
+    /**
+     * One queued write.
+     */
+    static class Write
+    {
+        final int _iOperation;
+        final SessionRecord _record;
+        final String _sID;
+        int _iAttempts;
+
+        Write(String sID, int iOperation, SessionRecord record)
+        {
+            _sID = sID;
+            _iOperation = iOperation;
+            _record = record;
+        }
+    }
+
+    /**
+     * Create a write-behind queue.
+     *
+     * @param oFactory The factory that writes the batches.
+     * @param lDelay The maximum time in milliseconds a write is queued.
+     * @param iBatchSize The maximum number of rows per batch.
+     * @param iMaxPending The number of queued writes at which persisting
+     *  threads flush the queue themselves.
+     */
+    SessionWriteBehind(JDBCSessionFactory oFactory, long lDelay, int iBatchSize,
+        int iMaxPending)
+    {
+        _oFactory = oFactory;
+        _lDelay = lDelay;
+        _iBatchSize = iBatchSize;
+        _iMaxPending = iMaxPending;
+        _mapPending = new ConcurrentHashMap<String, Write>();
+        _mapInFlight = new ConcurrentHashMap<String, Write>();
+        _lockFlush = new ReentrantLock();
+        _lQueued = new AtomicLong();
+        _lCoalesced = new AtomicLong();
+        _lWritten = new AtomicLong();
+        _lBatches = new AtomicLong();
+        _lDropped = new AtomicLong();
+    }
+
+    /**
+     * Start the background writer.
+     */
+    void start()
+    {
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "JDBCSessionFactory write-behind");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        _executor.scheduleWithFixedDelay(this, _lDelay, _lDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background writer and write all queued rows.
+     */
+    void stop()
+    {
+        if (_executor != null)
+            _executor.shutdown();
+        try
+        {
+            //Retries are queued again, so keep flushing until nothing is left
+            for (int i = 0; i < MAX_ATTEMPTS && !_mapPending.isEmpty(); i++)
+                flush();
+        }
+        catch (Exception e)
+        {
+            _logger.error("Could not write queued sessions during stop", e);
+        }
+        if (!_mapPending.isEmpty())
+            _logger.error(_mapPending.size() + " queued session write(s) lost during stop");
+    }
+
+    /**
+     * Queue a write; replaces a queued write for the same session.
+     *
+     * @param sID The session id.
+     * @param iOperation The operation.
+     * @param record The row to write, <code>null</code> for a delete.
+     */
+    void queue(String sID, int iOperation, SessionRecord record)
+    {
+        _lQueued.incrementAndGet();
+        merge(new Write(sID, iOperation, record));
+
+        int iPending = _mapPending.size();
+        if (iPending >= _iMaxPending)
+        {
+            //Writer can not keep up, let the caller help
+            flush();
+        }
+        else if (iPending >= _iBatchSize)
+        {
+            try
+            {
+                _executor.execute(this);
+            }
+            catch (RejectedExecutionException e)
+            {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Returns the latest write for a session that is not in the database yet.
+     *
+     * @param sID The session id.
+     * @return The write or <code>null</code> if no write is pending.
+     */
+    Write get(String sID)
+    {
+        Write write = _mapPending.get(sID);
+        if (write == null)
+            write = _mapInFlight.get(sID);
+        return write;
+    }
+
+    /**
+     * @return The number of queued writes.
+     */
+    int getPendingCount()
+    {
+        return _mapPending.size();
+    }
+
+    /**
+     * Write all queued rows; blocks while another thread is flushing.
+     */
+    void flush()
+    {
+        _lockFlush.lock();
+        try
+        {
+            if (_mapPending.isEmpty())
+                return;
+
+            List<Write> listWrites = new ArrayList<Write>(_mapPending.size());
+            for (Write write : _mapPending.values())
+            {
+                //In flight before leaving the pending map, so reads never miss it
+                _mapInFlight.put(write._sID, write);
+                if (_mapPending.remove(write._sID, write))
+                    listWrites.add(write);
+                else
+                    _mapInFlight.remove(write._sID, write);
+            }
+
+            for (int i = 0; i < listWrites.size(); i += _iBatchSize)
+            {
+                List<Write> listBatch = listWrites.subList(i,
+                    Math.min(i + _iBatchSize, listWrites.size()));
+                try
+                {
+                    _oFactory.writeBatch(listBatch);
+                    _lWritten.addAndGet(listBatch.size());
+                    _lBatches.incrementAndGet();
+                }
+                catch (PersistenceException e)
+                {
+                    _logger.warn("Could not write batch of " + listBatch.size() 
+                        + " session(s), writing them separately", e);
+                    writeSeparately(listBatch);
+                }
+                finally
+                {
+                    for (Write write : listBatch)
+                        _mapInFlight.remove(write._sID, write);
+                }
+            }
+        }
+        finally
+        {
+            _lockFlush.unlock();
+        }
+    }
+
+    /**
+     * Flush from the background writer.
+     * @see java.lang.Runnable#run()
+     */
+    public void run()
+    {
+        try
+        {
+            flush();
+        }
+        catch (Exception e)
+        {
+            _logger.error("Could not write queued sessions", e);
+        }
+    }
+
+    /**
+     * @return The number of writes that were queued.
+     */
+    long getQueuedCount()
+    {
+        return _lQueued.get();
+    }
+
+    /**
+     * @return The number of writes that replaced a queued write.
+     */
+    long getCoalescedCount()
+    {
+        return _lCoalesced.get();
+    }
+
+    /**
+     * @return The number of rows that were written.
+     */
+    long getWrittenCount()
+    {
+        return _lWritten.get();
+    }
+
+    /**
+     * @return The number of writes that were dropped after 
+     *  {@link #MAX_ATTEMPTS} failures.
+     */
+    long getDroppedCount()
+    {
+        return _lDropped.get();
+    }
+
+    /**
+     * @return A description of the queue counters.
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer("queued=");
+        sb.append(_lQueued.get());
+        sb.append(", coalesced=").append(_lCoalesced.get());
+        sb.append(", written=").append(_lWritten.get());
+        sb.append(", batches=").append(_lBatches.get());
+        sb.append(", dropped=").append(_lDropped.get());
+        sb.append(", pending=").append(_mapPending.size());
+        return sb.toString();
+    }
+
+    //Write the rows of a failed batch one by one; only failing rows are requeued
+    private void writeSeparately(List<Write> listBatch)
+    {
+        for (Write write : listBatch)
+        {
+            if (listBatch.size() > 1)
+            {
+                try
+                {
+                    _oFactory.writeBatch(Collections.singletonList(write));
+                    _lWritten.incrementAndGet();
+                    continue;
+                }
+                catch (PersistenceException e)
+                {
+                    _logger.debug("Could not write session: " + write._sID, e);
+                }
+            }
+            requeue(write);
+        }
+    }
+
+    private void requeue(Write write)
+    {
+        write._iAttempts++;
+        if (write._iAttempts < MAX_ATTEMPTS)
+            merge(write);
+        else
+        {
+            _lDropped.incrementAndGet();
+            _logger.error("Dropping write for session after " + MAX_ATTEMPTS
+                + " attempts: " + write._sID);
+        }
+    }
+
+    //Queue the write; a newer queued write wins but an insert stays an insert
+    private void merge(Write write)
+    {
+        Write current = _mapPending.putIfAbsent(write._sID, write);
+        while (current != null)
+        {
+            Write merged = write;
+            if (current._iOperation == OP_INSERT && write._iOperation == OP_UPDATE)
+                merged = new Write(write._sID, OP_INSERT, write._record);
+            else if (write._iOperation == OP_INSERT && current._iOperation == OP_UPDATE)
+                merged = new Write(write._sID, OP_INSERT, current._record);
+            else if (write._iAttempts > 0)
+                merged = current; //Requeued write is older than the queued one
+
+            if (merged == current || _mapPending.replace(write._sID, current, merged))
+            {
+                _lCoalesced.incrementAndGet();
+                return;
+            }
+            current = _mapPending.putIfAbsent(write._sID, write);
+        }
+    }
+}
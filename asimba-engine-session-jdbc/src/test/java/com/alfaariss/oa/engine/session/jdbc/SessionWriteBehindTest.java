@@ -0,0 +1,168 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.session.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alfaariss.oa.SystemErrors;
+import com.alfaariss.oa.api.persistence.PersistenceException;
+
+public class SessionWriteBehindTest {
+
+    /** Records the written rows; rows of the ids in the bad set always fail. */
+    private static class RecordingFactory extends JDBCSessionFactory {
+        final List<SessionWriteBehind.Write> _listWritten =
+            new ArrayList<SessionWriteBehind.Write>();
+        final Set<String> _setBad = new HashSet<String>();
+        int _iBatches;
+        int _iMaxBatchSize;
+
+        @Override
+        synchronized void writeBatch(List<SessionWriteBehind.Write> listWrites)
+            throws PersistenceException {
+            _iBatches++;
+            _iMaxBatchSize = Math.max(_iMaxBatchSize, listWrites.size());
+            for (SessionWriteBehind.Write write : listWrites) {
+                if (_setBad.contains(write._sID))
+                    throw new PersistenceException(SystemErrors.ERROR_RESOURCE_UPDATE);
+            }
+            _listWritten.addAll(listWrites);
+        }
+    }
+
+    private RecordingFactory _factory;
+    private SessionWriteBehind _writeBehind;
+
+    @Before
+    public void setUp() {
+        _factory = new RecordingFactory();
+        _writeBehind = new SessionWriteBehind(_factory, 60000, 10, 1000);
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        SessionRecord first = createRecord("id1");
+        SessionRecord second = createRecord("id1");
+        _writeBehind.queue("id1", SessionWriteBehind.OP_INSERT, first);
+        _writeBehind.queue("id1", SessionWriteBehind.OP_UPDATE, second);
+
+        //an insert followed by an update is still an insert, with the latest row
+        assertEquals(1, _writeBehind.getPendingCount());
+        SessionWriteBehind.Write write = _writeBehind.get("id1");
+        assertEquals(SessionWriteBehind.OP_INSERT, write._iOperation);
+        assertSame(second, write._record);
+
+        _writeBehind.queue("id1", SessionWriteBehind.OP_DELETE, null);
+        assertEquals(SessionWriteBehind.OP_DELETE, _writeBehind.get("id1")._iOperation);
+
+        _writeBehind.flush();
+        assertEquals(1, _factory._listWritten.size());
+        assertEquals(SessionWriteBehind.OP_DELETE, _factory._listWritten.get(0)._iOperation);
+        assertEquals(3, _writeBehind.getQueuedCount());
+        assertEquals(2, _writeBehind.getCoalescedCount());
+        assertEquals(1, _writeBehind.getWrittenCount());
+        assertNull(_writeBehind.get("id1"));
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        //a full batch is handed to the background writer
+        _writeBehind.start();
+        for (int i = 0; i < 25; i++)
+            _writeBehind.queue("id" + i, SessionWriteBehind.OP_INSERT, createRecord("id" + i));
+        _writeBehind.stop();
+
+        assertEquals(25, _factory._listWritten.size());
+        assertEquals(10, _factory._iMaxBatchSize);
+        assertTrue(_factory._iBatches >= 3);
+        assertEquals(0, _writeBehind.getPendingCount());
+    }
+
+    @Test
+    public void testFlushOnStop() throws Exception {
+        _writeBehind.start();
+        _writeBehind.queue("id1", SessionWriteBehind.OP_INSERT, createRecord("id1"));
+        _writeBehind.queue("id2", SessionWriteBehind.OP_UPDATE, createRecord("id2"));
+        _writeBehind.queue("id3", SessionWriteBehind.OP_DELETE, null);
+        //the delay is a minute, so nothing is written before stop
+        assertEquals(0, _factory._listWritten.size());
+
+        _writeBehind.stop();
+        assertEquals(3, _factory._listWritten.size());
+        assertEquals(0, _writeBehind.getPendingCount());
+    }
+
+    @Test
+    public void testFailedRowIsRequeuedAlone() throws Exception {
+        _factory._setBad.add("bad");
+        _writeBehind.queue("good1", SessionWriteBehind.OP_INSERT, createRecord("good1"));
+        _writeBehind.queue("bad", SessionWriteBehind.OP_INSERT, createRecord("bad"));
+        _writeBehind.queue("good2", SessionWriteBehind.OP_INSERT, createRecord("good2"));
+
+        //the batch fails, the good rows are written separately
+        _writeBehind.flush();
+        assertEquals(2, _factory._listWritten.size());
+        assertEquals(2, _writeBehind.getWrittenCount());
+        assertEquals(1, _writeBehind.getPendingCount());
+        assertEquals(1, _writeBehind.get("bad")._iAttempts);
+
+        //the bad row is dropped after the last attempt
+        for (int i = 1; i < SessionWriteBehind.MAX_ATTEMPTS; i++)
+            _writeBehind.flush();
+        assertEquals(0, _writeBehind.getPendingCount());
+        assertEquals(1, _writeBehind.getDroppedCount());
+        assertEquals(2, _factory._listWritten.size());
+    }
+
+    @Test
+    public void testRequeuedWriteDoesNotReplaceNewerWrite() throws Exception {
+        _factory._setBad.add("id1");
+        _writeBehind.queue("id1", SessionWriteBehind.OP_UPDATE, createRecord("id1"));
+        _writeBehind.flush();
+
+        SessionRecord newer = createRecord("id1");
+        _writeBehind.queue("id1", SessionWriteBehind.OP_UPDATE, newer);
+        assertSame(newer, _writeBehind.get("id1")._record);
+
+        _factory._setBad.clear();
+        _writeBehind.flush();
+        assertEquals(1, _factory._listWritten.size());
+        assertSame(newer, _factory._listWritten.get(0)._record);
+    }
+
+    private static SessionRecord createRecord(String sID) {
+        return new SessionRecord(sID, null, 0, "requestor", null, null,
+            System.currentTimeMillis() + 60000, false, false, null, null,
+            null, null, null);
+    }
+}
@@ -41,6 +41,7 @@ public class JGroupsSession extends AbstractSession implements Serializable {
     {
         super(requestorId);
         _oSessionFactory = oSessionFactory;
+        setStorageCodec(oSessionFactory.getStorageCodec());
     } 
     
 	
@@ -67,6 +68,7 @@ public class JGroupsSession extends AbstractSession implements Serializable {
 	public void resuscitate(JGroupsSessionFactory oSessionFactory)
 	{
 		setSessionFactory(oSessionFactory);
+		setStorageCodec(oSessionFactory.getStorageCodec());
 	}
 
 	
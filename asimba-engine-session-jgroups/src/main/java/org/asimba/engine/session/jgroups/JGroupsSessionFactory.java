@@ -29,8 +29,12 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.asimba.engine.cluster.ClusterConfiguration;
 import org.asimba.engine.core.cluster.ICluster;
+import org.asimba.engine.core.storage.codec.StorageCodecFactory;
+import org.asimba.utility.storage.codec.BinaryStorageCodec;
+import org.asimba.utility.storage.codec.IStorageCodec;
+import org.asimba.utility.storage.jgroups.ClusterMapFactory;
+import org.asimba.utility.storage.jgroups.IClusterMap;
 import org.jgroups.JChannel;
-import org.jgroups.blocks.ReplicatedHashMap;
 import org.w3c.dom.Element;
 
 import com.alfaariss.oa.OAException;
@@ -60,10 +64,12 @@ public class JGroupsSessionFactory extends AbstractStorageFactory implements
 	private static final Log _oLogger = LogFactory.getLog(JGroupsSessionFactory.class);
 	private static final Log _oEventLogger = LogFactory.getLog(Engine.EVENT_LOGGER);
 
-	private ReplicatedHashMap<String, JGroupsSession> _mSessions;
+	private IClusterMap<String, JGroupsSession> _mSessions;
 	
 	private ICluster _oCluster;
 	
+	private IStorageCodec _oCodec;
+	
 	
 	@Override
 	public void start() throws OAException 
@@ -74,8 +80,17 @@ public class JGroupsSessionFactory extends AbstractStorageFactory implements
 			_oCluster = oClusterConfiguration.getClusterFromConfigById(_eConfig, EL_CONFIG_CLUSTERID);
 		}
 		
+		// the replicated sessions are decoded with the default codec, which reads 
+		// both formats; only write_legacy applies, not a custom codec class
+		_oCodec = StorageCodecFactory.createCodec(_configurationManager, _eConfig);
+		if (!(_oCodec instanceof BinaryStorageCodec)) {
+			_oLogger.error("A custom codec class isn't supported for replicated sessions");
+			throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+		}
+		
 		JChannel jChannel = (JChannel) _oCluster.getChannel();
-		_mSessions = new ReplicatedHashMap<>( jChannel );
+		// replicated by default, or partitioned over the members when configured
+		_mSessions = ClusterMapFactory.createMap(_configurationManager, _eConfig, jChannel);
 
         String sBlockingMode = _configurationManager.getParam(_eConfig, EL_CONFIG_BLOCKING_MODE);
         if (sBlockingMode != null) {
@@ -118,13 +133,12 @@ public class JGroupsSessionFactory extends AbstractStorageFactory implements
 			// the timeout is not applied to the time needed to get the remote state
 			_mSessions.start(lStateTimeout);
 		} catch (Exception e) {
-			_oLogger.error("Could not start Replicated HashMap: "+e.getMessage(), e);
+			_oLogger.error("Could not start cluster map: "+e.getMessage(), e);
 			throw new OAException(SystemErrors.ERROR_INTERNAL);
 		}
 
 		// TODO: This should move to superclass instead:
-		if(_tCleaner != null)
-			_tCleaner.start();
+		startCleaner();
 	}
 	
 	public void startForTesting(IConfigurationManager configurationManager, Element clusterElement,
@@ -147,7 +161,7 @@ public class JGroupsSessionFactory extends AbstractStorageFactory implements
 		super.stop();
 		
 		if (_mSessions != null) {
-			_oLogger.debug("Stopping Replicated HashMap");
+			_oLogger.debug("Stopping cluster map");
 			_mSessions.stop();
 		}
 		
@@ -307,4 +321,11 @@ public class JGroupsSessionFactory extends AbstractStorageFactory implements
     public boolean isBlockingUpdates() {
         return _mSessions.isBlockingUpdates();
     }
+    
+    /**
+     * @return The codec that the sessions of this factory are written with.
+     */
+    IStorageCodec getStorageCodec() {
+        return _oCodec;
+    }
 }
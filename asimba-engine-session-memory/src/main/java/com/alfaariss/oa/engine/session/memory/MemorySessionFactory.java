@@ -23,11 +23,15 @@
 package com.alfaariss.oa.engine.session.memory;
 
 import java.io.UnsupportedEncodingException;
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.storage.ExpiryIndex;
+import org.asimba.utility.storage.clean.IBudgetedCleanable;
 
 import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
@@ -45,16 +49,25 @@ import com.alfaariss.oa.util.ModifiedBase64;
 import com.alfaariss.oa.util.logging.UserEventLogItem;
 import com.alfaariss.oa.util.storage.factory.AbstractStorageFactory;
 /**
- * Simple {@link ISessionFactory} which stores sessions in a {@link Hashtable}.
+ * Simple {@link ISessionFactory} which stores sessions in a 
+ * {@link ConcurrentHashMap}.
+ * 
+ * Sessions are not locked globally; the expiration time of every session is 
+ * kept in an {@link ExpiryIndex}, so cleaning only visits expired sessions.
  * 
  * @author EVB
  * @author Alfa & Ariss
  *
  */
 public class MemorySessionFactory extends AbstractStorageFactory 
-    implements ISessionFactory<MemorySession>
+    implements ISessionFactory<MemorySession>, IBudgetedCleanable
 {    
-    private Hashtable<String, MemorySession> _htSession; 
+    /** The number of expired sessions that is removed per batch. */
+    private static final int CLEAN_BATCH_SIZE = 1000;
+    
+    private ConcurrentMap<String, MemorySession> _mapSessions; 
+    private ExpiryIndex<String> _expiryIndex;
+    private AtomicInteger _iSessionCount;
     //The system logger
     private Log _logger;
     private Log _eventLogger;
@@ -67,7 +80,9 @@ public class MemorySessionFactory extends AbstractStorageFactory
         super();
         _logger = LogFactory.getLog(MemorySessionFactory.class);
         _eventLogger = LogFactory.getLog(Engine.EVENT_LOGGER);
-        _htSession = new Hashtable<String, MemorySession>(); 
+        _mapSessions = new ConcurrentHashMap<String, MemorySession>(); 
+        _expiryIndex = new ExpiryIndex<String>();
+        _iSessionCount = new AtomicInteger();
     }
 
     /**
@@ -78,7 +93,7 @@ public class MemorySessionFactory extends AbstractStorageFactory
     {
         if(sRequestorId == null)
             throw new IllegalArgumentException("Suplied requestor id is empty");  
-        if(_lMax > 0 && _htSession.size() >= _lMax)
+        if(_lMax > 0 && _iSessionCount.get() >= _lMax)
         {
             _logger.error("Could not create session, maximum reached");
             throw new SessionException(SystemErrors.ERROR_SESSION_MAX);
@@ -92,7 +107,7 @@ public class MemorySessionFactory extends AbstractStorageFactory
      */
     public boolean exists(Object id)
     {
-        return _htSession.containsKey(id);
+        return _mapSessions.containsKey(id);
     }
 
     /**
@@ -102,13 +117,13 @@ public class MemorySessionFactory extends AbstractStorageFactory
     public MemorySession retrieve(Object id) throws PersistenceException
     {
         if (_logger.isDebugEnabled())
-            _logger.debug("Current sessions: " + _htSession);
+            _logger.debug("Current session count: " + _iSessionCount.get());
         
-        return _htSession.get(id);
+        return _mapSessions.get(id);
     }
 
     /**
-     * Persist this session in an <code>Hashtable</code>.
+     * Persist this session in the session map.
      * 
      * <dl>
      *  <dt><code>id == null</code></dt>
@@ -121,12 +136,16 @@ public class MemorySessionFactory extends AbstractStorageFactory
      * 
      * @see IEntityManager#persist(IEntity)
      */
-    public synchronized void persist(MemorySession session) 
+    public void persist(MemorySession session) 
         throws PersistenceException
     {
         String id = session.getId();
         if(id == null) //New session
         {
+            //Set expiration time before the session becomes visible
+            long lExpiration = System.currentTimeMillis() + _lExpiration;
+            session.setExpTime(lExpiration);
+            
             byte[] baId = new byte[ISession.ID_BYTE_LENGTH];    
             do
             {                
@@ -140,13 +159,12 @@ public class MemorySessionFactory extends AbstractStorageFactory
                     _logger.error("Could not create id for byte[]: " + baId, e);
                     throw new PersistenceException(SystemErrors.ERROR_INTERNAL);
                 }
+                session.setId(id);
             }
-            while(_htSession.containsKey(id)); //Key allready exists    
+            while(_mapSessions.putIfAbsent(id, session) != null); //Key allready exists    
             
-            session.setId(id);
-            //Update expiration time
-            session.setExpTime(System.currentTimeMillis() + _lExpiration);
-            _htSession.put(id, session);
+            _iSessionCount.incrementAndGet();
+            _expiryIndex.schedule(id, lExpiration);
             
             _logger.info("New session(s) added: " + id + " for requestor '"+session.getRequestorId() + "'");
         }
@@ -157,19 +175,21 @@ public class MemorySessionFactory extends AbstractStorageFactory
             _eventLogger.info(new UserEventLogItem(session, null, 
                 UserEvent.SESSION_EXPIRED, this, null));
             
-            _htSession.remove(id);
+            remove(id, session);
         }    
         else //Update
         {
             //Update expiration time
-            session.setExpTime(System.currentTimeMillis() + _lExpiration);
-            //Storing can be omitted when using a Hashtable
+            long lExpiration = System.currentTimeMillis() + _lExpiration;
+            session.setExpTime(lExpiration);
+            //Storing can be omitted when using a map; only reschedule expiry
+            _expiryIndex.schedule(id, lExpiration);
             _logger.info("Existing session(s) updated: " + id + " for requestor '"+session.getRequestorId() + "'");
         }
     }
 
     /**
-     * Persist all sessions in an <code>Hashtable</code>.
+     * Persist all sessions in the session map.
      * @param oaSession The sessions to persist.
      * @throws PersistenceException If persistance fails.
      * @see IEntityManager#persist(IEntity[])
@@ -183,26 +203,57 @@ public class MemorySessionFactory extends AbstractStorageFactory
 
     /**
      * Remove all expired sessions.
+     * 
+     * Only the sessions that are due according to the expiry index are 
+     * visited.
      * @see ICleanable#removeExpired()
      */
     public void removeExpired() throws PersistenceException
     {
+        removeExpired(Long.MAX_VALUE);
+    }
+    
+    /**
+     * Remove expired sessions in batches until all are removed or the 
+     * deadline passed.
+     * @see IBudgetedCleanable#removeExpired(long)
+     */
+    public int removeExpired(long lDeadline) throws PersistenceException
+    {
+        int iRemoved = 0;
         long lNow = System.currentTimeMillis();
-        Enumeration<MemorySession> e = _htSession.elements();
-        while(e.hasMoreElements()) //Threadsafe iteration
-        {          
-            MemorySession session = e.nextElement(); 
-            if(session.getExpTime() <= lNow)
-            {
-                String id = session.getId();             
-                _logger.info("Session Expired: " + id);
-                
-                _eventLogger.info(new UserEventLogItem(session, null, 
-                    UserEvent.SESSION_EXPIRED, this, "clean"));
+        List<String> listExpired;
+        do
+        {
+            listExpired = _expiryIndex.pollExpired(lNow, CLEAN_BATCH_SIZE);
+            for (String id : listExpired)
+            {          
+                MemorySession session = _mapSessions.get(id); 
+                if (session == null)
+                    continue;
+            
+                long lExpTime = session.getExpTime();
+                if (lExpTime > lNow)
+                {
+                    //Extended after it was scheduled
+                    _expiryIndex.schedule(id, lExpTime);
+                    continue;
+                }
+            
+                if (remove(id, session))
+                {
+                    iRemoved++;
+                    _logger.info("Session Expired: " + id);
                 
-                _htSession.remove(id);
-            }
-        }        
+                    _eventLogger.info(new UserEventLogItem(session, null, 
+                        UserEvent.SESSION_EXPIRED, this, "clean"));
+                }
+            }        
+        }
+        while (listExpired.size() == CLEAN_BATCH_SIZE 
+            && System.currentTimeMillis() < lDeadline);
+        
+        return iRemoved;
     }
 
     /**
@@ -211,8 +262,7 @@ public class MemorySessionFactory extends AbstractStorageFactory
      */
     public void start() throws OAException
     {
-        if(_tCleaner != null)
-            _tCleaner.start();     
+        startCleaner();
     }
 
     /**
@@ -220,9 +270,9 @@ public class MemorySessionFactory extends AbstractStorageFactory
      */
     public long poll() throws OAException
     {
-        if (_htSession!=null) 
+        if (_mapSessions!=null) 
         {
-            return _htSession.size();
+            return _iSessionCount.get();
         }
         return Long.MIN_VALUE;
     }
@@ -235,4 +285,16 @@ public class MemorySessionFactory extends AbstractStorageFactory
     {
         return ISessionFactory.AUTHORITY_NAME;
     }
+    
+    //Remove the session if it is still mapped to the supplied id
+    private boolean remove(String id, MemorySession session)
+    {
+        _expiryIndex.remove(id);
+        if (_mapSessions.remove(id, session))
+        {
+            _iSessionCount.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
 }
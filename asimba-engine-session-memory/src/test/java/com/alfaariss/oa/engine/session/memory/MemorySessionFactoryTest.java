@@ -0,0 +1,226 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.session.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alfaariss.oa.engine.core.session.SessionException;
+
+public class MemorySessionFactoryTest {
+
+    private static final int THREADS = 8;
+    private static final int SESSIONS_PER_THREAD = 250;
+
+    /** Exposes the configuration that createInstance() normally reads. */
+    private static class TestFactory extends MemorySessionFactory {
+        TestFactory(long lExpiration, long lMax) {
+            _random = new SecureRandom();
+            _lExpiration = lExpiration;
+            _lMax = lMax;
+        }
+
+        void setExpiration(long lExpiration) {
+            _lExpiration = lExpiration;
+        }
+
+        long getExpiration() {
+            return _lExpiration;
+        }
+
+        void setMax(long lMax) {
+            _lMax = lMax;
+        }
+    }
+
+    private TestFactory _factory;
+    private ExecutorService _executor;
+
+    @Before
+    public void setUp() throws Exception {
+        _factory = new TestFactory(60000, -1);
+        _executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+        _factory.stop();
+    }
+
+    @Test
+    public void testConcurrentPersist() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(_executor.submit(new Callable<List<String>>() {
+                public List<String> call() throws Exception {
+                    start.await();
+                    List<String> ids = new ArrayList<String>();
+                    for (int j = 0; j < SESSIONS_PER_THREAD; j++) {
+                        MemorySession session = (MemorySession)_factory.createSession("requestor");
+                        session.persist();
+                        ids.add(session.getId());
+                    }
+                    return ids;
+                }
+            }));
+        }
+        start.countDown();
+
+        Set<String> ids = new HashSet<String>();
+        for (Future<List<String>> future : futures)
+            ids.addAll(future.get());
+
+        assertEquals(THREADS * SESSIONS_PER_THREAD, ids.size());
+        assertEquals(THREADS * SESSIONS_PER_THREAD, _factory.poll());
+        for (String id : ids)
+            assertTrue(_factory.exists(id));
+    }
+
+    @Test
+    public void testRemoveExpired() throws Exception {
+        MemorySession expired = createSession();
+        MemorySession valid = createSession();
+        assertEquals(0, _factory.removeExpired(Long.MAX_VALUE));
+        assertEquals(2, _factory.poll());
+
+        forceDue(expired);
+        assertEquals(1, _factory.removeExpired(Long.MAX_VALUE));
+        assertFalse(_factory.exists(expired.getId()));
+        assertNull(_factory.retrieve(expired.getId()));
+        assertSame(valid, _factory.retrieve(valid.getId()));
+        assertEquals(1, _factory.poll());
+    }
+
+    @Test
+    public void testExtendedSessionIsKept() throws Exception {
+        MemorySession session = createSession();
+        forceDue(session);
+        // Extended after it became due in the index
+        session.setExpTime(System.currentTimeMillis() + 60000);
+
+        assertEquals(0, _factory.removeExpired(Long.MAX_VALUE));
+        assertTrue(_factory.exists(session.getId()));
+        assertEquals(1, _factory.poll());
+    }
+
+    @Test
+    public void testPersistExpiredRemoves() throws Exception {
+        MemorySession session = createSession();
+        session.setExpTime(System.currentTimeMillis() - 1);
+        session.persist();
+
+        assertFalse(_factory.exists(session.getId()));
+        assertEquals(0, _factory.poll());
+        // Nothing left in the index for the cleaner
+        assertEquals(0, _factory.removeExpired(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testConcurrentRemoveCountsOnce() throws Exception {
+        final List<MemorySession> sessions =
+            Collections.synchronizedList(new ArrayList<MemorySession>());
+        for (int i = 0; i < 500; i++) {
+            MemorySession session = createSession();
+            forceDue(session);
+            sessions.add(session);
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(_executor.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    start.await();
+                    int iRemoved = _factory.removeExpired(Long.MAX_VALUE);
+                    for (MemorySession session : sessions)
+                        session.persist();
+                    return iRemoved;
+                }
+            }));
+        }
+        start.countDown();
+
+        int iRemoved = 0;
+        for (Future<Integer> future : futures)
+            iRemoved += future.get();
+
+        assertTrue(iRemoved <= sessions.size());
+        assertEquals(0, _factory.poll());
+        for (MemorySession session : sessions)
+            assertFalse(_factory.exists(session.getId()));
+    }
+
+    @Test
+    public void testMaximum() throws Exception {
+        _factory.setMax(2);
+        createSession();
+        createSession();
+        try {
+            _factory.createSession("requestor");
+            fail("maximum not enforced");
+        }
+        catch (SessionException e) {
+            // expected
+        }
+    }
+
+    private MemorySession createSession() throws Exception {
+        MemorySession session = (MemorySession)_factory.createSession("requestor");
+        session.persist();
+        return session;
+    }
+
+    // Expire the session and reschedule it, as an update persisted in the past would
+    private void forceDue(MemorySession session) throws Exception {
+        long lExpiration = _factory.getExpiration();
+        _factory.setExpiration(-1);
+        try {
+            session.persist();
+        }
+        finally {
+            _factory.setExpiration(lExpiration);
+        }
+        assertTrue(_factory.exists(session.getId()));
+    }
+}
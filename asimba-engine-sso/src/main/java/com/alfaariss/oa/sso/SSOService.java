@@ -58,6 +58,7 @@ import com.alfaariss.oa.engine.core.attribute.release.IAttributeReleasePolicy;
 import com.alfaariss.oa.engine.core.attribute.release.factory.IAttributeReleasePolicyFactory;
 import com.alfaariss.oa.engine.core.authentication.AuthenticationContexts;
 import com.alfaariss.oa.engine.core.authentication.AuthenticationException;
+import com.alfaariss.oa.engine.core.authentication.AuthenticationMethodIndex;
 import com.alfaariss.oa.engine.core.authentication.AuthenticationProfile;
 import com.alfaariss.oa.engine.core.authentication.factory.IAuthenticationProfileFactory;
 import com.alfaariss.oa.engine.core.requestor.RequestorPool;
@@ -554,19 +555,7 @@ public class SSOService implements IComponent
                         {
                             //Check if TGT profile is sufficient 
                             IAuthenticationProfile tgtProfile = oTgt.getAuthenticationProfile();                   
-                            List<String> oRequiredAuthenticationProfileIDs = oRequestorPool.getAuthenticationProfileIDs();                           
-                            Iterator<String> iter = oRequiredAuthenticationProfileIDs.iterator();
-                            while(iter.hasNext() && !bTGTSufficient)
-                            {
-                               //Retrieve next profile
-                               AuthenticationProfile requiredProfile = 
-                                   _authenticationProfileFactory.getProfile(iter.next());
-                               if(requiredProfile != null && requiredProfile.isEnabled())
-                               {                                  
-                                   bTGTSufficient = 
-                                       tgtProfile.compareTo(requiredProfile) >= 0;
-                               }
-                            }
+                            bTGTSufficient = isSufficient(tgtProfile, oRequestorPool);
                             
                             // bTGTSufficient represents whether the executed authentication methods of a TGT
                             // are good enough for the profiles that are allowed for the requesting Requestor
@@ -578,7 +567,7 @@ public class SSOService implements IComponent
 	                    		List<String> requestedAuthnProfiles = (List<String>) 
 	                            		oSession.getAttributes().get(ProxyAttributes.class, ProxyAttributes.REQUESTED_AUTHNPROFILES);
 	                            if (requestedAuthnProfiles != null) {
-	                            	iter = requestedAuthnProfiles.iterator();
+	                            	Iterator<String> iter = requestedAuthnProfiles.iterator();
 	                            	boolean tgtProfileSatisfiesRequestedProfile = false;
 	                            	while(iter.hasNext() && !tgtProfileSatisfiesRequestedProfile) {
 	                            		AuthenticationProfile requestedAuthnProfile = 
@@ -647,6 +636,68 @@ public class SSOService implements IComponent
         return bTGTSufficient;
     }
     
+    /**
+     * Verifies whether the TGT profile contains all methods of one of the 
+     * enabled authentication profiles of the requestor pool.
+     * 
+     * The profiles are retrieved for every check, so changed or disabled 
+     * profiles are seen immediately; the methods are compared by their 
+     * masks.
+     */
+    private boolean isSufficient(IAuthenticationProfile tgtProfile, 
+        RequestorPool oRequestorPool) throws OAException
+    {
+        if (tgtProfile instanceof AuthenticationProfile)
+        {
+            long[] laTGT = ((AuthenticationProfile)tgtProfile).getMethodMask();
+            List<long[]> listMasks = getMasks(oRequestorPool);
+            if (laTGT != null && listMasks != null)
+            {
+                for (long[] laRequired : listMasks)
+                {
+                    if (AuthenticationMethodIndex.containsAll(laTGT, laRequired))
+                        return true;
+                }
+                return false;
+            }
+        }
+        
+        for (String sProfileID : oRequestorPool.getAuthenticationProfileIDs())
+        {
+            //Retrieve next profile
+            AuthenticationProfile requiredProfile = 
+                _authenticationProfileFactory.getProfile(sProfileID);
+            if(requiredProfile != null && requiredProfile.isEnabled()
+                && tgtProfile.compareTo(requiredProfile) >= 0)
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the current masks of the enabled profiles of a requestor pool.
+     * 
+     * @return The masks or <code>null</code> if a profile has no mask.
+     */
+    private List<long[]> getMasks(RequestorPool oRequestorPool) 
+        throws OAException
+    {
+        List<long[]> listMasks = new Vector<long[]>();
+        for (String sProfileID : oRequestorPool.getAuthenticationProfileIDs())
+        {
+            AuthenticationProfile oProfile = 
+                _authenticationProfileFactory.getProfile(sProfileID);
+            if (oProfile != null && oProfile.isEnabled())
+            {
+                long[] laMask = oProfile.getMethodMask();
+                if (laMask == null)
+                    return null;
+                listMasks.add(laMask);
+            }
+        }
+        return listMasks;
+    }
+    
     /**
      * Remove the TGT. 
      * @param oTgt The TGT to be removed.
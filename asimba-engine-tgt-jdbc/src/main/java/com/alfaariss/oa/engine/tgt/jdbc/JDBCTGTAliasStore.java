@@ -25,7 +25,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
+import java.util.List;
 
 import javax.sql.DataSource;
 
@@ -591,8 +593,54 @@ public class JDBCTGTAliasStore implements ITGTAliasStore
     }
     
     /**
-     * Cleans all aliasses for the specified tgt. 
-     * @param tgtID the tgt id
+     * Cleans all aliasses for the specified tgts in one batch. 
+     * @param connection the connection, part of the caller's transaction
+     * @param listTGTIDs the tgt ids
+     * @return number of cleaned aliasses
+     * @throws SQLException if the batch fails
+     * @since 4.0
+     */
+    int remove(Connection connection, List<String> listTGTIDs) 
+        throws SQLException
+    {
+        if (_sAliasQueryDelete == null || listTGTIDs.isEmpty())
+            return 0;
+        
+        PreparedStatement ps = null;
+        int iAlias = 0;
+        try
+        {
+            ps = connection.prepareStatement(_sAliasQueryDelete);
+            for (String sTGTID : listTGTIDs)
+            {
+                ps.setString(1, sTGTID);
+                ps.addBatch();
+            }
+            for (int iCount : ps.executeBatch())
+            {
+                if (iCount > 0)
+                    iAlias += iCount;
+                else if (iCount == Statement.SUCCESS_NO_INFO)
+                    iAlias++;
+            }
+        }
+        finally
+        {            
+            try
+            {
+                if (ps != null)
+                    ps.close();
+            }
+            catch (SQLException e)
+            {
+                _logger.debug("Could not close statement", e);
+            } 
+        }
+        return iAlias;
+    }
+    
+    /**
+     * Cleans all aliasses of tgts that no longer exist. 
      * @return number of cleaned aliasses
      */
     int clean(Connection connection)
@@ -702,15 +750,16 @@ public class JDBCTGTAliasStore implements ITGTAliasStore
 
          if (_sAliasQueryRemoveExpired == null)
          {
-        	 _logger.debug("Building remove_expired query manually (MySQL NOT-IN syntax)");
+        	 //Anti-join on the TGT primary key instead of NOT IN on the full TGT table
+        	 _logger.debug("Building remove_expired query manually (NOT EXISTS syntax)");
 	         StringBuffer sbQueryRemoveExpired = new StringBuffer("DELETE FROM ");
 	         sbQueryRemoveExpired.append(_sAliasTableName);
+	         sbQueryRemoveExpired.append(" WHERE NOT EXISTS (SELECT 1 FROM ");
+	         sbQueryRemoveExpired.append(_sTGTTableName);
 	         sbQueryRemoveExpired.append(" WHERE ");
-	         sbQueryRemoveExpired.append(_sAliasColumnTGTID);
-	         sbQueryRemoveExpired.append(" NOT IN (SELECT ");
 	         sbQueryRemoveExpired.append(_sTGTTableName).append(".").append(_sTGTColumnID);
-	         sbQueryRemoveExpired.append(" FROM ");
-	         sbQueryRemoveExpired.append(_sTGTTableName);
+	         sbQueryRemoveExpired.append("=");
+	         sbQueryRemoveExpired.append(_sAliasTableName).append(".").append(_sAliasColumnTGTID);
 	         sbQueryRemoveExpired.append(")");
 	         _sAliasQueryRemoveExpired = sbQueryRemoveExpired.toString();
          }
@@ -21,20 +21,28 @@
  * 
  */
 package com.alfaariss.oa.engine.tgt.jdbc;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.engine.core.storage.codec.StorageCodecFactory;
+import org.asimba.utility.storage.clean.IBudgetedCleanable;
+import org.asimba.utility.storage.codec.IStorageCodec;
 import org.w3c.dom.Element;
 
 import com.alfaariss.oa.OAException;
@@ -60,7 +68,6 @@ import com.alfaariss.oa.engine.core.tgt.TGTException;
 import com.alfaariss.oa.engine.core.tgt.factory.ITGTAliasStore;
 import com.alfaariss.oa.engine.core.tgt.factory.ITGTFactory;
 import com.alfaariss.oa.util.ModifiedBase64;
-import com.alfaariss.oa.util.Serialize;
 import com.alfaariss.oa.util.database.DatabaseException;
 import com.alfaariss.oa.util.database.jdbc.DataSourceFactory;
 import com.alfaariss.oa.util.logging.UserEventLogItem;
@@ -73,8 +80,12 @@ import com.alfaariss.oa.util.storage.factory.AbstractStorageFactory;
  * @author Alfa & Ariss
  *
  */
-public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactory<JDBCTGT>
+public class JDBCTGTFactory extends AbstractStorageFactory 
+    implements ITGTFactory<JDBCTGT>, IBudgetedCleanable
 {
+    //The maximum number of expired TGTs removed in one transaction
+    private final static int CLEAN_BATCH_SIZE = 500;
+    
     private final static String TABLE_NAME = "tgt";
     private final static String COLUMN_ID = "id";
     private final static String COLUMN_EXPIRATION = "expiration";
@@ -105,6 +116,8 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
     private List<ITGTListener> _lListeners;
     //The JDBC manager 
     private DataSource _oDataSource;
+    //The codec for the serialized columns
+    private IStorageCodec _oCodec;
     //The system logger
     private Log _logger;
     private Log _eventLogger;
@@ -156,6 +169,8 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
             }
         }
         
+        _oCodec = StorageCodecFactory.createCodec(_configurationManager, _eConfig);
+        
         //Read query configuration
         createQueries(_eConfig);
         verifyTableConfig(_eConfig);
@@ -187,8 +202,7 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
         }
         
         //Start cleaner
-        if(_tCleaner != null)
-            _tCleaner.start(); 
+        startCleaner();
     }
      
 	/**
@@ -282,7 +296,6 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
 	 * @return The TGT, or null if a TGT with the given id does not exist.
 	 * @throws PersistenceException If retrieving fails.
 	 */
-	@SuppressWarnings("unchecked") //Serialize value can not be checked
     public JDBCTGT retrieve(Object id) throws PersistenceException
     {
         if(id == null || !(id instanceof String))
@@ -300,23 +313,7 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
             ps.setString(1, (String)id);
             rs = ps.executeQuery();
             if(rs.next())
-            { 
-               byte[] baUser = rs.getBytes(_sColumnUSER);
-               tgt = new JDBCTGT(this, (IUser)Serialize.decode(baUser));
-               tgt.setId((String)id);
-               tgt.setTgtExpTime(rs.getTimestamp(_sColumnEXPIRATION).getTime());          
-               tgt.setAuthenticationProfile(
-                   (AuthenticationProfile)Serialize.decode(rs.getBytes(_sColumnAUTHN_PROFILE)));
-               tgt.setAuthNProfileIDs(
-                   (List)Serialize.decode(rs.getBytes(_sColumnAUTHN_PROFILES)));
-               tgt.setRequestorIDs(
-                   (List)Serialize.decode(rs.getBytes(_sColumnREQUESTOR_IDS)));
-               
-               TGTAttributes oAttributes = 
-                   (TGTAttributes)Serialize.decode(rs.getBytes(_sColumnATTRIBUTES));
-               if (oAttributes != null)
-                   tgt.setAttributes(oAttributes);
-            }      
+               tgt = readTGT((String)id, rs);
         }
         catch (SQLException e)
         {
@@ -584,11 +581,11 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
                     tgt.setTgtExpTime(expiration);                    
                     psInsert.setString(1, id);
                     psInsert.setTimestamp(2, new Timestamp(expiration));
-                    psInsert.setBytes(3, Serialize.encode(tgt.getUser()));
-                    psInsert.setBytes(4, Serialize.encode(tgt.getAuthenticationProfile()));   
-                    psInsert.setBytes(5, Serialize.encode(tgt.getModifiableAuthNProfileIDs()));
-                    psInsert.setBytes(6, Serialize.encode(tgt.getModifiableRequestorIDs()));
-                    psInsert.setBytes(7, Serialize.encode(tgt.getAttributes()));
+                    psInsert.setBytes(3, _oCodec.encode(tgt.getUser()));
+                    psInsert.setBytes(4, _oCodec.encode(tgt.getAuthenticationProfile()));   
+                    psInsert.setBytes(5, _oCodec.encode(tgt.getModifiableAuthNProfileIDs()));
+                    psInsert.setBytes(6, _oCodec.encode(tgt.getModifiableRequestorIDs()));
+                    psInsert.setBytes(7, _oCodec.encode(tgt.getAttributes()));
                     psInsert.addBatch();     
                     
                     vCreate.add(tgt);
@@ -618,11 +615,11 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
                     tgt.setTgtExpTime(expiration);
                     //Update tgt
                     psUpdate.setTimestamp(1, new Timestamp(expiration));
-                    psUpdate.setBytes(2, Serialize.encode(tgt.getUser()));           
-                    psUpdate.setBytes(3, Serialize.encode(tgt.getAuthenticationProfile()));
-                    psUpdate.setBytes(4, Serialize.encode(tgt.getModifiableAuthNProfileIDs()));
-                    psUpdate.setBytes(5, Serialize.encode(tgt.getModifiableRequestorIDs()));
-                    psUpdate.setBytes(6, Serialize.encode(tgt.getAttributes()));
+                    psUpdate.setBytes(2, _oCodec.encode(tgt.getUser()));           
+                    psUpdate.setBytes(3, _oCodec.encode(tgt.getAuthenticationProfile()));
+                    psUpdate.setBytes(4, _oCodec.encode(tgt.getModifiableAuthNProfileIDs()));
+                    psUpdate.setBytes(5, _oCodec.encode(tgt.getModifiableRequestorIDs()));
+                    psUpdate.setBytes(6, _oCodec.encode(tgt.getAttributes()));
                     psUpdate.setString(7, id);
                     psUpdate.addBatch();    
                     
@@ -860,82 +857,75 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
     /**
      * Remove all expired tgts.
      * 
-     * e.g. <code>DELETE FROM tgt WHERE expiration <= NOW()</code>
      * @see ICleanable#removeExpired()
      */
     public void removeExpired() throws PersistenceException
+    {
+        removeExpired(Long.MAX_VALUE);
+    }
+    
+    /**
+     * Remove expired tgts in batches until all are removed or the deadline
+     * passed.
+     * 
+     * Every batch reads the next expired TGTs in id order, so rows that can 
+     * not be removed are skipped instead of read again. The TGTs and their 
+     * aliasses are removed in one transaction; a TGT that was extended after
+     * it was read is not removed, and keeps its aliasses. The expire event 
+     * is processed after the commit, for the removed TGTs only. Aliasses of
+     * TGTs that were removed otherwise are cleaned when the sweep completes.
+     * @see IBudgetedCleanable#removeExpired(long)
+     */
+    public int removeExpired(long lDeadline) throws PersistenceException
     {
         Connection oConnection = null;
-        PreparedStatement psSelect = null;
-        PreparedStatement psDelete = null;
-        ResultSet rsSelect = null;
+        int iRemoved = 0;
+        long lNow = System.currentTimeMillis();
         try
         {
             oConnection = _oDataSource.getConnection();
             
-            psSelect = oConnection.prepareStatement(_sSelectExpiredQuery);
-            psSelect.setTimestamp(1, new Timestamp(System.currentTimeMillis())); 
-            rsSelect = psSelect.executeQuery();
-            while(rsSelect.next())
-            {
-                String sId = rsSelect.getString(_sColumnID);
-                if (sId != null)
-                {
-                    try
-                    {
-                        ITGT tgt = retrieve(sId);
-                        if (tgt != null)
-                        {
-                            String sTGTUserID = null;
-                            String sTGTUserOrganization = null;
-                            IUser tgtUser = tgt.getUser();
-                            if (tgtUser != null)
-                            {
-                                sTGTUserID = tgtUser.getID();
-                                sTGTUserOrganization = tgtUser.getOrganization();
-                            }
-                            else
-                                _logger.debug("No user available for TGT with ID: " + sId);
-                            
-                            _eventLogger.info(
-                                new UserEventLogItem(null, sId, null, UserEvent.TGT_EXPIRED, 
-                                    sTGTUserID, sTGTUserOrganization, null, null, 
-                                    this, "clean"));
-                            
-                            processEvent(TGTListenerEvent.ON_EXPIRE, tgt);
-                        }
-                        else
-                            _logger.debug("No TGT available with ID: " + sId);
-                    }
-                    catch (PersistenceException e)
-                    {
-                        _logger.debug("Invalid TGT will be removed: " + sId, e);
-                    }
-                }
+            List<String> listIDs = new ArrayList<String>(CLEAN_BATCH_SIZE);
+            List<JDBCTGT> listTGTs = new ArrayList<JDBCTGT>(CLEAN_BATCH_SIZE);
+            String sLastID = "";
+            do
+            {
+                listIDs.clear();
+                listTGTs.clear();
+                selectExpired(oConnection, lNow, sLastID, listIDs, listTGTs);
+                if (listIDs.isEmpty())
+                    break;
+                
+                sLastID = listIDs.get(listIDs.size() - 1);
+                Set<String> setRemoved = removeExpired(oConnection, lNow, listIDs);
+                processExpired(listTGTs, setRemoved);
+                iRemoved += setRemoved.size();
             }
+            while (listIDs.size() == CLEAN_BATCH_SIZE 
+                && System.currentTimeMillis() < lDeadline);
             
-            psDelete = oConnection.prepareStatement(_sRemoveExpiredQuery);
-            psDelete.setTimestamp(1, new Timestamp(System.currentTimeMillis()));           
-            int i = psDelete.executeUpdate();
-            if(i > 0)
-                _logger.debug(i + " TGT(s) expired");
-            
-            int iCountR = 0;
-            if (_aliasStoreSP != null)
-                iCountR = _aliasStoreSP.clean(oConnection);
+            if (iRemoved > 0)
+                _logger.debug(iRemoved + " TGT(s) expired");
             
-            int iCountF = 0;
-            if (_aliasStoreIDP != null)
-                iCountF = _aliasStoreIDP.clean(oConnection);
-            
-            if (_logger.isDebugEnabled() && iCountR + iCountF > 0)
+            if (listIDs.size() < CLEAN_BATCH_SIZE)
             {
-                StringBuffer sbDebug = new StringBuffer("Cleaned '");
-                sbDebug.append(iCountR);
-                sbDebug.append("' (requestor based) aliasses and '");
-                sbDebug.append(iCountF);
-                sbDebug.append("' (remote enitity based) aliasses");
-                _logger.debug(sbDebug.toString());
+                int iCountR = 0;
+                if (_aliasStoreSP != null)
+                    iCountR = _aliasStoreSP.clean(oConnection);
+                
+                int iCountF = 0;
+                if (_aliasStoreIDP != null)
+                    iCountF = _aliasStoreIDP.clean(oConnection);
+                
+                if (_logger.isDebugEnabled() && iCountR + iCountF > 0)
+                {
+                    StringBuffer sbDebug = new StringBuffer("Cleaned '");
+                    sbDebug.append(iCountR);
+                    sbDebug.append("' (requestor based) aliasses and '");
+                    sbDebug.append(iCountF);
+                    sbDebug.append("' (remote enitity based) aliasses");
+                    _logger.debug(sbDebug.toString());
+                }
             }
         }
         catch (SQLException e)
@@ -950,33 +940,6 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
         }       
         finally
         {
-            try
-            {
-                if (rsSelect != null)
-                    rsSelect.close();
-            }
-            catch (SQLException e)
-            {
-                _logger.debug("Could not close resultset", e);
-            }
-            try
-            {
-                if (psSelect != null)
-                    psSelect.close();
-            }
-            catch (SQLException e)
-            {
-                _logger.debug("Could not close select statement", e);
-            }
-            try
-            {
-                if (psDelete != null)
-                    psDelete.close();
-            }
-            catch (SQLException e)
-            {
-                _logger.debug("Could not close delete statement", e);
-            }
             try
             {
                 if (oConnection != null)
@@ -986,7 +949,8 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
             {
                 _logger.debug("Could not close connection", e);
             }
-        }        
+        }
+        return iRemoved;
     }
     
     /**
@@ -1219,19 +1183,28 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
          _sRemoveQuery = sb.toString();
          _logger.debug("Using RemoveQuery: " + _sRemoveQuery);
          
-         //RemoveExpiredQuery 
+         //RemoveExpiredQuery, skips TGTs that were updated after selection
          sb = new StringBuffer("DELETE FROM ");
          sb.append(_sTableName).append(" WHERE ");
+         sb.append(_sColumnID).append("=? AND ");
          sb.append(_sColumnEXPIRATION).append("<=?");
          _sRemoveExpiredQuery = sb.toString();
          _logger.debug("Using RemoveExpiredQuery: " + _sRemoveExpiredQuery);
          
-         //SelectExpiredQuery 
+         //SelectExpiredQuery, selects the expired TGTs after the given id
          sb = new StringBuffer("SELECT ");
-         sb.append(_sColumnID);
+         sb.append(_sColumnID).append(", ");
+         sb.append(_sColumnEXPIRATION).append(", ");
+         sb.append(_sColumnUSER).append(", ");
+         sb.append(_sColumnAUTHN_PROFILE).append(", ");
+         sb.append(_sColumnAUTHN_PROFILES).append(", ");
+         sb.append(_sColumnREQUESTOR_IDS).append(", ");
+         sb.append(_sColumnATTRIBUTES);
          sb.append(" FROM ");
          sb.append(_sTableName).append(" WHERE ");
-         sb.append(_sColumnEXPIRATION).append("<=?");
+         sb.append(_sColumnEXPIRATION).append("<=? AND ");
+         sb.append(_sColumnID).append(">? ORDER BY ");
+         sb.append(_sColumnID);
          _sSelectExpiredQuery = sb.toString();
          _logger.debug("Using SelectExpiredQuery: " + _sSelectExpiredQuery);
      }
@@ -1449,6 +1422,264 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
         return iRet;
     }    
     
+    //Create a TGT from the current row
+    @SuppressWarnings("unchecked") //Decoded value can not be checked
+    private JDBCTGT readTGT(String id, ResultSet rs) 
+        throws SQLException, IOException
+    {
+        byte[] baUser = rs.getBytes(_sColumnUSER);
+        JDBCTGT tgt = new JDBCTGT(this, (IUser)_oCodec.decode(baUser));
+        tgt.setId(id);
+        tgt.setTgtExpTime(rs.getTimestamp(_sColumnEXPIRATION).getTime());          
+        tgt.setAuthenticationProfile(
+            (AuthenticationProfile)_oCodec.decode(rs.getBytes(_sColumnAUTHN_PROFILE)));
+        tgt.setAuthNProfileIDs(
+            (List)_oCodec.decode(rs.getBytes(_sColumnAUTHN_PROFILES)));
+        tgt.setRequestorIDs(
+            (List)_oCodec.decode(rs.getBytes(_sColumnREQUESTOR_IDS)));
+        
+        TGTAttributes oAttributes = 
+            (TGTAttributes)_oCodec.decode(rs.getBytes(_sColumnATTRIBUTES));
+        if (oAttributes != null)
+            tgt.setAttributes(oAttributes);
+        return tgt;
+    }
+    
+    //Read the next batch of expired TGTs, ordered by id
+    private void selectExpired(Connection oConnection, long lNow, 
+        String sLastID, List<String> listIDs, List<JDBCTGT> listTGTs) 
+        throws SQLException
+    {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try
+        {
+            ps = oConnection.prepareStatement(_sSelectExpiredQuery);
+            ps.setMaxRows(CLEAN_BATCH_SIZE);
+            ps.setFetchSize(CLEAN_BATCH_SIZE);
+            ps.setTimestamp(1, new Timestamp(lNow));
+            ps.setString(2, sLastID);
+            rs = ps.executeQuery();
+            while (rs.next())
+            {
+                String sId = rs.getString(_sColumnID);
+                listIDs.add(sId);
+                try
+                {
+                    listTGTs.add(readTGT(sId, rs));
+                }
+                catch (Exception e)
+                {
+                    _logger.debug("Invalid TGT will be removed: " + sId, e);
+                }
+            }
+        }
+        finally
+        {
+            try
+            {
+                if (rs != null)
+                    rs.close();
+            }
+            catch (SQLException e)
+            {
+                _logger.debug("Could not close resultset", e);
+            }
+            try
+            {
+                if (ps != null)
+                    ps.close();
+            }
+            catch (SQLException e)
+            {
+                _logger.debug("Could not close select statement", e);
+            }
+        }
+    }
+    
+    //Log and process the expire event for the removed TGTs of a batch
+    private void processExpired(List<JDBCTGT> listTGTs, Set<String> setRemoved)
+    {
+        List<JDBCTGT> listRemoved = new ArrayList<JDBCTGT>(setRemoved.size());
+        for (JDBCTGT tgt : listTGTs)
+        {
+            if (setRemoved.contains(tgt.getId()))
+                listRemoved.add(tgt);
+        }
+        
+        for (JDBCTGT tgt : listRemoved)
+        {
+            String sTGTUserID = null;
+            String sTGTUserOrganization = null;
+            IUser tgtUser = tgt.getUser();
+            if (tgtUser != null)
+            {
+                sTGTUserID = tgtUser.getID();
+                sTGTUserOrganization = tgtUser.getOrganization();
+            }
+            else
+                _logger.debug("No user available for TGT with ID: " + tgt.getId());
+            
+            _eventLogger.info(
+                new UserEventLogItem(null, tgt.getId(), null, UserEvent.TGT_EXPIRED, 
+                    sTGTUserID, sTGTUserOrganization, null, null, 
+                    this, "clean"));
+        }
+        
+        if (_lListeners.isEmpty())
+            return;
+        
+        for (JDBCTGT tgt : listRemoved)
+        {
+            try
+            {
+                processEvent(TGTListenerEvent.ON_EXPIRE, tgt);
+            }
+            catch (TGTListenerException e)
+            {//do nothing; just remove and try the next tgt
+                _logger.debug("Could not process events for TGT with id: " + tgt.getId(), e);
+            }
+        }
+    }
+    
+    /**
+     * Remove a batch of expired TGTs, and the aliasses of the removed TGTs, 
+     * in one transaction.
+     * @param oConnection The connection.
+     * @param lNow The time at which the TGTs were selected as expired.
+     * @param listIDs The ids of the TGTs that were selected.
+     * @return The ids of the TGTs that are removed; a TGT that was extended 
+     *  after it was selected is not removed.
+     * @throws SQLException If the transaction fails.
+     */
+    Set<String> removeExpired(Connection oConnection, long lNow, 
+        List<String> listIDs) throws SQLException
+    {
+        PreparedStatement ps = null;
+        Set<String> setRemoved = new HashSet<String>();
+        boolean bAutoCommit = oConnection.getAutoCommit();
+        try
+        {
+            oConnection.setAutoCommit(false);
+            
+            ps = oConnection.prepareStatement(_sRemoveExpiredQuery);
+            Timestamp tsNow = new Timestamp(lNow);
+            for (String sId : listIDs)
+            {
+                ps.setString(1, sId);
+                ps.setTimestamp(2, tsNow);
+                ps.addBatch();
+            }
+            int[] iaCounts = ps.executeBatch();
+            List<String> listUnknown = new ArrayList<String>();
+            for (int i = 0; i < iaCounts.length && i < listIDs.size(); i++)
+            {
+                if (iaCounts[i] > 0)
+                    setRemoved.add(listIDs.get(i));
+                else if (iaCounts[i] == Statement.SUCCESS_NO_INFO)
+                    listUnknown.add(listIDs.get(i));
+            }
+            //The driver did not report the count; removed if the row is gone
+            for (String sId : listUnknown)
+            {
+                if (!exists(oConnection, sId))
+                    setRemoved.add(sId);
+            }
+            
+            int iCountR = 0;
+            int iCountF = 0;
+            if (!setRemoved.isEmpty())
+            {
+                List<String> listRemoved = new ArrayList<String>(setRemoved);
+                if (_aliasStoreSP != null)
+                    iCountR = _aliasStoreSP.remove(oConnection, listRemoved);
+                if (_aliasStoreIDP != null)
+                    iCountF = _aliasStoreIDP.remove(oConnection, listRemoved);
+            }
+            
+            oConnection.commit();
+            
+            if (_logger.isDebugEnabled() && iCountR + iCountF > 0)
+            {
+                StringBuffer sbDebug = new StringBuffer("Removed '");
+                sbDebug.append(iCountR);
+                sbDebug.append("' (requestor based) aliasses and '");
+                sbDebug.append(iCountF);
+                sbDebug.append("' (remote enitity based) aliasses of expired TGTs");
+                _logger.debug(sbDebug.toString());
+            }
+        }
+        catch (SQLException e)
+        {
+            try
+            {
+                oConnection.rollback();
+            }
+            catch (SQLException e1)
+            {
+                _logger.warn("Could not rollback removal of expired TGTs", e1);
+            }
+            throw e;
+        }
+        finally
+        {
+            try
+            {
+                if (ps != null)
+                    ps.close();
+            }
+            catch (SQLException e)
+            {
+                _logger.debug("Could not close delete statement", e);
+            }
+            try
+            {
+                oConnection.setAutoCommit(bAutoCommit);
+            }
+            catch (SQLException e)
+            {
+                _logger.debug("Could not restore auto commit", e);
+            }
+        }
+        return setRemoved;
+    }
+    
+    //Verify if the TGT row exists, using the caller's connection
+    private boolean exists(Connection oConnection, String sId) 
+        throws SQLException
+    {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try
+        {
+            ps = oConnection.prepareStatement(_sSearchQuery);
+            ps.setString(1, sId);
+            rs = ps.executeQuery();
+            return rs.next();
+        }
+        finally
+        {
+            try
+            {
+                if (rs != null)
+                    rs.close();
+            }
+            catch (SQLException e)
+            {
+                _logger.debug("Could not close resultset", e);
+            }
+            try
+            {
+                if (ps != null)
+                    ps.close();
+            }
+            catch (SQLException e)
+            {
+                _logger.debug("Could not close search statement", e);
+            }
+        }
+    }
+    
     /**
      * Persist the TGT in the JDBC storage.
      * @param tgt The TGT to persist.
@@ -1502,11 +1733,11 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
                     ps = oConnection.prepareStatement(_sInsertQuery);                    
                     ps.setString(1, id);            
                     ps.setTimestamp(2, new Timestamp(expiration));  
-                    ps.setBytes(3, Serialize.encode(tgt.getUser()));
-                    ps.setBytes(4, Serialize.encode(tgt.getAuthenticationProfile()));
-                    ps.setBytes(5, Serialize.encode(tgt.getModifiableAuthNProfileIDs()));
-                    ps.setBytes(6, Serialize.encode(tgt.getModifiableRequestorIDs()));
-                    ps.setBytes(7, Serialize.encode(tgt.getAttributes()));
+                    ps.setBytes(3, _oCodec.encode(tgt.getUser()));
+                    ps.setBytes(4, _oCodec.encode(tgt.getAuthenticationProfile()));
+                    ps.setBytes(5, _oCodec.encode(tgt.getModifiableAuthNProfileIDs()));
+                    ps.setBytes(6, _oCodec.encode(tgt.getModifiableRequestorIDs()));
+                    ps.setBytes(7, _oCodec.encode(tgt.getAttributes()));
                     int i = ps.executeUpdate();
                     _logger.debug(i + " New TGT(s) added:" + id);        
                     
@@ -1594,11 +1825,11 @@ public class JDBCTGTFactory extends AbstractStorageFactory implements ITGTFactor
                     // Update tgt
                     ps = oConnection.prepareStatement(_sUpdateQuery);
                     ps.setTimestamp(1, new Timestamp(expiration));           
-                    ps.setBytes(2, Serialize.encode(tgt.getUser()));              
-                    ps.setBytes(3, Serialize.encode(tgt.getAuthenticationProfile()));
-                    ps.setBytes(4, Serialize.encode(tgt.getModifiableAuthNProfileIDs()));
-                    ps.setBytes(5, Serialize.encode(tgt.getModifiableRequestorIDs()));
-                    ps.setBytes(6, Serialize.encode(tgt.getAttributes()));
+                    ps.setBytes(2, _oCodec.encode(tgt.getUser()));              
+                    ps.setBytes(3, _oCodec.encode(tgt.getAuthenticationProfile()));
+                    ps.setBytes(4, _oCodec.encode(tgt.getModifiableAuthNProfileIDs()));
+                    ps.setBytes(5, _oCodec.encode(tgt.getModifiableRequestorIDs()));
+                    ps.setBytes(6, _oCodec.encode(tgt.getAttributes()));
                     ps.setString(7, id);
                     int i = ps.executeUpdate();
                     _logger.debug(i + " TGT updated:" + id);
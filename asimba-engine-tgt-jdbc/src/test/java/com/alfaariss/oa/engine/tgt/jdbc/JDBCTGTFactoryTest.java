@@ -0,0 +1,195 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.tgt.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.api.tgt.ITGT;
+import com.alfaariss.oa.api.tgt.ITGTListener;
+import com.alfaariss.oa.api.tgt.TGTListenerEvent;
+import com.alfaariss.oa.api.tgt.TGTListenerException;
+import com.alfaariss.oa.engine.core.configuration.ConfigurationManager;
+import com.alfaariss.oa.engine.core.user.AbstractUser;
+import com.alfaariss.oa.util.storage.factory.AbstractStorageFactory;
+
+public class JDBCTGTFactoryTest {
+
+    private static final String URL = "jdbc:derby:memory:JDBCTGTFactoryTest";
+
+    private static final String CONFIG =
+        "<root><storage class=\"" + JDBCTGTFactory.class.getName() + "\" interval=\"0\" expire=\"60\">"
+        + "<resource driver=\"org.apache.derby.jdbc.EmbeddedDriver\" url=\"" + URL + "\""
+        + " username=\"asimba\" password=\"asimba\" />"
+        + "<validation query=\"SELECT * FROM tgt FETCH FIRST 1 ROWS ONLY\" />"
+        + "<alias_store id=\"sp\" enabled=\"true\">"
+        + "<validation query=\"SELECT * FROM alias_store_sp FETCH FIRST 1 ROWS ONLY\" />"
+        + "</alias_store>"
+        + "</storage></root>";
+
+    private static class TestUser extends AbstractUser {
+        private static final long serialVersionUID = 1L;
+
+        TestUser(String sUserId) {
+            super("organization", sUserId, true);
+        }
+
+        public boolean isAuthenticationRegistered(String sMethod) {
+            return true;
+        }
+    }
+
+    private Connection _connection;
+    private JDBCTGTFactory _factory;
+    private List<String> _listExpired;
+
+    @Before
+    public void setUp() throws Exception {
+        _connection = DriverManager.getConnection(URL + ";create=true", "asimba", "asimba");
+        Statement statement = _connection.createStatement();
+        try {
+            statement.execute("CREATE TABLE tgt (id varchar(172) NOT NULL, "
+                + "expiration timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                + "tgtuser LONG VARCHAR FOR BIT DATA, authn_profile LONG VARCHAR FOR BIT DATA, "
+                + "authn_profile_ids LONG VARCHAR FOR BIT DATA, requestor_ids LONG VARCHAR FOR BIT DATA, "
+                + "attributes LONG VARCHAR FOR BIT DATA, PRIMARY KEY (id))");
+            statement.execute("CREATE TABLE alias_store_sp (tgt_id varchar(172) NOT NULL, "
+                + "sp_id varchar(255) NOT NULL, aselect_credentials varchar(350) DEFAULT NULL, "
+                + "session_index varchar(343) DEFAULT NULL, transient_user_id varchar(256) DEFAULT NULL, "
+                + "persistent_user_id varchar(255) DEFAULT NULL, unspecified11_user_id varchar(255) DEFAULT NULL, "
+                + "unspecified20_user_id varchar(255) DEFAULT NULL, email_user_id varchar(255) DEFAULT NULL, "
+                + "PRIMARY KEY (tgt_id,sp_id))");
+        }
+        finally {
+            statement.close();
+        }
+
+        Properties properties = new Properties();
+        properties.put("configuration.handler.class",
+            "com.alfaariss.oa.util.configuration.handler.text.PlainTextConfigurationHandler");
+        properties.put("config", CONFIG);
+        ConfigurationManager configurationManager = ConfigurationManager.getInstance();
+        configurationManager.start(properties);
+        Element eConfig = configurationManager.getSection(null, "storage");
+
+        _factory = (JDBCTGTFactory)AbstractStorageFactory.createInstance(
+            configurationManager, eConfig, new SecureRandom());
+        _listExpired = new CopyOnWriteArrayList<String>();
+        _factory.addListener(new ITGTListener() {
+            public void processTGTEvent(TGTListenerEvent event, ITGT tgt)
+                throws TGTListenerException {
+                if (event == TGTListenerEvent.ON_EXPIRE)
+                    _listExpired.add(tgt.getId());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (_factory != null)
+            _factory.stop();
+        Statement statement = _connection.createStatement();
+        try {
+            statement.execute("DROP TABLE alias_store_sp");
+            statement.execute("DROP TABLE tgt");
+        }
+        finally {
+            statement.close();
+            _connection.close();
+        }
+    }
+
+    @Test
+    public void testRemoveExpired() throws Exception {
+        String sExpired = createTGT("expired", -1000);
+        String sValid = createTGT("valid", 60000);
+
+        assertEquals(1, _factory.removeExpired(Long.MAX_VALUE));
+
+        assertFalse(_factory.exists(sExpired));
+        assertTrue(_factory.exists(sValid));
+        assertNull(_factory.getAlias("transient_user_id", "sp", sExpired));
+        assertEquals("alias_" + sValid,
+            _factory.getAlias("transient_user_id", "sp", sValid));
+        assertEquals(Arrays.asList(sExpired), _listExpired);
+    }
+
+    @Test
+    public void testExtendedDuringSweepKeepsAliasses() throws Exception {
+        String sExpired = createTGT("expired", -1000);
+        //selected as expired, but extended before the delete
+        String sExtended = createTGT("extended", 60000);
+        long lNow = System.currentTimeMillis();
+
+        Set<String> setRemoved = _factory.removeExpired(_connection, lNow,
+            Arrays.asList(sExpired, sExtended));
+
+        assertEquals(1, setRemoved.size());
+        assertTrue(setRemoved.contains(sExpired));
+        assertTrue(_factory.exists(sExtended));
+        assertNull(_factory.getAlias("transient_user_id", "sp", sExpired));
+        assertEquals("alias_" + sExtended,
+            _factory.getAlias("transient_user_id", "sp", sExtended));
+    }
+
+    private String createTGT(String sUserId, long lExpiresIn) throws Exception {
+        ITGT tgt = _factory.createTGT(new TestUser(sUserId));
+        tgt.persist();
+        String sId = tgt.getId();
+        _factory.putAlias("transient_user_id", "sp", sId, "alias_" + sId);
+        setExpiration(sId, System.currentTimeMillis() + lExpiresIn);
+        return sId;
+    }
+
+    private void setExpiration(String sId, long lExpiration) throws SQLException {
+        PreparedStatement ps = _connection.prepareStatement(
+            "UPDATE tgt SET expiration = ? WHERE id = ?");
+        try {
+            ps.setTimestamp(1, new Timestamp(lExpiration));
+            ps.setString(2, sId);
+            assertEquals(1, ps.executeUpdate());
+        }
+        finally {
+            ps.close();
+        }
+    }
+}
@@ -44,6 +44,7 @@ public class JGroupsTGT extends AbstractTGT implements Serializable {
 	{
 		super(oUser);
 		_oTGTFactory = oTGTFactory;
+		setStorageCodec(oTGTFactory.getStorageCodec());
 		
 		_lAliasList = new ArrayList<>();
 	}
@@ -69,6 +70,7 @@ public class JGroupsTGT extends AbstractTGT implements Serializable {
 	public void resuscitate(JGroupsTGTFactory oTGTFactory)
 	{
 		setTGTFactory(oTGTFactory);
+		setStorageCodec(oTGTFactory.getStorageCodec());
 	}
 	
 	
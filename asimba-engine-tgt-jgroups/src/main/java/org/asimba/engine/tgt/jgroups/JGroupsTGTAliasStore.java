@@ -33,6 +33,7 @@ import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
 import com.alfaariss.oa.api.persistence.PersistenceException;
 import com.alfaariss.oa.engine.core.tgt.factory.ITGTAliasStore;
+import org.asimba.utility.metrics.LatencyHistogram;
 import org.asimba.utility.storage.jgroups.HashMapStore;
 import org.asimba.utility.storage.jgroups.RetrieveRepeater;
 
@@ -76,6 +77,7 @@ public class JGroupsTGTAliasStore implements ITGTAliasStore {
 		_oAliasMap = oAliasMap;
 		_oTGTFactory = oTGTFactory;
         _oRepeater = new RetrieveRepeater<>(oTGTFactory.getAliasMapRetries(), oTGTFactory.getAliasMapTimeout());
+        _oRepeater.setWaiter(oTGTFactory.getReplicationWaiter());
 	}
 	
 
@@ -111,7 +113,7 @@ public class JGroupsTGTAliasStore implements ITGTAliasStore {
 		_oAliasMap.put(sKey, sTGTID);
 		
 		//JGroupsTGT oJGroupsTGT = _oTGTFactory.retrieve(sTGTID);
-		JGroupsTGT oJGroupsTGT = _oRepeater.get(new HashMapStore<JGroupsTGT>() {
+		JGroupsTGT oJGroupsTGT = _oRepeater.get(sTGTID, new HashMapStore<JGroupsTGT>() {
             @Override
             public JGroupsTGT get() throws OAException {
                 return _oTGTFactory.retrieve(sTGTID);
@@ -264,8 +266,8 @@ public class JGroupsTGTAliasStore implements ITGTAliasStore {
 		return iDeletedAliasesCount;
 	}
 	
-    public long[] getRepetitions() {
-        return _oRepeater.getRepetitions();
+    public LatencyHistogram getWaitHistogram() {
+        return _oRepeater.getWaitHistogram();
     }
     
     public void setFailureLogging(boolean doLog, String label) {
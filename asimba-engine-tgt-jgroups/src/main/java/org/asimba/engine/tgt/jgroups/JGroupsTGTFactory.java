@@ -33,6 +33,12 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.asimba.engine.cluster.ClusterConfiguration;
 import org.asimba.engine.core.cluster.ICluster;
+import org.asimba.engine.core.storage.codec.StorageCodecFactory;
+import org.asimba.utility.storage.codec.BinaryStorageCodec;
+import org.asimba.utility.storage.codec.IStorageCodec;
+import org.asimba.utility.storage.jgroups.ClusterMapFactory;
+import org.asimba.utility.storage.jgroups.IClusterMap;
+import org.asimba.utility.storage.jgroups.ReplicationWaiter;
 import org.jgroups.JChannel;
 import org.jgroups.blocks.ReplicatedHashMap;
 import org.w3c.dom.Element;
@@ -87,8 +93,9 @@ public class JGroupsTGTFactory extends AbstractStorageFactory implements ITGTFac
 	private static final Log _oLogger = LogFactory.getLog(JGroupsTGTFactory.class);
 	private static final Log _oEventLogger = LogFactory.getLog(Engine.EVENT_LOGGER);
 	
-	private ReplicatedHashMap<String, JGroupsTGT> _mTGTs;
+	private IClusterMap<String, JGroupsTGT> _mTGTs;
 	private ReplicatedHashMap<String, String> _mAliasMap;
+	private ReplicationWaiter<String, JGroupsTGT> _oReplicationWaiter;
 	
 	private ICluster _oCluster = null;
 	private ICluster _oAliasCluster = null;
@@ -106,6 +113,8 @@ public class JGroupsTGTFactory extends AbstractStorageFactory implements ITGTFac
 
     private long _lAliasMapTimeout;
     
+    private IStorageCodec _oCodec;
+    
     
 	public JGroupsTGTFactory() {
         super();
@@ -127,8 +136,21 @@ public class JGroupsTGTFactory extends AbstractStorageFactory implements ITGTFac
 			_oCluster = oClusterConfiguration.getClusterFromConfigById(_eConfig, EL_CONFIG_CLUSTERID);
 		}
 
+		// the replicated TGTs are decoded with the default codec, which reads 
+		// both formats; only write_legacy applies, not a custom codec class
+		_oCodec = StorageCodecFactory.createCodec(_configurationManager, _eConfig);
+		if (!(_oCodec instanceof BinaryStorageCodec)) {
+			_oLogger.error("A custom codec class isn't supported for replicated TGTs");
+			throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+		}
+		
 		_jChannel = (JChannel) _oCluster.getChannel();
-		_mTGTs = new ReplicatedHashMap<>( _jChannel );
+		// replicated by default, or partitioned over the members when configured;
+		// the alias map below is always replicated
+		_mTGTs = ClusterMapFactory.createMap(_configurationManager, _eConfig, _jChannel);
+		// wakes up alias stores that wait for a TGT from another member
+		_oReplicationWaiter = new ReplicationWaiter<>();
+		_mTGTs.addNotifier(_oReplicationWaiter);
 
         _iAliasMapRetries = (new ConfigParser<Integer>()).parse(EL_CONFIG_ALIASMAP_RETRIES, _eConfig, ALIASMAP_RETRIES_DEFAULT);
         _lAliasMapTimeout = (new ConfigParser<Long>()).parse(EL_CONFIG_ALIASMAP_TIMEOUT, _eConfig, ALIASMAP_TIMEOUT_DEFAULT);
@@ -173,13 +195,13 @@ public class JGroupsTGTFactory extends AbstractStorageFactory implements ITGTFac
         _oIDPAliasStore.setFailureLogging(bAliasMapLogging, JGroupsTGTFactory.class.getName());
 
 		// TODO: This should move to superclass instead:
-		if(_tCleaner != null)
-			_tCleaner.start();
+		startCleaner();
 	}
 
 
 	@Override
 	public void stop() {
+		super.stop();
 		_mTGTs.stop();
 		_mAliasMap.stop();
 		_oIDPAliasStore.stop();
@@ -229,6 +251,14 @@ public class JGroupsTGTFactory extends AbstractStorageFactory implements ITGTFac
     public long getTimeout() {
         return _mTGTs.getTimeout();
     }
+    
+    
+    /**
+     * @return The codec that the TGTs of this factory are written with.
+     */
+    IStorageCodec getStorageCodec() {
+        return _oCodec;
+    }
 
     
     public void setTimout(long timeout) {
@@ -659,6 +689,11 @@ public class JGroupsTGTFactory extends AbstractStorageFactory implements ITGTFac
 	}
 
     
+    public ReplicationWaiter<String, JGroupsTGT> getReplicationWaiter() {
+        return _oReplicationWaiter;
+    }
+
+    
     public int getAliasMapRetries() {
         return _iAliasMapRetries;
     }
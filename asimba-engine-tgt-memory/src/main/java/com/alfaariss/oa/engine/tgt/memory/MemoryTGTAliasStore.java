@@ -22,15 +22,15 @@
  */
 package com.alfaariss.oa.engine.tgt.memory;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.engine.core.tgt.factory.ITGTAliasStore;
 import com.alfaariss.oa.engine.tgt.memory.alias.AliasStore;
 
 /**
- * Stores TGT aliasses in a Hashtable.
+ * Stores TGT aliasses in a concurrent map per alias type.
  *
  * @author MHO
  * @author Alfa & Ariss
@@ -38,14 +38,14 @@ import com.alfaariss.oa.engine.tgt.memory.alias.AliasStore;
  */
 public class MemoryTGTAliasStore implements ITGTAliasStore
 {
-    private Hashtable<String,AliasStore> _htAliasStores;
+    private ConcurrentMap<String,AliasStore> _mapAliasStores;
     
     /**
      * Constructor.
      */
     public MemoryTGTAliasStore()
     {
-        _htAliasStores = new Hashtable<String, AliasStore>();
+        _mapAliasStores = new ConcurrentHashMap<String, AliasStore>();
     }
     
     /**
@@ -54,13 +54,16 @@ public class MemoryTGTAliasStore implements ITGTAliasStore
     public void putAlias(String type, String requestorID, String tgtID,
         String alias) throws OAException
     {
-        AliasStore store = _htAliasStores.get(type);
+        AliasStore store = _mapAliasStores.get(type);
         if (store == null)
-            store = new AliasStore(type);
+        {
+            AliasStore newStore = new AliasStore(type);
+            store = _mapAliasStores.putIfAbsent(type, newStore);
+            if (store == null)
+                store = newStore;
+        }
         
         store.put(requestorID, tgtID, alias);
-        
-        _htAliasStores.put(type, store);
     }
 
     /**
@@ -69,7 +72,7 @@ public class MemoryTGTAliasStore implements ITGTAliasStore
     public String getAlias(String type, String requestorID, String tgtID)
         throws OAException
     {
-        AliasStore store = _htAliasStores.get(type);
+        AliasStore store = _mapAliasStores.get(type);
         if (store != null)
             return store.getAlias(requestorID, tgtID);
         
@@ -82,7 +85,7 @@ public class MemoryTGTAliasStore implements ITGTAliasStore
     public String getTGTID(String type, String requestorID, String alias)
         throws OAException
     {
-        AliasStore store = _htAliasStores.get(type);
+        AliasStore store = _mapAliasStores.get(type);
         if (store != null)
             return store.getTGTID(requestorID, alias);
         
@@ -95,7 +98,7 @@ public class MemoryTGTAliasStore implements ITGTAliasStore
     public boolean isAlias(String type, String requestorID, String alias)
         throws OAException
     {
-        AliasStore store = _htAliasStores.get(type);
+        AliasStore store = _mapAliasStores.get(type);
         if (store != null)
             return store.exist(requestorID, alias);
         
@@ -108,7 +111,7 @@ public class MemoryTGTAliasStore implements ITGTAliasStore
     public void removeAlias(String type, String entityID, String alias) 
         throws OAException
     {
-        AliasStore store = _htAliasStores.get(type);
+        AliasStore store = _mapAliasStores.get(type);
         if (store != null)
             store.remove(entityID, alias);
     }
@@ -118,10 +121,9 @@ public class MemoryTGTAliasStore implements ITGTAliasStore
      */
     public void removeAll(String requestorID, String tgtID) throws OAException
     {
-        Enumeration<AliasStore> enumStores = _htAliasStores.elements();
-        while (enumStores.hasMoreElements())
+        for (AliasStore store : _mapAliasStores.values())
         {
-            enumStores.nextElement().removeAlias(requestorID, tgtID);
+            store.removeAlias(requestorID, tgtID);
         }
     }
     /**
@@ -132,11 +134,9 @@ public class MemoryTGTAliasStore implements ITGTAliasStore
     int remove(String tgtID)
     {
         int iReturn = 0;
-        Enumeration<AliasStore> enumStores = _htAliasStores.elements();
-        while (enumStores.hasMoreElements())
+        for (AliasStore store : _mapAliasStores.values())
         {
-            enumStores.nextElement().removeForTGT(tgtID);
-            iReturn++;
+            iReturn += store.removeForTGT(tgtID);
         }
         return iReturn;
     }
@@ -23,13 +23,17 @@
 package com.alfaariss.oa.engine.tgt.memory;
 import java.io.UnsupportedEncodingException;
 import java.util.Collections;
-import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.storage.ExpiryIndex;
+import org.asimba.utility.storage.clean.IBudgetedCleanable;
 
 import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
@@ -54,15 +58,23 @@ import com.alfaariss.oa.util.logging.UserEventLogItem;
 import com.alfaariss.oa.util.storage.factory.AbstractStorageFactory;
 
 /**
- * Simple {@link ITGTFactory} which stores TGT in a {@link Hashtable}.
+ * Simple {@link ITGTFactory} which stores TGT in a {@link ConcurrentHashMap}.
+ * 
+ * TGTs are not locked globally; the expiration time of every TGT is kept in 
+ * an {@link ExpiryIndex}, so cleaning only visits expired TGTs.
  * @author EVB
  * @author Alfa & Ariss
  *
  */
 public class MemoryTGTFactory extends AbstractStorageFactory
-    implements ITGTFactory<MemoryTGT>
+    implements ITGTFactory<MemoryTGT>, IBudgetedCleanable
 {
-    private Hashtable<String, MemoryTGT> _htTGT;
+    /** The number of expired TGTs that is removed per batch. */
+    private static final int CLEAN_BATCH_SIZE = 1000;
+    
+    private ConcurrentMap<String, MemoryTGT> _mapTGT;
+    private ExpiryIndex<String> _expiryIndex;
+    private AtomicInteger _iTGTCount;
     private List<ITGTListener> _lListeners;
     //The system logger
     private Log _logger;
@@ -79,8 +91,10 @@ public class MemoryTGTFactory extends AbstractStorageFactory
         super();
         _logger = LogFactory.getLog(MemoryTGTFactory.class);
         _eventLogger = LogFactory.getLog(Engine.EVENT_LOGGER);
-        _htTGT = new Hashtable<String, MemoryTGT>();     
-        _lListeners = new Vector<ITGTListener>();
+        _mapTGT = new ConcurrentHashMap<String, MemoryTGT>();     
+        _expiryIndex = new ExpiryIndex<String>();
+        _iTGTCount = new AtomicInteger();
+        _lListeners = new CopyOnWriteArrayList<ITGTListener>();
         
         _aliasStoreSP = new MemoryTGTAliasStore();
         _aliasStoreIDP = new MemoryTGTAliasStore();
@@ -92,7 +106,7 @@ public class MemoryTGTFactory extends AbstractStorageFactory
 	 */
 	public ITGT createTGT(IUser user) throws TGTException
     {       
-        if(_lMax > 0 && _htTGT.size() >= _lMax)
+        if(_lMax > 0 && _iTGTCount.get() >= _lMax)
         {
             _logger.error("Could not create TGT, maximum reached");
             throw new TGTException(SystemErrors.ERROR_TGT_MAX);
@@ -106,7 +120,7 @@ public class MemoryTGTFactory extends AbstractStorageFactory
      */
     public boolean exists(Object id)
     {
-        return _htTGT.containsKey(id);
+        return _mapTGT.containsKey(id);
     }
 
     /**
@@ -117,11 +131,11 @@ public class MemoryTGTFactory extends AbstractStorageFactory
      */
     public MemoryTGT retrieve(Object id) throws PersistenceException
     {
-        return _htTGT.get(id);
+        return _mapTGT.get(id);
     }
 
     /**
-     * Persist this TGT in an <code>Hashtable</code> ignoring the TGT Listener 
+     * Persist this TGT in the TGT map ignoring the TGT Listener 
      * Event.
      * 
      * <dl>
@@ -131,7 +145,8 @@ public class MemoryTGTFactory extends AbstractStorageFactory
      *  <dd>Remove TGT from storage</dd>
      * </dl>
      * 
-     * Updating is not neccesary when using an <code>Hashtable</code>.
+     * Updating is not neccesary when using a map; only the expiration is 
+     * rescheduled.
      * 
      * @param tgt The TGT to persist.
      * @return The event that was passed.
@@ -196,7 +211,7 @@ public class MemoryTGTFactory extends AbstractStorageFactory
                 tgtUser.getID(), tgtUser.getOrganization(), null, null, 
                 this, null));
         
-        _htTGT.remove(id);
+        remove(id, tgt);
         
         if (listTGTEventErrors != null)
         {//TGT Event processing failed, error has been logged already
@@ -205,7 +220,7 @@ public class MemoryTGTFactory extends AbstractStorageFactory
     }
 
     /**
-     * Persist this TGT in an <code>Hashtable</code>.
+     * Persist this TGT in the TGT map.
      * 
      * <dl>
      *  <dt><code>id == null</code></dt>
@@ -214,7 +229,8 @@ public class MemoryTGTFactory extends AbstractStorageFactory
      *  <dd>Remove TGT from storage</dd>
      * </dl>
      * 
-     * Updating is not neccesary when using an <code>Hashtable</code>.
+     * Updating is not neccesary when using a map; only the expiration is 
+     * rescheduled.
      * 
      * @param tgt The TGT to persist.
      * @throws PersistenceException If persistance.
@@ -232,7 +248,7 @@ public class MemoryTGTFactory extends AbstractStorageFactory
     }
 
     /**
-     * Persist all TGTs in an <code>Hashtable</code>.
+     * Persist all TGTs in the TGT map.
      * @param oaTgt The TGTs to persist.
      * @throws PersistenceException If persistance fails.
      * @see IEntityManager#persist(IEntity[])
@@ -269,53 +285,80 @@ public class MemoryTGTFactory extends AbstractStorageFactory
 
     /**
      * Remove all expired TGTs.
+     * 
+     * Only the TGTs that are due according to the expiry index are visited.
      * @see ICleanable#removeExpired()
      */
     public void removeExpired() throws PersistenceException
     {
+        removeExpired(Long.MAX_VALUE);
+    }
+    
+    /**
+     * Remove expired TGTs in batches until all are removed or the 
+     * deadline passed.
+     * @see IBudgetedCleanable#removeExpired(long)
+     */
+    public int removeExpired(long lDeadline) throws PersistenceException
+    {
+        int iRemoved = 0;
         long lNow = System.currentTimeMillis();
-        Enumeration<MemoryTGT> eTGTs = _htTGT.elements();
-        while(eTGTs.hasMoreElements()) //Threadsafe iteration
-        {          
-            MemoryTGT tgt = eTGTs.nextElement(); 
-            if(tgt.getTgtExpTime().getTime() <= lNow)
-            {
-                String id = tgt.getId();
-                
-                _logger.debug("TGT Expired: " + id);
-                
-                try
+        List<String> listExpired;
+        do
+        {
+            listExpired = _expiryIndex.pollExpired(lNow, CLEAN_BATCH_SIZE);
+            for (String id : listExpired)
+            {          
+                MemoryTGT tgt = _mapTGT.get(id); 
+                if (tgt == null)
+                    continue;
+            
+                long lExpTime = tgt.getTgtExpTime().getTime();
+                if (lExpTime > lNow)
                 {
-                    processEvent(TGTListenerEvent.ON_EXPIRE, tgt);
-                }
-                catch (TGTListenerException e)
-                {//do nothing; just remove and try the next tgt
-                    _logger.debug("Could not process events for TGT with id: " + id, e);
+                    //Extended after it was scheduled
+                    _expiryIndex.schedule(id, lExpTime);
                 }
+                else if (remove(id, tgt))
+                {
+                    iRemoved++;
+                    _logger.debug("TGT Expired: " + id);
                 
-                int iCountR = _aliasStoreSP.remove(id);
-                int iCountF = _aliasStoreIDP.remove(id);
+                    try
+                    {
+                        processEvent(TGTListenerEvent.ON_EXPIRE, tgt);
+                    }
+                    catch (TGTListenerException e)
+                    {//do nothing; just remove and try the next tgt
+                        _logger.debug("Could not process events for TGT with id: " + id, e);
+                    }
                 
-                if (_logger.isDebugEnabled() && iCountR + iCountF > 0)
-                {
-                    StringBuffer sbDebug = new StringBuffer("Cleaned '");
-                    sbDebug.append(iCountR);
-                    sbDebug.append("' (requestor based) aliasses and '");
-                    sbDebug.append(iCountF);
-                    sbDebug.append("' (remote enitity based) aliasses for TGT with id: ");
-                    sbDebug.append(id);
-                    _logger.debug(sbDebug.toString());
-                }
+                    int iCountR = _aliasStoreSP.remove(id);
+                    int iCountF = _aliasStoreIDP.remove(id);
                 
-                IUser tgtUser = tgt.getUser();
-                _eventLogger.info(
-                    new UserEventLogItem(null, id, null, UserEvent.TGT_EXPIRED, 
-                        tgtUser.getID(), tgtUser.getOrganization(), null, null, 
-                        this, "clean"));
+                    if (_logger.isDebugEnabled() && iCountR + iCountF > 0)
+                    {
+                        StringBuffer sbDebug = new StringBuffer("Cleaned '");
+                        sbDebug.append(iCountR);
+                        sbDebug.append("' (requestor based) aliasses and '");
+                        sbDebug.append(iCountF);
+                        sbDebug.append("' (remote enitity based) aliasses for TGT with id: ");
+                        sbDebug.append(id);
+                        _logger.debug(sbDebug.toString());
+                    }
                 
-                _htTGT.remove(id);
+                    IUser tgtUser = tgt.getUser();
+                    _eventLogger.info(
+                        new UserEventLogItem(null, id, null, UserEvent.TGT_EXPIRED, 
+                            tgtUser.getID(), tgtUser.getOrganization(), null, null, 
+                            this, "clean"));
+                }
             }
         }
+        while (listExpired.size() == CLEAN_BATCH_SIZE 
+            && System.currentTimeMillis() < lDeadline);
+        
+        return iRemoved;
     }
 
     /**
@@ -324,8 +367,7 @@ public class MemoryTGTFactory extends AbstractStorageFactory
      */
     public void start() throws OAException
     {
-        if(_tCleaner != null)
-            _tCleaner.start();         
+        startCleaner();
     }
 
     /**
@@ -333,8 +375,8 @@ public class MemoryTGTFactory extends AbstractStorageFactory
      */
     public long poll() throws OAException
     {
-        if (_htTGT!=null) 
-            return _htTGT.size();
+        if (_mapTGT!=null) 
+            return _iTGTCount.get();
         
         return Long.MIN_VALUE;
     }
@@ -438,7 +480,7 @@ public class MemoryTGTFactory extends AbstractStorageFactory
     }
 
     /**
-     * Persist this TGT in an <code>Hashtable</code>.
+     * Persist this TGT in the TGT map.
      * 
      * <dl>
      *  <dt><code>id == null</code></dt>
@@ -447,7 +489,8 @@ public class MemoryTGTFactory extends AbstractStorageFactory
      *  <dd>Remove TGT from storage</dd>
      * </dl>
      * 
-     * Updating is not neccesary when using an <code>Hashtable</code>.
+     * Updating is not neccesary when using a map; only the expiration is 
+     * rescheduled.
      * 
      * @param tgt The TGT to persist. 
      * @param bProcessEvent TRUE if event must be performed
@@ -455,13 +498,17 @@ public class MemoryTGTFactory extends AbstractStorageFactory
      * @throws PersistenceException If persistance fails.
      * @see IEntityManager#persist(IEntity)
      */
-    private synchronized TGTListenerEvent performPersist(MemoryTGT tgt, boolean bProcessEvent) throws PersistenceException
+    private TGTListenerEvent performPersist(MemoryTGT tgt, boolean bProcessEvent) throws PersistenceException
     {
         TGTListenerEvent listenerEvent = null;
         List<TGTEventError> listTGTEventErrors = null;
         String id = tgt.getId();
         if(id == null) //New TGT
         {
+            //Set expiration time before the TGT becomes visible
+            long lExpiration = System.currentTimeMillis() + _lExpiration;
+            tgt.setTgtExpTime(lExpiration);
+            
             byte[] baId = new byte[ITGT.TGT_LENGTH];     
             do
             {                
@@ -475,13 +522,12 @@ public class MemoryTGTFactory extends AbstractStorageFactory
                    _logger.error("Could not create tgt id for byte[]: " + baId, e);
                    throw new PersistenceException(SystemErrors.ERROR_INTERNAL);
                }
+               tgt.setId(id);
             }
-            while(_htTGT.containsKey(id)); //Key allready exists    
+            while(_mapTGT.putIfAbsent(id, tgt) != null); //Key allready exists    
             
-            tgt.setId(id);
-            //Update expiration time
-            tgt.setTgtExpTime(System.currentTimeMillis() + _lExpiration);
-            _htTGT.put(id, tgt);      
+            _iTGTCount.incrementAndGet();
+            _expiryIndex.schedule(id, lExpiration);
             
             listenerEvent = TGTListenerEvent.ON_CREATE;
             if (bProcessEvent)
@@ -533,13 +579,15 @@ public class MemoryTGTFactory extends AbstractStorageFactory
                     tgtUser.getID(), tgtUser.getOrganization(), null, null, 
                     this, null));
             
-            _htTGT.remove(id);
+            remove(id, tgt);
         }    
         else //Update
         {
             //Update expiration time
-            tgt.setTgtExpTime(System.currentTimeMillis() + _lExpiration);
-            //Storing can be omitted when using Hashtable
+            long lExpiration = System.currentTimeMillis() + _lExpiration;
+            tgt.setTgtExpTime(lExpiration);
+            //Storing can be omitted when using a map; only reschedule expiry
+            _expiryIndex.schedule(id, lExpiration);
             
             listenerEvent = TGTListenerEvent.ON_UPDATE;
             if (bProcessEvent)
@@ -591,4 +639,16 @@ public class MemoryTGTFactory extends AbstractStorageFactory
         if (!listErrors.isEmpty())
             throw new TGTListenerException(listErrors);
     }
+    
+    //Remove the TGT if it is still mapped to the supplied id
+    private boolean remove(String id, MemoryTGT tgt)
+    {
+        _expiryIndex.remove(id);
+        if (_mapTGT.remove(id, tgt))
+        {
+            _iTGTCount.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
 }
\ No newline at end of file
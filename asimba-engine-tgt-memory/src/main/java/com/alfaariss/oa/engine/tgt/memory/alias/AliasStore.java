@@ -22,11 +22,21 @@
  */
 package com.alfaariss.oa.engine.tgt.memory.alias;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Store for memory aliasses.
+ * 
+ * Aliasses are kept in a map per requestor, which is indexed on both the 
+ * alias and the TGT id, and a reverse index on TGT id is kept so all 
+ * aliasses of a TGT can be removed without scanning the store. All maps are 
+ * concurrent, so lookups do not contend with updates.
  *
  * @author MHO
  * @author Alfa & Ariss
@@ -36,8 +46,8 @@ public class AliasStore
 {
     private String _sStoreID;//type
     
-    private Hashtable<AliasKey, Alias> _htIndexedOnAlias;
-    private Hashtable<AliasKey, Alias> _htIndexedOnTGTID;
+    private ConcurrentMap<String, RequestorAliasses> _mapRequestors;
+    private ConcurrentMap<String, Set<Alias>> _mapIndexedOnTGTID;
     
     /**
      * Constructor. 
@@ -46,8 +56,8 @@ public class AliasStore
     public AliasStore(String sStoreID)
     {
         _sStoreID = sStoreID;
-        _htIndexedOnAlias = new Hashtable<AliasKey, Alias>();
-        _htIndexedOnTGTID = new Hashtable<AliasKey, Alias>();
+        _mapRequestors = new ConcurrentHashMap<String, RequestorAliasses>();
+        _mapIndexedOnTGTID = new ConcurrentHashMap<String, Set<Alias>>();
     }
     
     /**
@@ -65,7 +75,11 @@ public class AliasStore
      */
     public Enumeration<Alias> getAll()
     {
-        return _htIndexedOnAlias.elements();
+        List<Alias> listAll = new ArrayList<Alias>();
+        for (RequestorAliasses aliasses : _mapRequestors.values())
+            listAll.addAll(aliasses._mapIndexedOnAlias.values());
+        
+        return Collections.enumeration(listAll);
     }
     
     /**
@@ -76,13 +90,12 @@ public class AliasStore
      */
     public void remove(String requestorID, String alias)
     {
-        AliasKey oAliasKey = new AliasKey(requestorID, alias);
-        Alias oAlias = _htIndexedOnAlias.get(oAliasKey);
-        if (oAlias != null)
+        RequestorAliasses aliasses = _mapRequestors.get(requestorID);
+        if (aliasses != null)
         {
-            _htIndexedOnAlias.remove(oAliasKey);
-            _htIndexedOnTGTID.remove(
-                new AliasKey(requestorID, oAlias.getTGTID()));
+            Alias oAlias = aliasses._mapIndexedOnAlias.get(alias);
+            if (oAlias != null)
+                removeAlias(aliasses, oAlias);
         }
     }
     
@@ -94,34 +107,31 @@ public class AliasStore
      */
     public void removeForTGT(String requestorID, String tgtID)
     {
-        AliasKey oAliasKey = new AliasKey(requestorID, tgtID);
-        Alias oAlias = _htIndexedOnTGTID.get(oAliasKey);
-        if (oAlias != null)
-        {
-            _htIndexedOnTGTID.remove(new AliasKey(requestorID, tgtID));
-            _htIndexedOnAlias.remove(
-                new AliasKey(requestorID, oAlias.getAlias()));
-        }
+        removeAlias(requestorID, tgtID);
     }
     
     /**
      * Removes all aliasses specified by TGT id.
      *
      * @param tgtID the TGT id
+     * @return The number of removed aliasses.
      * @since 1.4
      */
-    public void removeForTGT(String tgtID)
+    public int removeForTGT(String tgtID)
     {
-        Enumeration<Alias> enumAliasses = _htIndexedOnAlias.elements();
-        while (enumAliasses.hasMoreElements())
+        int iCount = 0;
+        Set<Alias> setAliasses = _mapIndexedOnTGTID.remove(tgtID);
+        if (setAliasses != null)
         {
-            Alias alias = enumAliasses.nextElement();
-            if (alias.getTGTID().equals(tgtID))
+            for (Alias alias : setAliasses)
             {
-                _htIndexedOnTGTID.remove(new AliasKey(alias.getRequestorID(), alias.getTGTID()));
-                _htIndexedOnAlias.remove(new AliasKey(alias.getRequestorID(), alias.getAlias()));
+                RequestorAliasses aliasses = 
+                    _mapRequestors.get(alias.getRequestorID());
+                if (aliasses != null && removeAlias(aliasses, alias))
+                    iCount++;
             }
         }
+        return iCount;
     }
     
     /**
@@ -134,9 +144,34 @@ public class AliasStore
     public void put(String requestorID, String tgtID, String alias)
     {
         Alias oAlias = new Alias(tgtID, requestorID, alias);
-
-        _htIndexedOnAlias.put(new AliasKey(requestorID, alias), oAlias);
-        _htIndexedOnTGTID.put(new AliasKey(requestorID, tgtID), oAlias);
+        
+        RequestorAliasses aliasses = _mapRequestors.get(requestorID);
+        if (aliasses == null)
+        {
+            RequestorAliasses newAliasses = new RequestorAliasses();
+            aliasses = _mapRequestors.putIfAbsent(requestorID, newAliasses);
+            if (aliasses == null)
+                aliasses = newAliasses;
+        }
+        
+        Set<Alias> setAliasses = _mapIndexedOnTGTID.get(tgtID);
+        if (setAliasses == null)
+        {
+            Set<Alias> newSet = Collections.newSetFromMap(
+                new ConcurrentHashMap<Alias, Boolean>(4));
+            setAliasses = _mapIndexedOnTGTID.putIfAbsent(tgtID, newSet);
+            if (setAliasses == null)
+                setAliasses = newSet;
+        }
+        setAliasses.add(oAlias);
+        
+        Alias oldAlias = aliasses._mapIndexedOnTGTID.put(tgtID, oAlias);
+        if (oldAlias != null && !oldAlias.getAlias().equals(alias))
+        {
+            aliasses._mapIndexedOnAlias.remove(oldAlias.getAlias(), oldAlias);
+            setAliasses.remove(oldAlias);
+        }
+        aliasses._mapIndexedOnAlias.put(alias, oAlias);
     }
     
     /**
@@ -148,10 +183,13 @@ public class AliasStore
      */
     public String getAlias(String requestorID, String tgtID)
     {
-        Alias oAlias = _htIndexedOnTGTID.get(new AliasKey(requestorID, tgtID));
-        if (oAlias != null)
-            return oAlias.getAlias();
-        
+        RequestorAliasses aliasses = _mapRequestors.get(requestorID);
+        if (aliasses != null)
+        {
+            Alias oAlias = aliasses._mapIndexedOnTGTID.get(tgtID);
+            if (oAlias != null)
+                return oAlias.getAlias();
+        }
         return null;
     }
     
@@ -164,10 +202,13 @@ public class AliasStore
      */
     public String getTGTID(String requestorID, String alias)
     {
-        Alias oAlias = _htIndexedOnAlias.get(new AliasKey(requestorID, alias));
-        if (oAlias != null)
-            return oAlias.getTGTID();
-        
+        RequestorAliasses aliasses = _mapRequestors.get(requestorID);
+        if (aliasses != null)
+        {
+            Alias oAlias = aliasses._mapIndexedOnAlias.get(alias);
+            if (oAlias != null)
+                return oAlias.getTGTID();
+        }
         return null;
     }
     
@@ -180,8 +221,11 @@ public class AliasStore
      */
     public boolean exist(String requestorID, String alias)
     {
-        AliasKey oAliasKey = new AliasKey(requestorID, alias);
-        return _htIndexedOnAlias.containsKey(oAliasKey);
+        RequestorAliasses aliasses = _mapRequestors.get(requestorID);
+        if (aliasses != null)
+            return aliasses._mapIndexedOnAlias.containsKey(alias);
+        
+        return false;
     }
     
     /**
@@ -192,12 +236,40 @@ public class AliasStore
      */
     public void removeAlias(String entityID, String tgtID)
     {
-        AliasKey oAliasKey = new AliasKey(entityID, tgtID);
-        Alias oAlias = _htIndexedOnTGTID.get(oAliasKey);
-        if (oAlias != null)
+        RequestorAliasses aliasses = _mapRequestors.get(entityID);
+        if (aliasses != null)
+        {
+            Alias oAlias = aliasses._mapIndexedOnTGTID.get(tgtID);
+            if (oAlias != null)
+                removeAlias(aliasses, oAlias);
+        }
+    }
+    
+    //Removes the alias from all indexes; returns FALSE if already removed 
+    private boolean removeAlias(RequestorAliasses aliasses, Alias oAlias)
+    {
+        boolean bRemoved = aliasses._mapIndexedOnTGTID.remove(
+            oAlias.getTGTID(), oAlias);
+        aliasses._mapIndexedOnAlias.remove(oAlias.getAlias(), oAlias);
+        
+        //the (possibly empty) set itself is removed with the TGT
+        Set<Alias> setAliasses = _mapIndexedOnTGTID.get(oAlias.getTGTID());
+        if (setAliasses != null)
+            setAliasses.remove(oAlias);
+        
+        return bRemoved;
+    }
+    
+    //The aliasses of one requestor, indexed on alias and on TGT id
+    private static class RequestorAliasses
+    {
+        private final ConcurrentMap<String, Alias> _mapIndexedOnAlias;
+        private final ConcurrentMap<String, Alias> _mapIndexedOnTGTID;
+        
+        RequestorAliasses()
         {
-            _htIndexedOnTGTID.remove(new AliasKey(oAlias.getRequestorID(), oAlias.getTGTID()));
-            _htIndexedOnAlias.remove(new AliasKey(oAlias.getRequestorID(), oAlias.getAlias()));
+            _mapIndexedOnAlias = new ConcurrentHashMap<String, Alias>();
+            _mapIndexedOnTGTID = new ConcurrentHashMap<String, Alias>();
         }
     }
 }
@@ -0,0 +1,236 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.tgt.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alfaariss.oa.api.tgt.ITGT;
+import com.alfaariss.oa.api.tgt.ITGTListener;
+import com.alfaariss.oa.api.tgt.TGTListenerEvent;
+import com.alfaariss.oa.api.tgt.TGTListenerException;
+import com.alfaariss.oa.engine.core.user.AbstractUser;
+
+public class MemoryTGTFactoryTest {
+
+    private static final String ALIAS_TYPE = "test_alias";
+
+    private static class TestUser extends AbstractUser {
+        private static final long serialVersionUID = 1L;
+
+        TestUser(String sUserId) {
+            super("organization", sUserId, true);
+        }
+
+        public boolean isAuthenticationRegistered(String sMethod) {
+            return true;
+        }
+    }
+
+    /** Exposes the configuration that createInstance() normally reads. */
+    private static class TestFactory extends MemoryTGTFactory {
+        TestFactory(long lExpiration) {
+            _random = new SecureRandom();
+            _lExpiration = lExpiration;
+            _lMax = -1;
+        }
+
+        void setExpiration(long lExpiration) {
+            _lExpiration = lExpiration;
+        }
+
+        long getExpiration() {
+            return _lExpiration;
+        }
+    }
+
+    private static class CountingListener implements ITGTListener {
+        final AtomicInteger _iExpired = new AtomicInteger();
+        final AtomicInteger _iRemoved = new AtomicInteger();
+
+        public void processTGTEvent(TGTListenerEvent event, ITGT tgt)
+            throws TGTListenerException {
+            if (event == TGTListenerEvent.ON_EXPIRE)
+                _iExpired.incrementAndGet();
+            else if (event == TGTListenerEvent.ON_REMOVE)
+                _iRemoved.incrementAndGet();
+        }
+    }
+
+    private TestFactory _factory;
+    private CountingListener _listener;
+
+    @Before
+    public void setUp() {
+        _factory = new TestFactory(60000);
+        _listener = new CountingListener();
+        _factory.addListener(_listener);
+    }
+
+    @After
+    public void tearDown() {
+        _factory.stop();
+    }
+
+    @Test
+    public void testRemoveExpiredCascadesAliases() throws Exception {
+        MemoryTGT expired = createTGT("expired");
+        MemoryTGT valid = createTGT("valid");
+        putAliases(expired.getId());
+        putAliases(valid.getId());
+
+        forceDue(expired);
+        assertEquals(1, _factory.removeExpired(Long.MAX_VALUE));
+
+        assertFalse(_factory.exists(expired.getId()));
+        assertAliasesRemoved(expired.getId());
+        assertEquals("sp_" + valid.getId(),
+            _factory.getAliasStoreSP().getAlias(ALIAS_TYPE, "sp", valid.getId()));
+        assertEquals(1, _listener._iExpired.get());
+        assertEquals(1, _factory.poll());
+    }
+
+    @Test
+    public void testPersistExpiredCascadesAliases() throws Exception {
+        MemoryTGT tgt = createTGT("user");
+        putAliases(tgt.getId());
+
+        tgt.expire();
+        tgt.persist();
+
+        assertFalse(_factory.exists(tgt.getId()));
+        assertAliasesRemoved(tgt.getId());
+        assertEquals(1, _listener._iRemoved.get());
+        assertEquals(0, _factory.poll());
+    }
+
+    @Test
+    public void testCleanCascadesAliases() throws Exception {
+        MemoryTGT tgt = createTGT("user");
+        putAliases(tgt.getId());
+
+        tgt.clean();
+
+        assertFalse(_factory.exists(tgt.getId()));
+        assertAliasesRemoved(tgt.getId());
+        assertEquals(1, _listener._iExpired.get());
+    }
+
+    @Test
+    public void testExtendedTGTIsKept() throws Exception {
+        MemoryTGT tgt = createTGT("user");
+        putAliases(tgt.getId());
+        forceDue(tgt);
+        // Extended after it became due in the index
+        tgt.setTgtExpTime(System.currentTimeMillis() + 60000);
+
+        assertEquals(0, _factory.removeExpired(Long.MAX_VALUE));
+        assertTrue(_factory.exists(tgt.getId()));
+        assertTrue(_factory.isAlias(ALIAS_TYPE, "sp", "sp_" + tgt.getId()));
+    }
+
+    @Test
+    public void testConcurrentCleanAndExpiry() throws Exception {
+        final List<MemoryTGT> tgts = new ArrayList<MemoryTGT>();
+        for (int i = 0; i < 200; i++) {
+            MemoryTGT tgt = createTGT("user" + i);
+            putAliases(tgt.getId());
+            forceDue(tgt);
+            tgts.add(tgt);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        start.await();
+                        return _factory.removeExpired(Long.MAX_VALUE);
+                    }
+                }));
+            }
+            start.countDown();
+
+            int iRemoved = 0;
+            for (Future<Integer> future : futures)
+                iRemoved += future.get();
+            assertEquals(tgts.size(), iRemoved);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, _factory.poll());
+        assertEquals(tgts.size(), _listener._iExpired.get());
+        for (MemoryTGT tgt : tgts)
+            assertAliasesRemoved(tgt.getId());
+    }
+
+    private MemoryTGT createTGT(String sUserId) throws Exception {
+        MemoryTGT tgt = (MemoryTGT)_factory.createTGT(new TestUser(sUserId));
+        tgt.persist();
+        return tgt;
+    }
+
+    private void putAliases(String sTGTID) throws Exception {
+        _factory.putAlias(ALIAS_TYPE, "sp", sTGTID, "sp_" + sTGTID);
+        _factory.getAliasStoreIDP().putAlias(ALIAS_TYPE, "idp", sTGTID, "idp_" + sTGTID);
+    }
+
+    private void assertAliasesRemoved(String sTGTID) throws Exception {
+        assertNull(_factory.getAlias(ALIAS_TYPE, "sp", sTGTID));
+        assertNull(_factory.getTGTID(ALIAS_TYPE, "sp", "sp_" + sTGTID));
+        assertNull(_factory.getAliasStoreIDP().getAlias(ALIAS_TYPE, "idp", sTGTID));
+        assertFalse(_factory.getAliasStoreIDP().isAlias(ALIAS_TYPE, "idp", "idp_" + sTGTID));
+    }
+
+    // Expire the TGT and reschedule it, as an update persisted in the past would
+    private void forceDue(MemoryTGT tgt) throws Exception {
+        long lExpiration = _factory.getExpiration();
+        _factory.setExpiration(-1);
+        try {
+            tgt.persistPassingListenerEvent();
+        }
+        finally {
+            _factory.setExpiration(lExpiration);
+        }
+        assertTrue(_factory.exists(tgt.getId()));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.engine.tgt.memory.alias;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AliasStoreTest {
+
+    private static final int THREADS = 8;
+    private static final int TGTS_PER_THREAD = 200;
+
+    private AliasStore _store;
+    private ExecutorService _executor;
+
+    @Before
+    public void setUp() {
+        _store = new AliasStore("test");
+        _executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+    }
+
+    @Test
+    public void testPutAndLookup() {
+        _store.put("sp1", "tgt1", "alias1");
+        _store.put("sp2", "tgt1", "alias2");
+
+        assertEquals("alias1", _store.getAlias("sp1", "tgt1"));
+        assertEquals("tgt1", _store.getTGTID("sp1", "alias1"));
+        assertTrue(_store.exist("sp2", "alias2"));
+        assertFalse(_store.exist("sp1", "alias2"));
+        assertNull(_store.getAlias("sp3", "tgt1"));
+    }
+
+    @Test
+    public void testReplaceAlias() {
+        _store.put("sp1", "tgt1", "alias1");
+        _store.put("sp1", "tgt1", "alias2");
+
+        assertEquals("alias2", _store.getAlias("sp1", "tgt1"));
+        assertFalse(_store.exist("sp1", "alias1"));
+        assertNull(_store.getTGTID("sp1", "alias1"));
+        assertEquals(1, _store.removeForTGT("tgt1"));
+        assertFalse(_store.getAll().hasMoreElements());
+    }
+
+    @Test
+    public void testRemoveForTGTCascades() {
+        _store.put("sp1", "tgt1", "alias1");
+        _store.put("sp2", "tgt1", "alias2");
+        _store.put("sp1", "tgt2", "alias3");
+
+        assertEquals(2, _store.removeForTGT("tgt1"));
+        assertNull(_store.getAlias("sp1", "tgt1"));
+        assertNull(_store.getAlias("sp2", "tgt1"));
+        assertFalse(_store.exist("sp1", "alias1"));
+        assertFalse(_store.exist("sp2", "alias2"));
+        assertEquals("alias3", _store.getAlias("sp1", "tgt2"));
+        assertEquals(0, _store.removeForTGT("tgt1"));
+    }
+
+    @Test
+    public void testRemoveSingleAlias() {
+        _store.put("sp1", "tgt1", "alias1");
+        _store.put("sp2", "tgt1", "alias2");
+
+        _store.remove("sp1", "alias1");
+        assertNull(_store.getTGTID("sp1", "alias1"));
+        assertEquals("alias2", _store.getAlias("sp2", "tgt1"));
+        // Only the remaining alias is cascaded
+        assertEquals(1, _store.removeForTGT("tgt1"));
+    }
+
+    @Test
+    public void testConcurrentPutRemoveLookup() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < THREADS; i++) {
+            final int iThread = i;
+            futures.add(_executor.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    start.await();
+                    int iErrors = 0;
+                    for (int j = 0; j < TGTS_PER_THREAD; j++) {
+                        String sTGT = "tgt" + iThread + "_" + j;
+                        String sAlias = "alias" + iThread + "_" + j;
+                        _store.put("sp" + (j % 3), sTGT, sAlias);
+                        _store.put("idp", sTGT, sAlias);
+                        if (!sTGT.equals(_store.getTGTID("sp" + (j % 3), sAlias)))
+                            iErrors++;
+                        if (!sAlias.equals(_store.getAlias("idp", sTGT)))
+                            iErrors++;
+                        // Remove every other TGT again
+                        if (j % 2 == 0 && _store.removeForTGT(sTGT) != 2)
+                            iErrors++;
+                    }
+                    return iErrors;
+                }
+            }));
+        }
+        start.countDown();
+
+        for (Future<Integer> future : futures)
+            assertEquals(Integer.valueOf(0), future.get());
+
+        List<Alias> listAll = Collections.list(_store.getAll());
+        assertEquals(THREADS * TGTS_PER_THREAD, listAll.size());
+        for (Alias alias : listAll) {
+            String sTGT = alias.getTGTID();
+            int j = Integer.parseInt(sTGT.substring(sTGT.indexOf('_') + 1));
+            assertEquals(1, j % 2);
+        }
+    }
+
+    @Test
+    public void testConcurrentRemoveForSameTGT() throws Exception {
+        for (int i = 0; i < 100; i++)
+            _store.put("sp" + i, "tgt", "alias" + i);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(_executor.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    start.await();
+                    return _store.removeForTGT("tgt");
+                }
+            }));
+        }
+        start.countDown();
+
+        int iRemoved = 0;
+        for (Future<Integer> future : futures)
+            iRemoved += future.get();
+        assertEquals(100, iRemoved);
+        assertFalse(_store.getAll().hasMoreElements());
+    }
+}
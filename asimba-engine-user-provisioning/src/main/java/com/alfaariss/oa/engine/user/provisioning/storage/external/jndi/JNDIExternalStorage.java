@@ -25,13 +25,11 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Vector;
 
-import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.InvalidSearchFilterException;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
@@ -40,16 +38,22 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.w3c.dom.Element;
 
+import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
 import com.alfaariss.oa.api.configuration.IConfigurationManager;
 import com.alfaariss.oa.engine.core.user.UserException;
 import com.alfaariss.oa.engine.user.provisioning.storage.IStorage;
 import com.alfaariss.oa.engine.user.provisioning.storage.external.IExternalStorage;
+import com.alfaariss.oa.util.ldap.JNDIContextPool;
+import com.alfaariss.oa.util.ldap.JNDIDirectory;
+import com.alfaariss.oa.util.ldap.JNDIDirectoryRegistry;
 import com.alfaariss.oa.util.ldap.JNDIUtil;
 /**
  * JNDI external storage object.
  * <br>
- * Uses the configured JNDI storage as external storage.
+ * Uses the configured JNDI storage as external storage. The directory 
+ * connections are pooled and can be shared with other modules, see 
+ * {@link JNDIDirectoryRegistry}.
  * @author MHO
  * @author Alfa & Ariss
  *
@@ -60,7 +64,7 @@ public class JNDIExternalStorage implements IExternalStorage
     private String _sDNBase;
     private String _sDNUser;
     private String _sFilter;
-    private Hashtable<String,String> _htJNDIEnvironment;
+    private JNDIDirectory _oDirectory;
 
 	/**
 	 * Creates the object.
@@ -71,7 +75,7 @@ public class JNDIExternalStorage implements IExternalStorage
         _sDNBase = null;
         _sDNUser = null;
         _sFilter = null;
-        _htJNDIEnvironment = null;
+        _oDirectory = null;
 	}
 
     /**
@@ -81,7 +85,6 @@ public class JNDIExternalStorage implements IExternalStorage
     public void start(IConfigurationManager oConfigurationManager, 
         Element eConfig) throws UserException
     {
-        InitialDirContext context = null;
 	    try
         {
             Element eResource = oConfigurationManager.getSection(eConfig, "resource");
@@ -126,11 +129,15 @@ public class JNDIExternalStorage implements IExternalStorage
                 throw new UserException(SystemErrors.ERROR_CONFIG_READ);
             }
             
-            _htJNDIEnvironment = readJNDIContext(oConfigurationManager, eResource);
-           
-            //test connection
-            context = new InitialDirContext(_htJNDIEnvironment);
-            
+            try
+            {
+                _oDirectory = JNDIDirectoryRegistry.getInstance().getDirectory(
+                    oConfigurationManager, eResource);
+            }
+            catch (OAException e)
+            {
+                throw new UserException(e.getCode(), e);
+            }
         }
         catch (UserException e)
         {
@@ -141,19 +148,6 @@ public class JNDIExternalStorage implements IExternalStorage
             _logger.error("Could not create object", e);
             throw new UserException(SystemErrors.ERROR_INTERNAL);
         }
-        finally
-        {
-            //Close context
-            try
-            {
-                if(context != null)
-                    context.close();
-            }
-            catch (NamingException e)
-            {
-                _logger.error("Could not close initial context", e);
-            }
-        }
 	}
 
     /**
@@ -164,18 +158,19 @@ public class JNDIExternalStorage implements IExternalStorage
     {
         DirContext oDirContext = null;
         NamingEnumeration oNamingEnumeration = null;
+        boolean bReusable = true;
         
         boolean bReturn = false;
         try
         {       
             try
             {
-                oDirContext = new InitialDirContext(_htJNDIEnvironment);
+                oDirContext = _oDirectory.getContext();
             }
             catch (NamingException e)
             {
                 _logger.error(
-                    "Could not create the connection: " + _htJNDIEnvironment);
+                    "Could not create the connection: " + _oDirectory.getURL());
                 throw new UserException(SystemErrors.ERROR_RESOURCE_CONNECT, e);
             }
             
@@ -196,6 +191,12 @@ public class JNDIExternalStorage implements IExternalStorage
             }
             catch (NamingException e)
             {
+                if (JNDIContextPool.isConnectionFailure(e))
+                {
+                    bReusable = false;
+                    _logger.error("Connection failed while searching for user: " + id);
+                    throw new UserException(SystemErrors.ERROR_RESOURCE_CONNECT, e);
+                }
                 _logger.debug("User unknown, naming exception. query: " 
                     + searchFilter, e);
                 return false; //user unknown
@@ -207,6 +208,7 @@ public class JNDIExternalStorage implements IExternalStorage
         }
         catch (Exception e)
         {
+            bReusable = false;
             _logger.error("Could not verify if user exists: " + id, e);
             throw new UserException(SystemErrors.ERROR_INTERNAL, e);
         }
@@ -225,19 +227,7 @@ public class JNDIExternalStorage implements IExternalStorage
                         + id, e);
                 }
             }
-            if (oDirContext != null)
-            {
-                try
-                {
-                    oDirContext.close();
-                }
-                catch (NamingException e)
-                {
-                    _logger.error(
-                        "Could not close Dir Context after searching for user with id: " 
-                        + id, e);
-                }
-            }
+            _oDirectory.releaseContext(oDirContext, bReusable);
         }
         return bReturn;
     }
@@ -250,17 +240,18 @@ public class JNDIExternalStorage implements IExternalStorage
     {
         DirContext oDirContext = null;
         NamingEnumeration oNamingEnumeration = null;
+        boolean bReusable = true;
         Object oValue = null;
         try
         {
             try
             {
-                oDirContext = new InitialDirContext(_htJNDIEnvironment);
+                oDirContext = _oDirectory.getContext();
             }
             catch (NamingException e)
             {
                 _logger.error("Could not create the connection: " 
-                    + _htJNDIEnvironment);
+                    + _oDirectory.getURL());
                 throw new UserException(SystemErrors.ERROR_RESOURCE_CONNECT, e);
             }
             
@@ -286,6 +277,12 @@ public class JNDIExternalStorage implements IExternalStorage
             }
             catch (NamingException e)
             {
+                if (JNDIContextPool.isConnectionFailure(e))
+                {
+                    bReusable = false;
+                    _logger.error("Connection failed while searching for user: " + id);
+                    throw new UserException(SystemErrors.ERROR_RESOURCE_CONNECT, e);
+                }
                 _logger.error("User unknown: " + id);
                 throw new UserException(SystemErrors.ERROR_RESOURCE_RETRIEVE, e);
             }
@@ -315,6 +312,7 @@ public class JNDIExternalStorage implements IExternalStorage
         }
         catch (Exception e)
         {
+            bReusable = false;
             _logger.error("Could not retrieve field: " + field, e);
             throw new UserException(SystemErrors.ERROR_INTERNAL, e);
         }
@@ -333,19 +331,7 @@ public class JNDIExternalStorage implements IExternalStorage
                         + id, e);
                 }
             }
-            if (oDirContext != null)
-            {
-                try
-                {
-                    oDirContext.close();
-                }
-                catch (NamingException e)
-                {
-                    _logger.error(
-                        "Could not close Dir Context after searching for user with id: " 
-                        + id, e);
-                }
-            }
+            _oDirectory.releaseContext(oDirContext, bReusable);
         }
         return oValue;
     }
@@ -360,16 +346,17 @@ public class JNDIExternalStorage implements IExternalStorage
         Hashtable<String, Object> htReturn = new Hashtable<String, Object>();
         DirContext oDirContext = null;
         NamingEnumeration oNamingEnumeration = null;
+        boolean bReusable = true;
         try
         {
             try
             {
-                oDirContext = new InitialDirContext(_htJNDIEnvironment);
+                oDirContext = _oDirectory.getContext();
             }
             catch (NamingException e)
             {
                 _logger.error("Could not create the connection: " 
-                    + _htJNDIEnvironment);
+                    + _oDirectory.getURL());
                 throw new UserException(SystemErrors.ERROR_RESOURCE_CONNECT, e);
             }
             
@@ -397,6 +384,12 @@ public class JNDIExternalStorage implements IExternalStorage
             }
             catch (NamingException e)
             {
+                if (JNDIContextPool.isConnectionFailure(e))
+                {
+                    bReusable = false;
+                    _logger.error("Connection failed while searching for user: " + id);
+                    throw new UserException(SystemErrors.ERROR_RESOURCE_CONNECT, e);
+                }
                 _logger.error("User unknown: " + id);
                 throw new UserException(SystemErrors.ERROR_RESOURCE_RETRIEVE, e);
             }
@@ -442,6 +435,7 @@ public class JNDIExternalStorage implements IExternalStorage
         }
         catch (Exception e)
         {
+            bReusable = false;
             _logger.fatal("Could not retrieve fields: " + fields, e);
             throw new UserException(SystemErrors.ERROR_INTERNAL, e);
         }
@@ -460,19 +454,7 @@ public class JNDIExternalStorage implements IExternalStorage
                         + id, e);
                 }
             }
-            if (oDirContext != null)
-            {
-                try
-                {
-                    oDirContext.close();
-                }
-                catch (NamingException e)
-                {
-                    _logger.error(
-                        "Could not close Dir Context after searching for user with id: " 
-                        + id, e);
-                }
-            }
+            _oDirectory.releaseContext(oDirContext, bReusable);
         }
         return htReturn;
     }
@@ -483,96 +465,13 @@ public class JNDIExternalStorage implements IExternalStorage
      */
     public void stop()
     {
-        //do nothing
-    }
-    
-    /**
-     * Reads JNDI connection information from the configuration.
-     * <br>
-     * Creates an <code>Hashtable</code> containing the JNDI environment variables.
-     * @param oConfigurationManager The configuration manager
-     * @param eConfig the configuration section
-     * @return <code>DirContext</code> that contains the JNDI connection
-     * @throws UserException if configuration reading fails
-     */
-    private Hashtable<String,String> readJNDIContext(
-        IConfigurationManager oConfigurationManager, Element eConfig) 
-        throws UserException
-    {
-        Hashtable<String,String> htEnvironment = new Hashtable<String,String>();
-        
-        try
-        {
-            Element eSecurityPrincipal = oConfigurationManager.getSection(
-                eConfig, "security_principal");
-            if (eSecurityPrincipal == null)
-            {
-                _logger.error(
-                    "No 'security_principal' section found in 'resource' configuration");
-                throw new UserException(SystemErrors.ERROR_CONFIG_READ);
-            }
-    
-            String sPrincipal = oConfigurationManager.getParam(
-                eSecurityPrincipal, "dn");
-            if(sPrincipal == null)
-            {
-                _logger.error("No item 'dn' item found in configuration");
-                throw new UserException(SystemErrors.ERROR_CONFIG_READ);
-            }
-    
-            String sPassword = oConfigurationManager.getParam(
-                eSecurityPrincipal, "password");
-            if(sPassword == null)
-            {
-                _logger.error("No 'password' item found in configuration ");
-                throw new UserException(SystemErrors.ERROR_CONFIG_READ);
-            }
-            
-            String sDriver = oConfigurationManager.getParam(eConfig, "driver");
-            if(sDriver == null)
-            {
-                _logger.error("No 'driver' item found in configuration");
-                throw new UserException(SystemErrors.ERROR_CONFIG_READ);
-            }
-            
-            String sUrl = oConfigurationManager.getParam(eConfig, "url");
-            if(sUrl == null)
-            {
-                _logger.error("No valid config item 'url' found in configuration");
-                throw new UserException(SystemErrors.ERROR_CONFIG_READ);
-            }
-            
-            if (sUrl.length() >= 5 && 
-                sUrl.substring(0,5).equalsIgnoreCase("ldaps"))
-            {
-                // Request SSL transport
-                htEnvironment.put(Context.SECURITY_PROTOCOL, "ssl");
-                _logger.info("SSL enabled");
-            }
-            else
-            {
-                _logger.info("SSL disabled");
-            }
-            
-            htEnvironment.put(Context.INITIAL_CONTEXT_FACTORY, sDriver);
-            htEnvironment.put(Context.SECURITY_AUTHENTICATION, "simple");
-            htEnvironment.put(Context.SECURITY_PRINCIPAL, sPrincipal);
-            htEnvironment.put(Context.SECURITY_CREDENTIALS, sPassword);
-            htEnvironment.put(Context.PROVIDER_URL, sUrl);
-            
-        }
-        catch (UserException e)
+        if (_oDirectory != null)
         {
-            throw e;
+            JNDIDirectoryRegistry.getInstance().release(_oDirectory);
+            _oDirectory = null;
         }
-        catch (Exception e)
-        {
-            _logger.error("Could not create a connection", e);
-            throw new UserException(SystemErrors.ERROR_INTERNAL, e);
-        }
-        return htEnvironment;
     }
-
+    
     private String resolveSearchQuery(String user)
     {
         String escapedUser = JNDIUtil.escapeLDAPSearchFilter(user);
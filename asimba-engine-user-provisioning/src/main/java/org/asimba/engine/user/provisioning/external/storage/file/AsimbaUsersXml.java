@@ -23,27 +23,27 @@ package org.asimba.engine.user.provisioning.external.storage.file;
 import java.io.File;
 import java.util.Hashtable;
 import java.util.List;
-import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.asimba.utility.filesystem.PathTranslator;
+import org.asimba.utility.users.AsimbaUsersFile;
+import org.asimba.utility.users.AsimbaUsersModel;
 import org.w3c.dom.Element;
 
-import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
 import com.alfaariss.oa.api.configuration.IConfigurationManager;
 import com.alfaariss.oa.engine.core.user.UserException;
 import com.alfaariss.oa.engine.user.provisioning.storage.IStorage;
 import com.alfaariss.oa.engine.user.provisioning.storage.external.IExternalStorage;
-import com.alfaariss.oa.util.configuration.ConfigurationManager;
-import com.alfaariss.oa.util.configuration.handler.file.FileConfigurationHandler;
 
 /**
  * External storage based on asimba-users.xml file format
  * 
- * Userfile is read on demand, so changes in the file are reflected
- * in real time.
+ * The userfile is read once into a model that is shared with the other
+ * modules that use the same file; the model is read again in the
+ * background when the file changes, so changes in the file are reflected
+ * within the configured <code>check_interval</code>.
  * 
  * See www.asimba.org for more information about this document format
  * 
@@ -60,18 +60,17 @@ public class AsimbaUsersXml implements IExternalStorage
     private Log _oLogger;
 
     /**
-     * Local context for creating ConfigManager instance
+     * Shared model of the asimba-users.xml file
      */
-    protected Properties _pConfig;
+    protected volatile AsimbaUsersFile _oUsersFile;
 
     
     /**
-     * Default constructor, initializes local context
+     * Default constructor
      */
     public AsimbaUsersXml()
     {
         _oLogger = LogFactory.getLog(AsimbaUsersXml.class);
-        _pConfig = new Properties();
     }
     
     /**
@@ -79,6 +78,8 @@ public class AsimbaUsersXml implements IExternalStorage
      * 
      * Create from configuration:<br/>
      * &lt;file&gt; configures the full qualified filename of the asimba-users.xml file<br/>
+     * &lt;check_interval&gt; optionally configures the interval in milliseconds
+     * in which the file is checked for changes, 0 disables checking<br/>
      * <br/>
      * Mounting points are supported, so to refer to a file in user-directory, use
      * <b>${user.dir}/mydir/myfile</b><br/>
@@ -109,12 +110,30 @@ public class AsimbaUsersXml implements IExternalStorage
 	            throw new UserException(SystemErrors.ERROR_CONFIG_READ);
             }
             
-            // Initialize context so ConfigManager can find the file: 
+            long lCheckInterval = AsimbaUsersFile.DEFAULT_CHECK_INTERVAL;
+            String sCheckInterval = oConfigurationManager.getParam(eConfig, "check_interval");
+            if (sCheckInterval == null)
+                _oLogger.info("No optional 'check_interval' item found in configuration, using default: " + lCheckInterval);
+            else
+            {
+                try
+                {
+                    lCheckInterval = Long.parseLong(sCheckInterval);
+                }
+                catch (NumberFormatException e)
+                {
+                    lCheckInterval = -1;
+                }
+                if (lCheckInterval < 0)
+                {
+                    _oLogger.error("Invalid 'check_interval' item found in configuration: " + sCheckInterval);
+                    throw new UserException(SystemErrors.ERROR_CONFIG_READ);
+                }
+            }
+            
             sFile = oAsimbaUsersFile.getAbsolutePath();
-            _pConfig.put("configuration.handler.filename", sFile);
+            _oUsersFile = AsimbaUsersFile.open(sFile, lCheckInterval);
             _oLogger.info("Using asimba-users.xml file: " + sFile);
-            
-            getConfiguration();
         }
         catch (UserException e)
         {
@@ -138,21 +157,10 @@ public class AsimbaUsersXml implements IExternalStorage
      */
     public Object getField(String sUserId, String sKey) throws UserException
     {
-        Object oValue = null;
-        try
-        {
-            ConfigurationManager oCM = getConfiguration();
-            Element elUser = oCM.getSection(null, "user", "id=" + sUserId);
-            if (elUser != null)
-                oValue = oCM.getParam(elUser, sKey);
-        }
-        catch(Exception e)
-        {
-        	String s = _pConfig.getProperty("configuration.handler.filename");
-            _oLogger.error("Error when retrieving attribute '"+sKey+"' for user '"+sUserId+"' in file "+s, e);
-            throw new UserException(SystemErrors.ERROR_INTERNAL, e);
-        }
-        return oValue;
+        AsimbaUsersModel.User oUser = getModel().getUser(sUserId);
+        if (oUser == null)
+            return null;
+        return oUser.getParam(sKey);
     }
 
     /**
@@ -168,26 +176,16 @@ public class AsimbaUsersXml implements IExternalStorage
         String sUserId, List<String> lFields) throws UserException
     {
         Hashtable<String, Object> htValues = new Hashtable<String, Object>();
-        try
+        AsimbaUsersModel.User oUser = getModel().getUser(sUserId);
+        if (oUser != null)
         {
-            ConfigurationManager oCM = getConfiguration();
-            Element elUser = oCM.getSection(null, "user", "id=" + sUserId);
-            if (elUser != null)
+            for (String sField: lFields)
             {
-                for (String sField: lFields)
-                {
-                    String sValue = oCM.getParam(elUser, sField);
-                    if (sValue != null)
-                        htValues.put(sField, sValue);
-                }
+                String sValue = oUser.getParam(sField);
+                if (sValue != null)
+                    htValues.put(sField, sValue);
             }
         }
-        catch(Exception e)
-        {
-        	String s = _pConfig.getProperty("configuration.handler.filename");
-            _oLogger.error("Error when retrieving attributes for user '"+sUserId+"' in file "+s, e);
-            throw new UserException(SystemErrors.ERROR_INTERNAL, e);
-        }
         return htValues;
     }
 
@@ -198,60 +196,28 @@ public class AsimbaUsersXml implements IExternalStorage
      */
     public boolean exists(String sUserId) throws UserException
     {
-        try
-        {
-            ConfigurationManager oCM = getConfiguration();
-            Element elUser = oCM.getSection(null, "user", "id=" + sUserId);
-            if (elUser != null)
-                return true;
-        }
-        catch(Exception e)
-        {
-        	String s = _pConfig.getProperty("configuration.handler.filename");
-            _oLogger.error("Error with lookup of user '"+sUserId+"' in file "+s, e);
-            throw new UserException(SystemErrors.ERROR_INTERNAL, e);
-        }
-        return false;
+        return getModel().getUser(sUserId) != null;
     }
 
     /**
-     * Stops the file storage.
+     * Stops the file storage and releases the shared model of the file.
      * @see com.alfaariss.oa.engine.user.provisioning.storage.IStorage#stop()
      */
     public void stop()
     {
+        AsimbaUsersFile.release(_oUsersFile);
+        _oUsersFile = null;
     }
-
-    /**
-     * Instantiate a new ConfigurationManager object, that is using the configured
-     * Asimba-users.xml file
-     * @return Initialized ConfigurationManager instance
-     * @throws OAException
-     */
-    private ConfigurationManager getConfiguration() throws OAException
+    
+    //The file is null before start and after stop
+    private AsimbaUsersModel getModel() throws UserException
     {
-        ConfigurationManager oCM = null;
-        try
-        {
-            FileConfigurationHandler oFCHandler = new FileConfigurationHandler();
-            oFCHandler.init(_pConfig);
-            
-            oCM = new ConfigurationManager();
-            oCM.init(oFCHandler);
-        }
-        catch (OAException e)
+        AsimbaUsersFile oUsersFile = _oUsersFile;
+        if (oUsersFile == null)
         {
-        	// Rethrow exception
-            throw e;
-        }
-        catch(Exception e)
-        {
-        	// Something system related occurred
-        	String s = _pConfig.getProperty("configuration.handler.filename");
-            _oLogger.error("Error when establishing ConfigManager using Asimba-users file "+s, e);
-            throw new UserException(SystemErrors.ERROR_INTERNAL, e);
+            _oLogger.error("AsimbaUsersXml storage is not initialized or stopped");
+            throw new UserException(SystemErrors.ERROR_NOT_INITIALIZED);
         }
-        
-        return oCM;
+        return oUsersFile.getModel();
     }
 }
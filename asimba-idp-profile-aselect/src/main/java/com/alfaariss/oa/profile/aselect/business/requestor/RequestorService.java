@@ -26,7 +26,6 @@ package com.alfaariss.oa.profile.aselect.business.requestor;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.security.MessageDigest;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -1808,11 +1807,10 @@ public class RequestorService
                 sUid = sUid + sSalt;
             
             // the returned user ID must contain an opaque value 
-            MessageDigest oMessageDigest = _cryptoManager.getMessageDigest();
             try
             {
-                oMessageDigest.update(sUid.getBytes(ASelectProcessor.CHARSET));
-                sUid = toHexString(oMessageDigest.digest());
+                sUid = toHexString(_cryptoManager.digest(
+                    sUid.getBytes(ASelectProcessor.CHARSET)));
             }
             catch (Exception e)
             {
@@ -27,8 +27,6 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.security.PrivateKey;
-import java.security.Signature;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -503,13 +501,6 @@ public class LogoutManager implements ITGTListener, IAuthority
                 throw new OAException(SystemErrors.ERROR_INTERNAL);
             }
             
-            Signature signature = _cryptoManager.getSignature();
-            if (signature == null)
-            {
-                _logger.warn("No signature object found");
-                throw new OAException(SystemErrors.ERROR_INTERNAL);
-            }
-    
             StringBuffer sbSignatureData = new StringBuffer();
             TreeSet<String> sortedSet = new TreeSet<String>(mapRequest.keySet());
             for (Iterator<String> iter = sortedSet.iterator(); iter.hasNext();)
@@ -518,16 +509,8 @@ public class LogoutManager implements ITGTListener, IAuthority
                 sbSignatureData.append(mapRequest.get(sKey));
             }
     
-            PrivateKey keyPrivate = _cryptoManager.getPrivateKey();
-            if (keyPrivate == null)
-            {
-                _logger.error("No private key available");
-                throw new OAException(SystemErrors.ERROR_INTERNAL);
-            }
-            signature.initSign(keyPrivate);
-            signature.update(sbSignatureData.toString().getBytes(ASelectProcessor.CHARSET));
-    
-            byte[] baSignature = signature.sign();
+            byte[] baSignature = _cryptoManager.sign(
+                sbSignatureData.toString().getBytes(ASelectProcessor.CHARSET));
     
             byte[] baEncSignature = Base64.encodeBase64(baSignature);
             sSignature = new String(baEncSignature, ASelectProcessor.CHARSET);
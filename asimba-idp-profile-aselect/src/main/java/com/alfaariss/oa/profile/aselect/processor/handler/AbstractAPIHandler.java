@@ -24,8 +24,6 @@
 package com.alfaariss.oa.profile.aselect.processor.handler;
 
 import java.net.URLEncoder;
-import java.security.MessageDigest;
-import java.security.Signature;
 import java.security.cert.Certificate;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -938,20 +936,21 @@ public class AbstractAPIHandler implements IAuthority
                     ASelectErrors.ERROR_ASELECT_INTERNAL_ERROR);
             }
 
-            Signature oSignature = _cryptoManager.getSignature();
-            if (oSignature == null)
+            byte[] baData = Base64.decodeBase64(sSignature
+                .getBytes(ASelectProcessor.CHARSET));
+            boolean bVerified = false;
+            try
+            {
+                bVerified = _cryptoManager.verify(oCertificate, 
+                    sData.getBytes(ASelectProcessor.CHARSET), baData);
+            }
+            catch (CryptoException e)
             {
-                _logger.warn("No signature object found");
+                _logger.warn("Could not verify signature for key with alias: " 
+                    + sKeyAlias, e);
                 throw new ASelectException(
                     ASelectErrors.ERROR_ASELECT_INTERNAL_ERROR);
             }
-
-            oSignature.initVerify(oCertificate);
-            oSignature.update(sData.getBytes(ASelectProcessor.CHARSET));
-            
-            byte[] baData = Base64.decodeBase64(sSignature
-                .getBytes(ASelectProcessor.CHARSET));
-            boolean bVerified = oSignature.verify(baData);
             if (!bVerified)
             {
                 StringBuffer sbDebug = new StringBuffer(
@@ -1205,17 +1204,15 @@ public class AbstractAPIHandler implements IAuthority
                 sUid = sUid + sSalt;
             
             // the returned user ID must contain an opaque value 
-            MessageDigest oMessageDigest = _cryptoManager.getMessageDigest();
             try
             {
-                oMessageDigest.update(sUid.getBytes(ASelectProcessor.CHARSET));
-                sUid = toHexString(oMessageDigest.digest());
+                sUid = toHexString(_cryptoManager.digest(
+                    sUid.getBytes(ASelectProcessor.CHARSET)));
             }
             catch (Exception e)
             {
                 _logger.warn(
-                    "Unable to generate '"+oMessageDigest.getAlgorithm()+"' hash from user ID: " 
-                    + sUid, e);
+                    "Unable to generate hash from user ID: " + sUid, e);
                 throw new OAException(SystemErrors.ERROR_INTERNAL);
             }
         }
@@ -43,7 +43,9 @@ public interface ICatalog extends IComponent {
 	/**
 	 * Returns the list of IDPs that are considered for publication by 
 	 * this catalog
-	 * @param oRequest The context with which to establish the IDPs
+	 * @param oRequest The context with which to establish the IDPs, null 
+	 * when the IDPs are established outside of a request, e.g. when a cached
+	 * catalog is checked for changes in the background
 	 * @return List of IIDP instances
 	 */
 	public List<IIDP> getIDPs(HttpServletRequest oRequest);
@@ -52,7 +54,9 @@ public interface ICatalog extends IComponent {
 	/**
 	 * Returns the list of Requestors (SPs) that are considered for 
 	 * publication by this catalog
-	 * @param oRequest The context with which to establish the Requestors
+	 * @param oRequest The context with which to establish the Requestors, 
+	 * null when the Requestors are established outside of a request, e.g. 
+	 * when a cached catalog is checked for changes in the background
 	 * @return List of IRequestor instances
 	 */
 	public List<IRequestor> getRequestors(HttpServletRequest oRequest);
@@ -22,8 +22,13 @@
 package org.asimba.idp.profile.catalog.saml2;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.security.cert.Certificate;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -37,6 +42,7 @@ import org.apache.commons.logging.LogFactory;
 import org.asimba.idp.profile.catalog.AbstractCatalog;
 import org.asimba.idp.profile.catalog.saml2.builder.CatalogEntitiesDescriptorBuilder;
 import org.asimba.util.saml2.metadata.provider.MetadataProviderUtil;
+import org.asimba.utility.web.CachedDocument;
 import org.asimba.utility.xml.XMLUtils;
 import org.opensaml.Configuration;
 import org.opensaml.common.xml.SAMLConstants;
@@ -83,6 +89,7 @@ import com.alfaariss.oa.api.requestor.IRequestor;
 import com.alfaariss.oa.engine.core.Engine;
 import com.alfaariss.oa.engine.core.crypto.CryptoManager;
 import com.alfaariss.oa.engine.core.idp.storage.IIDP;
+import com.alfaariss.oa.util.saml2.SAML2Constants;
 import com.alfaariss.oa.util.saml2.SAML2Exchange;
 import com.alfaariss.oa.util.saml2.SAML2Requestor;
 import com.alfaariss.oa.util.saml2.crypto.SAML2CryptoUtils;
@@ -96,9 +103,22 @@ import com.alfaariss.oa.util.saml2.idp.SAML2IDP;
  * <catalog id="catalog.saml2" class="...SAML2Catalog">
  *   <mp_manager id="[id-value]" />
  *   <requestorsigning default="[true/false]" />
+ *   <cache enabled="[true/false]" check_interval="[ms]" />
  *   ..
  * </catalog>
  * 
+ * The catalog is cached as a serialized document and served with ETag and
+ * Last-Modified headers, so pollers that already have the current version
+ * get a 304 Not Modified response. A background thread checks every 
+ * check_interval milliseconds (default 60000) whether requestors, IDPs, 
+ * their metadata or the signing certificate changed, and builds a new 
+ * catalog when they did. 
+ * 
+ * A subclass that overrides getRequestors(), getIDPs() or buildCatalog() 
+ * may return a different catalog per request; for such a subclass the 
+ * cache is disabled, unless it is enabled explicitly with 
+ * &lt;cache enabled="true" /&gt;.
+ * 
  * @author mdobrinic
  *
  */
@@ -111,6 +131,9 @@ public class SAML2Catalog extends AbstractCatalog {
 	public static final String EL_SP_METHOD = "sp_method";
 	public static final String ATTR_ID = "id";
 	public static final String EL_METADATA = "metadata";
+	public static final String EL_CACHE = "cache";
+	public static final String ATTR_ENABLED = "enabled";
+	public static final String ATTR_CHECK_INTERVAL = "check_interval";
 	
 	/** Local logger instance */
 	private Log _oLogger;
@@ -165,6 +188,30 @@ public class SAML2Catalog extends AbstractCatalog {
 	/** Locally maintained pool */
 	protected BasicParserPool _oParserPool;
 	
+	/**
+	 * Configurable setting whether to cache the catalog
+	 * Default value is true, unless a subclass overrides the request 
+	 * dependent methods
+	 */
+	protected boolean _bCacheEnabled;
+	
+	/**
+	 * Configurable interval in milliseconds in which the cached catalog is
+	 * checked for changes; 0 disables background checking
+	 * Default value is 60000
+	 */
+	protected long _lCheckInterval;
+	
+	/** The cached catalog and the version it was built from */
+	private volatile CachedDocument _oCachedCatalog;
+	private long _lCachedVersion;
+	
+	/** Background thread that rebuilds the catalog when it changed */
+	private ScheduledExecutorService _oRefresher;
+	
+	/** Set when the catalog can not be checked without a request */
+	private volatile boolean _bRefreshOnRequest;
+	
 	
 	/**
 	 * Default constructor
@@ -232,6 +279,27 @@ public class SAML2Catalog extends AbstractCatalog {
         	}
         	_oLogger.info("Using MetadataProviderManager Id from configuration: '"+_sMPMId+"'");
         }
+        
+        readCacheSettings(oConfigManager, oConfigManager.getSection(eConfig, EL_CACHE));
+        
+        if (_bCacheEnabled && _lCheckInterval > 0) {
+        	_oRefresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        		public Thread newThread(Runnable r) {
+        			Thread t = new Thread(r, "SAML2Catalog '"+getID()+"' refresher");
+        			t.setDaemon(true);
+        			return t;
+        		}
+        	});
+        	_oRefresher.scheduleWithFixedDelay(new Runnable() {
+        		public void run() {
+        			try {
+        				refresh(null);
+        			} catch (Exception e) {
+        				_oLogger.error("Could not refresh SAML2 Catalog '"+getID()+"'", e);
+        			}
+        		}
+        	}, _lCheckInterval, _lCheckInterval, TimeUnit.MILLISECONDS);
+        }
 
 		_oLogger.info("Started SAML2Catalog profile '"+getID()+"'");
 	}
@@ -240,11 +308,100 @@ public class SAML2Catalog extends AbstractCatalog {
 	 * {@inheritDoc}
 	 */
 	public void stop() {
+		if (_oRefresher != null) {
+			_oRefresher.shutdownNow();
+			_oRefresher = null;
+		}
+		_bRefreshOnRequest = false;
+		synchronized (this) {
+			_oCachedCatalog = null;
+		}
 		super.stop();
 	}
+	
+	
+	/**
+	 * Local helper to read the optional cache settings
+	 * @param oConfigManager ConfigManager to use
+	 * @param elCache Element containing the cache settings, may be null
+	 * @throws OAException When the settings are invalid
+	 */
+	protected void readCacheSettings(IConfigurationManager oConfigManager,
+			Element elCache) throws OAException
+	{
+		_bCacheEnabled = !isRequestDependent();
+		_lCheckInterval = 60000;
+		
+		if (!_bCacheEnabled) {
+			_oLogger.info("SAML2 Catalog '"+getID()+"' overrides request dependent methods, "+
+					"cache is disabled unless enabled explicitly");
+		}
+		
+		if (elCache == null) {
+			_oLogger.info("No optional '"+EL_CACHE+"' configured, using default check interval: "+_lCheckInterval);
+			return;
+		}
+		
+		String s = oConfigManager.getParam(elCache, ATTR_ENABLED);
+		if (s != null) {
+			if ("FALSE".equalsIgnoreCase(s)) {
+				_bCacheEnabled = false;
+			} else if ("TRUE".equalsIgnoreCase(s)) {
+				_bCacheEnabled = true;
+			} else {
+				_oLogger.error("Invalid value provided for '"+ATTR_ENABLED+"' attribute for '"+EL_CACHE+"': "+s);
+				throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+			}
+		}
+		
+		s = oConfigManager.getParam(elCache, ATTR_CHECK_INTERVAL);
+		if (s != null) {
+			try {
+				_lCheckInterval = Long.parseLong(s);
+			} catch (NumberFormatException e) {
+				_lCheckInterval = -1;
+			}
+			if (_lCheckInterval < 0) {
+				_oLogger.error("Invalid value provided for '"+ATTR_CHECK_INTERVAL+"' attribute for '"+EL_CACHE+"': "+s);
+				throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+			}
+		}
+		
+		_oLogger.info("Catalog cache "+(_bCacheEnabled ? "enabled, check interval: "+_lCheckInterval : "disabled"));
+	}
 
 	
 	
+	/**
+	 * Establish whether a subclass overrides one of the methods that receive
+	 * the request, so its catalog may differ per request
+	 * @return true when getRequestors(), getIDPs() or buildCatalog() is 
+	 * overridden
+	 */
+	protected boolean isRequestDependent()
+	{
+		for (Class<?> c = getClass(); c != SAML2Catalog.class; c = c.getSuperclass()) {
+			if (declares(c, "getRequestors", HttpServletRequest.class) ||
+					declares(c, "getIDPs", HttpServletRequest.class) ||
+					declares(c, "buildCatalog", HttpServletRequest.class, List.class, List.class)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	
+	private static boolean declares(Class<?> c, String sName, Class<?>... aParameterTypes)
+	{
+		try {
+			c.getDeclaredMethod(sName, aParameterTypes);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	
 	/**
 	 * Local helper to initialize the linked profiles
 	 * @param oConfigManager ConfigManager to use
@@ -288,12 +445,136 @@ public class SAML2Catalog extends AbstractCatalog {
 	public void service(HttpServletRequest oRequest,
 			HttpServletResponse oResponse) throws OAException 
 	{
-		// Prepare requestors first:
-		List<IRequestor> lRequestors = getRequestors(oRequest);		// low-cost
+		CachedDocument oCatalog;
+		if (_bCacheEnabled) {
+			oCatalog = _oCachedCatalog;
+			if (oCatalog == null || _bRefreshOnRequest) {
+				oCatalog = refresh(oRequest);
+			}
+		} else {
+			oCatalog = buildCatalog(oRequest, getRequestors(oRequest), getIDPs(oRequest));
+		}
 		
-		// Prepare identity providers next:
-		List<IIDP> lIDPs = getIDPs(oRequest);
+		try {
+			oCatalog.write(oRequest, oResponse);
+		} catch (IOException e) {
+			_oLogger.error("Could not write output: "+e.getMessage());
+			throw new OAException(SystemErrors.ERROR_INTERNAL);
+		}
+	}
+	
+	
+	/**
+	 * Rebuild the cached catalog when requestors, IDPs, their metadata or
+	 * the signing certificate changed since it was built
+	 * @param oRequest The request, or null when called by the refresher
+	 * @return The current catalog
+	 * @throws OAException When the catalog could not be built
+	 */
+	protected synchronized CachedDocument refresh(HttpServletRequest oRequest)
+		throws OAException
+	{
+		List<IRequestor> lRequestors;
+		List<IIDP> lIDPs;
+		try {
+			lRequestors = getRequestors(oRequest);
+			lIDPs = getIDPs(oRequest);
+		} catch (RuntimeException e) {
+			if (oRequest != null) {
+				throw e;
+			}
+			// A subclass needs the request; check for changes when one is served 
+			_oLogger.warn("SAML2 Catalog '"+getID()+"' can not be checked without a request, "+
+					"checking for changes on every request instead", e);
+			_bRefreshOnRequest = true;
+			if (_oRefresher != null) {
+				_oRefresher.shutdown();
+			}
+			return _oCachedCatalog;
+		}
+		
+		long lVersion = getVersion(lRequestors, lIDPs);
+		if (_oCachedCatalog != null && lVersion == _lCachedVersion) {
+			return _oCachedCatalog;
+		}
+		
+		CachedDocument oCatalog = buildCatalog(oRequest, lRequestors, lIDPs);
+		_lCachedVersion = lVersion;
+		_oCachedCatalog = oCatalog;
+		_oLogger.info("Built SAML2 Catalog '"+getID()+"' with "+lRequestors.size()+
+				" requestor(s) and "+lIDPs.size()+" IDP(s)");
+		return oCatalog;
+	}
+	
+	
+	/**
+	 * Establish the version of the catalog contents, which changes when 
+	 * requestors, IDPs, the (transparantly published) metadata of them,
+	 * the linked IDP Profile or the signing certificate change  
+	 * @param lRequestors Requestors to publish
+	 * @param lIDPs IDPs to publish
+	 * @return The version
+	 * @throws OAException When the requestors can not be read
+	 */
+	protected long getVersion(List<IRequestor> lRequestors, List<IIDP> lIDPs)
+		throws OAException
+	{
+		long lVersion = System.identityHashCode(
+				SAML2Exchange.getEntityDescriptor(_sLinkedSAML2IDPProfileID));
+		boolean bTransparant = _sPublishMode.equals(PUBLISHMODE_TRANSPARANT);
 		
+		for (IRequestor r: lRequestors) {
+			lVersion = 31 * lVersion + getVersion(r.getID(), r.getLastModified());
+			if (bTransparant) {
+				SAML2Requestor s2req = getSAML2Requestor(r);
+				if (s2req != null) {
+					lVersion = 31 * lVersion + System.identityHashCode(
+							getTransparantSPEntityDescriptor(s2req));
+				}
+			}
+		}
+		
+		for (IIDP idp: lIDPs) {
+			lVersion = 31 * lVersion + getVersion(idp.getID(), idp.getLastModified());
+			if (bTransparant) {
+				SAML2IDP oSAML2IDP = getSAML2IDP(idp);
+				if (oSAML2IDP != null) {
+					lVersion = 31 * lVersion + System.identityHashCode(
+							getTransparantIDPEntityDescriptor(oSAML2IDP));
+				}
+			}
+		}
+		
+		Certificate oCertificate = Engine.getInstance().getCryptoManager().getCertificate();
+		if (oCertificate != null) {
+			lVersion = 31 * lVersion + oCertificate.hashCode();
+		}
+		
+		return lVersion;
+	}
+	
+	
+	private long getVersion(String sID, Date dLastModified)
+	{
+		long lVersion = sID.hashCode();
+		if (dLastModified != null) {
+			lVersion = 31 * lVersion + dLastModified.getTime();
+		}
+		return lVersion;
+	}
+	
+	
+	/**
+	 * Build and serialize the catalog
+	 * @param oRequest The request, or null when called by the refresher
+	 * @param lRequestors Requestors to publish
+	 * @param lIDPs IDPs to publish
+	 * @return The serialized catalog
+	 * @throws OAException When the catalog could not be built
+	 */
+	protected CachedDocument buildCatalog(HttpServletRequest oRequest,
+			List<IRequestor> lRequestors, List<IIDP> lIDPs) throws OAException
+	{
 		// Build catalog in EntitiesDescriptor
 		CatalogEntitiesDescriptorBuilder oCatalogRoot = 
 				new CatalogEntitiesDescriptorBuilder(_oConfigManager, Engine.getInstance().getServer());
@@ -372,18 +653,20 @@ public class SAML2Catalog extends AbstractCatalog {
 			Marshaller marshaller = marshallerFactory.getMarshaller(o);
 			Element e = marshaller.marshall(o);
 			
-			PrintWriter oPW = oResponse.getWriter();
 			String s = XMLUtils.getStringFromDocument(e.getOwnerDocument()); 
-			oPW.write(s);
-			oPW.close();
+			if (s == null) {
+				_oLogger.error("Could not serialize EntitiesDescriptor catalog");
+				throw new OAException(SystemErrors.ERROR_INTERNAL);
+			}
 			
-			return;
+			return new CachedDocument(s.getBytes("UTF-8"), 
+					SAML2Constants.METADATA_CONTENT_TYPE, System.currentTimeMillis());
 			
 		} catch (MarshallingException e) {
 			_oLogger.error("Could not marshall EntitiesDescriptor catalog to DOM: "+e.getMessage());
 			throw new OAException(SystemErrors.ERROR_INTERNAL);
 		} catch (IOException e) {
-			_oLogger.error("Could not write output: "+e.getMessage());
+			_oLogger.error("Could not encode catalog: "+e.getMessage());
 			throw new OAException(SystemErrors.ERROR_INTERNAL);
 		}
 	}
@@ -23,7 +23,6 @@
 package com.alfaariss.oa.profile.saml2;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Hashtable;
@@ -35,6 +34,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.web.CachedDocument;
 import org.asimba.utility.xml.XMLUtils;
 import org.opensaml.Configuration;
 import org.opensaml.saml2.metadata.EntityDescriptor;
@@ -91,6 +91,10 @@ public class SAML2Profile implements IRequestorProfile, IService
     private EntityDescriptor _entityDescriptor;
     private SAML2TGTListener _oSAML2TGTListener;
     
+    /** The serialized metadata and the EntityDescriptor it was made of */
+    private CachedDocument _cachedMetadata;
+    private EntityDescriptor _cachedDescriptor;
+    
     /**
      * Constructor.
      * @throws OAException if OpenSAML cannot be initialized
@@ -297,7 +301,7 @@ public class SAML2Profile implements IRequestorProfile, IService
                 if (sRequestURI.length() == iBaseURILength)
                 { //DD The metadata can be requested by accessing the root of the SAML2 profile
                     _logger.debug("Supplying Metadata");
-                    handleMetaData(servletResponse);
+                    handleMetaData(servletRequest, servletResponse);
                 }
                 else
                 {
@@ -343,6 +347,7 @@ public class SAML2Profile implements IRequestorProfile, IService
             {
                 _logger.error("Could not remove the logout handler as TGT listener", e);
             }
+            _oSAML2TGTListener.destroy();
         }
         
         if (_processors != null)
@@ -531,27 +536,16 @@ public class SAML2Profile implements IRequestorProfile, IService
         }
     }
     
-    //Pretty print the metadata to the printwriter
-    private void handleMetaData(
+    //Write the metadata, or 304 Not Modified if the requester has it already
+    private void handleMetaData(HttpServletRequest servletRequest,
         HttpServletResponse servletResponse) throws OAException
     {
-        PrintWriter oPWOut = null;
         try 
         { 
-        	// Marshall the metadata:
-			MarshallerFactory marshallerFactory = Configuration.getMarshallerFactory();
-			Marshaller marshaller = marshallerFactory.getMarshaller(_entityDescriptor);
-			Element e = marshaller.marshall(_entityDescriptor);
-			
-            servletResponse.setContentType(SAML2Constants.METADATA_CONTENT_TYPE);
+            CachedDocument oDocument = getMetadataDocument();
             servletResponse.setHeader("Content-Disposition", 
                 "attachment; filename=metadata.xml");
-
-            //TODO EVB, MHO: cache processing conform RFC2616 [saml-metadata r1404]
-            oPWOut = servletResponse.getWriter();
-			String s = XMLUtils.getStringFromDocument(e.getOwnerDocument()); 
-
-			oPWOut.write(s);
+            oDocument.write(servletRequest, servletResponse);
         }  
         catch (IOException e)
         {
@@ -559,16 +553,33 @@ public class SAML2Profile implements IRequestorProfile, IService
                 "I/O error while processing metadata request", e);
             throw new OAException(SystemErrors.ERROR_INTERNAL);
         }
+    }
+    
+    //Marshall the metadata once per EntityDescriptor, it is signed already
+    private synchronized CachedDocument getMetadataDocument() 
+        throws OAException
+    {
+        if (_cachedMetadata != null && _cachedDescriptor == _entityDescriptor)
+            return _cachedMetadata;
+        
+        try 
+        { 
+			MarshallerFactory marshallerFactory = Configuration.getMarshallerFactory();
+			Marshaller marshaller = marshallerFactory.getMarshaller(_entityDescriptor);
+			Element e = marshaller.marshall(_entityDescriptor);
+			
+			String s = XMLUtils.getStringFromDocument(e.getOwnerDocument()); 
+			
+            _cachedMetadata = new CachedDocument(s.getBytes("UTF-8"), 
+                SAML2Constants.METADATA_CONTENT_TYPE, System.currentTimeMillis());
+            _cachedDescriptor = _entityDescriptor;
+            return _cachedMetadata;
+        }  
         catch (Exception e) 
         {
             _logger.warn(
                 "Internal error while processing metadata request", e);
             throw new OAException(SystemErrors.ERROR_INTERNAL);
         } 
-        finally
-        {
-            if(oPWOut != null)
-                oPWOut.close();
-        }       
     }
 }
@@ -24,6 +24,7 @@ package com.alfaariss.oa.profile.saml2.listener;
 
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -39,6 +40,7 @@ import org.w3c.dom.Element;
 import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
 import com.alfaariss.oa.UserEvent;
+import com.alfaariss.oa.api.attribute.ITGTAttributes;
 import com.alfaariss.oa.api.configuration.IConfigurationManager;
 import com.alfaariss.oa.api.logging.IAuthority;
 import com.alfaariss.oa.api.requestor.IRequestor;
@@ -64,6 +66,12 @@ import com.alfaariss.oa.util.saml2.ISAML2Requestors;
  * <ul>
  * <li>ON_EXPIRE: TGT time-out</li>
  * <li>ON_REMOVE: user-initiated TGT removal</li>.
+ * <br>
+ * The logout requests to all SPs of a TGT are sent in parallel. The optional 
+ * <code>threads</code> attribute of the <code>logout</code> section limits 
+ * the number of requests that are sent at the same time, the optional 
+ * <code>timeout</code> attribute is the time in ms to wait for all SPs; an SP
+ * that did not respond in time results in a failed logout.
  * 
  * @author MHO
  * @author Alfa & Ariss
@@ -80,6 +88,7 @@ public class SAML2TGTListener implements ITGTListener, IAuthority
     private ISAML2Requestors _saml2Requestors;
     private IRequestorPoolFactory _requestorPoolFactory;
     private SynchronousSingleLogout _singleLogout;
+    private long _lTimeout;
     
     /**
      * Constructor.
@@ -99,6 +108,8 @@ public class SAML2TGTListener implements ITGTListener, IAuthority
         _eventLogger = LogFactory.getLog(Engine.EVENT_LOGGER);
         
         _bEnabled = true;
+        int iThreads = SynchronousSingleLogout.DEFAULT_THREADS;
+        int iTimeout = SynchronousSingleLogout.DEFAULT_TIMEOUT;
         
         Element eLogout = configurationManager.getSection(config, "logout");
         if (eLogout != null)
@@ -115,6 +126,9 @@ public class SAML2TGTListener implements ITGTListener, IAuthority
                     throw new OAException(SystemErrors.ERROR_CONFIG_READ);
                 }
             }
+            
+            iThreads = readNumber(configurationManager, eLogout, "threads", iThreads);
+            iTimeout = readNumber(configurationManager, eLogout, "timeout", iTimeout);
         }
         
         if (!_bEnabled)
@@ -136,7 +150,9 @@ public class SAML2TGTListener implements ITGTListener, IAuthority
                 throw new OAException(SystemErrors.ERROR_INIT);
             }
             
-            _singleLogout = new SynchronousSingleLogout(entityDescriptor);
+            _lTimeout = iTimeout;
+            _singleLogout = new SynchronousSingleLogout(entityDescriptor, 
+                iThreads, iTimeout);
         }
     }
     
@@ -198,13 +214,28 @@ public class SAML2TGTListener implements ITGTListener, IAuthority
         return _bEnabled;
     }
     
+    /**
+     * Stops sending logout requests.
+     * @since 4.0
+     */
+    public void destroy()
+    {
+        if (_singleLogout != null)
+            _singleLogout.destroy();
+    }
+    
     private List<TGTEventError> processRemove(ITGT tgt, String reason) 
     {
         List<TGTEventError> listEventErrors = new Vector<TGTEventError>();
-        IRequestor requestor = null;
         IUser user = tgt.getUser();
+        ITGTAttributes attributes = tgt.getAttributes();
+        
+        List<String> listRequestorIDs = new Vector<String>();
+        List<IRequestor> listRequestors = new Vector<IRequestor>();
+        List<Callable<UserEvent>> listLogouts = new Vector<Callable<UserEvent>>();
         for (String sRequestor: tgt.getRequestorIDs())
         {
+            IRequestor requestor = null;
             try
             {
                 String sSessionIndex = _spAliasStore.getAlias(
@@ -218,23 +249,11 @@ public class SAML2TGTListener implements ITGTListener, IAuthority
                         SingleLogoutService ssoService = resolveSPSSOService(saml2Requestor);
                         if (ssoService != null)
                         {
-                            UserEvent result = _singleLogout.processSynchronous(
-                                user, saml2Requestor, ssoService, reason, 
-                                tgt.getAttributes(), sSessionIndex, 
-                                tgt.getId());
-                            
-                            if (result != UserEvent.USER_LOGGED_OUT)
-                            {
-                                listEventErrors.add(new TGTEventError(
-                                    result, requestor.getFriendlyName()));
-                            }
-                            
-                            UserEventLogItem logItem = new UserEventLogItem(null, 
-                                tgt.getId(), null, result, 
-                                user.getID(), user.getOrganization(), null, 
-                                sRequestor, this, null);
-                            
-                            _eventLogger.info(logItem);
+                            listRequestorIDs.add(sRequestor);
+                            listRequestors.add(requestor);
+                            listLogouts.add(createLogout(user, saml2Requestor, 
+                                ssoService, reason, attributes, sSessionIndex, 
+                                tgt.getId()));
                         }
                     }
                 }
@@ -258,9 +277,72 @@ public class SAML2TGTListener implements ITGTListener, IAuthority
                 _eventLogger.info(logItem);
             }
         }
+        
+        if (!listLogouts.isEmpty())
+        {
+            List<UserEvent> listResults = _singleLogout.processAll(
+                listLogouts, _lTimeout);
+            for (int i = 0; i < listResults.size(); i++)
+            {
+                UserEvent result = listResults.get(i);
+                if (result != UserEvent.USER_LOGGED_OUT)
+                {
+                    listEventErrors.add(new TGTEventError(
+                        result, listRequestors.get(i).getFriendlyName()));
+                }
+                
+                UserEventLogItem logItem = new UserEventLogItem(null, 
+                    tgt.getId(), null, result, 
+                    user.getID(), user.getOrganization(), null, 
+                    listRequestorIDs.get(i), this, null);
+                
+                _eventLogger.info(logItem);
+            }
+        }
         return listEventErrors;
     }
     
+    private Callable<UserEvent> createLogout(final IUser user, 
+        final SAML2Requestor saml2Requestor, final SingleLogoutService slService, 
+        final String reason, final ITGTAttributes attributes, 
+        final String sSessionIndex, final String tgtID)
+    {
+        return new Callable<UserEvent>() {
+            public UserEvent call()
+            {
+                return _singleLogout.processSynchronous(user, saml2Requestor, 
+                    slService, reason, attributes, sSessionIndex, tgtID);
+            }
+        };
+    }
+    
+    private int readNumber(IConfigurationManager configurationManager, 
+        Element eLogout, String sName, int iDefault) throws OAException
+    {
+        String sValue = configurationManager.getParam(eLogout, sName);
+        if (sValue == null)
+        {
+            _logger.info("No optional '" + sName + "' item found in configuration, using default: " + iDefault);
+            return iDefault;
+        }
+        
+        int iValue = -1;
+        try
+        {
+            iValue = Integer.parseInt(sValue);
+        }
+        catch (NumberFormatException e)
+        {
+            //invalid value, handled below
+        }
+        if (iValue <= 0)
+        {
+            _logger.error("Invalid '" + sName + "' item found in configuration: " + sValue);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        return iValue;
+    }
+    
     private SingleLogoutService resolveSPSSOService(SAML2Requestor saml2Requestor) 
     {
         try
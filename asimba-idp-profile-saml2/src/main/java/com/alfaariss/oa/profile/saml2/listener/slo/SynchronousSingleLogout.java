@@ -23,6 +23,16 @@
 package com.alfaariss.oa.profile.saml2.listener.slo;
 
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -58,7 +68,6 @@ import org.opensaml.security.SAMLSignatureProfileValidator;
 import org.opensaml.ws.message.encoder.MessageEncodingException;
 import org.opensaml.ws.security.SecurityPolicyException;
 import org.opensaml.ws.soap.client.BasicSOAPMessageContext;
-import org.opensaml.ws.soap.client.http.HttpClientBuilder;
 import org.opensaml.ws.soap.client.http.HttpSOAPClient;
 import org.opensaml.ws.soap.common.SOAPException;
 import org.opensaml.ws.soap.soap11.Body;
@@ -111,6 +120,9 @@ import com.alfaariss.oa.util.saml2.crypto.SAML2CryptoUtils;
  * Performs logout requests.
  * <br>
  * Synchronous and asynchronous logout requests are supported.
+ * <br>
+ * All requests use the shared HTTP client of the engine; logouts at several 
+ * requestors are sent in parallel by {@link #processAll(List, long)}.
  *
  * @author MHO
  * @author Alfa & Ariss
@@ -118,6 +130,11 @@ import com.alfaariss.oa.util.saml2.crypto.SAML2CryptoUtils;
  */
 public class SynchronousSingleLogout
 {    
+    /** Default number of logout requests that are sent at the same time */
+    public final static int DEFAULT_THREADS = 10;
+    /** Default time to wait for logout responses in ms */
+    public final static int DEFAULT_TIMEOUT = 10000;
+    
     private static Log _logger;
     private XMLObjectBuilderFactory _builderFactory;
     private CryptoManager _cryptoManager;
@@ -127,6 +144,8 @@ public class SynchronousSingleLogout
     private SAMLSignatureProfileValidator _profileValidator;
     private KeyInfoCredentialResolver _keyInfoCredResolver;
     private BasicParserPool _parserPool;
+    private HttpSOAPClient _soapClient;
+    private ThreadPoolExecutor _executor;
     
     /**
      * Default constructor. 
@@ -135,6 +154,21 @@ public class SynchronousSingleLogout
      */
     public SynchronousSingleLogout(EntityDescriptor entityDescriptor) 
         throws OAException
+    {
+        this(entityDescriptor, DEFAULT_THREADS, DEFAULT_TIMEOUT);
+    }
+    
+    /**
+     * Constructor. 
+     * @param entityDescriptor EntityDescriptor of this IDP
+     * @param iThreads The maximum number of logout requests that are sent 
+     *  at the same time.
+     * @param iTimeout The read timeout of a logout request in ms.
+     * @throws OAException If an internal error ocurred.
+     * @since 4.0
+     */
+    public SynchronousSingleLogout(EntityDescriptor entityDescriptor, 
+        int iThreads, int iTimeout) throws OAException
     {
         _logger = LogFactory.getLog(SynchronousSingleLogout.class);
         _entityDescriptor = entityDescriptor;
@@ -165,6 +199,108 @@ public class SynchronousSingleLogout
         
         _parserPool = new BasicParserPool();
         _parserPool.setNamespaceAware(true);
+        
+        _soapClient = new HttpSOAPClient(Engine.getInstance()
+            .getHttpClientManager().createHttpClient(iTimeout), _parserPool);
+        
+        _executor = new ThreadPoolExecutor(iThreads, iThreads, 
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), 
+            new ThreadFactory() {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "SAML2 single logout");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        _executor.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Performs several logouts at the same time.
+     * <br>
+     * Waits at most the given time for all logouts; a logout that did not 
+     * finish in time is cancelled and results in 
+     * {@link UserEvent#USER_LOGOUT_FAILED}.
+     * 
+     * @param listLogouts The logouts, e.g. calls to 
+     *  {@link #processSynchronous(IUser, SAML2Requestor, SingleLogoutService, String, ITGTAttributes, String, String)}.
+     * @param lTimeout The maximum time to wait in ms.
+     * @return The result of every logout, in the same order.
+     * @since 4.0
+     */
+    public List<UserEvent> processAll(List<Callable<UserEvent>> listLogouts, 
+        long lTimeout)
+    {
+        List<UserEvent> listResults = new Vector<UserEvent>();
+        if (listLogouts.size() == 1)
+        {
+            //No other thread needed, the read timeout applies
+            try
+            {
+                listResults.add(listLogouts.get(0).call());
+            }
+            catch (Exception e)
+            {
+                _logger.warn("Logout failed", e);
+                listResults.add(UserEvent.USER_LOGOUT_FAILED);
+            }
+            return listResults;
+        }
+        
+        List<Future<UserEvent>> listFutures = null;
+        try
+        {
+            listFutures = _executor.invokeAll(listLogouts, lTimeout, 
+                TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            _logger.warn("Interrupted while waiting for logout responses");
+            Thread.currentThread().interrupt();
+        }
+        catch (RejectedExecutionException e)
+        {
+            _logger.warn("Logout requests could not be sent", e);
+        }
+        
+        for (int i = 0; i < listLogouts.size(); i++)
+        {
+            UserEvent result = UserEvent.USER_LOGOUT_FAILED;
+            if (listFutures != null)
+            {
+                Future<UserEvent> future = listFutures.get(i);
+                if (future.isCancelled())
+                    _logger.debug("No logout response within " + lTimeout + " ms");
+                else
+                {
+                    try
+                    {
+                        result = future.get();
+                    }
+                    catch (ExecutionException e)
+                    {
+                        _logger.warn("Logout failed", e.getCause());
+                    }
+                    catch (InterruptedException e)
+                    {
+                        //Not possible, the future is done
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            listResults.add(result);
+        }
+        return listResults;
+    }
+    
+    /**
+     * Stops the logout threads.
+     * @since 4.0
+     */
+    public void destroy()
+    {
+        _executor.shutdownNow();
     }
     
     /**
@@ -259,18 +395,12 @@ public class SynchronousSingleLogout
         BasicSOAPMessageContext soapContext = new BasicSOAPMessageContext();
         soapContext.setOutboundMessage(envelope);
         
-        HttpClientBuilder clientBuilder = new HttpClientBuilder();
-        clientBuilder.setConnectionTimeout(5000);
-        
-        HttpSOAPClient soapClient = new HttpSOAPClient(
-            clientBuilder.buildClient(), _parserPool);
-        
         if (_logger.isDebugEnabled())
             logXML(request);
         
         try
         {
-            soapClient.send(sTarget, soapContext);
+            _soapClient.send(sTarget, soapContext);
         }
         catch (SOAPException e)
         {
@@ -51,7 +51,6 @@ import org.opensaml.saml2.metadata.provider.MetadataProvider;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
 import org.opensaml.ws.message.decoder.MessageDecodingException;
 import org.opensaml.ws.soap.client.BasicSOAPMessageContext;
-import org.opensaml.ws.soap.client.http.HttpClientBuilder;
 import org.opensaml.ws.soap.client.http.HttpSOAPClient;
 import org.opensaml.ws.soap.soap11.Body;
 import org.opensaml.ws.soap.soap11.Envelope;
@@ -68,6 +67,7 @@ import org.opensaml.xml.util.DatatypeHelper;
 import org.opensaml.xml.util.XMLHelper;
 import org.w3c.dom.Element;
 
+import com.alfaariss.oa.engine.core.Engine;
 import com.alfaariss.oa.util.saml2.binding.BindingProperties;
 
 /**
@@ -259,11 +259,9 @@ public class ImplementedHTTPArtifactDecoder extends HTTPArtifactDecoder
         BasicSOAPMessageContext soapContext = new BasicSOAPMessageContext();
         soapContext.setOutboundMessage(env);
         
-        HttpClientBuilder clientBuilder = new HttpClientBuilder();
-        clientBuilder.setConnectionTimeout(5000);
-
         HttpSOAPClient soapClient = new HttpSOAPClient(
-            clientBuilder.buildClient(), super.getParserPool());
+            Engine.getInstance().getHttpClientManager().getHttpClient(), 
+            super.getParserPool());
 
         if (_logger.isDebugEnabled())
             logXML(env);
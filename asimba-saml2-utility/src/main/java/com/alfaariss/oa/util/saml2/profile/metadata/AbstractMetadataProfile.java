@@ -22,8 +22,8 @@
  */
 package com.alfaariss.oa.util.saml2.profile.metadata;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -34,6 +34,7 @@ import javax.xml.transform.stream.StreamResult;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.web.CachedDocument;
 import org.opensaml.Configuration;
 import org.opensaml.saml2.metadata.ContactPerson;
 import org.opensaml.saml2.metadata.EntityDescriptor;
@@ -71,6 +72,9 @@ abstract public class AbstractMetadataProfile extends AbstractSAML2Profile
     
     private static Log _logger;
     
+    private EntityDescriptor _cachedDescriptor;
+    private CachedDocument _cachedMetadata;
+    
     /**
      * Constructor. 
      */
@@ -85,6 +89,11 @@ abstract public class AbstractMetadataProfile extends AbstractSAML2Profile
      */
     public void destroy()
     {
+        synchronized (this)
+        {
+            _cachedDescriptor = null;
+            _cachedMetadata = null;
+        }
         super.destroy();
     }
 
@@ -111,7 +120,7 @@ abstract public class AbstractMetadataProfile extends AbstractSAML2Profile
     {
         try
         {
-            handleMetaData(servletResponse, _myEntityDescriptor);
+            handleMetaData(servletRequest, servletResponse, _myEntityDescriptor);
         }
         catch (OAException e)
         {
@@ -126,27 +135,27 @@ abstract public class AbstractMetadataProfile extends AbstractSAML2Profile
     }
     
     /**
-     * Pretty print the metadata to the printwriter.
+     * Write the metadata to the servlet response.
+     * 
+     * The metadata is serialized once and served from the cache, with 
+     * ETag and Last-Modified headers; a conditional request for the 
+     * current version is answered with 304 Not Modified.
+     * @param servletRequest The servlet request, or <code>null</code> to 
+     *  always write the metadata.
      * @param servletResponse The servlet response where the metadata should be written to.
      * @param entityDescriptor The metadata.
      * @throws OAException If an internal error ocurred.
      */
-    protected void handleMetaData(
+    protected void handleMetaData(HttpServletRequest servletRequest,
         HttpServletResponse servletResponse, EntityDescriptor entityDescriptor) 
         throws OAException
     {
-        PrintWriter pwOut = null;
         try 
         {
-            TransformerFactory tfactory = TransformerFactory.newInstance();
-            Transformer serializer = tfactory.newTransformer();
-            servletResponse.setContentType(SAML2Constants.METADATA_CONTENT_TYPE);
+            CachedDocument document = getMetadataDocument(entityDescriptor);
             servletResponse.setHeader("Content-Disposition", 
                 "attachment; filename=metadata.xml");
-            
-            //TODO EVB, MHO: cache processing conform RFC2616 [saml-metadata r1404]
-            pwOut = servletResponse.getWriter();
-            serializer.transform(new DOMSource(entityDescriptor.getDOM()), new StreamResult(pwOut));
+            document.write(servletRequest, servletResponse);
         }  
         catch (IOException e)
         {
@@ -154,17 +163,58 @@ abstract public class AbstractMetadataProfile extends AbstractSAML2Profile
                 "I/O error while processing metadata request", e);
             throw new OAException(SystemErrors.ERROR_INTERNAL);
         }
+    }
+
+    /**
+     * Write the metadata to the servlet response, without answering 
+     * conditional requests.
+     * @param servletResponse The servlet response where the metadata should be written to.
+     * @param entityDescriptor The metadata.
+     * @throws OAException If an internal error ocurred.
+     * @deprecated Use {@link #handleMetaData(HttpServletRequest, 
+     *  HttpServletResponse, EntityDescriptor)}, which supports conditional 
+     *  requests.
+     */
+    @Deprecated
+    protected void handleMetaData(
+        HttpServletResponse servletResponse, EntityDescriptor entityDescriptor) 
+        throws OAException
+    {
+        handleMetaData(null, servletResponse, entityDescriptor);
+    }
+
+    /**
+     * Returns the serialized metadata, which is serialized again only when 
+     * another descriptor is supplied, e.g. after the profile was restarted.
+     * @param entityDescriptor The metadata.
+     * @return The serialized metadata.
+     * @throws OAException If the metadata could not be serialized.
+     */
+    protected synchronized CachedDocument getMetadataDocument(
+        EntityDescriptor entityDescriptor) throws OAException
+    {
+        if (_cachedMetadata != null && _cachedDescriptor == entityDescriptor)
+            return _cachedMetadata;
+        
+        try 
+        {
+            TransformerFactory tfactory = TransformerFactory.newInstance();
+            Transformer serializer = tfactory.newTransformer();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            serializer.transform(new DOMSource(entityDescriptor.getDOM()), 
+                new StreamResult(baos));
+            
+            _cachedMetadata = new CachedDocument(baos.toByteArray(), 
+                SAML2Constants.METADATA_CONTENT_TYPE, System.currentTimeMillis());
+            _cachedDescriptor = entityDescriptor;
+            return _cachedMetadata;
+        }
         catch (Exception e) 
         {
             _logger.warn(
                 "Internal Error while processing metadata request", e);
             throw new OAException(SystemErrors.ERROR_INTERNAL);
         } 
-        finally
-        {
-            if(pwOut != null)
-                pwOut.close();
-        }       
     }
 
     /**
@@ -144,8 +144,7 @@ public class JDBCArtifactMapFactory
         createQueries(_eConfig);        
         verifyTableConfig();
         
-        if(_tCleaner != null)
-            _tCleaner.start();    
+        startCleaner();
     }
 
     /**
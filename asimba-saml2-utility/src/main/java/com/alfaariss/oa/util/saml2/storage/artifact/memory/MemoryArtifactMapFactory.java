@@ -73,8 +73,7 @@ public class MemoryArtifactMapFactory extends AbstractStorageFactory
     @Override
     public void start() throws OAException
     {        
-        if(_tCleaner != null)
-            _tCleaner.start();    
+        startCleaner();
     }
  
     /**
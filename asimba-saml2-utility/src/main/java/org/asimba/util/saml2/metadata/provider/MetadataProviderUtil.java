@@ -45,6 +45,7 @@ import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
 import com.alfaariss.oa.api.IComponent;
 import com.alfaariss.oa.api.configuration.IConfigurationManager;
+import com.alfaariss.oa.engine.core.Engine;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.util.List;
@@ -87,7 +88,7 @@ public class MetadataProviderUtil {
     public static final ParserPool DEFAULT_PARSERPOOL = null;
     
     /**
-     * Use default basic HTTPClient instance 
+     * Use the shared HTTPClient of the engine
      */
     public static final HttpClient DEFAULT_HTTPCLIENT = null;
     
@@ -126,6 +127,15 @@ public class MetadataProviderUtil {
     }
     
     
+    /**
+     * Returns a client that uses the shared connection pool of the engine
+     * @param iTimeoutMs socket timeout, 0 or less for the default timeout
+     */
+    private static HttpClient getHttpClient(int iTimeoutMs) {
+		return Engine.getInstance().getHttpClientManager().createHttpClient(iTimeoutMs);
+    }
+    
+    
     private static ParserPool getParserPool(ParserPool oParserPool) {
 		if (oParserPool == null) {
 			if (_oSharedParserPool == null) {
@@ -174,9 +184,9 @@ public class MetadataProviderUtil {
             oParserPool = getParserPool(oParserPool);
             oTimer = getTimer(oTimer);
 
-            // Use default HttpClient when none was provided
+            // Use shared HttpClient when none was provided
             if (oHttpClient == null) {
-                    oHttpClient = new HttpClient();
+                    oHttpClient = getHttpClient(0);
             }
 
             HTTPMetadataProvider oHTTPMetadataProvider = null;
@@ -268,10 +278,7 @@ public class MetadataProviderUtil {
      */
     public static MetadataProvider createProviderForURL(String sMetadataSource, int iTimeoutMs)
 	{
-    	HttpClient oHttpClient;
-    	
-    	oHttpClient = new HttpClient();
-    	oHttpClient.getParams().setSoTimeout(iTimeoutMs);
+    	HttpClient oHttpClient = getHttpClient(iTimeoutMs);
     	
     	return createProviderForURL(sMetadataSource, 
     			DEFAULT_PARSERPOOL, DEFAULT_TIMER, oHttpClient);
@@ -550,13 +557,8 @@ public class MetadataProviderUtil {
         String sTimername = "Metadata_HTTP-"+(oMPM==null?"":oMPM.getId()+"-")+sId+"-Timer";
         Timer oRefreshTimer = new Timer(sTimername, true);
         
-        // Establish HttpClient
-    	HttpClient oHttpClient = new HttpClient();
-        
-        if (iTimeout > 0) {
-            // Set configured Timeout settings
-        	oHttpClient.getParams().setSoTimeout(iTimeout);
-        }
+        // Establish HttpClient with configured Timeout settings
+    	HttpClient oHttpClient = getHttpClient(iTimeout);
         
     	oProvider = MetadataProviderUtil.createProviderForURL(sMetadataURL, oParserPool, 
     			oRefreshTimer, oHttpClient);
@@ -21,7 +21,6 @@
  */
 package org.asimba.util.saml2.nameid.handler;
 
-import java.security.MessageDigest;
 import java.security.SecureRandom;
 
 import org.apache.commons.codec.binary.Hex;
@@ -197,11 +196,10 @@ public class DefaultPersistentFormatHandler implements INameIDFormatHandler {
 	{
 		String sResult = null;
 		
-        MessageDigest oMessageDigest = _oCrypoManager.getMessageDigest();
         try
         {
-            oMessageDigest.update(sSource.getBytes(SAML2Constants.CHARSET));
-            char[] ca = Hex.encodeHex(oMessageDigest.digest());
+            char[] ca = Hex.encodeHex(_oCrypoManager.digest(
+                sSource.getBytes(SAML2Constants.CHARSET)));
             sResult = new String(ca);
         }
         catch (Exception e)
@@ -116,8 +116,7 @@ public class JGroupsArtifactMapFactory extends AbstractStorageFactory implements
 		}
 
 		// TODO: This should move to superclass instead:
-		if(_tCleaner != null)
-			_tCleaner.start();
+		startCleaner();
 	}
 
 
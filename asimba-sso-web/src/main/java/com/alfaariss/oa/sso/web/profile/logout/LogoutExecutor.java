@@ -0,0 +1,332 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.sso.web.profile.logout;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.metrics.LatencyHistogram;
+
+import com.alfaariss.oa.UserEvent;
+import com.alfaariss.oa.api.tgt.TGTEventError;
+
+/**
+ * Bounded executor for the TGT event listeners of a logout.
+ * <br>
+ * The listeners run in a fixed number of threads with a bounded queue. A 
+ * listener that is rejected because the queue is full, or that did not 
+ * finish before its deadline, is reported as a failed logout. 
+ * <br>
+ * The state of every running logout is kept in memory, so the logout state 
+ * requests of the browser can be answered without retrieving the session.
+ * 
+ * @since 4.0
+ */
+public class LogoutExecutor
+{
+    /** The default number of threads */
+    public static final int DEFAULT_THREADS = 20;
+    /** The default maximum number of queued listeners */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    /** The default deadline of a listener in milliseconds */
+    public static final long DEFAULT_TIMEOUT = 30000;
+    
+    private static Log _logger = LogFactory.getLog(LogoutExecutor.class);
+    
+    private final ThreadPoolExecutor _executor;
+    private final ScheduledThreadPoolExecutor _scheduler;
+    private final long _lTimeout;
+    private final ConcurrentMap<String, LogoutState> _mapStates;
+    private final LatencyHistogram _histListeners;
+    private final LatencyHistogram _histLogouts;
+    private final AtomicLong _lTimeouts;
+    private final AtomicLong _lRejected;
+    
+    /**
+     * Runs a listener and cancels its deadline when it is finished.
+     */
+    private class ListenerTask implements Runnable
+    {
+        private final LogoutRunnable _runnable;
+        private final LogoutState _state;
+        private final long _lQueued;
+        private volatile Future<?> _deadline;
+        private volatile boolean _bFinished;
+        
+        ListenerTask(LogoutRunnable runnable, LogoutState state)
+        {
+            _runnable = runnable;
+            _state = state;
+            _lQueued = System.currentTimeMillis();
+        }
+        
+        public void run()
+        {
+            try
+            {
+                _runnable.run();
+            }
+            catch (RuntimeException e)
+            {
+                _logger.warn("Logout failed in listener: " 
+                    + _runnable.getListener().getClass().getName(), e);
+                _state.set(_runnable.getName(), 
+                    new TGTEventError(UserEvent.USER_LOGOUT_FAILED));
+            }
+            finally
+            {
+                _bFinished = true;
+                Future<?> deadline = _deadline;
+                if (deadline != null)
+                    deadline.cancel(false);
+                _histListeners.record(System.currentTimeMillis() - _lQueued);
+            }
+        }
+        
+        /**
+         * Sets the deadline; it is cancelled if the listener already finished 
+         * before the deadline was scheduled.
+         */
+        void setDeadline(Future<?> deadline)
+        {
+            _deadline = deadline;
+            if (_bFinished)
+                deadline.cancel(false);
+        }
+    }
+    
+    /**
+     * Create the executor.
+     * @param iThreads The number of threads.
+     * @param iQueueSize The maximum number of queued listeners.
+     * @param lTimeout The deadline of a listener in milliseconds, measured 
+     *  from the moment it is queued.
+     */
+    public LogoutExecutor(int iThreads, int iQueueSize, long lTimeout)
+    {
+        _lTimeout = lTimeout;
+        _mapStates = new ConcurrentHashMap<String, LogoutState>();
+        _histListeners = new LatencyHistogram("Logout listeners (msecs)");
+        _histLogouts = new LatencyHistogram("Logouts (msecs)");
+        _lTimeouts = new AtomicLong();
+        _lRejected = new AtomicLong();
+        
+        _executor = new ThreadPoolExecutor(iThreads, iThreads, 
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(iQueueSize), 
+            new DaemonThreadFactory("Logout"));
+        _executor.allowCoreThreadTimeOut(true);
+        
+        _scheduler = new ScheduledThreadPoolExecutor(1, 
+            new DaemonThreadFactory("Logout deadline"));
+        _scheduler.setRemoveOnCancelPolicy(true);
+    }
+    
+    /**
+     * Run the listeners of a logout.
+     * <br>
+     * All runnables must be created with the supplied state before this 
+     * method is called.
+     * @param state The logout state.
+     * @param listRunnables The runnables of the listeners.
+     */
+    public void execute(LogoutState state, List<LogoutRunnable> listRunnables)
+    {
+        if (listRunnables.isEmpty())
+            return;
+        
+        //register first, a logout can finish before all listeners are queued
+        _mapStates.put(state.getSessionID(), state);
+        state.setExecutor(this);
+        
+        for (LogoutRunnable runnable : listRunnables)
+        {
+            ListenerTask task = new ListenerTask(runnable, state);
+            try
+            {
+                Future<?> future = _executor.submit(task);
+                task.setDeadline(_scheduler.schedule(
+                    new Deadline(state, runnable, future), 
+                    _lTimeout, TimeUnit.MILLISECONDS));
+                _logger.debug("Queued: " + runnable.getName());
+            }
+            catch (RejectedExecutionException e)
+            {
+                _lRejected.incrementAndGet();
+                _logger.warn("Logout queue full, logout failed for: " 
+                    + runnable.getName());
+                state.set(runnable.getName(), 
+                    new TGTEventError(UserEvent.USER_LOGOUT_FAILED));
+            }
+        }
+    }
+    
+    /**
+     * Returns the state of a logout that is running on this server.
+     * @param sSessionID The logout session id.
+     * @return The state or <code>null</code> if not available.
+     */
+    public LogoutState getState(String sSessionID)
+    {
+        return _mapStates.get(sSessionID);
+    }
+    
+    /**
+     * @return The number of queued listeners.
+     */
+    public int getQueueDepth()
+    {
+        return _executor.getQueue().size();
+    }
+    
+    /**
+     * @return The number of running listeners.
+     */
+    public int getActiveCount()
+    {
+        return _executor.getActiveCount();
+    }
+    
+    /**
+     * @return The number of running logouts.
+     */
+    public int getLogoutCount()
+    {
+        return _mapStates.size();
+    }
+    
+    /**
+     * @return The number of listeners that did not finish in time.
+     */
+    public long getTimeoutCount()
+    {
+        return _lTimeouts.get();
+    }
+    
+    /**
+     * @return The number of listeners that were rejected.
+     */
+    public long getRejectedCount()
+    {
+        return _lRejected.get();
+    }
+    
+    /**
+     * @return The completion latency of the listeners, including the time 
+     *  they were queued.
+     */
+    public LatencyHistogram getListenerLatency()
+    {
+        return _histListeners;
+    }
+    
+    /**
+     * @return The completion latency of the logouts.
+     */
+    public LatencyHistogram getLogoutLatency()
+    {
+        return _histLogouts;
+    }
+    
+    /**
+     * Stop the executor; running listeners are finished.
+     */
+    public void stop()
+    {
+        _executor.shutdown();
+        _scheduler.shutdownNow();
+        
+        _logger.info("Logout executor stopped: timeouts=" + _lTimeouts.get() 
+            + ", rejected=" + _lRejected.get() 
+            + ", running logouts=" + _mapStates.size());
+        _histListeners.logReport(_logger);
+        _histLogouts.logReport(_logger);
+    }
+    
+    /**
+     * Called by the state when the last listener reported its result.
+     * @param state The finished state.
+     */
+    void finished(LogoutState state)
+    {
+        _mapStates.remove(state.getSessionID(), state);
+        _histLogouts.record(System.currentTimeMillis() - state.getStarted());
+    }
+    
+    /**
+     * Fails a listener that did not finish in time.
+     */
+    private class Deadline implements Runnable
+    {
+        private final LogoutState _state;
+        private final LogoutRunnable _runnable;
+        private final Future<?> _future;
+        
+        Deadline(LogoutState state, LogoutRunnable runnable, Future<?> future)
+        {
+            _state = state;
+            _runnable = runnable;
+            _future = future;
+        }
+        
+        public void run()
+        {
+            if (_state.set(_runnable.getName(), 
+                new TGTEventError(UserEvent.USER_LOGOUT_FAILED)))
+            {
+                _lTimeouts.incrementAndGet();
+                _logger.warn("Logout listener did not finish within " 
+                    + _lTimeout + " ms: " + _runnable.getName());
+            }
+            _future.cancel(true);
+        }
+    }
+    
+    private static class DaemonThreadFactory implements ThreadFactory
+    {
+        private final String _sName;
+        private final AtomicInteger _iCount = new AtomicInteger();
+        
+        DaemonThreadFactory(String sName)
+        {
+            _sName = sName;
+        }
+        
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, _sName + "-" + _iCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -112,6 +112,7 @@ public class LogoutProfile implements ISSOProfile, IService, IAuthority
     private IRequestorPoolFactory _requestorPoolFactory;
     private boolean _bShowConfirmation;
     private String _sJSPConfirmation;
+    private LogoutExecutor _logoutExecutor;
 
     /**
      * Constructor.
@@ -141,6 +142,12 @@ public class LogoutProfile implements ISSOProfile, IService, IAuthority
         _sJSPUserLogout = null;
         _sJSPConfirmation = null;
         _bShowConfirmation = false;
+        
+        if (_logoutExecutor != null)
+        {
+            _logoutExecutor.stop();
+            _logoutExecutor = null;
+        }
     }
 
     /**
@@ -183,6 +190,10 @@ public class LogoutProfile implements ISSOProfile, IService, IAuthority
             readConfig(configurationManager, eLogout);
         }
         
+        if (_logoutExecutor != null)
+            _logoutExecutor.stop();
+        _logoutExecutor = createExecutor(configurationManager, eLogout);
+        
         _mapLogoutMethods = loadLogoutMethods(_authenticationManager.getAuthenticationMethods());
         
         _logger.info("Started Logout Profile: " + PROFILE_ID);
@@ -200,11 +211,23 @@ public class LogoutProfile implements ISSOProfile, IService, IAuthority
             //Disable caching
             HttpUtils.setDisableCachingHttpHeaders(servletRequest, servletResponse);     
             
+            String sTarget = resolveTarget(servletRequest);
+            
             ISession session = (ISession)servletRequest.getAttribute(
                 ISession.ID_NAME); 
             if (session == null)
             {
                 String sId = servletRequest.getParameter(ISession.ID_NAME);
+                if (sId != null && TARGET_LOGOUT_STATE.equalsIgnoreCase(sTarget)
+                    && isLogoutRunning(sId))
+                {
+                    //answered from memory, the session is stored when finished
+                    _logger.debug("Performing 'logout state' request: in progress");
+                    servletResponse.setContentType("text/plain");
+                    servletResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    return;
+                }
+                
                 if(sId != null)
                 {
                     if(!SessionValidator.validateDefaultSessionId(sId))
@@ -218,7 +241,6 @@ public class LogoutProfile implements ISSOProfile, IService, IAuthority
                     _logger.debug("No session attribute and no session id supplied in request");
             }
             
-            String sTarget = resolveTarget(servletRequest);
             if (sTarget != null)
             {
                 if (sTarget.equalsIgnoreCase(TARGET_LOGOUT_STATE))
@@ -949,8 +971,8 @@ public class LogoutProfile implements ISSOProfile, IService, IAuthority
     private LogoutState startListeners(ITGT tgt, ISession session, 
         HttpServletRequest servletRequest) throws OAException
     {
-        List<Thread> listThreads = new Vector<Thread>();
-        //create threads
+        List<LogoutRunnable> listRunnables = new Vector<LogoutRunnable>();
+        //create runnables
         LogoutState state = new LogoutState(_sessionFactory, session.getId());
         
         int iIndex = 0;
@@ -961,15 +983,8 @@ public class LogoutProfile implements ISSOProfile, IService, IAuthority
             StringBuffer sbRunnableName = new StringBuffer(session.getId());
             sbRunnableName.append("_");
             sbRunnableName.append(iIndex);
-            LogoutRunnable runnable = new LogoutRunnable(listener, tgt, state, sbRunnableName.toString());
-            Thread tLogout = new Thread(runnable);
-            
-            StringBuffer sbThreadname = new StringBuffer("Logout (" );
-            sbThreadname.append(sbRunnableName.toString());
-            sbThreadname.append(") - ");
-            sbThreadname.append(tLogout.getName());
-            tLogout.setName(sbThreadname.toString());
-            listThreads.add(tLogout);
+            listRunnables.add(new LogoutRunnable(
+                listener, tgt, state, sbRunnableName.toString()));
         }
         
         session.persist();
@@ -978,18 +993,21 @@ public class LogoutProfile implements ISSOProfile, IService, IAuthority
             servletRequest.getRemoteAddr(), 
             UserEvent.USER_LOGOUT_IN_PROGRESS, this, null));
         
-        //start threads
-        for (Thread thread: listThreads)
-        {
-            thread.start();
-            _logger.debug("Started: " + thread.getName());
-        }
+        //queue runnables
+        _logoutExecutor.execute(state, listRunnables);
         
-        _logger.debug("Logout threads started");
+        _logger.debug("Logout listeners queued: " + listRunnables.size() 
+            + " (queue depth: " + _logoutExecutor.getQueueDepth() + ")");
         
         return state;
     }
     
+    private boolean isLogoutRunning(String sSessionID)
+    {
+        LogoutState state = _logoutExecutor.getState(sSessionID);
+        return state != null && !state.isFinished();
+    }
+    
     private String resolveTarget(HttpServletRequest servletRequest) 
     {
         String sRequestURI = servletRequest.getRequestURI();
@@ -1049,6 +1067,71 @@ public class LogoutProfile implements ISSOProfile, IService, IAuthority
         return mapLogoutMethods;
     }
     
+    private LogoutExecutor createExecutor(
+        IConfigurationManager configurationManager, Element config) 
+        throws OAException
+    {
+        int iThreads = LogoutExecutor.DEFAULT_THREADS;
+        int iQueueSize = LogoutExecutor.DEFAULT_QUEUE_SIZE;
+        long lTimeout = LogoutExecutor.DEFAULT_TIMEOUT;
+        
+        Element eExecutor = null;
+        if (config != null)
+            eExecutor = configurationManager.getSection(config, "executor");
+        if (eExecutor == null)
+        {
+            _logger.info("No optional 'executor' section found within 'logout' section in configuration; using defaults");
+        }
+        else
+        {
+            iThreads = (int)readNumber(configurationManager, eExecutor, 
+                "threads", iThreads);
+            iQueueSize = (int)readNumber(configurationManager, eExecutor, 
+                "queue", iQueueSize);
+            lTimeout = readNumber(configurationManager, eExecutor, 
+                "timeout", lTimeout);
+        }
+        
+        _logger.info("Logout executor: threads=" + iThreads 
+            + ", queue=" + iQueueSize + ", timeout=" + lTimeout + " ms");
+        return new LogoutExecutor(iThreads, iQueueSize, lTimeout);
+    }
+    
+    private long readNumber(IConfigurationManager configurationManager, 
+        Element config, String sName, long lDefault) throws OAException
+    {
+        String sValue = configurationManager.getParam(config, sName);
+        if (sValue == null)
+        {
+            _logger.info("No optional '" + sName 
+                + "' item found in 'executor' section in configuration, using default: " 
+                + lDefault);
+            return lDefault;
+        }
+        
+        long lValue;
+        try
+        {
+            lValue = Long.parseLong(sValue);
+        }
+        catch (NumberFormatException e)
+        {
+            _logger.error("Invalid '" + sName 
+                + "' item found in 'executor' section in configuration: " 
+                + sValue, e);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        
+        if (lValue <= 0 || lValue > Integer.MAX_VALUE)
+        {
+            _logger.error("Invalid '" + sName 
+                + "' item found in 'executor' section in configuration, must be a positive number: " 
+                + sValue);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        return lValue;
+    }
+    
     private void readConfig(IConfigurationManager configurationManager, 
         Element config) throws OAException
     {
@@ -63,6 +63,24 @@ public class LogoutRunnable implements Runnable
         _state.add(_sName);
     }
     
+    /**
+     * @return The ID of this runnable.
+     * @since 4.0
+     */
+    public String getName()
+    {
+        return _sName;
+    }
+    
+    /**
+     * @return The TGT event listener.
+     * @since 4.0
+     */
+    public ITGTListener getListener()
+    {
+        return _listener;
+    }
+    
     /**
      * @see java.lang.Runnable#run()
      */
@@ -23,8 +23,10 @@
 package com.alfaariss.oa.sso.web.profile.logout;
 
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 
 import org.apache.commons.logging.Log;
@@ -43,6 +45,9 @@ import com.alfaariss.oa.engine.core.session.factory.ISessionFactory;
  * <br>
  * All Threads (<code>LogoutRunnable</code>) containing TGT Event listeners will
  * report any state change for a specific TGT ID to this object. 
+ * <br>
+ * The state is kept in memory and only stored in the session when the last 
+ * <code>LogoutRunnable</code> has reported its result.
  * @author MHO
  * @author Alfa & Ariss
  * @since 1.4
@@ -54,10 +59,12 @@ public class LogoutState
     
     private static Log _logger;
     private Hashtable<String, List<TGTEventError>> _htResults;
-    private int _iSize;
+    private Set<String> _setPending;
     private String _sSessionID;
     private ISessionFactory<?> _sessionFactory;
     private volatile boolean _bFinished;
+    private final long _lStarted;
+    private LogoutExecutor _executor;
     
     /**
      * Constructor.
@@ -70,8 +77,9 @@ public class LogoutState
         _sessionFactory = sessionFactory;
         _sSessionID = sessionID;
         _htResults = new Hashtable<String, List<TGTEventError>>();
-        _iSize = 0;
+        _setPending = new HashSet<String>();
         _bFinished = false;
+        _lStarted = System.currentTimeMillis();
     }
     
     /**
@@ -84,45 +92,48 @@ public class LogoutState
         listDefault.add(new TGTEventError(UserEvent.USER_LOGOUT_IN_PROGRESS));
         
         _htResults.put(runnableID, listDefault);
-        _iSize++;
+        _setPending.add(runnableID);
     }
     
     /**
      * Updates (overwrites) the state of a specific <code>LogoutRunnable</code>.
      *
+     * Only the first result of a runnable is used; a later result, e.g. of 
+     * a listener that finished after its deadline, is ignored.
      * @param runnableID runnableID The ID of the <code>LogoutRunnable</code>.
      * @param error The new state as TGTEventError
+     * @return <code>false</code> if the runnable already reported a result.
      */
-    synchronized public void set(String runnableID, TGTEventError error)
+    synchronized public boolean set(String runnableID, TGTEventError error)
     {
         List<TGTEventError> listError = new Vector<TGTEventError>();
         listError.add(error);
-        _htResults.put(runnableID, listError);
-        _iSize--;
-        
-        if (_iSize == 0)
-        {
-            storeResults();
-            _bFinished = true;
-        }
+        return set(runnableID, listError);
     }
     
     /**
      * Updates (overwrites) the state of a specific <code>LogoutRunnable</code>.
      *
+     * Only the first result of a runnable is used.
      * @param runnableID runnableID The ID of the <code>LogoutRunnable</code>.
      * @param errors The new state as TGTEventError
+     * @return <code>false</code> if the runnable already reported a result.
      */
-    synchronized public void set(String runnableID, List<TGTEventError> errors)
+    synchronized public boolean set(String runnableID, List<TGTEventError> errors)
     {
+        if (!_setPending.remove(runnableID))
+            return false;
+        
         _htResults.put(runnableID, errors);
-        _iSize--;
         
-        if (_iSize == 0)
+        if (_setPending.isEmpty())
         {
             storeResults();
             _bFinished = true;
+            if (_executor != null)
+                _executor.finished(this);
         }
+        return true;
     }
 
     /**
@@ -133,6 +144,33 @@ public class LogoutState
     {
         return _bFinished;
     }
+    
+    /**
+     * @return The logout session id.
+     * @since 4.0
+     */
+    public String getSessionID()
+    {
+        return _sSessionID;
+    }
+    
+    /**
+     * @return The time the logout was started in milliseconds.
+     * @since 4.0
+     */
+    public long getStarted()
+    {
+        return _lStarted;
+    }
+    
+    /**
+     * Set the executor that must be notified when the logout is finished. 
+     * @param executor The executor.
+     */
+    synchronized void setExecutor(LogoutExecutor executor)
+    {
+        _executor = executor;
+    }
 
     private void storeResults()
     {
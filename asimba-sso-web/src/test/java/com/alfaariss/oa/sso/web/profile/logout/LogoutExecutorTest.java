@@ -0,0 +1,152 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.sso.web.profile.logout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.alfaariss.oa.UserEvent;
+import com.alfaariss.oa.api.tgt.ITGT;
+import com.alfaariss.oa.api.tgt.ITGTListener;
+import com.alfaariss.oa.api.tgt.TGTEventError;
+import com.alfaariss.oa.api.tgt.TGTListenerEvent;
+import com.alfaariss.oa.engine.core.session.factory.ISessionFactory;
+
+public class LogoutExecutorTest {
+
+    /**
+     * Listener that waits until it is released or interrupted.
+     */
+    private static class BlockingListener implements ITGTListener {
+        private final CountDownLatch _latch = new CountDownLatch(1);
+
+        public void processTGTEvent(TGTListenerEvent event, ITGT tgt) {
+            try {
+                _latch.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void release() {
+            _latch.countDown();
+        }
+    }
+
+    private LogoutExecutor _executor;
+
+    @After
+    public void tearDown() {
+        if (_executor != null)
+            _executor.stop();
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        _executor = new LogoutExecutor(2, 10, 100);
+        LogoutState state = createState("timeout");
+        BlockingListener slow = new BlockingListener();
+        List<LogoutRunnable> listRunnables = new ArrayList<LogoutRunnable>();
+        listRunnables.add(new LogoutRunnable(slow, null, state, "slow"));
+        listRunnables.add(new LogoutRunnable(new ITGTListener() {
+            public void processTGTEvent(TGTListenerEvent event, ITGT tgt) {
+            }
+        }, null, state, "fast"));
+
+        _executor.execute(state, listRunnables);
+        assertTrue(waitForFinish(state));
+
+        assertEquals(1, _executor.getTimeoutCount());
+        assertEquals(0, _executor.getRejectedCount());
+        assertNull(_executor.getState("timeout"));
+        //the result of the listener after its deadline is ignored
+        assertFalse(state.set("slow", new TGTEventError(UserEvent.USER_LOGGED_OUT)));
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        _executor = new LogoutExecutor(1, 1, 10000);
+        LogoutState state = createState("rejected");
+        BlockingListener listener = new BlockingListener();
+        List<LogoutRunnable> listRunnables = new ArrayList<LogoutRunnable>();
+        for (int i = 0; i < 3; i++)
+            listRunnables.add(new LogoutRunnable(listener, null, state, "listener" + i));
+
+        _executor.execute(state, listRunnables);
+        assertEquals(1, _executor.getRejectedCount());
+        assertEquals(state, _executor.getState("rejected"));
+        assertFalse(state.isFinished());
+
+        listener.release();
+        assertTrue(waitForFinish(state));
+        assertEquals(0, _executor.getTimeoutCount());
+        assertEquals(1, _executor.getLogoutLatency().getCount());
+    }
+
+    @Test
+    public void testFirstResultWins() {
+        LogoutState state = createState("first");
+        state.add("a");
+        state.add("b");
+
+        assertTrue(state.set("a", new TGTEventError(UserEvent.USER_LOGGED_OUT)));
+        assertFalse(state.set("a", new TGTEventError(UserEvent.USER_LOGOUT_FAILED)));
+        assertFalse(state.isFinished());
+        assertFalse(state.set("unknown", new TGTEventError(UserEvent.USER_LOGGED_OUT)));
+
+        assertTrue(state.set("b", new TGTEventError(UserEvent.USER_LOGOUT_FAILED)));
+        assertTrue(state.isFinished());
+        assertFalse(state.set("b", new TGTEventError(UserEvent.USER_LOGGED_OUT)));
+    }
+
+    private static LogoutState createState(String sSessionID) {
+        ISessionFactory<?> sessionFactory = (ISessionFactory<?>)Proxy.newProxyInstance(
+            ISessionFactory.class.getClassLoader(), new Class<?>[] {ISessionFactory.class},
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return null;
+                }
+            });
+        return new LogoutState(sessionFactory, sSessionID);
+    }
+
+    private static boolean waitForFinish(LogoutState state) throws InterruptedException {
+        long lEnd = System.currentTimeMillis() + 5000;
+        while (!state.isFinished() && System.currentTimeMillis() < lEnd)
+            Thread.sleep(10);
+        return state.isFinished();
+    }
+}
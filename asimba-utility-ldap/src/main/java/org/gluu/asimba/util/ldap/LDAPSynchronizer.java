@@ -0,0 +1,379 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.gluu.asimba.util.ldap;
+
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.OAException;
+import com.alfaariss.oa.SystemErrors;
+import com.alfaariss.oa.api.configuration.IConfigurationManager;
+
+/**
+ * Keeps an in-memory registry up to date with LDAP entries.
+ *
+ * The first run loads all entries and fails the start of the component
+ * when they can not be loaded. Later runs only request the entries
+ * with a <code>modifyTimestamp</code> at or after the latest one seen and
+ * apply them one entry at a time, so lookups in the registry never wait
+ * for a sync and always see either the old or the new version of an entry.
+ * A failed background sync is logged and retried at the next interval,
+ * the registry keeps its current entries.
+ *
+ * A delta query does not return deleted entries, so all entries are loaded
+ * again every full sync interval to remove them. If the directory does not
+ * return <code>modifyTimestamp</code>, every run is a full sync.
+ *
+ * Optional configuration:
+ * <pre>
+ * &lt;sync interval="60000" full_interval="3600000" /&gt;
+ * </pre>
+ * Both intervals are in milliseconds; an <code>interval</code> of 0 disables
+ * the background sync and a <code>full_interval</code> of 0 disables the
+ * periodic full sync.
+ *
+ * @since 4.0
+ */
+public abstract class LDAPSynchronizer implements Runnable {
+
+    /** The default interval between two syncs in milliseconds. */
+    public static final long DEFAULT_SYNC_INTERVAL = 60000;
+    /** The default interval between two full syncs in milliseconds. */
+    public static final long DEFAULT_FULL_SYNC_INTERVAL = 3600000;
+
+    private static final Log _logger = LogFactory.getLog(LDAPSynchronizer.class);
+
+    private final String _sName;
+    private long _lSyncInterval;
+    private long _lFullSyncInterval;
+    private ScheduledExecutorService _executor;
+
+    private Date _dLatestModified;
+    private long _lLastFullSync;
+    private boolean _bDelta;
+    private volatile long _lLastSync;
+    private volatile long _lLastDuration;
+    private volatile long _lMaxLag;
+    private final AtomicLong _lSyncs;
+    private final AtomicLong _lFullSyncs;
+    private final AtomicLong _lFailures;
+    private final AtomicLong _lApplied;
+
+    /**
+     * Creates the synchronizer.
+     *
+     * @param sName The name of the synchronized registry, used for logging.
+     */
+    protected LDAPSynchronizer(String sName) {
+        _sName = sName;
+        _lSyncInterval = DEFAULT_SYNC_INTERVAL;
+        _lFullSyncInterval = DEFAULT_FULL_SYNC_INTERVAL;
+        _lSyncs = new AtomicLong();
+        _lFullSyncs = new AtomicLong();
+        _lFailures = new AtomicLong();
+        _lApplied = new AtomicLong();
+    }
+
+    /**
+     * Reads the optional <code>sync</code> section.
+     *
+     * @param oConfigurationManager The configuration manager.
+     * @param eConfig The configuration section that may contain a
+     * <code>sync</code> section.
+     * @throws OAException If the configuration is invalid.
+     */
+    public void init(IConfigurationManager oConfigurationManager, Element eConfig) throws OAException {
+        Element eSync = oConfigurationManager.getSection(eConfig, "sync");
+        if (eSync == null) {
+            _logger.info("No optional 'sync' section found in configuration, using default interval for " + _sName + ": " + _lSyncInterval);
+            return;
+        }
+        _lSyncInterval = readInterval(oConfigurationManager, eSync, "interval", DEFAULT_SYNC_INTERVAL);
+        _lFullSyncInterval = readInterval(oConfigurationManager, eSync, "full_interval", DEFAULT_FULL_SYNC_INTERVAL);
+    }
+
+    /**
+     * Loads all entries and starts the background sync.
+     *
+     * @throws OAException If the entries could not be loaded; the background
+     * sync is not started in that case.
+     */
+    public synchronized void start() throws OAException {
+        try {
+            synchronize();
+        } catch (OAException e) {
+            _lFailures.incrementAndGet();
+            _logger.error("Could not load " + _sName + " from LDAP", e);
+            throw e;
+        } catch (Exception e) {
+            _lFailures.incrementAndGet();
+            _logger.error("Could not load " + _sName + " from LDAP", e);
+            throw new OAException(SystemErrors.ERROR_INTERNAL, e);
+        }
+
+        if (_lSyncInterval > 0 && _executor == null) {
+            _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "LDAP " + _sName + " sync");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            _executor.scheduleWithFixedDelay(this, _lSyncInterval, _lSyncInterval, TimeUnit.MILLISECONDS);
+            _logger.info("Synchronizing " + _sName + " from LDAP every " + _lSyncInterval + " ms");
+        }
+    }
+
+    /**
+     * Stops the background sync.
+     */
+    public void stop() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = _executor;
+            _executor = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        _logger.info("LDAP " + _sName + " sync: " + _lSyncs.get() + " sync(s), " + _lFullSyncs.get() + " full, "
+                + _lFailures.get() + " failed, " + _lApplied.get() + " change(s) applied, max lag " + _lMaxLag + " ms");
+    }
+
+    /**
+     * Runs a sync from the background thread.
+     *
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        try {
+            sync();
+        } catch (Exception e) {
+            _logger.error("Could not synchronize " + _sName + " from LDAP", e);
+        }
+    }
+
+    /**
+     * Applies the changes since the previous sync, or all entries when a
+     * full sync is due.
+     *
+     * @return <code>true</code> if the sync succeeded, <code>false</code> if
+     * it failed and the current entries are kept.
+     */
+    public synchronized boolean sync() {
+        try {
+            synchronize();
+            return true;
+        } catch (Exception e) {
+            _lFailures.incrementAndGet();
+            _logger.error("Could not synchronize " + _sName + " from LDAP, keeping current entries", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return The start time of the last successful sync, 0 if none.
+     */
+    public long getLastSync() {
+        return _lLastSync;
+    }
+
+    /**
+     * Returns how old the registry may be: the time since the last
+     * successful sync started.
+     *
+     * @return The lag in milliseconds, -1 if no sync succeeded yet.
+     */
+    public long getLag() {
+        long lLastSync = _lLastSync;
+        return lLastSync == 0 ? -1 : System.currentTimeMillis() - lLastSync;
+    }
+
+    /**
+     * @return The largest time between the modification of an entry and
+     * applying it, in milliseconds.
+     */
+    public long getMaxLag() {
+        return _lMaxLag;
+    }
+
+    /**
+     * @return The duration of the last successful sync in milliseconds.
+     */
+    public long getLastDuration() {
+        return _lLastDuration;
+    }
+
+    /**
+     * @return The number of successful syncs.
+     */
+    public long getSyncCount() {
+        return _lSyncs.get();
+    }
+
+    /**
+     * @return The number of successful full syncs.
+     */
+    public long getFullSyncCount() {
+        return _lFullSyncs.get();
+    }
+
+    /**
+     * @return The number of failed syncs.
+     */
+    public long getFailureCount() {
+        return _lFailures.get();
+    }
+
+    /**
+     * @return The number of added, changed and removed entries.
+     */
+    public long getAppliedCount() {
+        return _lApplied.get();
+    }
+
+    /**
+     * Loads all entries, applies the changed ones and removes the entries
+     * that do not exist anymore.
+     *
+     * @return The latest modifyTimestamp of the entries, <code>null</code>
+     * if not available.
+     * @throws Exception If the entries could not be loaded; the registry
+     * must not be changed in that case.
+     */
+    protected abstract Date synchronizeAll() throws Exception;
+
+    /**
+     * Loads and applies the entries modified at or after a time.
+     *
+     * @param dSince The latest modifyTimestamp of the previous sync; entries
+     * with this timestamp are loaded again, because it has a resolution of
+     * seconds.
+     * @return The latest modifyTimestamp of the entries, <code>null</code>
+     * if none.
+     * @throws Exception If the entries could not be loaded.
+     */
+    protected abstract Date synchronizeModified(Date dSince) throws Exception;
+
+    /**
+     * Registers an applied change.
+     *
+     * @param dModified The modifyTimestamp of the changed entry, may be
+     * <code>null</code>.
+     */
+    protected void applied(Date dModified) {
+        _lApplied.incrementAndGet();
+        if (_bDelta && dModified != null) {
+            long lLag = System.currentTimeMillis() - dModified.getTime();
+            if (lLag > _lMaxLag) {
+                _lMaxLag = lLag;
+            }
+        }
+    }
+
+    /**
+     * Compares two versions of an entry by modifyTimestamp, or by the
+     * lastModified time of the stored entry if the directory does not
+     * return modifyTimestamp.
+     *
+     * @param sOldTimestamp The modifyTimestamp of the known version.
+     * @param dOldLastModified The lastModified time of the known version.
+     * @param sTimestamp The modifyTimestamp of the loaded version.
+     * @param dLastModified The lastModified time of the loaded version.
+     * @return <code>true</code> if the loaded version must be applied.
+     */
+    protected static boolean isModified(String sOldTimestamp, Date dOldLastModified, String sTimestamp, Date dLastModified) {
+        if (sTimestamp != null) {
+            return !sTimestamp.equals(sOldTimestamp);
+        }
+        return dLastModified == null || !dLastModified.equals(dOldLastModified);
+    }
+
+    /**
+     * Returns the latest of a time and a modifyTimestamp.
+     *
+     * @param dLatest The latest time so far, may be <code>null</code>.
+     * @param sTimestamp The modifyTimestamp, may be <code>null</code>.
+     * @return The latest time, <code>null</code> if both are not available.
+     */
+    protected static Date getLatest(Date dLatest, String sTimestamp) {
+        Date dModified = LDAPUtility.parseGeneralizedTime(sTimestamp);
+        if (dModified == null || (dLatest != null && !dModified.after(dLatest))) {
+            return dLatest;
+        }
+        return dModified;
+    }
+
+    //Called with the lock held; fails without changing the sync state
+    private void synchronize() throws Exception {
+        long lStart = System.currentTimeMillis();
+        boolean bFull = _dLatestModified == null
+                || (_lFullSyncInterval > 0 && lStart - _lLastFullSync >= _lFullSyncInterval);
+        //Only changes found by a delta query tell how late they are applied
+        _bDelta = !bFull;
+        Date dLatest = bFull ? synchronizeAll() : synchronizeModified(_dLatestModified);
+        if (dLatest != null && (_dLatestModified == null || dLatest.after(_dLatestModified))) {
+            _dLatestModified = dLatest;
+        }
+
+        if (bFull) {
+            if (_dLatestModified == null && _lFullSyncs.get() == 0) {
+                _logger.info("No modifyTimestamp available for " + _sName + ", every LDAP sync loads all entries");
+            }
+            _lLastFullSync = lStart;
+            _lFullSyncs.incrementAndGet();
+        }
+        _lSyncs.incrementAndGet();
+        _lLastSync = lStart;
+        _lLastDuration = System.currentTimeMillis() - lStart;
+    }
+
+    private long readInterval(IConfigurationManager oConfigurationManager, Element eSync, String sName, long lDefault) throws OAException {
+        String sValue = oConfigurationManager.getParam(eSync, sName);
+        if (sValue == null) {
+            _logger.info("No optional '" + sName + "' item found in 'sync' section, using default: " + lDefault);
+            return lDefault;
+        }
+
+        long lValue;
+        try {
+            lValue = Long.parseLong(sValue);
+        } catch (NumberFormatException e) {
+            lValue = -1;
+        }
+        if (lValue < 0) {
+            _logger.error("Invalid '" + sName + "' item found in 'sync' section: " + sValue);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        return lValue;
+    }
+}
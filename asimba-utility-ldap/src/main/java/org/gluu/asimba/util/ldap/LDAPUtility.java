@@ -26,9 +26,13 @@ package org.gluu.asimba.util.ldap;
 import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
 import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Properties;
+import java.util.TimeZone;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.gluu.asimba.util.ldap.idp.IDPEntry;
@@ -72,6 +76,7 @@ public class LDAPUtility {
     public static final String identificationURL = "identificationURL";
     public static final String organizationId = "organizationId";
     public static final String description = "description";
+    public static final String modifyTimestamp = "modifyTimestamp";
     
     private static final LdapEntryManager ldapEntryManager = getLDAPEntryManagerSafe();
     
@@ -251,6 +256,83 @@ public class LDAPUtility {
         return result;
     }
     
+    /**
+    * Find IDP entries, failing if the directory can not be read
+    * 
+    * @param modifiedSince Only return entries modified at or after this time, all entries if null
+    * @return List of LDAP entries
+    * @throws Exception
+    */
+    public static synchronized List<LdapIDPEntry> findIDPs(Date modifiedSince) throws Exception {
+        return ldapEntryManager.findEntries(getDnForLdapIDPEntry(null), LdapIDPEntry.class, createModifiedSinceFilter(modifiedSince));
+    }
+    
+    /**
+    * Find requestor pool entries, failing if the directory can not be read
+    * 
+    * @param modifiedSince Only return entries modified at or after this time, all entries if null
+    * @return List of LDAP entries
+    * @throws Exception
+    */
+    public static synchronized List<LDAPRequestorPoolEntry> findRequestorPools(Date modifiedSince) throws Exception {
+        return ldapEntryManager.findEntries(getDnForLDAPRequestorPoolEntry(null), LDAPRequestorPoolEntry.class, createModifiedSinceFilter(modifiedSince));
+    }
+    
+    /**
+    * Find requestor entries, failing if the directory can not be read
+    * 
+    * @param modifiedSince Only return entries modified at or after this time, all entries if null
+    * @return List of LDAP entries
+    * @throws Exception
+    */
+    public static synchronized List<LDAPRequestorEntry> findRequestors(Date modifiedSince) throws Exception {
+        return ldapEntryManager.findEntries(getDnForLDAPRequestorEntry(null), LDAPRequestorEntry.class, createModifiedSinceFilter(modifiedSince));
+    }
+    
+    private static Filter createModifiedSinceFilter(Date modifiedSince) {
+        if (modifiedSince == null) {
+            return null;
+        }
+        return Filter.createGreaterOrEqualFilter(modifyTimestamp, formatGeneralizedTime(modifiedSince));
+    }
+    
+    /**
+    * Format a time as LDAP generalized time, e.g. 20150101120000Z
+    * 
+    * @param date The time
+    * @return The UTC time with a resolution of seconds
+    */
+    public static String formatGeneralizedTime(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+    
+    /**
+    * Parse an LDAP generalized time such as a modifyTimestamp
+    * 
+    * Fractions of seconds are ignored; a value without time zone or with
+    * an offset other than Z is read as UTC as well, which every directory
+    * uses for operational attributes.
+    * 
+    * @param value The generalized time
+    * @return The time or null if the value is empty or invalid
+    */
+    public static Date parseGeneralizedTime(String value) {
+        if (value == null || value.length() < 14) {
+            return null;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        try {
+            return format.parse(value.substring(0, 14));
+        } catch (ParseException e) {
+            log.debug("Invalid generalized time: " + value);
+            return null;
+        }
+    }
+    
     /**
     * Build DN string for LdapIDPEntry
     * 
@@ -65,6 +65,12 @@ public class LdapIDPEntry extends BaseEntry {
     @LdapAttribute(name = "oxAsimbaEntry")
     @LdapJsonObject
     private IDPEntry entry = new IDPEntry();
+
+    /**
+     * The time of the last modification, maintained by the directory.
+     */
+    @LdapAttribute(name = "modifyTimestamp", ignoreDuringUpdate = true)
+    private String modifyTimestamp;
     
     public void setEntry(IDPEntry entry) {
         this.entry = entry;
@@ -131,4 +137,16 @@ public class LdapIDPEntry extends BaseEntry {
     public IDPEntry getEntry() {
         return entry;
     }
+
+    /**
+     * @return the modifyTimestamp in generalized time format, null if the
+     * directory did not return it
+     */
+    public String getModifyTimestamp() {
+        return modifyTimestamp;
+    }
+
+    public void setModifyTimestamp(String modifyTimestamp) {
+        this.modifyTimestamp = modifyTimestamp;
+    }
 }
@@ -57,6 +57,12 @@ public class LDAPRequestorEntry extends BaseEntry {
     @LdapAttribute(name = "oxAsimbaEntry")
     @LdapJsonObject
     private RequestorEntry entry = new RequestorEntry();
+
+    /**
+     * The time of the last modification, maintained by the directory.
+     */
+    @LdapAttribute(name = "modifyTimestamp", ignoreDuringUpdate = true)
+    private String modifyTimestamp;
     
     public void setEntry(RequestorEntry entry) {
         this.entry = entry;
@@ -117,4 +123,16 @@ public class LDAPRequestorEntry extends BaseEntry {
     public RequestorEntry getEntry() {
         return entry;
     }
+
+    /**
+     * @return the modifyTimestamp in generalized time format, null if the
+     * directory did not return it
+     */
+    public String getModifyTimestamp() {
+        return modifyTimestamp;
+    }
+
+    public void setModifyTimestamp(String modifyTimestamp) {
+        this.modifyTimestamp = modifyTimestamp;
+    }
 }
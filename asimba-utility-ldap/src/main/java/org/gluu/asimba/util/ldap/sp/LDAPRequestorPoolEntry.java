@@ -58,6 +58,12 @@ public class LDAPRequestorPoolEntry extends BaseEntry {
     @LdapJsonObject
     private RequestorPoolEntry entry = new RequestorPoolEntry();
 
+    /**
+     * The time of the last modification, maintained by the directory.
+     */
+    @LdapAttribute(name = "modifyTimestamp", ignoreDuringUpdate = true)
+    private String modifyTimestamp;
+
     public void setEntry(RequestorPoolEntry entry) {
         this.entry = entry;
         if (entry != null) {
@@ -117,4 +123,16 @@ public class LDAPRequestorPoolEntry extends BaseEntry {
     public RequestorPoolEntry getEntry() {
         return entry;
     }
+
+    /**
+     * @return the modifyTimestamp in generalized time format, null if the
+     * directory did not return it
+     */
+    public String getModifyTimestamp() {
+        return modifyTimestamp;
+    }
+
+    public void setModifyTimestamp(String modifyTimestamp) {
+        this.modifyTimestamp = modifyTimestamp;
+    }
 }
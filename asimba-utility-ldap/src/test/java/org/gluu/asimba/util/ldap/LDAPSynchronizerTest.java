@@ -0,0 +1,186 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.gluu.asimba.util.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.OAException;
+import com.alfaariss.oa.api.configuration.IConfigurationManager;
+
+public class LDAPSynchronizerTest {
+
+    private static final Date FIRST = new Date(1400000000000L);
+    private static final Date SECOND = new Date(1400000060000L);
+
+    /** Records the timestamp every sync searches from, null for a full sync. */
+    private static class TestSynchronizer extends LDAPSynchronizer {
+        final List<Date> _listSince = new ArrayList<Date>();
+        Date _dLatest;
+        Exception _exception;
+
+        TestSynchronizer() {
+            super("test");
+        }
+
+        @Override
+        protected Date synchronizeAll() throws Exception {
+            return load(null);
+        }
+
+        @Override
+        protected Date synchronizeModified(Date dSince) throws Exception {
+            return load(dSince);
+        }
+
+        private Date load(Date dSince) throws Exception {
+            _listSince.add(dSince);
+            if (_exception != null)
+                throw _exception;
+            return _dLatest;
+        }
+    }
+
+    private TestSynchronizer _synchronizer;
+
+    @After
+    public void tearDown() {
+        if (_synchronizer != null)
+            _synchronizer.stop();
+    }
+
+    @Test
+    public void testInitialSyncFailureFailsStart() throws Exception {
+        TestSynchronizer synchronizer = create("0", "0");
+        synchronizer._exception = new IllegalStateException("directory down");
+        try {
+            synchronizer.start();
+            fail("Start should fail when the entries can not be loaded");
+        }
+        catch (OAException e) {
+            //expected
+        }
+        assertEquals(1, synchronizer.getFailureCount());
+        assertEquals(0, synchronizer.getSyncCount());
+        assertEquals(-1, synchronizer.getLag());
+    }
+
+    @Test
+    public void testDeltaAfterFullSync() throws Exception {
+        TestSynchronizer synchronizer = create("0", "0");
+        synchronizer._dLatest = FIRST;
+        synchronizer.start();
+
+        //No changes: the latest timestamp is kept
+        synchronizer._dLatest = null;
+        assertTrue(synchronizer.sync());
+        synchronizer._dLatest = SECOND;
+        assertTrue(synchronizer.sync());
+        assertTrue(synchronizer.sync());
+
+        assertEquals(Arrays.asList(null, FIRST, FIRST, SECOND), synchronizer._listSince);
+        assertEquals(4, synchronizer.getSyncCount());
+        assertEquals(1, synchronizer.getFullSyncCount());
+    }
+
+    @Test
+    public void testFailedDeltaIsRetried() throws Exception {
+        TestSynchronizer synchronizer = create("0", "0");
+        synchronizer._dLatest = FIRST;
+        synchronizer.start();
+
+        synchronizer._exception = new IllegalStateException("directory down");
+        assertFalse(synchronizer.sync());
+        synchronizer._exception = null;
+        synchronizer._dLatest = SECOND;
+        assertTrue(synchronizer.sync());
+
+        assertEquals(Arrays.asList(null, FIRST, FIRST), synchronizer._listSince);
+        assertEquals(1, synchronizer.getFailureCount());
+        assertEquals(2, synchronizer.getSyncCount());
+    }
+
+    @Test
+    public void testWithoutTimestampEverySyncIsFull() throws Exception {
+        TestSynchronizer synchronizer = create("0", "0");
+        synchronizer.start();
+        assertTrue(synchronizer.sync());
+
+        assertEquals(Arrays.asList(null, null), synchronizer._listSince);
+        assertEquals(2, synchronizer.getFullSyncCount());
+    }
+
+    @Test
+    public void testFullSyncInterval() throws Exception {
+        TestSynchronizer synchronizer = create("0", "1");
+        synchronizer._dLatest = FIRST;
+        synchronizer.start();
+        Thread.sleep(10);
+        assertTrue(synchronizer.sync());
+
+        assertEquals(Arrays.asList(null, null), synchronizer._listSince);
+        assertEquals(2, synchronizer.getFullSyncCount());
+    }
+
+    private TestSynchronizer create(String sInterval, String sFullInterval) throws Exception {
+        Element eConfig = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .newDocument().createElement("sync");
+        eConfig.setAttribute("interval", sInterval);
+        eConfig.setAttribute("full_interval", sFullInterval);
+        _synchronizer = new TestSynchronizer();
+        _synchronizer.init(configurationManager(eConfig), null);
+        return _synchronizer;
+    }
+
+    //Returns the sync section and reads its attributes
+    private IConfigurationManager configurationManager(final Element eSync) {
+        return (IConfigurationManager)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] {IConfigurationManager.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("getSection"))
+                        return eSync;
+                    if (method.getName().equals("getParam")) {
+                        String sValue = ((Element)args[0]).getAttribute((String)args[1]);
+                        return sValue.length() == 0 ? null : sValue;
+                    }
+                    return null;
+                }
+            });
+    }
+}
@@ -51,6 +51,13 @@ import com.alfaariss.oa.api.configuration.handler.IConfigurationHandler;
  * <code>IConfigurationHandler</code> to read and write the configuration 
  * from several sources.
  * 
+ * Reads are served from an immutable {@link ConfigurationSnapshot} of the 
+ * configuration without locking. Changes are applied to the DOM document 
+ * while holding the lock of this manager, after which a new snapshot is 
+ * built and swapped in. Sections that are not part of the current 
+ * configuration document (e.g. removed or foreign sections) are read 
+ * directly from the DOM while holding the lock.
+ * 
  * <br><br><i>Partitially based on sources from A-Select (www.a-select.org).</i>
  *
  * @author MHO
@@ -63,6 +70,7 @@ public class ConfigurationManager implements IConfigurationManager
     private Log _logger;
     private IConfigurationHandler _oConfigHandler;
     private Document _oDomDocument;
+    private volatile ConfigurationSnapshot _snapshot;
 
 	/**
 	 * Default constructor. 
@@ -72,6 +80,7 @@ public class ConfigurationManager implements IConfigurationManager
 	    _logger = LogFactory.getLog(ConfigurationManager.class);
         _oConfigHandler = null;
         _oDomDocument = null;
+        _snapshot = null;
 	}
     
 	/**
@@ -85,6 +94,7 @@ public class ConfigurationManager implements IConfigurationManager
         {
             _oConfigHandler = _handler;
             _oDomDocument = _oConfigHandler.parseConfiguration();
+            _snapshot = new ConfigurationSnapshot(_oDomDocument);
         }
         catch (ConfigurationException e)
         {
@@ -145,6 +155,7 @@ public class ConfigurationManager implements IConfigurationManager
                 elRoot.insertBefore(nComment, elRoot.getFirstChild());
             }
             _oConfigHandler.saveConfiguration(_oDomDocument);
+            _snapshot = new ConfigurationSnapshot(_oDomDocument);
         }
         catch (ConfigurationException e)
         {
@@ -161,7 +172,7 @@ public class ConfigurationManager implements IConfigurationManager
 	 * Retrieves a config section by its type and id.
 	 * @see IConfigurationManager#getSection(org.w3c.dom.Element, java.lang.String, java.lang.String)
 	 */
-	public synchronized Element getSection(Element eRootSection, 
+	public Element getSection(Element eRootSection, 
         String sSectionType, String sSectionID)
 	  
     {
@@ -169,23 +180,40 @@ public class ConfigurationManager implements IConfigurationManager
             throw new IllegalArgumentException("Suplied section ID is empty");
         if(sSectionType == null) 
             throw new IllegalArgumentException("Suplied section type is empty");
+        
+        String[] saID = splitSectionID(sSectionID);
+        ConfigurationSnapshot snapshot = _snapshot;
                //rootSection may be null if the first section is requested
         if (eRootSection == null)
-            eRootSection = _oDomDocument.getDocumentElement();        
-        return getSubSectionByID(eRootSection, sSectionType, sSectionID);
+            eRootSection = snapshot.getRoot();        
+        
+        ConfigurationSnapshot.SectionIndex index = 
+            snapshot.getSection(eRootSection);
+        if (index != null)
+            return index.getSubSectionByID(sSectionType, saID[0], saID[1]);
+        
+        return getSubSectionByID(eRootSection, sSectionType, saID[0], saID[1]);
 	}
    
 	/**
 	 * Retrieves a config section by its type.
 	 * @see IConfigurationManager#getSection(org.w3c.dom.Element, java.lang.String)
 	 */
-	public synchronized Element getSection(Element eRootSection, String sSectionType)
+	public Element getSection(Element eRootSection, String sSectionType)
     {
         if(sSectionType == null) 
             throw new IllegalArgumentException("Suplied section type is empty");
+        
+        ConfigurationSnapshot snapshot = _snapshot;
         //rootSection can be null if the first section is requested
         if (eRootSection == null)
-            eRootSection = _oDomDocument.getDocumentElement();        
+            eRootSection = snapshot.getRoot();        
+        
+        ConfigurationSnapshot.SectionIndex index = 
+            snapshot.getSection(eRootSection);
+        if (index != null)
+            return index.getSubSection(sSectionType);
+        
         return getSubSection(eRootSection, sSectionType);
 	}
 
@@ -230,6 +258,7 @@ public class ConfigurationManager implements IConfigurationManager
         try
         {
             eRootSection.appendChild(eNewSection);
+            _snapshot = new ConfigurationSnapshot(_oDomDocument);
         }
         catch (DOMException e)
         {
@@ -249,14 +278,30 @@ public class ConfigurationManager implements IConfigurationManager
 	 * @return The paramater value.
 	 * @throws ConfigurationException If retrieving fails.
 	 */
-	public synchronized String getParam(Element eSection, String sName)
+	public String getParam(Element eSection, String sName)
 	  throws ConfigurationException
     {
         if(eSection == null) 
             throw new IllegalArgumentException("Suplied section is empty");
         if(sName == null) 
             throw new IllegalArgumentException("Suplied name is empty");
-    
+        
+        ConfigurationSnapshot.SectionIndex index = getIndex(eSection);
+        if (index != null)
+        {
+            String sValue = index.getAttribute(sName);
+            if (sValue == null)
+                sValue = index.getParam(sName);
+            return sValue;
+        }
+        
+        return getParamFromSection(eSection, sName);
+	}
+	
+	//Retrieve a parameter value from a section that is not in the snapshot
+	private synchronized String getParamFromSection(Element eSection, 
+	    String sName) throws ConfigurationException
+    {
         String sValue = null;
         try
         {
@@ -332,6 +377,8 @@ public class ConfigurationManager implements IConfigurationManager
                 eSection.setAttribute(sName, sValue);//set as attribute in tag
             else
                 setParamAsChild(eSection, sName, sValue);//set as child tag
+            
+            _snapshot = new ConfigurationSnapshot(_oDomDocument);
         }
         catch (DOMException e)
         {
@@ -343,7 +390,7 @@ public class ConfigurationManager implements IConfigurationManager
 	/**
 	 * @see com.alfaariss.oa.api.configuration.IConfigurationManager#getParams(org.w3c.dom.Element, java.lang.String)
 	 */
-	public synchronized List<String> getParams(Element eSection, String sParamName) 
+	public List<String> getParams(Element eSection, String sParamName) 
 	    throws ConfigurationException
 	{
 	    if(eSection == null) 
@@ -351,7 +398,29 @@ public class ConfigurationManager implements IConfigurationManager
         if(sParamName == null) 
             throw new IllegalArgumentException("Suplied parameter name is empty");
     
+        ConfigurationSnapshot.SectionIndex index = getIndex(eSection);
+        if (index != null)
+        {
+            List<String> listValues = new Vector<String>();
+            String sAttributeValue = index.getAttribute(sParamName);
+            if (sAttributeValue != null)
+                listValues.add(sAttributeValue);
+            
+            listValues.addAll(index.getParamValues(sParamName));
+            
+            if (listValues.isEmpty())
+                return null;
+            
+            return listValues;
+        }
         
+        return getParamsFromSection(eSection, sParamName);
+	}
+	
+	//Retrieve parameter values from a section that is not in the snapshot
+	private synchronized List<String> getParamsFromSection(Element eSection, 
+	    String sParamName) throws ConfigurationException
+	{
         List<String> listValues = new Vector<String>();
         
         try
@@ -412,11 +481,21 @@ public class ConfigurationManager implements IConfigurationManager
 	 * Resolve the next section.
 	 * @see IConfigurationManager#getNextSection(org.w3c.dom.Element)
 	 */
-	public synchronized Element getNextSection(Element eSection)
+	public Element getNextSection(Element eSection)
     {
         if(eSection == null) 
             throw new IllegalArgumentException("Suplied section is empty");
         
+        ConfigurationSnapshot.SectionIndex index = getIndex(eSection);
+        if (index != null)
+            return index.getNextSection();
+        
+        return getNextSectionFromDOM(eSection);
+	}
+	
+	//Resolve the next section of a section that is not in the snapshot
+	private synchronized Element getNextSectionFromDOM(Element eSection)
+	{
         String sRequested = eSection.getNodeName();
         //Get first
         Node nNext = eSection.getNextSibling();
@@ -454,6 +533,7 @@ public class ConfigurationManager implements IConfigurationManager
             {
                 //remove section
                 eRootSection.removeChild(nSection);
+                _snapshot = new ConfigurationSnapshot(_oDomDocument);
                 bRet = true;
             }   
         }
@@ -483,13 +563,16 @@ public class ConfigurationManager implements IConfigurationManager
             if (eRootSection == null)
                 eRootSection = _oDomDocument.getDocumentElement();
     
-            Node nSection = this.getSubSectionByID(eRootSection, sName, sSectionID);
+            String[] saID = splitSectionID(sSectionID);
+            Node nSection = this.getSubSectionByID(eRootSection, sName, 
+                saID[0], saID[1]);
             if (nSection == null)
                 _logger.debug("Section not found: " + sName);
             else
             {
                 //remove section
                 eRootSection.removeChild(nSection);
+                _snapshot = new ConfigurationSnapshot(_oDomDocument);
                 bRet = true;
             }   
         }
@@ -543,12 +626,18 @@ public class ConfigurationManager implements IConfigurationManager
         }
 	}
 
-	//Retrieve an XML tag with given <code>sSectionID</code> as an attribute.
-	private synchronized Element getSubSectionByID(Element eRootSection, String sSectionType, String sSectionID)
-    {
-        assert eRootSection != null : "Suplied root section is empty";
-        //split sectionID (id=ticket) to key/value pair
-    
+	//Returns the index of the section, if it is part of the current snapshot
+	private ConfigurationSnapshot.SectionIndex getIndex(Element eSection)
+	{
+	    ConfigurationSnapshot snapshot = _snapshot;
+	    if (snapshot == null)
+	        return null;
+	    return snapshot.getSection(eSection);
+	}
+	
+	//Split a section ID (id=ticket) into a key/value pair.
+	private String[] splitSectionID(String sSectionID)
+	{
         int iFirstEquals = sSectionID.indexOf("=");
         if (iFirstEquals == -1)
         {
@@ -561,6 +650,14 @@ public class ConfigurationManager implements IConfigurationManager
     
         String sKey = sSectionID.substring(0, iFirstEquals);
         String sValue = sSectionID.substring(iFirstEquals + 1, sSectionID.length());
+        return new String[] {sKey, sValue};
+	}
+	
+	//Retrieve an XML tag with given key and value as an attribute.
+	private synchronized Element getSubSectionByID(Element eRootSection, 
+	    String sSectionType, String sKey, String sValue)
+    {
+        assert eRootSection != null : "Suplied root section is empty";
     
         //get all childnodes
         NodeList nlChilds = eRootSection.getChildNodes();
@@ -0,0 +1,293 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.util.configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Immutable, pre-indexed, view on a configuration document.
+ * 
+ * The snapshot is built once from the DOM document and indexes the 
+ * attributes, parameters and sub sections of every element, so lookups are 
+ * hash lookups that do not touch the DOM. A snapshot is never updated; the
+ * {@link ConfigurationManager} builds a new snapshot after every change and 
+ * replaces the old one.
+ * 
+ * Parameter and section type lookups that are case insensitive in the 
+ * {@link ConfigurationManager} are indexed on the lower case name.
+ *
+ * @since 4.0
+ */
+final class ConfigurationSnapshot
+{
+    private final Element _eRoot;
+    private final Map<Element, SectionIndex> _mapSections;
+    
+    /**
+     * Build a snapshot of the supplied document.
+     * @param oDocument The configuration document.
+     */
+    ConfigurationSnapshot(Document oDocument)
+    {
+        _eRoot = oDocument.getDocumentElement();
+        _mapSections = new IdentityHashMap<Element, SectionIndex>();
+        if (_eRoot != null)
+            index(_eRoot, null);
+    }
+    
+    /**
+     * @return The document (root) element.
+     */
+    Element getRoot()
+    {
+        return _eRoot;
+    }
+    
+    /**
+     * Returns the index of a section.
+     * @param eSection The section.
+     * @return The index or <code>null</code> if the section is not part of 
+     *  this snapshot.
+     */
+    SectionIndex getSection(Element eSection)
+    {
+        return _mapSections.get(eSection);
+    }
+    
+    /**
+     * Lower case a name for a case insensitive lookup.
+     * @param sName The name.
+     * @return The lower case name.
+     */
+    static String toKey(String sName)
+    {
+        return sName.toLowerCase(Locale.ENGLISH);
+    }
+    
+    //Index the section and all its sub sections
+    private SectionIndex index(Element eSection, SectionIndex previous)
+    {
+        SectionIndex index = new SectionIndex(eSection);
+        _mapSections.put(eSection, index);
+        
+        Map<String, SectionIndex> mapLast = new HashMap<String, SectionIndex>();
+        Node nChild = eSection.getFirstChild();
+        while (nChild != null)
+        {
+            if (nChild.getNodeType() == Node.ELEMENT_NODE)
+            {
+                Element eChild = (Element)nChild;
+                String sName = eChild.getNodeName();
+                
+                SectionIndex childIndex = index(eChild, mapLast.get(sName));
+                mapLast.put(sName, childIndex);
+                index.addChild(eChild, childIndex);
+            }
+            nChild = nChild.getNextSibling();
+        }
+        
+        if (previous != null)
+            previous._eNext = eSection;
+        
+        return index;
+    }
+    
+    /**
+     * Index of one configuration section.
+     */
+    static final class SectionIndex
+    {
+        private final Map<String, String> _mapAttributes;
+        private final Map<String, String> _mapParams;
+        private final Map<String, List<String>> _mapParamValues;
+        private final Map<String, Element> _mapFirstSections;
+        private final Map<String, List<Element>> _mapSectionsByType;
+        private final Map<Element, SectionIndex> _mapChildIndexes;
+        private Element _eNext;
+        
+        SectionIndex(Element eSection)
+        {
+            _mapAttributes = new HashMap<String, String>();
+            _mapParams = new HashMap<String, String>();
+            _mapParamValues = new HashMap<String, List<String>>();
+            _mapFirstSections = new HashMap<String, Element>();
+            _mapSectionsByType = new HashMap<String, List<Element>>();
+            _mapChildIndexes = new IdentityHashMap<Element, SectionIndex>();
+            
+            if (eSection.hasAttributes())
+            {
+                NamedNodeMap oNodeMap = eSection.getAttributes();
+                for (int i = 0; i < oNodeMap.getLength(); i++)
+                {
+                    Node nAttribute = oNodeMap.item(i);
+                    _mapAttributes.put(nAttribute.getNodeName(), 
+                        nAttribute.getNodeValue());
+                }
+            }
+        }
+        
+        /**
+         * @param sName The attribute name (case sensitive).
+         * @return The attribute value or <code>null</code> if not available.
+         */
+        String getAttribute(String sName)
+        {
+            return _mapAttributes.get(sName);
+        }
+        
+        /**
+         * @param sName The parameter name.
+         * @return The value of the first child parameter with a value, or 
+         *  <code>null</code> if not available.
+         */
+        String getParam(String sName)
+        {
+            return _mapParams.get(toKey(sName));
+        }
+        
+        /**
+         * @param sName The parameter name.
+         * @return The values of all child parameters with the name; never 
+         *  <code>null</code>.
+         */
+        List<String> getParamValues(String sName)
+        {
+            List<String> listValues = _mapParamValues.get(toKey(sName));
+            if (listValues == null)
+                return Collections.emptyList();
+            return listValues;
+        }
+        
+        /**
+         * @param sSectionType The section type (case sensitive).
+         * @return The first sub section of the type or <code>null</code>.
+         */
+        Element getSubSection(String sSectionType)
+        {
+            return _mapFirstSections.get(sSectionType);
+        }
+        
+        /**
+         * Retrieve the first sub section of the supplied type which has an 
+         * attribute with the supplied value (both compared case insensitive).
+         * 
+         * @param sSectionType The section type.
+         * @param sKey The attribute name.
+         * @param sValue The attribute value.
+         * @return The sub section or <code>null</code> if not available.
+         */
+        Element getSubSectionByID(String sSectionType, String sKey, 
+            String sValue)
+        {
+            List<Element> listSections = 
+                _mapSectionsByType.get(toKey(sSectionType));
+            if (listSections != null)
+            {
+                for (Element eSection : listSections)
+                {
+                    SectionIndex index = _mapChildIndexes.get(eSection);
+                    if (!index._mapAttributes.isEmpty())
+                    {
+                        String sAttribute = index._mapAttributes.get(sKey);
+                        if (sAttribute == null)
+                            sAttribute = "";
+                        if (sAttribute.equalsIgnoreCase(sValue))
+                            return eSection;
+                    }
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * @return The next sibling section with the same name or 
+         *  <code>null</code>.
+         */
+        Element getNextSection()
+        {
+            return _eNext;
+        }
+        
+        //Index a child element as parameter and as sub section 
+        private void addChild(Element eChild, SectionIndex childIndex)
+        {
+            String sName = eChild.getNodeName();
+            String sKey = toKey(sName);
+            
+            _mapChildIndexes.put(eChild, childIndex);
+            if (!_mapFirstSections.containsKey(sName))
+                _mapFirstSections.put(sName, eChild);
+            
+            List<Element> listSections = _mapSectionsByType.get(sKey);
+            if (listSections == null)
+            {
+                listSections = new ArrayList<Element>(1);
+                _mapSectionsByType.put(sKey, listSections);
+            }
+            listSections.add(eChild);
+            
+            //parameter value: the first text node, used by getParam()
+            //and the last text node, used by getParams()
+            String sFirst = null;
+            String sLast = "";
+            NodeList nlSubNodes = eChild.getChildNodes();
+            if (nlSubNodes.getLength() == 0)
+                sFirst = "";
+            for (int i = 0; i < nlSubNodes.getLength(); i++)
+            {
+                Node nSub = nlSubNodes.item(i);
+                if (nSub.getNodeType() == Node.TEXT_NODE)
+                {
+                    String sText = nSub.getNodeValue();
+                    if (sText == null)
+                        sText = "";
+                    if (sFirst == null)
+                        sFirst = sText;
+                    sLast = sText;
+                }
+            }
+            
+            if (sFirst != null && !_mapParams.containsKey(sKey))
+                _mapParams.put(sKey, sFirst);
+            
+            List<String> listValues = _mapParamValues.get(sKey);
+            if (listValues == null)
+            {
+                listValues = new ArrayList<String>(1);
+                _mapParamValues.put(sKey, listValues);
+            }
+            listValues.add(sLast);
+        }
+    }
+}
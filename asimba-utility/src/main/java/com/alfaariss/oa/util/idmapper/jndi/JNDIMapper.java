@@ -22,9 +22,6 @@
  */
 package com.alfaariss.oa.util.idmapper.jndi;
 
-import java.util.Hashtable;
-
-import javax.naming.Context;
 import javax.naming.InvalidNameException;
 import javax.naming.Name;
 import javax.naming.NamingEnumeration;
@@ -32,7 +29,6 @@ import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.InvalidSearchFilterException;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
@@ -46,11 +42,17 @@ import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
 import com.alfaariss.oa.api.configuration.IConfigurationManager;
 import com.alfaariss.oa.api.idmapper.IIDMapper;
+import com.alfaariss.oa.util.ldap.JNDIContextPool;
+import com.alfaariss.oa.util.ldap.JNDIDirectory;
+import com.alfaariss.oa.util.ldap.JNDIDirectoryRegistry;
 import com.alfaariss.oa.util.ldap.JNDIUtil;
 
 /**
  * JNDI id mapper implementation.
  * 
+ * Uses pooled connections of a {@link JNDIDirectory}, which can be shared
+ * with other modules.
+ * 
  * @author MHO
  * @author Alfa & Ariss
  * @since 1.3
@@ -61,7 +63,7 @@ public class JNDIMapper implements IIDMapper
     private String _sDNBase;
     private String _sIDAttribute;
     private String _sMapperAttribute;
-    private Hashtable<String,String> _htJNDIEnvironment;
+    private JNDIDirectory _oDirectory;
     
     
     /**
@@ -73,7 +75,7 @@ public class JNDIMapper implements IIDMapper
         _sDNBase = null;
         _sIDAttribute = null;
         _sMapperAttribute = null;
-        _htJNDIEnvironment = null;
+        _oDirectory = null;
     }
     
     /**
@@ -86,15 +88,16 @@ public class JNDIMapper implements IIDMapper
 
         String sReturn = null;
         DirContext oDirContext = null;
+        boolean bReusable = true;
         try
         {
             try
             {
-                oDirContext = new InitialDirContext(_htJNDIEnvironment);
+                oDirContext = _oDirectory.getContext();
             }
             catch (NamingException e)
             {
-                _logger.error("Could not create the connection: " + _htJNDIEnvironment, e);
+                _logger.error("Could not create the connection: " + _oDirectory.getURL(), e);
                 throw new OAException(SystemErrors.ERROR_RESOURCE_CONNECT);
             }
             
@@ -120,6 +123,8 @@ public class JNDIMapper implements IIDMapper
         }
         catch (OAException e)
         {
+            if (e.getCode() == SystemErrors.ERROR_RESOURCE_CONNECT)
+                bReusable = false;
             throw e;
         }
         catch (Exception e)
@@ -129,18 +134,7 @@ public class JNDIMapper implements IIDMapper
         }
         finally
         {
-            if (oDirContext != null)
-            {
-                try
-                {
-                    oDirContext.close();
-                }
-                catch (NamingException e)
-                {
-                    _logger.error("Could not close Dir Context after mapping id: " 
-                        + id, e);
-                }
-            }
+            _oDirectory.releaseContext(oDirContext, bReusable);
         }
         return sReturn;
     }
@@ -155,15 +149,16 @@ public class JNDIMapper implements IIDMapper
 
         String sReturn = null;
         DirContext oDirContext = null;
+        boolean bReusable = true;
         try
         {
             try
             {
-                oDirContext = new InitialDirContext(_htJNDIEnvironment);
+                oDirContext = _oDirectory.getContext();
             }
             catch (NamingException e)
             {
-                _logger.error("Could not create the connection: " + _htJNDIEnvironment, e);
+                _logger.error("Could not create the connection: " + _oDirectory.getURL(), e);
                 throw new OAException(SystemErrors.ERROR_RESOURCE_CONNECT);
             }
             
@@ -190,6 +185,8 @@ public class JNDIMapper implements IIDMapper
         }
         catch (OAException e)
         {
+            if (e.getCode() == SystemErrors.ERROR_RESOURCE_CONNECT)
+                bReusable = false;
             throw e;
         }
         catch (Exception e)
@@ -199,18 +196,7 @@ public class JNDIMapper implements IIDMapper
         }
         finally
         {
-            if (oDirContext != null)
-            {
-                try
-                {
-                    oDirContext.close();
-                }
-                catch (NamingException e)
-                {
-                    _logger.error("Could not close Dir Context after searching for mapped id: " 
-                        + id, e);
-                }
-            }
+            _oDirectory.releaseContext(oDirContext, bReusable);
         }
         return sReturn;
     }
@@ -284,10 +270,8 @@ public class JNDIMapper implements IIDMapper
                 }
             }
             
-            _htJNDIEnvironment = readJNDIContext(configManager, eResource);
-
-            //test connection
-            new InitialDirContext(_htJNDIEnvironment);
+            _oDirectory = JNDIDirectoryRegistry.getInstance().getDirectory(
+                configManager, eResource);
         }
         catch (OAException e)
         {
@@ -305,94 +289,16 @@ public class JNDIMapper implements IIDMapper
      */
     public void stop()
     {
-        if (_htJNDIEnvironment != null)
-            _htJNDIEnvironment.clear();
+        if (_oDirectory != null)
+        {
+            JNDIDirectoryRegistry.getInstance().release(_oDirectory);
+            _oDirectory = null;
+        }
         _sDNBase = null;
         _sIDAttribute = null;
         _sMapperAttribute = null;
     }
 
-    /**
-     * Reads JNDI connection information from the configuration.
-     * <br>
-     * Creates an <code>Hashtable</code> containing the JNDI environment variables.
-     * @param oConfigurationManager The configuration manager
-     * @param eConfig the configuration section
-     * @return <code>DirContext</code> that contains the JNDI connection
-     * @throws OAException if configuration reading fails
-     */
-    private Hashtable<String,String> readJNDIContext(IConfigurationManager oConfigurationManager, 
-        Element eConfig) throws OAException
-    {
-        Hashtable<String,String> htEnvironment = new Hashtable<String,String>(11);
-        
-        try
-        {
-            Element eSecurityPrincipal = oConfigurationManager.getSection(eConfig, "security_principal");
-            if (eSecurityPrincipal == null)
-            {
-                _logger.error("No 'security_principal' section found in 'resource' configuration");
-                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
-            }
-    
-            String sPrincipal = oConfigurationManager.getParam(eSecurityPrincipal, "dn");
-            if(sPrincipal == null)
-            {
-                _logger.error("No item 'dn' item found in configuration");
-                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
-            }
-    
-            String sPassword = oConfigurationManager.getParam(eSecurityPrincipal, "password");
-            if(sPassword == null)
-            {
-                _logger.error("No 'password' item found in configuration ");
-                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
-            }
-            
-            String sDriver = oConfigurationManager.getParam(eConfig, "driver");
-            if(sDriver == null)
-            {
-                _logger.error("No 'driver' item found in configuration");
-                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
-            }
-            
-            String sUrl = oConfigurationManager.getParam(eConfig, "url");
-            if(sUrl == null)
-            {
-                _logger.error("No valid config item 'url' found in configuration");
-                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
-            }
-            
-            if (sUrl.length() >= 5 && 
-                sUrl.substring(0,5).equalsIgnoreCase("ldaps"))
-            {
-                // Request SSL transport
-                htEnvironment.put(Context.SECURITY_PROTOCOL, "ssl");
-                _logger.info("SSL enabled");
-            }
-            else
-            {
-                _logger.info("SSL disabled");
-            }
-            
-            htEnvironment.put(Context.INITIAL_CONTEXT_FACTORY, sDriver);
-            htEnvironment.put(Context.SECURITY_AUTHENTICATION, "simple");
-            htEnvironment.put(Context.SECURITY_PRINCIPAL, sPrincipal);
-            htEnvironment.put(Context.SECURITY_CREDENTIALS, sPassword);
-            htEnvironment.put(Context.PROVIDER_URL, sUrl);
-        }
-        catch (OAException e)
-        {
-            throw e;
-        }
-        catch (Exception e)
-        {
-            _logger.error("Could not create a connection", e);
-            throw new OAException(SystemErrors.ERROR_INTERNAL);
-        }
-        return htEnvironment;
-    }
-    
     private String getAttributes(DirContext oDirContext, 
         String sMapperAttribute, Name name) 
         throws OAException
@@ -446,6 +352,11 @@ public class JNDIMapper implements IIDMapper
         }
         catch (NamingException e)
         {
+            if (JNDIContextPool.isConnectionFailure(e))
+            {
+                _logger.warn("Connection failed while fetching mapping attribute for id: " + name, e);
+                throw new OAException(SystemErrors.ERROR_RESOURCE_CONNECT);
+            }
             _logger.debug("Failed to fetch mapping attribute for id: " + name);
         }
         catch (Exception e)
@@ -543,6 +454,11 @@ public class JNDIMapper implements IIDMapper
         }
         catch (NamingException e)
         {
+            if (JNDIContextPool.isConnectionFailure(e))
+            {
+                _logger.warn("Connection failed while fetching mapping attribute for id: " + id, e);
+                throw new OAException(SystemErrors.ERROR_RESOURCE_CONNECT);
+            }
             _logger.debug("Failed to fetch mapping attribute for id: " + id, e);
         }
         catch (Exception e)
@@ -0,0 +1,430 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.util.ldap;
+
+import java.util.Hashtable;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.metrics.LatencyHistogram;
+
+/**
+ * Bounded pool of bound JNDI directory contexts.
+ *
+ * All contexts are created with the same environment, so they share one 
+ * bind identity. A context is used by one thread at a time: get it with 
+ * {@link #getContext()} and always return it with 
+ * {@link #releaseContext(DirContext, boolean)}.
+ * 
+ * At most <code>max</code> contexts exist at the same time; a thread that
+ * needs a context when all are in use waits up to <code>max_wait</code> 
+ * milliseconds. Idle contexts are reused most recently used first, contexts
+ * that have been idle longer than <code>max_idle</code> milliseconds are 
+ * closed, as the directory or a firewall may have dropped the connection.
+ * The <code>min</code> most recently used idle contexts are kept open, so 
+ * they can be created in advance with {@link #fill()}.
+ * Callers release a context as not reusable after a connection failure, see
+ * {@link #isConnectionFailure(NamingException)}; all idle contexts are then 
+ * closed as well, as they were most likely connected to the same server.
+ * 
+ * Subclasses can override {@link #createContext()}, e.g. to connect to 
+ * another directory server when the configured one is not available.
+ *
+ * @since 4.0
+ */
+public class JNDIContextPool
+{
+    /** The default maximum number of contexts. */
+    public static final int DEFAULT_MAX_SIZE = 10;
+    /** The default maximum wait for a context in milliseconds. */
+    public static final long DEFAULT_MAX_WAIT = 5000;
+    /** The default maximum idle time of a context in milliseconds. */
+    public static final long DEFAULT_MAX_IDLE = 300000;
+    
+    private static Log _logger = LogFactory.getLog(JNDIContextPool.class);
+    
+    private final Hashtable<String, String> _htEnvironment;
+    private final int _iMinSize;
+    private final int _iMaxSize;
+    private final long _lMaxWait;
+    private final long _lMaxIdle;
+    private final Semaphore _semaphore;
+    private final LinkedBlockingDeque<IdleContext> _dequeIdle;
+    private final LatencyHistogram _histogramWait;
+    private final AtomicLong _lCreated;
+    private final AtomicLong _lReused;
+    private final AtomicLong _lClosed;
+    private final AtomicLong _lTimeouts;
+    private volatile boolean _bClosed;
+    
+    private static class IdleContext
+    {
+        final DirContext _oContext;
+        final long _lReleased;
+        
+        IdleContext(DirContext oContext, long lReleased)
+        {
+            _oContext = oContext;
+            _lReleased = lReleased;
+        }
+    }
+    
+    /**
+     * Create a pool with the default limits.
+     * @param htEnvironment The JNDI environment of the contexts.
+     */
+    public JNDIContextPool(Hashtable<String, String> htEnvironment)
+    {
+        this(htEnvironment, DEFAULT_MAX_SIZE, DEFAULT_MAX_WAIT, DEFAULT_MAX_IDLE);
+    }
+    
+    /**
+     * Create a pool.
+     * @param htEnvironment The JNDI environment of the contexts.
+     * @param iMaxSize The maximum number of contexts.
+     * @param lMaxWait The maximum wait for a context in milliseconds.
+     * @param lMaxIdle The maximum idle time of a context in milliseconds.
+     */
+    public JNDIContextPool(Hashtable<String, String> htEnvironment, 
+        int iMaxSize, long lMaxWait, long lMaxIdle)
+    {
+        this(htEnvironment, 0, iMaxSize, lMaxWait, lMaxIdle);
+    }
+    
+    /**
+     * Create a pool that keeps a minimum number of idle contexts.
+     * @param htEnvironment The JNDI environment of the contexts.
+     * @param iMinSize The number of idle contexts that is kept open.
+     * @param iMaxSize The maximum number of contexts.
+     * @param lMaxWait The maximum wait for a context in milliseconds.
+     * @param lMaxIdle The maximum idle time of a context in milliseconds.
+     */
+    public JNDIContextPool(Hashtable<String, String> htEnvironment, 
+        int iMinSize, int iMaxSize, long lMaxWait, long lMaxIdle)
+    {
+        if (iMinSize > iMaxSize)
+            throw new IllegalArgumentException(
+                "Minimum size is larger than maximum size: " + iMinSize);
+        _htEnvironment = new Hashtable<String, String>(htEnvironment);
+        _iMinSize = iMinSize;
+        _iMaxSize = iMaxSize;
+        _lMaxWait = lMaxWait;
+        _lMaxIdle = lMaxIdle;
+        _semaphore = new Semaphore(iMaxSize, true);
+        _dequeIdle = new LinkedBlockingDeque<IdleContext>();
+        _histogramWait = new LatencyHistogram("JNDI pool wait");
+        _lCreated = new AtomicLong();
+        _lReused = new AtomicLong();
+        _lClosed = new AtomicLong();
+        _lTimeouts = new AtomicLong();
+    }
+    
+    /**
+     * Returns TRUE if the exception means that the connection of the context
+     * can not be used anymore.
+     * @param e The exception.
+     * @return TRUE for communication failures.
+     */
+    public static boolean isConnectionFailure(NamingException e)
+    {
+        return e instanceof CommunicationException 
+            || e instanceof ServiceUnavailableException;
+    }
+    
+    /**
+     * Get an idle context or create a new one.
+     * 
+     * @return A bound context.
+     * @throws ServiceUnavailableException If no context came available in 
+     *  time or the pool is closed.
+     * @throws NamingException If a new context could not be created.
+     */
+    public DirContext getContext() throws NamingException
+    {
+        if (_bClosed)
+            throw new ServiceUnavailableException("JNDI context pool is closed");
+        
+        long lStart = System.currentTimeMillis();
+        boolean bAcquired;
+        try
+        {
+            bAcquired = _semaphore.tryAcquire(_lMaxWait, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException(
+                "Interrupted while waiting for a JNDI context");
+        }
+        long lNow = System.currentTimeMillis();
+        _histogramWait.record(lNow - lStart);
+        if (!bAcquired)
+        {
+            _lTimeouts.incrementAndGet();
+            throw new ServiceUnavailableException(
+                "No JNDI context available within " + _lMaxWait + " ms");
+        }
+        
+        try
+        {
+            evict(lNow);
+            IdleContext idle = _dequeIdle.pollFirst();
+            if (idle != null)
+            {
+                _lReused.incrementAndGet();
+                return idle._oContext;
+            }
+            
+            DirContext oContext = createContext();
+            _lCreated.incrementAndGet();
+            return oContext;
+        }
+        catch (NamingException e)
+        {
+            _semaphore.release();
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            _semaphore.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * Return a context to the pool; must be called once for every context 
+     * that was returned by {@link #getContext()}.
+     * 
+     * @param oContext The context, may be <code>null</code>.
+     * @param bReusable FALSE if the connection failed; the context and all 
+     *  idle contexts are closed.
+     */
+    public void releaseContext(DirContext oContext, boolean bReusable)
+    {
+        if (oContext == null)
+            return;
+        
+        long lNow = System.currentTimeMillis();
+        if (bReusable && !_bClosed)
+            _dequeIdle.offerFirst(new IdleContext(oContext, lNow));
+        else
+        {
+            close(oContext);
+            if (!bReusable)
+            {
+                int iClosed = closeIdle();
+                if (iClosed > 0)
+                    _logger.debug("Closed idle JNDI contexts after a connection failure: " 
+                        + iClosed);
+            }
+        }
+        _semaphore.release();
+        
+        evict(lNow);
+    }
+    
+    /**
+     * Create idle contexts until the pool holds the minimum number of 
+     * contexts.
+     * 
+     * @return The number of created contexts.
+     * @throws NamingException If a context could not be created.
+     */
+    public int fill() throws NamingException
+    {
+        int iCreated = 0;
+        while (!_bClosed && getActiveCount() + getIdleCount() < _iMinSize
+            && _semaphore.tryAcquire())
+        {
+            DirContext oContext = null;
+            try
+            {
+                oContext = createContext();
+                _lCreated.incrementAndGet();
+                iCreated++;
+            }
+            finally
+            {
+                if (oContext != null)
+                    releaseContext(oContext, true);
+                else
+                    _semaphore.release();
+            }
+        }
+        return iCreated;
+    }
+    
+    /**
+     * Close all idle contexts; contexts in use are closed when released.
+     */
+    public void close()
+    {
+        _bClosed = true;
+        closeIdle();
+    }
+    
+    /**
+     * @return The number of idle contexts that is kept open.
+     */
+    public int getMinSize()
+    {
+        return _iMinSize;
+    }
+    
+    /**
+     * @return The maximum number of contexts.
+     */
+    public int getMaxSize()
+    {
+        return _iMaxSize;
+    }
+    
+    /**
+     * @return The number of contexts in use.
+     */
+    public int getActiveCount()
+    {
+        return _iMaxSize - _semaphore.availablePermits();
+    }
+    
+    /**
+     * @return The number of idle contexts.
+     */
+    public int getIdleCount()
+    {
+        return _dequeIdle.size();
+    }
+    
+    /**
+     * @return The number of created contexts.
+     */
+    public long getCreatedCount()
+    {
+        return _lCreated.get();
+    }
+    
+    /**
+     * @return The number of times an idle context was reused.
+     */
+    public long getReusedCount()
+    {
+        return _lReused.get();
+    }
+    
+    /**
+     * @return The number of closed contexts.
+     */
+    public long getClosedCount()
+    {
+        return _lClosed.get();
+    }
+    
+    /**
+     * @return The number of times no context came available in time.
+     */
+    public long getTimeoutCount()
+    {
+        return _lTimeouts.get();
+    }
+    
+    /**
+     * @return The histogram of the time spent waiting for a context.
+     */
+    public LatencyHistogram getWaitHistogram()
+    {
+        return _histogramWait;
+    }
+    
+    /**
+     * @return A description of the pool counters.
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer("active=");
+        sb.append(getActiveCount());
+        sb.append(", idle=").append(getIdleCount());
+        sb.append(", created=").append(_lCreated.get());
+        sb.append(", reused=").append(_lReused.get());
+        sb.append(", closed=").append(_lClosed.get());
+        sb.append(", timeouts=").append(_lTimeouts.get());
+        return sb.toString();
+    }
+    
+    /**
+     * Create a new bound context; called without holding locks.
+     * 
+     * @return The context.
+     * @throws NamingException If the context could not be created.
+     */
+    protected DirContext createContext() throws NamingException
+    {
+        return new InitialDirContext(_htEnvironment);
+    }
+    
+    //Close the least recently used contexts, which are at the end
+    private void evict(long lNow)
+    {
+        IdleContext idle;
+        while (_dequeIdle.size() > _iMinSize 
+            && (idle = _dequeIdle.peekLast()) != null 
+            && lNow - idle._lReleased > _lMaxIdle)
+        {
+            if (_dequeIdle.removeLastOccurrence(idle))
+                close(idle._oContext);
+        }
+    }
+    
+    private int closeIdle()
+    {
+        int iClosed = 0;
+        IdleContext idle;
+        while ((idle = _dequeIdle.pollFirst()) != null)
+        {
+            close(idle._oContext);
+            iClosed++;
+        }
+        return iClosed;
+    }
+    
+    private void close(DirContext oContext)
+    {
+        _lClosed.incrementAndGet();
+        try
+        {
+            oContext.close();
+        }
+        catch (NamingException e)
+        {
+            _logger.debug("Could not close JNDI context", e);
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.util.ldap;
+
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.OAException;
+import com.alfaariss.oa.SystemErrors;
+import com.alfaariss.oa.api.configuration.ConfigurationException;
+import com.alfaariss.oa.api.configuration.IConfigurationManager;
+
+/**
+ * A directory service that is accessed through JNDI.
+ *
+ * Holds the connection settings of one directory and offers two kinds of
+ * contexts:
+ * <ul>
+ *  <li>Pooled contexts that are bound as the configured service principal,
+ *  for searches; see {@link #getContext()}.</li>
+ *  <li>Unpooled contexts that are bound as a user, for password checks;
+ *  see {@link #createContext(String, String)}.</li>
+ * </ul>
+ *
+ * One or more directory servers can be configured. Contexts are created on
+ * the active server; if it can not be reached the next server is tried and
+ * becomes the active one. Configuration:
+ * <br>
+ * <pre>
+ * &lt;directory id="corp"&gt;
+ *  &lt;url&gt;ldap://ldap1.example.com:389&lt;/url&gt;
+ *  &lt;url&gt;ldap://ldap2.example.com:389&lt;/url&gt;
+ *  &lt;driver&gt;com.sun.jndi.ldap.LdapCtxFactory&lt;/driver&gt;
+ *  &lt;connect_timeout&gt;5000&lt;/connect_timeout&gt;
+ *  &lt;security_principal&gt;
+ *   &lt;dn&gt;cn=asimba,dc=example,dc=com&lt;/dn&gt;
+ *   &lt;password&gt;secret&lt;/password&gt;
+ *  &lt;/security_principal&gt;
+ *  &lt;pool min="2" max="10" max_wait="5000" max_idle="300000"/&gt;
+ * &lt;/directory&gt;
+ * </pre>
+ * Without <code>security_principal</code> dn the pooled contexts are bound
+ * anonymously. Directories are shared by id through the
+ * {@link JNDIDirectoryRegistry}.
+ *
+ * @since 4.0
+ */
+public class JNDIDirectory
+{
+    /** The connect timeout property of the Sun LDAP provider. */
+    public static final String PROPERTY_CONNECT_TIMEOUT =
+        "com.sun.jndi.ldap.connect.timeout";
+
+    private static Log _logger = LogFactory.getLog(JNDIDirectory.class);
+
+    private final String _sID;
+    private final String[] _saURLs;
+    private final Hashtable<String, String> _htEnvironment;
+    private final Hashtable<String, String> _htServiceEnvironment;
+    private final String _sPrincipal;
+    private final JNDIContextPool _oPool;
+    private final AtomicLong _lFailovers;
+    private final AtomicLong _lBinds;
+    private volatile int _iActiveURL;
+    //Guarded by the registry
+    int _iReferences;
+
+    /**
+     * Create a directory from its configuration.
+     *
+     * @param sID The directory id, or <code>null</code> for a directory that
+     *  is configured inline in a module.
+     * @param oConfigurationManager The configuration manager.
+     * @param eConfig The directory section.
+     * @throws OAException If the configuration is invalid.
+     */
+    public JNDIDirectory(String sID, IConfigurationManager oConfigurationManager,
+        Element eConfig) throws OAException
+    {
+        _sID = sID;
+        _lFailovers = new AtomicLong();
+        _lBinds = new AtomicLong();
+        try
+        {
+            List<String> listURLs = oConfigurationManager.getParams(eConfig, "url");
+            if (listURLs == null)
+            {
+                _logger.error("No 'url' item found in configuration of directory: " + getName());
+                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+            }
+            _saURLs = listURLs.toArray(new String[listURLs.size()]);
+            for (String sURL : _saURLs)
+            {
+                if (sURL.trim().length() == 0)
+                {
+                    _logger.error("Empty 'url' item found in configuration of directory: " + getName());
+                    throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+                }
+            }
+
+            String sDriver = oConfigurationManager.getParam(eConfig, "driver");
+            if (sDriver == null)
+            {
+                _logger.error("No 'driver' item found in configuration of directory: " + getName());
+                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+            }
+
+            _htEnvironment = new Hashtable<String, String>();
+            _htEnvironment.put(Context.INITIAL_CONTEXT_FACTORY, sDriver);
+            _htEnvironment.put(Context.SECURITY_AUTHENTICATION, "simple");
+
+            String sConnectTimeout = oConfigurationManager.getParam(eConfig, "connect_timeout");
+            if (sConnectTimeout != null)
+            {
+                readNumber(sConnectTimeout, "connect_timeout");
+                _htEnvironment.put(PROPERTY_CONNECT_TIMEOUT, sConnectTimeout);
+            }
+
+            _htServiceEnvironment = new Hashtable<String, String>(_htEnvironment);
+            String sPrincipal = null;
+            Element eSecurityPrincipal = oConfigurationManager.getSection(
+                eConfig, "security_principal");
+            if (eSecurityPrincipal != null)
+            {
+                sPrincipal = oConfigurationManager.getParam(eSecurityPrincipal, "dn");
+                if (sPrincipal != null && sPrincipal.length() == 0)
+                    sPrincipal = null;
+            }
+            
+            if (sPrincipal == null)
+            {
+                _logger.info("No optional 'security_principal' dn found in configuration of directory "
+                    + getName() + ", searching anonymously");
+                _htServiceEnvironment.put(Context.SECURITY_AUTHENTICATION, "none");
+            }
+            else
+            {
+                String sPassword = oConfigurationManager.getParam(eSecurityPrincipal, "password");
+                if (sPassword == null)
+                {
+                    _logger.info("No 'password' item found in 'security_principal' section of directory "
+                        + getName() + ", using default: empty");
+                    sPassword = "";
+                }
+                _htServiceEnvironment.put(Context.SECURITY_PRINCIPAL, sPrincipal);
+                _htServiceEnvironment.put(Context.SECURITY_CREDENTIALS, sPassword);
+            }
+            _sPrincipal = sPrincipal;
+
+            _oPool = createPool(oConfigurationManager, eConfig);
+
+            StringBuffer sbInfo = new StringBuffer("Directory ");
+            sbInfo.append(getName());
+            sbInfo.append(" uses server(s): ");
+            sbInfo.append(listURLs);
+            _logger.info(sbInfo.toString());
+        }
+        catch (OAException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            _logger.fatal("Could not read configuration of directory: " + getName(), e);
+            throw new OAException(SystemErrors.ERROR_INTERNAL);
+        }
+    }
+
+    /**
+     * Create the minimum number of pooled contexts, which also tests the
+     * connection; directories without service principal are not tested.
+     *
+     * @throws OAException If no directory server could be reached.
+     */
+    public void start() throws OAException
+    {
+        if (_sPrincipal == null)
+            return;
+
+        try
+        {
+            if (_oPool.fill() == 0)
+                _oPool.releaseContext(_oPool.getContext(), true);
+        }
+        catch (NamingException e)
+        {
+            _logger.error("Could not connect to directory " + getName(), e);
+            throw new OAException(SystemErrors.ERROR_RESOURCE_CONNECT);
+        }
+    }
+
+    /**
+     * @return The directory id, or <code>null</code> for an inline directory.
+     */
+    public String getID()
+    {
+        return _sID;
+    }
+
+    /**
+     * @return The URL of the active directory server.
+     */
+    public String getURL()
+    {
+        return _saURLs[_iActiveURL];
+    }
+
+    /**
+     * @return The service principal, or <code>null</code> if the pooled
+     *  contexts are bound anonymously.
+     */
+    public String getPrincipal()
+    {
+        return _sPrincipal;
+    }
+
+    /**
+     * @return The pool of service contexts.
+     */
+    public JNDIContextPool getPool()
+    {
+        return _oPool;
+    }
+
+    /**
+     * @return The number of times another server became the active one.
+     */
+    public long getFailoverCount()
+    {
+        return _lFailovers.get();
+    }
+
+    /**
+     * Get a pooled context that is bound as the service principal.
+     *
+     * Always return it with {@link #releaseContext(DirContext, boolean)}.
+     * @return The context.
+     * @throws NamingException If no context is available.
+     * @see JNDIContextPool#getContext()
+     */
+    public DirContext getContext() throws NamingException
+    {
+        return _oPool.getContext();
+    }
+
+    /**
+     * Return a pooled context.
+     *
+     * @param oContext The context, may be <code>null</code>.
+     * @param bReusable FALSE if the connection failed.
+     * @see JNDIContextPool#releaseContext(DirContext, boolean)
+     */
+    public void releaseContext(DirContext oContext, boolean bReusable)
+    {
+        _oPool.releaseContext(oContext, bReusable);
+    }
+
+    /**
+     * Create a new context that is bound as the supplied principal; the
+     * context is not pooled and must be closed by the caller.
+     *
+     * An empty password is rejected, as most directories treat a simple bind
+     * with an empty password as an anonymous bind.
+     *
+     * @param sPrincipal The DN to bind with.
+     * @param sPassword The password.
+     * @return The bound context.
+     * @throws AuthenticationException If the credentials are invalid.
+     * @throws NamingException If no directory server could be reached.
+     */
+    public DirContext createContext(String sPrincipal, String sPassword)
+        throws NamingException
+    {
+        if (sPassword == null || sPassword.length() == 0)
+            throw new AuthenticationException("Empty password for: " + sPrincipal);
+
+        Hashtable<String, String> htEnvironment =
+            new Hashtable<String, String>(_htEnvironment);
+        htEnvironment.put(Context.SECURITY_PRINCIPAL, sPrincipal);
+        htEnvironment.put(Context.SECURITY_CREDENTIALS, sPassword);
+        _lBinds.incrementAndGet();
+        return connect(htEnvironment);
+    }
+
+    /**
+     * Close the pooled contexts and log the pool counters.
+     */
+    public void close()
+    {
+        _logger.info("Closing directory " + getName() + ": " + toString());
+        _oPool.getWaitHistogram().logReport(_logger);
+        _oPool.close();
+    }
+
+    /**
+     * @return A description of the directory counters.
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer("url=");
+        sb.append(getURL());
+        sb.append(", failovers=").append(_lFailovers.get());
+        sb.append(", binds=").append(_lBinds.get());
+        sb.append(", pool: ").append(_oPool);
+        return sb.toString();
+    }
+
+    /**
+     * Create a context on the active server, or on the next server that can
+     * be reached.
+     */
+    private DirContext connect(Hashtable<String, String> htEnvironment)
+        throws NamingException
+    {
+        int iFirst = _iActiveURL;
+        NamingException eLast = null;
+        for (int i = 0; i < _saURLs.length; i++)
+        {
+            int iURL = (iFirst + i) % _saURLs.length;
+            String sURL = _saURLs[iURL];
+            Hashtable<String, String> htURL =
+                new Hashtable<String, String>(htEnvironment);
+            htURL.put(Context.PROVIDER_URL, sURL);
+            if (sURL.length() >= 5 && sURL.substring(0,5).equalsIgnoreCase("ldaps"))
+                htURL.put(Context.SECURITY_PROTOCOL, "ssl");
+
+            try
+            {
+                DirContext oContext = new InitialDirContext(htURL);
+                if (iURL != _iActiveURL)
+                {
+                    _iActiveURL = iURL;
+                    _lFailovers.incrementAndGet();
+                    _logger.warn("Directory " + getName() + " failed over to: " + sURL);
+                }
+                return oContext;
+            }
+            catch (NamingException e)
+            {
+                if (!JNDIContextPool.isConnectionFailure(e))
+                    throw e;
+
+                _logger.warn("Could not connect to directory server: " + sURL, e);
+                eLast = e;
+            }
+        }
+        throw eLast;
+    }
+
+    private JNDIContextPool createPool(IConfigurationManager oConfigurationManager,
+        Element eConfig) throws OAException, ConfigurationException
+    {
+        int iMin = 0;
+        int iMax = JNDIContextPool.DEFAULT_MAX_SIZE;
+        long lMaxWait = JNDIContextPool.DEFAULT_MAX_WAIT;
+        long lMaxIdle = JNDIContextPool.DEFAULT_MAX_IDLE;
+
+        Element ePool = oConfigurationManager.getSection(eConfig, "pool");
+        if (ePool == null)
+            _logger.info("No optional 'pool' section found in configuration, using default pool size: " + iMax);
+        else
+        {
+            String sMin = oConfigurationManager.getParam(ePool, "min");
+            if (sMin != null)
+                iMin = (int)readNumber(sMin, "min");
+            String sMax = oConfigurationManager.getParam(ePool, "max");
+            if (sMax != null)
+                iMax = (int)readNumber(sMax, "max");
+            String sMaxWait = oConfigurationManager.getParam(ePool, "max_wait");
+            if (sMaxWait != null)
+                lMaxWait = readNumber(sMaxWait, "max_wait");
+            String sMaxIdle = oConfigurationManager.getParam(ePool, "max_idle");
+            if (sMaxIdle != null)
+                lMaxIdle = readNumber(sMaxIdle, "max_idle");
+
+            if (iMax == 0 || iMin > iMax)
+            {
+                _logger.error("Invalid 'min' and 'max' items in 'pool' section of directory "
+                    + getName() + ": " + iMin + ", " + iMax);
+                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+            }
+        }
+
+        StringBuffer sbInfo = new StringBuffer("Directory ");
+        sbInfo.append(getName());
+        sbInfo.append(" pools ").append(iMin).append(" to ").append(iMax);
+        sbInfo.append(" connections, max wait ").append(lMaxWait);
+        sbInfo.append(" ms and max idle ").append(lMaxIdle).append(" ms");
+        _logger.info(sbInfo.toString());
+
+        return new JNDIContextPool(_htServiceEnvironment, iMin, iMax, lMaxWait,
+            lMaxIdle)
+        {
+            @Override
+            protected DirContext createContext() throws NamingException
+            {
+                return connect(_htServiceEnvironment);
+            }
+        };
+    }
+
+    //Parse a number that is zero or larger
+    private long readNumber(String sValue, String sName) throws OAException
+    {
+        try
+        {
+            long lValue = Long.parseLong(sValue);
+            if (lValue >= 0)
+                return lValue;
+        }
+        catch (NumberFormatException e)
+        {
+            //handled below
+        }
+        _logger.error("Invalid '" + sName + "' item found in configuration of directory "
+            + getName() + ": " + sValue);
+        throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+    }
+
+    private String getName()
+    {
+        return _sID == null ? "(inline)" : "'" + _sID + "'";
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.util.ldap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.OAException;
+import com.alfaariss.oa.SystemErrors;
+import com.alfaariss.oa.api.configuration.IConfigurationManager;
+
+/**
+ * Engine wide registry of shared {@link JNDIDirectory} instances.
+ *
+ * Shared directories are configured once, in the <code>directories</code>
+ * section directly below the root of the configuration:
+ * <br>
+ * <pre>
+ * &lt;directories&gt;
+ *  &lt;directory id="corp"&gt;...&lt;/directory&gt;
+ * &lt;/directories&gt;
+ * </pre>
+ * A module refers to a shared directory with the <code>directory</code>
+ * item of its <code>resource</code> section, e.g.
+ * <code>&lt;resource directory="corp"&gt;</code>, so all modules that use
+ * the same directory share one connection pool. A resource section without
+ * <code>directory</code> item configures a directory of its own.
+ *
+ * A shared directory is created when it is first requested and closed when
+ * the last module that uses it releases it.
+ *
+ * @since 4.0
+ */
+public class JNDIDirectoryRegistry
+{
+    private static Log _logger = LogFactory.getLog(JNDIDirectoryRegistry.class);
+    private static JNDIDirectoryRegistry _instance;
+
+    private final Map<String, JNDIDirectory> _mapDirectories;
+
+    /**
+     * Returns the shared registry, which is created when needed.
+     * @return The shared registry.
+     */
+    public static synchronized JNDIDirectoryRegistry getInstance()
+    {
+        if (_instance == null)
+            _instance = new JNDIDirectoryRegistry();
+
+        return _instance;
+    }
+
+    /**
+     * Create a new registry.
+     *
+     * Use {@link #getInstance()} instead, unless an isolated registry is
+     * required.
+     */
+    public JNDIDirectoryRegistry()
+    {
+        _mapDirectories = new HashMap<String, JNDIDirectory>();
+    }
+
+    /**
+     * Returns the directory for a resource section of a module.
+     *
+     * Returns the shared directory if the section refers to one, otherwise
+     * creates a directory from the section itself. The directory is started;
+     * it must be released with {@link #release(JNDIDirectory)}.
+     *
+     * @param oConfigurationManager The configuration manager.
+     * @param eResource The resource section.
+     * @return The started directory.
+     * @throws OAException If the directory is not configured correctly or
+     *  can not be reached.
+     */
+    public JNDIDirectory getDirectory(IConfigurationManager oConfigurationManager,
+        Element eResource) throws OAException
+    {
+        String sID = oConfigurationManager.getParam(eResource, "directory");
+        if (sID == null)
+        {
+            JNDIDirectory oDirectory = new JNDIDirectory(null,
+                oConfigurationManager, eResource);
+            oDirectory.start();
+            return oDirectory;
+        }
+        return getDirectory(oConfigurationManager, sID);
+    }
+
+    /**
+     * Returns a shared directory; it must be released with
+     * {@link #release(JNDIDirectory)}.
+     *
+     * @param oConfigurationManager The configuration manager.
+     * @param sID The directory id.
+     * @return The started directory.
+     * @throws OAException If the directory is not configured correctly or
+     *  can not be reached.
+     */
+    public synchronized JNDIDirectory getDirectory(
+        IConfigurationManager oConfigurationManager, String sID)
+        throws OAException
+    {
+        JNDIDirectory oDirectory = _mapDirectories.get(sID);
+        if (oDirectory == null)
+        {
+            Element eDirectories = oConfigurationManager.getSection(null, "directories");
+            if (eDirectories == null)
+            {
+                _logger.error("No 'directories' section found in configuration, directory not available: " + sID);
+                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+            }
+
+            Element eDirectory = oConfigurationManager.getSection(
+                eDirectories, "directory", "id=" + sID);
+            if (eDirectory == null)
+            {
+                _logger.error("No 'directory' section found in 'directories' section with id: " + sID);
+                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+            }
+
+            oDirectory = new JNDIDirectory(sID, oConfigurationManager, eDirectory);
+            oDirectory.start();
+            _mapDirectories.put(sID, oDirectory);
+        }
+        oDirectory._iReferences++;
+        return oDirectory;
+    }
+
+    /**
+     * Release a directory; a directory is closed when it is not used anymore.
+     *
+     * @param oDirectory The directory, may be <code>null</code>.
+     */
+    public synchronized void release(JNDIDirectory oDirectory)
+    {
+        if (oDirectory == null)
+            return;
+
+        String sID = oDirectory.getID();
+        if (sID == null || _mapDirectories.get(sID) != oDirectory)
+        {
+            oDirectory.close();
+            return;
+        }
+
+        oDirectory._iReferences--;
+        if (oDirectory._iReferences <= 0)
+        {
+            _mapDirectories.remove(sID);
+            oDirectory.close();
+        }
+    }
+}
@@ -36,8 +36,10 @@ import com.alfaariss.oa.api.storage.clean.ICleanable;
  * 
  * @author EVB
  * @author Alfa & Ariss
- *
+ * @deprecated Register at the shared 
+ *  {@link org.asimba.utility.storage.clean.CleanerService} instead.
  */
+@Deprecated
 public class Cleaner implements Runnable
 {
     /**
@@ -26,6 +26,8 @@ import java.security.SecureRandom;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.storage.clean.CleanerRegistration;
+import org.asimba.utility.storage.clean.CleanerService;
 import org.w3c.dom.Element;
 
 import com.alfaariss.oa.OAException;
@@ -33,12 +35,17 @@ import com.alfaariss.oa.SystemErrors;
 import com.alfaariss.oa.api.configuration.IConfigurationManager;
 import com.alfaariss.oa.api.storage.IStorageFactory;
 import com.alfaariss.oa.util.storage.StorageException;
-import com.alfaariss.oa.util.storage.clean.Cleaner;
 
 /**
  * Abstract base class for session and TGT factories.
  * 
  * DD The storage factory is implemented conform the AbstractFactory pattern.
+ * 
+ * Expired entities are removed by the shared {@link CleanerService}; 
+ * {@link #createInstance(IConfigurationManager, Element, SecureRandom)} 
+ * registers the factory after starting it, unless cleaning is disabled. 
+ * Implementations that are started otherwise call {@link #startCleaner()} 
+ * from {@link #start()}.
  * @author EVB
  * @author Alfa & Ariss
  *
@@ -57,15 +64,13 @@ public abstract class AbstractStorageFactory implements IStorageFactory
     protected long _lMax;
     /** expire time */
     protected long _lExpiration;
-    /** cleaner thread */
-    protected Thread _tCleaner;
-    /** cleaner */
-    protected Cleaner _oCleaner;
     
     /** system logger */
     private static Log _logger = LogFactory.getLog(
         AbstractStorageFactory.class);
     private long _lInterval;   
+    private long _lBudget;
+    private volatile CleanerRegistration _oCleanerRegistration;
         
     /**
      * Constructor.
@@ -127,17 +132,6 @@ public abstract class AbstractStorageFactory implements IStorageFactory
             else
             {
                 factory._lInterval *= 1000;
-                //Create cleaner
-                factory._oCleaner = new Cleaner(factory._lInterval, factory, _logger);
-                
-                factory._tCleaner = new Thread(factory._oCleaner);
-                
-                String sOrigName = factory._tCleaner.getName();
-                StringBuffer sbName = new StringBuffer(factory.getClass().getName());
-                sbName.append("(");
-                sbName.append(sOrigName);
-                sbName.append(")");
-                factory._tCleaner.setName(sbName.toString());
             }
         }  
         catch(NumberFormatException e)
@@ -146,6 +140,32 @@ public abstract class AbstractStorageFactory implements IStorageFactory
             throw new StorageException(SystemErrors.ERROR_CONFIG_READ);
         }
         
+        //Get cleaner budget (milliseconds)
+        String sBudget = oConfigurationManager.getParam(eConfig, "budget");
+        if (sBudget == null)
+        {
+            factory._lBudget = factory._lInterval / 10;
+            _logger.info("No optional 'budget' item found in configuration, using (ms): " 
+                + factory._lBudget);
+        }
+        else
+        {
+            try
+            {
+                factory._lBudget = Long.parseLong(sBudget);
+                if (factory._lBudget < 0)
+                {
+                    _logger.error("Budget less then zero: " + sBudget);
+                    throw new StorageException(SystemErrors.ERROR_CONFIG_READ); 
+                }
+            }  
+            catch(NumberFormatException e)
+            {
+                _logger.error("Invalid 'budget' configuration: " + sBudget, e);
+                throw new StorageException(SystemErrors.ERROR_CONFIG_READ, e);
+            }
+        }
+        
         //get expiration timeout
         String sExpiration = oConfigurationManager.getParam(eConfig, "expire");
         if (sExpiration == null)
@@ -195,6 +215,7 @@ public abstract class AbstractStorageFactory implements IStorageFactory
             factory._lMax = -1;
         }
         factory.start();
+        factory.startCleaner();
         return factory;
     }
     
@@ -203,11 +224,107 @@ public abstract class AbstractStorageFactory implements IStorageFactory
      */
     public void stop()
     {
-        if (_oCleaner != null)
-            _oCleaner.stop();
-        
-        if (_tCleaner != null)
-            _tCleaner.interrupt();              
+        if (_oCleanerRegistration != null)
+        {
+            _oCleanerRegistration.cancel();
+            _oCleanerRegistration = null;
+        }
+    }
+    
+    /**
+     * Register this factory at the shared {@link CleanerService}, unless 
+     * cleaning is disabled or the factory is already registered.
+     * @since 4.0
+     */
+    protected void startCleaner()
+    {
+        if (_lInterval > 0 && _oCleanerRegistration == null)
+        {
+            _oCleanerRegistration = CleanerService.registerShared(
+                this, getClass().getName(), _lInterval, _lBudget);
+        }
+    }
+    
+    /**
+     * Returns the cleaner registration, which holds the sweep statistics.
+     * @return The registration or <code>null</code> if not registered.
+     * @since 4.0
+     */
+    protected CleanerRegistration getCleanerRegistration()
+    {
+        return _oCleanerRegistration;
+    }
+    
+    /**
+     * @return The number of performed sweeps, <code>0</code> if cleaning is
+     *  disabled.
+     * @since 4.0
+     */
+    public long getSweepCount()
+    {
+        CleanerRegistration registration = _oCleanerRegistration;
+        return registration == null ? 0 : registration.getSweepCount();
+    }
+    
+    /**
+     * @return The number of sweeps that ran out of budget.
+     * @since 4.0
+     */
+    public long getIncompleteSweepCount()
+    {
+        CleanerRegistration registration = _oCleanerRegistration;
+        return registration == null ? 0 : registration.getIncompleteCount();
+    }
+    
+    /**
+     * @return The number of sweeps that took longer than allowed.
+     * @since 4.0
+     */
+    public long getSweepOverrunCount()
+    {
+        CleanerRegistration registration = _oCleanerRegistration;
+        return registration == null ? 0 : registration.getOverrunCount();
+    }
+    
+    /**
+     * @return The number of failed sweeps.
+     * @since 4.0
+     */
+    public long getSweepFailureCount()
+    {
+        CleanerRegistration registration = _oCleanerRegistration;
+        return registration == null ? 0 : registration.getFailureCount();
+    }
+    
+    /**
+     * @return The number of expired entities removed by the cleaner, as far 
+     *  as reported by the implementation.
+     * @since 4.0
+     */
+    public long getSweepRemovedCount()
+    {
+        CleanerRegistration registration = _oCleanerRegistration;
+        return registration == null ? 0 : registration.getRemovedCount();
+    }
+    
+    /**
+     * @return The duration of the last sweep in milliseconds.
+     * @since 4.0
+     */
+    public long getLastSweepDuration()
+    {
+        CleanerRegistration registration = _oCleanerRegistration;
+        return registration == null ? 0 : registration.getLastDuration();
+    }
+    
+    /**
+     * @return The longest sweep duration in milliseconds.
+     * @since 4.0
+     */
+    public long getMaxSweepDuration()
+    {
+        CleanerRegistration registration = _oCleanerRegistration;
+        return registration == null ? 0 : registration.getMaxDuration();
     }
     
     //  Load the factory class
@@ -0,0 +1,289 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.attributes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Matches attribute names against release policy expressions.
+ *
+ * The expressions are compiled once into an exact name set, a prefix trie 
+ * for <code>[name]*</code>, a trie of reversed suffixes for 
+ * <code>*[name]</code> and an Aho-Corasick automaton for 
+ * <code>*[name]*</code>, so a name is matched in one pass over its 
+ * characters per expression type regardless of the number of expressions.
+ * A single <code>*</code> matches all names. An expression with a wildcard 
+ * at another position only matches the literal name.
+ *
+ * The released names are cached per set of offered names, as users of the
+ * same requestor mostly offer the same set of attributes.
+ *
+ * @since 4.0
+ */
+public class AttributeNameMatcher
+{
+    /** The default maximum number of cached name sets. */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+    
+    private final Set<String> _setExact;
+    private final Node _nodePrefixes;
+    private final Node _nodeSuffixes;
+    private final Node _nodeContains;
+    private final boolean _bMatchAll;
+    private final int _iCacheSize;
+    private final ConcurrentMap<Set<String>, Set<String>> _mapReleased;
+    
+    /** Trie node, also used as state of the contains automaton. */
+    private static class Node
+    {
+        final Map<Character, Node> _mapChildren = new HashMap<Character, Node>(4);
+        Node _nodeFailure;
+        boolean _bTerminal;
+    }
+    
+    /**
+     * Compile the expressions with the default cache size.
+     * @param cExpressions The release expressions.
+     */
+    public AttributeNameMatcher(Collection<String> cExpressions)
+    {
+        this(cExpressions, DEFAULT_CACHE_SIZE);
+    }
+    
+    /**
+     * Compile the expressions.
+     * @param cExpressions The release expressions.
+     * @param iCacheSize The maximum number of cached name sets, 0 disables 
+     *  caching.
+     */
+    public AttributeNameMatcher(Collection<String> cExpressions, int iCacheSize)
+    {
+        _setExact = new HashSet<String>();
+        _nodePrefixes = new Node();
+        _nodeSuffixes = new Node();
+        _nodeContains = new Node();
+        _iCacheSize = iCacheSize;
+        _mapReleased = new ConcurrentHashMap<Set<String>, Set<String>>();
+        
+        boolean bMatchAll = false;
+        List<String> listContains = new ArrayList<String>();
+        for (String sExpression : cExpressions)
+        {
+            _setExact.add(sExpression);
+            
+            int iWildcard = sExpression.indexOf('*');
+            if (iWildcard == 0)
+            {
+                String sEnd = sExpression.substring(1);
+                if (sEnd.length() == 0) //support: *
+                    bMatchAll = true;
+                else 
+                {
+                    //support: *[name]
+                    add(_nodeSuffixes, new StringBuilder(sEnd).reverse());
+                    if (sEnd.endsWith("*"))
+                    {
+                        //support: *[name]*
+                        String sIntermediate = sEnd.substring(0, sEnd.length() - 1);
+                        if (sIntermediate.length() == 0)
+                            bMatchAll = true;
+                        else
+                            listContains.add(sIntermediate);
+                    }
+                }
+            }
+            else if (iWildcard > 0 && iWildcard == sExpression.length() - 1)
+            {
+                //support: [name]*
+                add(_nodePrefixes, sExpression.substring(0, iWildcard));
+            }
+        }
+        _bMatchAll = bMatchAll;
+        
+        for (String sIntermediate : listContains)
+            add(_nodeContains, sIntermediate);
+        link(_nodeContains);
+    }
+    
+    /**
+     * Returns TRUE if the name matches one of the expressions.
+     * @param sName The attribute name.
+     * @return TRUE if the attribute may be released.
+     */
+    public boolean matches(String sName)
+    {
+        if (_bMatchAll || _setExact.contains(sName))
+            return true;
+        
+        return matchesPrefix(sName) || matchesSuffix(sName) 
+            || matchesContains(sName);
+    }
+    
+    /**
+     * Returns the names that match the expressions.
+     * 
+     * The result is cached with the supplied set as key, so the set must 
+     * not be modified afterwards.
+     * @param setNames The offered attribute names.
+     * @return An unmodifiable set with the names that may be released.
+     */
+    public Set<String> getReleased(Set<String> setNames)
+    {
+        Set<String> setReleased = _mapReleased.get(setNames);
+        if (setReleased == null)
+        {
+            Set<String> setMatched = new HashSet<String>();
+            for (String sName : setNames)
+            {
+                if (matches(sName))
+                    setMatched.add(sName);
+            }
+            setReleased = Collections.unmodifiableSet(setMatched);
+            
+            if (_iCacheSize > 0)
+            {
+                if (_mapReleased.size() >= _iCacheSize)
+                    _mapReleased.clear();
+                _mapReleased.put(setNames, setReleased);
+            }
+        }
+        return setReleased;
+    }
+    
+    /**
+     * @return The number of cached name sets.
+     */
+    public int getCacheSize()
+    {
+        return _mapReleased.size();
+    }
+    
+    private boolean matchesPrefix(String sName)
+    {
+        Node node = _nodePrefixes;
+        for (int i = 0; i < sName.length(); i++)
+        {
+            node = node._mapChildren.get(sName.charAt(i));
+            if (node == null)
+                return false;
+            if (node._bTerminal)
+                return true;
+        }
+        return false;
+    }
+    
+    private boolean matchesSuffix(String sName)
+    {
+        Node node = _nodeSuffixes;
+        for (int i = sName.length() - 1; i >= 0; i--)
+        {
+            node = node._mapChildren.get(sName.charAt(i));
+            if (node == null)
+                return false;
+            if (node._bTerminal)
+                return true;
+        }
+        return false;
+    }
+    
+    private boolean matchesContains(String sName)
+    {
+        if (_nodeContains._mapChildren.isEmpty())
+            return false;
+        
+        Node node = _nodeContains;
+        for (int i = 0; i < sName.length(); i++)
+        {
+            Character c = sName.charAt(i);
+            Node next = node._mapChildren.get(c);
+            while (next == null && node != _nodeContains)
+            {
+                node = node._nodeFailure;
+                next = node._mapChildren.get(c);
+            }
+            if (next != null)
+                node = next;
+            if (node._bTerminal)
+                return true;
+        }
+        return false;
+    }
+    
+    //Add a word to a trie
+    private static void add(Node root, CharSequence csWord)
+    {
+        Node node = root;
+        for (int i = 0; i < csWord.length(); i++)
+        {
+            Character c = csWord.charAt(i);
+            Node child = node._mapChildren.get(c);
+            if (child == null)
+            {
+                child = new Node();
+                node._mapChildren.put(c, child);
+            }
+            node = child;
+        }
+        node._bTerminal = true;
+    }
+    
+    //Add the failure links of the Aho-Corasick automaton, breadth first
+    private static void link(Node root)
+    {
+        Queue<Node> queue = new LinkedList<Node>();
+        for (Node child : root._mapChildren.values())
+        {
+            child._nodeFailure = root;
+            queue.add(child);
+        }
+        
+        while (!queue.isEmpty())
+        {
+            Node node = queue.remove();
+            for (Map.Entry<Character, Node> entry : node._mapChildren.entrySet())
+            {
+                Character c = entry.getKey();
+                Node child = entry.getValue();
+                
+                Node failure = node._nodeFailure;
+                while (failure != root && !failure._mapChildren.containsKey(c))
+                    failure = failure._nodeFailure;
+                Node target = failure._mapChildren.get(c);
+                child._nodeFailure = target != null && target != child ? target : root;
+                //A word that ends in the failure state also ends here
+                child._bTerminal |= child._nodeFailure._bTerminal;
+                queue.add(child);
+            }
+        }
+    }
+}
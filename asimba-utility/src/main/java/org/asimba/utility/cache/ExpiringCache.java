@@ -0,0 +1,260 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded cache with a time to live per entry.
+ *
+ * Entries are kept in access order; when the cache is full the least 
+ * recently used entry is evicted. Expired entries are removed when they are
+ * read. A miss can be cached as well by storing a value that means 
+ * 'not found', usually with a shorter time to live.
+ *
+ * All methods are thread safe; the cache is guarded by one lock that is 
+ * only held for the map operation itself.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ * @since 4.0
+ */
+public class ExpiringCache<K, V>
+{
+    private final String _sName;
+    private final int _iMaxSize;
+    private final long _lTTL;
+    private final LinkedHashMap<K, CacheEntry<V>> _mapEntries;
+    private final AtomicLong _lHits;
+    private final AtomicLong _lMisses;
+    private final AtomicLong _lExpired;
+    private final AtomicLong _lEvicted;
+    
+    private static class CacheEntry<V>
+    {
+        final V _value;
+        final long _lExpiration;
+        
+        CacheEntry(V value, long lExpiration)
+        {
+            _value = value;
+            _lExpiration = lExpiration;
+        }
+    }
+    
+    /**
+     * Create a cache.
+     * @param sName The name that is used in reports.
+     * @param iMaxSize The maximum number of entries.
+     * @param lTTL The default time to live of an entry in milliseconds.
+     */
+    public ExpiringCache(String sName, int iMaxSize, long lTTL)
+    {
+        _sName = sName;
+        _iMaxSize = iMaxSize;
+        _lTTL = lTTL;
+        _lHits = new AtomicLong();
+        _lMisses = new AtomicLong();
+        _lExpired = new AtomicLong();
+        _lEvicted = new AtomicLong();
+        _mapEntries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) 
+        {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest)
+            {
+                if (size() > _iMaxSize)
+                {
+                    _lEvicted.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    
+    /**
+     * Returns the cached value.
+     * @param key The key.
+     * @return The value or <code>null</code> if not cached or expired.
+     */
+    public V get(K key)
+    {
+        CacheEntry<V> entry;
+        synchronized (_mapEntries)
+        {
+            entry = _mapEntries.get(key);
+            if (entry != null && entry._lExpiration <= System.currentTimeMillis())
+            {
+                _mapEntries.remove(key);
+                _lExpired.incrementAndGet();
+                entry = null;
+            }
+        }
+        
+        if (entry == null)
+        {
+            _lMisses.incrementAndGet();
+            return null;
+        }
+        _lHits.incrementAndGet();
+        return entry._value;
+    }
+    
+    /**
+     * Cache a value with the default time to live.
+     * @param key The key.
+     * @param value The value, not <code>null</code>.
+     */
+    public void put(K key, V value)
+    {
+        put(key, value, _lTTL);
+    }
+    
+    /**
+     * Cache a value.
+     * @param key The key.
+     * @param value The value, not <code>null</code>.
+     * @param lTTL The time to live in milliseconds.
+     */
+    public void put(K key, V value, long lTTL)
+    {
+        if (value == null)
+            throw new IllegalArgumentException("Value can not be null");
+        if (lTTL <= 0)
+            return;
+        
+        CacheEntry<V> entry = new CacheEntry<V>(value, System.currentTimeMillis() + lTTL);
+        synchronized (_mapEntries)
+        {
+            _mapEntries.put(key, entry);
+        }
+    }
+    
+    /**
+     * Remove a cached value.
+     * @param key The key.
+     */
+    public void remove(K key)
+    {
+        synchronized (_mapEntries)
+        {
+            _mapEntries.remove(key);
+        }
+    }
+    
+    /**
+     * Remove all cached values.
+     */
+    public void clear()
+    {
+        synchronized (_mapEntries)
+        {
+            _mapEntries.clear();
+        }
+    }
+    
+    /**
+     * Remove all expired values.
+     * @return The number of removed values.
+     */
+    public int removeExpired()
+    {
+        int iRemoved = 0;
+        long lNow = System.currentTimeMillis();
+        synchronized (_mapEntries)
+        {
+            Iterator<CacheEntry<V>> iter = _mapEntries.values().iterator();
+            while (iter.hasNext())
+            {
+                if (iter.next()._lExpiration <= lNow)
+                {
+                    iter.remove();
+                    iRemoved++;
+                }
+            }
+        }
+        _lExpired.addAndGet(iRemoved);
+        return iRemoved;
+    }
+    
+    /**
+     * @return The number of cached values, including expired ones.
+     */
+    public int size()
+    {
+        synchronized (_mapEntries)
+        {
+            return _mapEntries.size();
+        }
+    }
+    
+    /**
+     * @return The number of reads that returned a cached value.
+     */
+    public long getHits()
+    {
+        return _lHits.get();
+    }
+    
+    /**
+     * @return The number of reads that found no valid value.
+     */
+    public long getMisses()
+    {
+        return _lMisses.get();
+    }
+    
+    /**
+     * @return The number of values that were removed because they expired.
+     */
+    public long getExpiredCount()
+    {
+        return _lExpired.get();
+    }
+    
+    /**
+     * @return The number of values that were evicted because the cache was full.
+     */
+    public long getEvictedCount()
+    {
+        return _lEvicted.get();
+    }
+    
+    /**
+     * @return A description of the cache counters.
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer(_sName);
+        sb.append(": size=").append(size());
+        sb.append(", hits=").append(_lHits.get());
+        sb.append(", misses=").append(_lMisses.get());
+        sb.append(", expired=").append(_lExpired.get());
+        sb.append(", evicted=").append(_lEvicted.get());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.OAException;
+import com.alfaariss.oa.SystemErrors;
+import com.alfaariss.oa.api.configuration.IConfigurationManager;
+
+/**
+ * Read-through cache for definitions that are read from a database, e.g.
+ * authentication profiles or attribute release policies.
+ *
+ * A caller first tries {@link #get(Object)}; on a miss it reads the
+ * generation, loads the definition and offers it with
+ * {@link #put(Object, Object, long)}. {@link #invalidate()} increments the
+ * generation, so a definition that was being loaded while the cache was
+ * invalidated is not cached.
+ *
+ * Items expire after a time to live. When a version query is configured, it
+ * is run every check interval; the cache is invalidated when its result
+ * changes. The query must return one row, e.g.
+ * <code>SELECT MAX(date_last_modified) FROM table</code>.
+ *
+ * Configuration, all items optional:
+ * <pre>
+ * &lt;cache enabled="true" ttl="600000" max_size="1000"
+ *  check_interval="60000" version_query="SELECT ..."/&gt;
+ * </pre>
+ * The cache is disabled when the section is missing; a disabled cache
+ * never returns or stores anything.
+ *
+ * @param <K> The key type.
+ * @param <V> The definition type.
+ * @since 4.0
+ */
+public class VersionedCache<K, V>
+{
+    /** Default time to live of cached items in ms */
+    public final static long DEFAULT_TTL = 600000;
+    /** Default maximum number of cached items */
+    public final static int DEFAULT_MAX_SIZE = 1000;
+    /** Default interval between two version checks in ms */
+    public final static long DEFAULT_CHECK_INTERVAL = 60000;
+
+    private static Log _logger = LogFactory.getLog(VersionedCache.class);
+
+    private final String _sName;
+    private final AtomicLong _lGeneration;
+    private volatile ExpiringCache<K, V> _cache;
+    private long _lTTL;
+    private DataSource _oDataSource;
+    private String _sVersionQuery;
+    private String _sVersion;
+    private ScheduledExecutorService _checker;
+
+    /**
+     * Create a disabled cache.
+     * @param sName The name of the cache, used for logging.
+     */
+    public VersionedCache(String sName)
+    {
+        _sName = sName;
+        _lGeneration = new AtomicLong();
+    }
+
+    /**
+     * Read the configuration and enable the cache if configured.
+     *
+     * @param oConfigurationManager The configuration manager.
+     * @param eCache The <code>cache</code> section, may be <code>null</code>.
+     * @param oDataSource The datasource for the version query.
+     * @throws OAException If the configuration is invalid.
+     */
+    public synchronized void start(IConfigurationManager oConfigurationManager,
+        Element eCache, DataSource oDataSource) throws OAException
+    {
+        stop();
+        if (eCache == null)
+        {
+            _logger.info("No optional 'cache' section found in configuration, " + _sName + " cache disabled");
+            return;
+        }
+
+        String sEnabled = oConfigurationManager.getParam(eCache, "enabled");
+        if (sEnabled != null)
+        {
+            if (sEnabled.equalsIgnoreCase("FALSE"))
+            {
+                _logger.info(_sName + " cache disabled");
+                return;
+            }
+            else if (!sEnabled.equalsIgnoreCase("TRUE"))
+            {
+                _logger.error("Unknown value in 'cache@enabled' configuration item: " + sEnabled);
+                throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+            }
+        }
+
+        _lTTL = readNumber(oConfigurationManager, eCache, "ttl", DEFAULT_TTL);
+        long lMaxSize = readNumber(oConfigurationManager, eCache, "max_size",
+            DEFAULT_MAX_SIZE);
+        if (_lTTL == 0 || lMaxSize == 0 || lMaxSize > Integer.MAX_VALUE)
+        {
+            _logger.error("Invalid 'cache@ttl' or 'cache@max_size' configuration item for " + _sName + " cache");
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        long lCheckInterval = readNumber(oConfigurationManager, eCache,
+            "check_interval", DEFAULT_CHECK_INTERVAL);
+
+        _cache = new ExpiringCache<K, V>(_sName, (int)lMaxSize, _lTTL);
+        _logger.info(_sName + " cache enabled, items expire after " + _lTTL + " ms");
+
+        _sVersionQuery = oConfigurationManager.getParam(eCache, "version_query");
+        if (_sVersionQuery == null || lCheckInterval == 0)
+        {
+            _logger.info("No 'cache@version_query' configured, " + _sName + " cache is not checked for changes");
+            return;
+        }
+
+        _oDataSource = oDataSource;
+        try
+        {
+            _sVersion = readVersion();
+        }
+        catch (SQLException e)
+        {
+            _logger.error("Could not run 'cache@version_query': " + _sVersionQuery, e);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+
+        _checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, _sName + " cache check");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        _checker.scheduleWithFixedDelay(new Runnable() {
+            public void run()
+            {
+                checkVersion();
+            }
+        }, lCheckInterval, lCheckInterval, TimeUnit.MILLISECONDS);
+        _logger.info(_sName + " cache is checked for changes every " + lCheckInterval + " ms");
+    }
+
+    /**
+     * Disable the cache and log its statistics.
+     */
+    public synchronized void stop()
+    {
+        if (_checker != null)
+        {
+            _checker.shutdownNow();
+            _checker = null;
+        }
+        if (_cache != null)
+        {
+            _logger.info(_cache);
+            _cache = null;
+        }
+        _lGeneration.incrementAndGet();
+        _oDataSource = null;
+        _sVersionQuery = null;
+        _sVersion = null;
+    }
+
+    /**
+     * @return <code>true</code> if the cache is enabled.
+     */
+    public boolean isEnabled()
+    {
+        return _cache != null;
+    }
+
+    /**
+     * Returns a cached item.
+     * @param key The key.
+     * @return The item or <code>null</code> if not cached.
+     */
+    public V get(K key)
+    {
+        ExpiringCache<K, V> cache = _cache;
+        if (cache == null)
+            return null;
+        return cache.get(key);
+    }
+
+    /**
+     * Returns the generation, to be read before an item is loaded.
+     * @return The current generation.
+     */
+    public long getGeneration()
+    {
+        return _lGeneration.get();
+    }
+
+    /**
+     * Cache a loaded item, unless the cache was invalidated while it was
+     * loaded.
+     *
+     * @param key The key.
+     * @param value The item, <code>null</code> is not cached.
+     * @param lGeneration The generation from before the item was loaded.
+     */
+    public void put(K key, V value, long lGeneration)
+    {
+        ExpiringCache<K, V> cache = _cache;
+        if (cache == null || value == null)
+            return;
+        if (lGeneration == _lGeneration.get())
+            cache.put(key, value, _lTTL);
+    }
+
+    /**
+     * Remove all cached items.
+     */
+    public void invalidate()
+    {
+        _lGeneration.incrementAndGet();
+        ExpiringCache<K, V> cache = _cache;
+        if (cache != null)
+            cache.clear();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        ExpiringCache<K, V> cache = _cache;
+        if (cache == null)
+            return _sName + " cache: disabled";
+        return cache.toString();
+    }
+
+    private void checkVersion()
+    {
+        try
+        {
+            String sVersion = readVersion();
+            if (!sVersion.equals(_sVersion))
+            {
+                invalidate();
+                _sVersion = sVersion;
+                _logger.info(_sName + " changed, cache cleared");
+            }
+        }
+        catch (Exception e)
+        {
+            //Keep the cached items, they expire anyway
+            _logger.error("Could not check " + _sName + " version", e);
+        }
+    }
+
+    private String readVersion() throws SQLException
+    {
+        StringBuffer sbVersion = new StringBuffer();
+        Connection oConnection = _oDataSource.getConnection();
+        PreparedStatement oStatement = null;
+        ResultSet oResultSet = null;
+        try
+        {
+            oStatement = oConnection.prepareStatement(_sVersionQuery);
+            oResultSet = oStatement.executeQuery();
+            if (oResultSet.next())
+            {
+                int iColumns = oResultSet.getMetaData().getColumnCount();
+                for (int i = 1; i <= iColumns; i++)
+                {
+                    if (i > 1)
+                        sbVersion.append(",");
+                    sbVersion.append(oResultSet.getString(i));
+                }
+            }
+        }
+        finally
+        {
+            try
+            {
+                if (oResultSet != null)
+                    oResultSet.close();
+                if (oStatement != null)
+                    oStatement.close();
+                oConnection.close();
+            }
+            catch (SQLException e)
+            {
+                _logger.error("Could not close connection", e);
+            }
+        }
+        return sbVersion.toString();
+    }
+
+    private long readNumber(IConfigurationManager oConfigurationManager,
+        Element eCache, String sName, long lDefault) throws OAException
+    {
+        String sValue = oConfigurationManager.getParam(eCache, sName);
+        if (sValue == null)
+        {
+            _logger.info("No optional 'cache@" + sName + "' item found in configuration, using default: " + lDefault);
+            return lDefault;
+        }
+
+        long lValue = -1;
+        try
+        {
+            lValue = Long.parseLong(sValue);
+        }
+        catch (NumberFormatException e)
+        {
+            //invalid value, handled below
+        }
+        if (lValue < 0)
+        {
+            _logger.error("Invalid 'cache@" + sName + "' item found in configuration: " + sValue);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        return lValue;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Thread safe histogram of durations in milliseconds.
+ *
+ * Durations are counted in fixed buckets, every bucket counts the durations
+ * up to and including its upper bound; the last bucket counts all longer
+ * durations. Recording is lock free, so the histogram can be updated from
+ * request threads.
+ *
+ * @since 4.0
+ */
+public class LatencyHistogram
+{
+    /** The default upper bounds of the buckets in milliseconds. */
+    public static final long[] DEFAULT_BOUNDS = {
+        0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private final String _sName;
+    private final long[] _laBounds;
+    private final AtomicLongArray _counts;
+    private final AtomicLong _lTotal;
+    private final AtomicLong _lMax;
+
+    /**
+     * Create a histogram with the default buckets.
+     * @param sName The name that is used in reports.
+     */
+    public LatencyHistogram(String sName)
+    {
+        this(sName, DEFAULT_BOUNDS);
+    }
+
+    /**
+     * Create a histogram.
+     * @param sName The name that is used in reports.
+     * @param laBounds The ascending upper bounds of the buckets.
+     */
+    public LatencyHistogram(String sName, long[] laBounds)
+    {
+        _sName = sName;
+        _laBounds = laBounds.clone();
+        _counts = new AtomicLongArray(_laBounds.length + 1);
+        _lTotal = new AtomicLong();
+        _lMax = new AtomicLong();
+    }
+
+    /**
+     * Record a duration.
+     * @param lMillis The duration in milliseconds.
+     */
+    public void record(long lMillis)
+    {
+        int i = 0;
+        while (i < _laBounds.length && lMillis > _laBounds[i])
+            i++;
+        _counts.incrementAndGet(i);
+        _lTotal.addAndGet(lMillis);
+
+        long lMax = _lMax.get();
+        while (lMillis > lMax && !_lMax.compareAndSet(lMax, lMillis))
+            lMax = _lMax.get();
+    }
+
+    /**
+     * @return The name of the histogram.
+     */
+    public String getName()
+    {
+        return _sName;
+    }
+
+    /**
+     * @return The upper bounds of the buckets; the last count has no bound.
+     */
+    public long[] getBounds()
+    {
+        return _laBounds.clone();
+    }
+
+    /**
+     * @return A copy of the counts per bucket.
+     */
+    public long[] getCounts()
+    {
+        long[] laCounts = new long[_counts.length()];
+        for (int i = 0; i < laCounts.length; i++)
+            laCounts[i] = _counts.get(i);
+        return laCounts;
+    }
+
+    /**
+     * @return The number of recorded durations.
+     */
+    public long getCount()
+    {
+        long lCount = 0;
+        for (int i = 0; i < _counts.length(); i++)
+            lCount += _counts.get(i);
+        return lCount;
+    }
+
+    /**
+     * @return The sum of the recorded durations in milliseconds.
+     */
+    public long getTotal()
+    {
+        return _lTotal.get();
+    }
+
+    /**
+     * @return The longest recorded duration in milliseconds.
+     */
+    public long getMax()
+    {
+        return _lMax.get();
+    }
+
+    /**
+     * Returns an approximation of a percentile: the upper bound of the bucket
+     * that contains it.
+     *
+     * @param dPercentile The percentile, between 0 and 100.
+     * @return The upper bound in milliseconds, the maximum duration for the
+     *  last bucket or 0 if nothing was recorded.
+     */
+    public long getPercentile(double dPercentile)
+    {
+        long[] laCounts = getCounts();
+        long lCount = 0;
+        for (long l : laCounts)
+            lCount += l;
+        if (lCount == 0)
+            return 0;
+
+        long lThreshold = (long)Math.ceil(lCount * dPercentile / 100);
+        long lSeen = 0;
+        for (int i = 0; i < _laBounds.length; i++)
+        {
+            lSeen += laCounts[i];
+            if (lSeen >= lThreshold)
+                return _laBounds[i];
+        }
+        return getMax();
+    }
+
+    /**
+     * Write the non empty buckets to a logger at info level.
+     * @param logger The logger.
+     */
+    public void logReport(Log logger)
+    {
+        long[] laCounts = getCounts();
+        StringBuffer sbReport = new StringBuffer(_sName);
+        sbReport.append(": count=").append(getCount());
+        sbReport.append(", total=").append(getTotal()).append(" ms");
+        sbReport.append(", max=").append(getMax()).append(" ms");
+        logger.info(sbReport.toString());
+        for (int i = 0; i < laCounts.length; i++)
+        {
+            if (laCounts[i] > 0)
+            {
+                String sBucket = i < _laBounds.length
+                    ? "<= " + _laBounds[i] + " ms"
+                    : "> " + _laBounds[_laBounds.length - 1] + " ms";
+                logger.info("  " + sBucket + ": " + laCounts[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Expiry ordered secondary index for in-memory storage.
+ *
+ * Keeps the keys of a store ordered by their expiration time, so a cleaner 
+ * only visits expired entries instead of scanning the whole store. All 
+ * operations are lock free; scheduling and removing a key are 
+ * <code>O(log n)</code>, polling is <code>O(expired)</code>.
+ *
+ * The index only tracks scheduled times. A store must verify the actual 
+ * expiration time of a polled entry, because it may have been extended after
+ * it was polled; such entries must be scheduled again.
+ *
+ * @param <K> The key type.
+ * @since 4.0
+ */
+public class ExpiryIndex<K>
+{
+    private final ConcurrentSkipListSet<Slot<K>> _setSlots;
+    private final ConcurrentMap<K, Slot<K>> _mapSlots;
+    private final AtomicLong _lSequence;
+
+    /**
+     * Create a new, empty, index.
+     */
+    public ExpiryIndex()
+    {
+        _setSlots = new ConcurrentSkipListSet<Slot<K>>();
+        _mapSlots = new ConcurrentHashMap<K, Slot<K>>();
+        _lSequence = new AtomicLong();
+    }
+
+    /**
+     * Schedule (or re-schedule) the expiration of a key.
+     *
+     * @param key The key.
+     * @param lExpireTime The expiration time in milliseconds since the epoch.
+     */
+    public void schedule(K key, long lExpireTime)
+    {
+        Slot<K> slot = new Slot<K>(key, lExpireTime, 
+            _lSequence.incrementAndGet());
+        Slot<K> oldSlot = _mapSlots.put(key, slot);
+        if (oldSlot != null)
+            _setSlots.remove(oldSlot);
+        //a slot that is superseded concurrently stays behind in the set 
+        //until it is polled; it is ignored because it is no longer current 
+        _setSlots.add(slot);
+    }
+
+    /**
+     * Remove a key from the index.
+     *
+     * @param key The key.
+     */
+    public void remove(K key)
+    {
+        Slot<K> slot = _mapSlots.remove(key);
+        if (slot != null)
+            _setSlots.remove(slot);
+    }
+
+    /**
+     * Remove and return the keys that are scheduled to expire at or before 
+     * the supplied time.
+     *
+     * @param lNow The current time in milliseconds since the epoch.
+     * @param iMax The maximum number of keys to return, or a value 
+     *  <code>&lt;= 0</code> for no maximum.
+     * @return The expired keys, in expiration order.
+     */
+    public List<K> pollExpired(long lNow, int iMax)
+    {
+        List<K> listExpired = new ArrayList<K>();
+        while (iMax <= 0 || listExpired.size() < iMax)
+        {
+            Slot<K> slot = _setSlots.pollFirst();
+            if (slot == null)
+                break;
+            
+            if (slot._lExpireTime > lNow)
+            {
+                //not expired; put back and stop
+                _setSlots.add(slot);
+                break;
+            }
+            
+            //skip slots that were superseded concurrently
+            if (_mapSlots.remove(slot._key, slot))
+                listExpired.add(slot._key);
+        }
+        return listExpired;
+    }
+
+    /**
+     * @return The number of keys in the index.
+     */
+    public int size()
+    {
+        return _mapSlots.size();
+    }
+
+    /**
+     * Remove all keys.
+     */
+    public void clear()
+    {
+        _mapSlots.clear();
+        _setSlots.clear();
+    }
+
+    //Ordered by expiration time, then by creation order
+    private static class Slot<K> implements Comparable<Slot<K>>
+    {
+        private final K _key;
+        private final long _lExpireTime;
+        private final long _lSequence;
+
+        Slot(K key, long lExpireTime, long lSequence)
+        {
+            _key = key;
+            _lExpireTime = lExpireTime;
+            _lSequence = lSequence;
+        }
+
+        @Override
+        public int compareTo(Slot<K> other)
+        {
+            if (_lExpireTime != other._lExpireTime)
+                return _lExpireTime < other._lExpireTime ? -1 : 1;
+            if (_lSequence != other._lSequence)
+                return _lSequence < other._lSequence ? -1 : 1;
+            return 0;
+        }
+    }
+}
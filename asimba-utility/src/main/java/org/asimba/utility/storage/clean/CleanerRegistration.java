@@ -0,0 +1,305 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.clean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.alfaariss.oa.api.persistence.PersistenceException;
+import com.alfaariss.oa.api.storage.clean.ICleanable;
+
+/**
+ * Registration of one store at the {@link CleanerService}.
+ * 
+ * Performs the sweeps of the store and keeps the sweep statistics. Only one
+ * sweep of a store runs at a time, so the statistics have a single writer.
+ *
+ * @since 4.0
+ */
+public class CleanerRegistration implements Runnable
+{
+    private static Log _logger = LogFactory.getLog(CleanerRegistration.class);
+    
+    private final CleanerService _service;
+    private final ICleanable _oCleanable;
+    private final String _sName;
+    private final long _lInterval;
+    private final long _lBudget;
+    
+    private volatile boolean _bCancelled;
+    private volatile long _lSweepCount;
+    private volatile long _lIncompleteCount;
+    private volatile long _lOverrunCount;
+    private volatile long _lFailureCount;
+    private volatile long _lRemovedCount;
+    private volatile long _lLastSweepTime;
+    private volatile long _lLastDuration;
+    private volatile long _lMaxDuration;
+    private volatile long _lTotalDuration;
+    
+    /**
+     * Create a new registration.
+     * 
+     * @param service The owning service.
+     * @param oCleanable The store.
+     * @param sName The store name.
+     * @param lInterval The sweep interval in milliseconds.
+     * @param lBudget The sweep budget in milliseconds, <code>0</code> for none.
+     */
+    CleanerRegistration(CleanerService service, ICleanable oCleanable, 
+        String sName, long lInterval, long lBudget)
+    {
+        _service = service;
+        _oCleanable = oCleanable;
+        _sName = sName;
+        _lInterval = lInterval;
+        _lBudget = lBudget;
+    }
+    
+    /**
+     * Sweep the store once and schedule the next sweep.
+     * @see java.lang.Runnable#run()
+     */
+    public void run()
+    {
+        if (_bCancelled)
+            return;
+        
+        long lStart = System.currentTimeMillis();
+        int iRemoved = -1;
+        boolean bIncomplete = false;
+        try
+        {
+            if (_oCleanable instanceof IBudgetedCleanable)
+            {
+                long lDeadline = _lBudget > 0 ? lStart + _lBudget : Long.MAX_VALUE;
+                iRemoved = ((IBudgetedCleanable)_oCleanable).removeExpired(lDeadline);
+                bIncomplete = System.currentTimeMillis() >= lDeadline;
+            }
+            else
+            {
+                _oCleanable.removeExpired();
+            }
+        }
+        catch (PersistenceException e)
+        {
+            _lFailureCount++;
+            _logger.error("Could not remove expired entities from: " + _sName, e);        
+        }
+        catch (Exception e)
+        {
+            _lFailureCount++;
+            _logger.fatal("Could not remove expired entities from: " + _sName, e);
+        }
+        finally
+        {
+            long lDuration = System.currentTimeMillis() - lStart;
+            long lDelay = record(lStart, lDuration, iRemoved, bIncomplete);
+            _service.schedule(this, lDelay);
+        }
+    }
+    
+    /**
+     * Unregister the store; a running sweep is completed.
+     */
+    public void cancel()
+    {
+        markCancelled();
+        _service.unregister(this);
+    }
+    
+    /**
+     * @return <code>true</code> if the store is unregistered.
+     */
+    public boolean isCancelled()
+    {
+        return _bCancelled;
+    }
+    
+    /**
+     * @return The store name.
+     */
+    public String getName()
+    {
+        return _sName;
+    }
+    
+    /**
+     * @return The number of performed sweeps.
+     */
+    public long getSweepCount()
+    {
+        return _lSweepCount;
+    }
+    
+    /**
+     * @return The number of sweeps that ran out of budget.
+     */
+    public long getIncompleteCount()
+    {
+        return _lIncompleteCount;
+    }
+    
+    /**
+     * @return The number of complete sweeps that took longer than the 
+     *  budget, or longer than the interval if no budget is set.
+     */
+    public long getOverrunCount()
+    {
+        return _lOverrunCount;
+    }
+    
+    /**
+     * @return The number of failed sweeps.
+     */
+    public long getFailureCount()
+    {
+        return _lFailureCount;
+    }
+    
+    /**
+     * @return The number of removed entities, as far as reported by the 
+     *  store; only an {@link IBudgetedCleanable} reports removed entities.
+     */
+    public long getRemovedCount()
+    {
+        return _lRemovedCount;
+    }
+    
+    /**
+     * @return The start time of the last sweep, or <code>0</code>.
+     */
+    public long getLastSweepTime()
+    {
+        return _lLastSweepTime;
+    }
+    
+    /**
+     * @return The duration of the last sweep in milliseconds.
+     */
+    public long getLastDuration()
+    {
+        return _lLastDuration;
+    }
+    
+    /**
+     * @return The longest sweep duration in milliseconds.
+     */
+    public long getMaxDuration()
+    {
+        return _lMaxDuration;
+    }
+    
+    /**
+     * @return The total duration of all sweeps in milliseconds.
+     */
+    public long getTotalDuration()
+    {
+        return _lTotalDuration;
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sbInfo = new StringBuffer("Cleaner '");
+        sbInfo.append(_sName);
+        sbInfo.append("': sweeps=");
+        sbInfo.append(_lSweepCount);
+        sbInfo.append(", removed=");
+        sbInfo.append(_lRemovedCount);
+        sbInfo.append(", incomplete=");
+        sbInfo.append(_lIncompleteCount);
+        sbInfo.append(", overruns=");
+        sbInfo.append(_lOverrunCount);
+        sbInfo.append(", failures=");
+        sbInfo.append(_lFailureCount);
+        sbInfo.append(", last (ms)=");
+        sbInfo.append(_lLastDuration);
+        sbInfo.append(", max (ms)=");
+        sbInfo.append(_lMaxDuration);
+        return sbInfo.toString();
+    }
+    
+    /**
+     * Mark as cancelled without unregistering.
+     */
+    void markCancelled()
+    {
+        _bCancelled = true;
+    }
+    
+    //Update the statistics and return the delay until the next sweep
+    private long record(long lStart, long lDuration, int iRemoved, 
+        boolean bIncomplete)
+    {
+        _lSweepCount++;
+        _lLastSweepTime = lStart;
+        _lLastDuration = lDuration;
+        _lTotalDuration += lDuration;
+        if (lDuration > _lMaxDuration)
+            _lMaxDuration = lDuration;
+        if (iRemoved > 0)
+            _lRemovedCount += iRemoved;
+        
+        //a budgeted sweep that ran out of time is continued, not an overrun
+        long lLimit = _lBudget > 0 ? _lBudget : _lInterval;
+        if (!bIncomplete && lDuration > lLimit)
+        {
+            _lOverrunCount++;
+            StringBuffer sbWarn = new StringBuffer("Sweep of '");
+            sbWarn.append(_sName);
+            sbWarn.append("' took ");
+            sbWarn.append(lDuration);
+            sbWarn.append(" ms, which exceeds the limit of ");
+            sbWarn.append(lLimit);
+            sbWarn.append(" ms");
+            _logger.warn(sbWarn.toString());
+        }
+        
+        if (_logger.isDebugEnabled())
+        {
+            StringBuffer sbDebug = new StringBuffer("Swept '");
+            sbDebug.append(_sName);
+            sbDebug.append("' in ");
+            sbDebug.append(lDuration);
+            sbDebug.append(" ms");
+            if (iRemoved >= 0)
+            {
+                sbDebug.append(", removed: ");
+                sbDebug.append(iRemoved);
+            }
+            _logger.debug(sbDebug.toString());
+        }
+        
+        if (bIncomplete)
+        {
+            //continue after a pause, to give way to other work
+            _lIncompleteCount++;
+            return _lBudget;
+        }
+        
+        //never sweep continuously when a sweep takes longer than the interval
+        return Math.max(CleanerService.jitter(_lInterval), lDuration);
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.clean;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.alfaariss.oa.api.storage.clean.ICleanable;
+
+/**
+ * Engine wide scheduler that removes expired entities from all registered
+ * {@link ICleanable} stores.
+ * 
+ * All stores share a small, bounded, pool of daemon threads instead of 
+ * running a dedicated cleaner thread per store. Every store is swept by a 
+ * task that schedules its own next run after finishing, so sweeps of one 
+ * store never overlap or queue up:
+ * <ul>
+ *  <li>The interval is jittered by up to 10% so stores that were started 
+ *  together are not swept at the same moment.</li>
+ *  <li>When a sweep takes longer than the interval the next sweep is delayed
+ *  by the duration of the sweep (backpressure).</li>
+ *  <li>An {@link IBudgetedCleanable} gets a deadline; if it runs out of 
+ *  time, the sweep is continued after a pause of the same length as the 
+ *  budget.</li>
+ * </ul>
+ * 
+ * Sweep statistics are available per {@link CleanerRegistration}. The shared
+ * instance shuts down its threads when the last store is unregistered; 
+ * stores register at the shared instance with 
+ * {@link #registerShared(ICleanable, String, long, long)}, which is atomic 
+ * with respect to that shutdown.
+ *
+ * @since 4.0
+ */
+public class CleanerService
+{
+    /** The default number of cleaner threads. */
+    public static final int DEFAULT_POOL_SIZE = 2;
+    
+    /** Jitter applied to the interval, as a fraction of the interval. */
+    private static final double JITTER = 0.1;
+    
+    private static Log _logger = LogFactory.getLog(CleanerService.class);
+    private static CleanerService _instance;
+    
+    private final ScheduledThreadPoolExecutor _executor;
+    private final Set<CleanerRegistration> _setRegistrations;
+    
+    /**
+     * Returns the shared cleaner service, which is created when needed.
+     * 
+     * The returned instance is shut down when its last store is 
+     * unregistered, use {@link #registerShared(ICleanable, String, long, long)}
+     * to register a store.
+     * @return The shared cleaner service.
+     */
+    public static synchronized CleanerService getInstance()
+    {
+        if (_instance == null)
+            _instance = new CleanerService(DEFAULT_POOL_SIZE);
+        
+        return _instance;
+    }
+    
+    /**
+     * Register a store at the shared cleaner service.
+     * 
+     * The shared instance is looked up, and created if needed, while holding 
+     * the same lock that is used to shut it down after the last store is 
+     * unregistered; registering never fails because of a concurrent 
+     * shutdown of the shared instance.
+     * 
+     * @param oCleanable The store.
+     * @param sName The name of the store, used in logging.
+     * @param lInterval The sweep interval in milliseconds.
+     * @param lBudget The time budget of one sweep in milliseconds, or 
+     *  <code>0</code> for no budget.
+     * @return The registration, used to unregister the store.
+     */
+    public static CleanerRegistration registerShared(ICleanable oCleanable, 
+        String sName, long lInterval, long lBudget)
+    {
+        synchronized (CleanerService.class)
+        {
+            return getInstance().register(oCleanable, sName, lInterval, lBudget);
+        }
+    }
+    
+    /**
+     * Create a new cleaner service.
+     * 
+     * Use {@link #getInstance()} instead, unless an isolated service is 
+     * required.
+     * 
+     * @param iPoolSize The maximum number of concurrent sweeps.
+     */
+    public CleanerService(int iPoolSize)
+    {
+        if (iPoolSize <= 0)
+            throw new IllegalArgumentException("Invalid pool size: " + iPoolSize);
+        
+        _executor = new ScheduledThreadPoolExecutor(iPoolSize, 
+            new CleanerThreadFactory());
+        _executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        _setRegistrations = new HashSet<CleanerRegistration>();
+    }
+    
+    /**
+     * Register a store for cleaning.
+     * 
+     * @param oCleanable The store.
+     * @param sName The name of the store, used in logging.
+     * @param lInterval The sweep interval in milliseconds.
+     * @param lBudget The time budget of one sweep in milliseconds, or 
+     *  <code>0</code> for no budget.
+     * @return The registration, used to unregister the store.
+     */
+    public synchronized CleanerRegistration register(ICleanable oCleanable, 
+        String sName, long lInterval, long lBudget)
+    {
+        if (oCleanable == null)
+            throw new IllegalArgumentException("Suplied cleanable is empty");
+        if (lInterval <= 0)
+            throw new IllegalArgumentException("Invalid interval: " + lInterval);
+        if (_executor.isShutdown())
+            throw new IllegalStateException("Cleaner service is shut down");
+        
+        CleanerRegistration registration = new CleanerRegistration(this, 
+            oCleanable, sName, lInterval, lBudget);
+        _setRegistrations.add(registration);
+        schedule(registration, jitter(lInterval));
+        
+        StringBuffer sbInfo = new StringBuffer("Registered cleaner for '");
+        sbInfo.append(sName);
+        sbInfo.append("' with interval (ms): ");
+        sbInfo.append(lInterval);
+        if (lBudget > 0)
+        {
+            sbInfo.append(" and budget (ms): ");
+            sbInfo.append(lBudget);
+        }
+        _logger.info(sbInfo.toString());
+        
+        return registration;
+    }
+    
+    /**
+     * @return The number of registered stores.
+     */
+    public synchronized int getRegistrationCount()
+    {
+        return _setRegistrations.size();
+    }
+    
+    /**
+     * Stop all cleaning.
+     */
+    public void shutdown()
+    {
+        synchronized (CleanerService.class)
+        {
+            if (_instance == this)
+                _instance = null;
+        }
+        
+        synchronized (this)
+        {
+            for (CleanerRegistration registration : _setRegistrations)
+                registration.markCancelled();
+            _setRegistrations.clear();
+        }
+        _executor.shutdownNow();
+    }
+    
+    /**
+     * Unregister a store; shuts the shared service down if this was the last
+     * store.
+     * @param registration The registration to remove.
+     */
+    void unregister(CleanerRegistration registration)
+    {
+        boolean bLast = false;
+        synchronized (this)
+        {
+            if (_setRegistrations.remove(registration))
+            {
+                _logger.info("Unregistered cleaner for '" 
+                    + registration.getName() + "'");
+                bLast = _setRegistrations.isEmpty();
+            }
+        }
+        
+        if (bLast)
+        {
+            //registerShared() holds this lock while registering
+            synchronized (CleanerService.class)
+            {
+                if (_instance == this && getRegistrationCount() == 0)
+                {
+                    _instance = null;
+                    _executor.shutdown();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Schedule the next sweep of a store.
+     * @param registration The store registration.
+     * @param lDelay The delay in milliseconds.
+     */
+    void schedule(CleanerRegistration registration, long lDelay)
+    {
+        if (registration.isCancelled() || _executor.isShutdown())
+            return;
+        
+        try
+        {
+            _executor.schedule(registration, lDelay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            _logger.debug("Cleaner service is shut down, not scheduling '" 
+                + registration.getName() + "'");
+        }
+    }
+    
+    /**
+     * Apply a random jitter to an interval.
+     * @param lInterval The interval in milliseconds.
+     * @return The interval with a jitter of at most 10%.
+     */
+    static long jitter(long lInterval)
+    {
+        long lJitter = (long)(lInterval * JITTER);
+        if (lJitter <= 0)
+            return lInterval;
+        
+        long lOffset = (long)(Math.random() * (2 * lJitter + 1)) - lJitter;
+        return Math.max(1, lInterval + lOffset);
+    }
+    
+    //Creates named daemon threads
+    private static class CleanerThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger _iCount = new AtomicInteger();
+        
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, CleanerService.class.getName() 
+                + "-" + _iCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
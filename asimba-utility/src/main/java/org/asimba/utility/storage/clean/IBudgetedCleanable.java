@@ -0,0 +1,48 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.clean;
+
+import com.alfaariss.oa.api.persistence.PersistenceException;
+import com.alfaariss.oa.api.storage.clean.ICleanable;
+
+/**
+ * A cleanable that can limit the time spent in one sweep.
+ * 
+ * The {@link CleanerService} calls {@link #removeExpired(long)} instead of 
+ * {@link #removeExpired()} for these cleanables. If a sweep runs out of time
+ * the service continues it shortly after, so one large backlog of expired 
+ * entities does not occupy a cleaner thread for a long time.
+ *
+ * @since 4.0
+ */
+public interface IBudgetedCleanable extends ICleanable
+{
+    /**
+     * Remove expired entities until all are removed or the deadline passed.
+     * 
+     * @param lDeadline The time (in milliseconds since the epoch) after which
+     *  no new batch of expired entities should be started.
+     * @return The number of removed entities.
+     * @throws PersistenceException If removing fails.
+     */
+    public int removeExpired(long lDeadline) throws PersistenceException;
+}
@@ -0,0 +1,671 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Compact, versioned binary storage codec.
+ *
+ * Encoded values start with a two byte header (magic and format version)
+ * followed by a tagged value. Common JDK types (strings, numbers, locales,
+ * lists, sets and maps) are written without any class information. Other
+ * types are written by a registered {@link ICodecTypeHandler}, identified by
+ * its schema id. Only values of a type that is neither built in nor handled
+ * fall back to Java serialization, embedded as an opaque value.
+ *
+ * Values that were written by {@link com.alfaariss.oa.util.Serialize} are
+ * recognized by the Java serialization stream header and are decoded as
+ * before, so existing stored data remains readable. When the codec is
+ * created with <code>bWriteLegacy</code> enabled, values are also written
+ * in that legacy format; this is intended for mixed-version deployments.
+ *
+ * The encoder reuses a per-thread buffer; buffers that have grown beyond
+ * {@value #MAX_RETAINED_BUFFER} bytes are not retained.
+ *
+ * @since 4.0
+ */
+public class BinaryStorageCodec implements IStorageCodec
+{
+    /** First byte of every value written by this codec */
+    public final static byte MAGIC = (byte)0xA5;
+    /** Current format version */
+    public final static byte VERSION = 1;
+
+    /** Largest encode buffer that is kept for reuse */
+    public final static int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private final static byte T_NULL = 0;
+    private final static byte T_STRING = 1;
+    private final static byte T_BOOLEAN = 2;
+    private final static byte T_INTEGER = 3;
+    private final static byte T_LONG = 4;
+    private final static byte T_BYTES = 5;
+    private final static byte T_STRING_ARRAY = 6;
+    private final static byte T_LOCALE = 7;
+    private final static byte T_DATE = 8;
+    private final static byte T_ARRAYLIST = 9;
+    private final static byte T_VECTOR = 10;
+    private final static byte T_HASHSET = 11;
+    private final static byte T_HASHMAP = 12;
+    private final static byte T_HASHTABLE = 13;
+    private final static byte T_HANDLER = 14;
+    private final static byte T_SERIALIZED = 15;
+
+    //Java serialization stream magic (0xACED)
+    private final static byte LEGACY_MAGIC_0 = (byte)0xAC;
+    private final static byte LEGACY_MAGIC_1 = (byte)0xED;
+
+    private final static Object NO_HANDLER = new Object();
+
+    private final boolean _bWriteLegacy;
+    private final List<ICodecTypeHandler<?>> _listHandlers;
+    private final ConcurrentMap<Integer, ICodecTypeHandler<?>> _mapSchemaHandlers;
+    private final ConcurrentMap<Class<?>, Object> _mapResolvedHandlers;
+    private final ThreadLocal<EncodeBuffer> _tlBuffer;
+
+    /**
+     * Create a new codec that writes the binary format.
+     */
+    public BinaryStorageCodec()
+    {
+        this(false);
+    }
+
+    /**
+     * Create a new codec.
+     *
+     * @param bWriteLegacy <code>true</code> if values must be written with
+     *  Java serialization instead of the binary format.
+     */
+    public BinaryStorageCodec(boolean bWriteLegacy)
+    {
+        _bWriteLegacy = bWriteLegacy;
+        _listHandlers = new CopyOnWriteArrayList<ICodecTypeHandler<?>>();
+        _mapSchemaHandlers = new ConcurrentHashMap<Integer, ICodecTypeHandler<?>>();
+        _mapResolvedHandlers = new ConcurrentHashMap<Class<?>, Object>();
+        _tlBuffer = new ThreadLocal<EncodeBuffer>();
+    }
+
+    /**
+     * Register a type handler.
+     *
+     * Handlers are matched in registration order, so a handler for a subtype
+     * must be registered before a handler for its supertype.
+     *
+     * @param oHandler The handler.
+     * @throws IllegalArgumentException If a handler with the same schema id
+     *  is already registered.
+     */
+    public void registerHandler(ICodecTypeHandler<?> oHandler)
+    {
+        if (oHandler == null)
+            throw new IllegalArgumentException("Supplied handler is empty");
+
+        Integer iSchemaID = Integer.valueOf(oHandler.getSchemaID());
+        if (_mapSchemaHandlers.putIfAbsent(iSchemaID, oHandler) != null)
+            throw new IllegalArgumentException(
+                "A handler with schema id " + iSchemaID + " is already registered");
+
+        _listHandlers.add(oHandler);
+        _mapResolvedHandlers.clear();
+    }
+
+    /**
+     * @return <code>true</code> if values are written with Java serialization.
+     */
+    public boolean isWriteLegacy()
+    {
+        return _bWriteLegacy;
+    }
+
+    /**
+     * @see org.asimba.utility.storage.codec.IStorageCodec#encode(java.lang.Object)
+     */
+    @Override
+    public byte[] encode(Object o) throws IOException
+    {
+        if (o == null)
+            return null;
+
+        if (_bWriteLegacy)
+            return serialize(o);
+
+        EncodeBuffer oBuffer = _tlBuffer.get();
+        if (oBuffer == null || oBuffer._bInUse)
+        {
+            //first use on this thread, or re-entrant encode from a handler
+            oBuffer = new EncodeBuffer();
+            if (_tlBuffer.get() == null)
+                _tlBuffer.set(oBuffer);
+        }
+
+        oBuffer._bInUse = true;
+        try
+        {
+            oBuffer._osBytes.reset();
+            oBuffer._osData.writeByte(MAGIC);
+            oBuffer._osData.writeByte(VERSION);
+            writeValue(oBuffer._osData, o);
+            oBuffer._osData.flush();
+            return oBuffer._osBytes.toByteArray();
+        }
+        finally
+        {
+            oBuffer._bInUse = false;
+            if (oBuffer._osBytes.capacity() > MAX_RETAINED_BUFFER
+                && _tlBuffer.get() == oBuffer)
+                _tlBuffer.remove();
+        }
+    }
+
+    /**
+     * @see org.asimba.utility.storage.codec.IStorageCodec#decode(byte[])
+     */
+    @Override
+    public Object decode(byte[] baBytes) throws IOException
+    {
+        if (baBytes == null)
+            return null;
+
+        if (isLegacy(baBytes))
+            return deserialize(baBytes, 0, baBytes.length);
+
+        if (baBytes.length < 3 || baBytes[0] != MAGIC)
+            throw new IOException("Unknown storage encoding");
+
+        if (baBytes[1] < 1 || baBytes[1] > VERSION)
+            throw new IOException(
+                "Unsupported storage encoding version: " + baBytes[1]);
+
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(baBytes, 2, baBytes.length - 2));
+        return readValue(in);
+    }
+
+    /**
+     * Verify if the supplied bytes are encoded with Java serialization.
+     *
+     * @param baBytes The encoded bytes.
+     * @return <code>true</code> if the bytes are a Java serialization stream.
+     */
+    public static boolean isLegacy(byte[] baBytes)
+    {
+        return baBytes != null && baBytes.length >= 2
+            && baBytes[0] == LEGACY_MAGIC_0 && baBytes[1] == LEGACY_MAGIC_1;
+    }
+
+    /**
+     * Write a (nested) value.
+     *
+     * @param out The output.
+     * @param o The value, may be <code>null</code>.
+     * @throws IOException If writing fails.
+     */
+    @SuppressWarnings("unchecked")
+    public void writeValue(DataOutput out, Object o) throws IOException
+    {
+        if (o == null)
+        {
+            out.writeByte(T_NULL);
+            return;
+        }
+
+        Class<?> c = o.getClass();
+        if (c == String.class)
+        {
+            out.writeByte(T_STRING);
+            writeString(out, (String)o);
+        }
+        else if (c == Boolean.class)
+        {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean(((Boolean)o).booleanValue());
+        }
+        else if (c == Integer.class)
+        {
+            out.writeByte(T_INTEGER);
+            out.writeInt(((Integer)o).intValue());
+        }
+        else if (c == Long.class)
+        {
+            out.writeByte(T_LONG);
+            out.writeLong(((Long)o).longValue());
+        }
+        else if (c == byte[].class)
+        {
+            byte[] ba = (byte[])o;
+            out.writeByte(T_BYTES);
+            writeVarInt(out, ba.length);
+            out.write(ba);
+        }
+        else if (c == String[].class)
+        {
+            String[] sa = (String[])o;
+            out.writeByte(T_STRING_ARRAY);
+            writeVarInt(out, sa.length);
+            for (String s : sa)
+                writeString(out, s);
+        }
+        else if (c == Locale.class)
+        {
+            Locale oLocale = (Locale)o;
+            out.writeByte(T_LOCALE);
+            writeString(out, oLocale.getLanguage());
+            writeString(out, oLocale.getCountry());
+            writeString(out, oLocale.getVariant());
+        }
+        else if (c == Date.class)
+        {
+            out.writeByte(T_DATE);
+            out.writeLong(((Date)o).getTime());
+        }
+        else if (c == ArrayList.class)
+        {
+            out.writeByte(T_ARRAYLIST);
+            writeCollection(out, (Collection<?>)o);
+        }
+        else if (c == Vector.class)
+        {
+            out.writeByte(T_VECTOR);
+            writeCollection(out, (Collection<?>)o);
+        }
+        else if (c == HashSet.class)
+        {
+            out.writeByte(T_HASHSET);
+            writeCollection(out, (Collection<?>)o);
+        }
+        else if (c == HashMap.class)
+        {
+            out.writeByte(T_HASHMAP);
+            writeMap(out, (Map<?, ?>)o);
+        }
+        else if (c == Hashtable.class)
+        {
+            out.writeByte(T_HASHTABLE);
+            writeMap(out, (Map<?, ?>)o);
+        }
+        else
+        {
+            ICodecTypeHandler<Object> oHandler =
+                (ICodecTypeHandler<Object>)resolveHandler(c);
+            if (oHandler != null)
+            {
+                out.writeByte(T_HANDLER);
+                writeVarInt(out, oHandler.getSchemaID());
+                writeVarInt(out, oHandler.getSchemaVersion());
+                oHandler.write(this, out, o);
+            }
+            else
+            {
+                out.writeByte(T_SERIALIZED);
+                writeSerialized(out, o);
+            }
+        }
+    }
+
+    /**
+     * Read a (nested) value.
+     *
+     * @param in The input.
+     * @return The value, may be <code>null</code>.
+     * @throws IOException If reading fails.
+     */
+    public Object readValue(DataInput in) throws IOException
+    {
+        byte bTag = in.readByte();
+        switch (bTag)
+        {
+            case T_NULL:
+                return null;
+            case T_STRING:
+                return readString(in);
+            case T_BOOLEAN:
+                return Boolean.valueOf(in.readBoolean());
+            case T_INTEGER:
+                return Integer.valueOf(in.readInt());
+            case T_LONG:
+                return Long.valueOf(in.readLong());
+            case T_BYTES:
+            {
+                byte[] ba = new byte[readVarInt(in)];
+                in.readFully(ba);
+                return ba;
+            }
+            case T_STRING_ARRAY:
+            {
+                String[] sa = new String[readVarInt(in)];
+                for (int i = 0; i < sa.length; i++)
+                    sa[i] = readString(in);
+                return sa;
+            }
+            case T_LOCALE:
+            {
+                String sLanguage = readString(in);
+                String sCountry = readString(in);
+                String sVariant = readString(in);
+                return new Locale(sLanguage, sCountry, sVariant);
+            }
+            case T_DATE:
+                return new Date(in.readLong());
+            case T_ARRAYLIST:
+            {
+                int iSize = readVarInt(in);
+                return readCollection(in, new ArrayList<Object>(iSize), iSize);
+            }
+            case T_VECTOR:
+            {
+                int iSize = readVarInt(in);
+                return readCollection(in, new Vector<Object>(iSize), iSize);
+            }
+            case T_HASHSET:
+            {
+                int iSize = readVarInt(in);
+                return readCollection(in, new HashSet<Object>(), iSize);
+            }
+            case T_HASHMAP:
+            {
+                int iSize = readVarInt(in);
+                return readMap(in, new HashMap<Object, Object>(), iSize);
+            }
+            case T_HASHTABLE:
+            {
+                int iSize = readVarInt(in);
+                return readMap(in, new Hashtable<Object, Object>(), iSize);
+            }
+            case T_HANDLER:
+            {
+                int iSchemaID = readVarInt(in);
+                int iSchemaVersion = readVarInt(in);
+                ICodecTypeHandler<?> oHandler =
+                    _mapSchemaHandlers.get(Integer.valueOf(iSchemaID));
+                if (oHandler == null)
+                    throw new IOException(
+                        "No handler registered for schema id: " + iSchemaID);
+                return oHandler.read(this, in, iSchemaVersion);
+            }
+            case T_SERIALIZED:
+                return readSerialized(in);
+            default:
+                throw new IOException("Unknown value tag: " + bTag);
+        }
+    }
+
+    /**
+     * Write an object with Java serialization, length prefixed.
+     *
+     * Handlers can use this for values they can not write field by field,
+     * e.g. unknown subclasses.
+     *
+     * @param out The output.
+     * @param o The serializable object.
+     * @throws IOException If writing fails.
+     */
+    public static void writeSerialized(DataOutput out, Object o)
+        throws IOException
+    {
+        byte[] ba = serialize(o);
+        writeVarInt(out, ba.length);
+        out.write(ba);
+    }
+
+    /**
+     * Read an object that was written by
+     * {@link #writeSerialized(DataOutput, Object)}.
+     *
+     * @param in The input.
+     * @return The object.
+     * @throws IOException If reading fails or the class is not available.
+     */
+    public static Object readSerialized(DataInput in) throws IOException
+    {
+        byte[] ba = new byte[readVarInt(in)];
+        in.readFully(ba);
+        return deserialize(ba, 0, ba.length);
+    }
+
+    /**
+     * Write a string, which may be <code>null</code>, as length prefixed UTF-8.
+     *
+     * @param out The output.
+     * @param s The string.
+     * @throws IOException If writing fails.
+     */
+    public static void writeString(DataOutput out, String s) throws IOException
+    {
+        if (s == null)
+        {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] ba = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, ba.length + 1);
+        out.write(ba);
+    }
+
+    /**
+     * Read a string that was written with {@link #writeString(DataOutput, String)}.
+     *
+     * @param in The input.
+     * @return The string, may be <code>null</code>.
+     * @throws IOException If reading fails.
+     */
+    public static String readString(DataInput in) throws IOException
+    {
+        int iLength = readVarInt(in);
+        if (iLength == 0)
+            return null;
+        byte[] ba = new byte[iLength - 1];
+        in.readFully(ba);
+        return new String(ba, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a non-negative integer in as few bytes as possible (7 bits per byte).
+     *
+     * @param out The output.
+     * @param i The non-negative value.
+     * @throws IOException If writing fails.
+     */
+    public static void writeVarInt(DataOutput out, int i) throws IOException
+    {
+        if (i < 0)
+            throw new IOException("Negative length or id: " + i);
+        while ((i & ~0x7F) != 0)
+        {
+            out.writeByte((i & 0x7F) | 0x80);
+            i >>>= 7;
+        }
+        out.writeByte(i);
+    }
+
+    /**
+     * Read an integer that was written with {@link #writeVarInt(DataOutput, int)}.
+     *
+     * @param in The input.
+     * @return The value.
+     * @throws IOException If reading fails.
+     */
+    public static int readVarInt(DataInput in) throws IOException
+    {
+        int iValue = 0;
+        for (int iShift = 0; iShift < 32; iShift += 7)
+        {
+            byte b = in.readByte();
+            iValue |= (b & 0x7F) << iShift;
+            if ((b & 0x80) == 0)
+                return iValue;
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    private void writeCollection(DataOutput out, Collection<?> c)
+        throws IOException
+    {
+        //copy first; the collection may be modified concurrently
+        Object[] oa = c.toArray();
+        writeVarInt(out, oa.length);
+        for (Object o : oa)
+            writeValue(out, o);
+    }
+
+    private Collection<Object> readCollection(DataInput in,
+        Collection<Object> c, int iSize) throws IOException
+    {
+        for (int i = 0; i < iSize; i++)
+            c.add(readValue(in));
+        return c;
+    }
+
+    private void writeMap(DataOutput out, Map<?, ?> map) throws IOException
+    {
+        //copy first; the map may be modified concurrently
+        Object[] oaEntries = map.entrySet().toArray();
+        writeVarInt(out, oaEntries.length);
+        for (Object o : oaEntries)
+        {
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>)o;
+            writeValue(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private Map<Object, Object> readMap(DataInput in, Map<Object, Object> map,
+        int iSize) throws IOException
+    {
+        for (int i = 0; i < iSize; i++)
+        {
+            Object oKey = readValue(in);
+            Object oValue = readValue(in);
+            //Hashtable does not allow null values
+            if (oKey != null && oValue != null)
+                map.put(oKey, oValue);
+            else if (!(map instanceof Hashtable))
+                map.put(oKey, oValue);
+        }
+        return map;
+    }
+
+    private ICodecTypeHandler<?> resolveHandler(Class<?> c)
+    {
+        Object oResolved = _mapResolvedHandlers.get(c);
+        if (oResolved == null)
+        {
+            oResolved = NO_HANDLER;
+            for (ICodecTypeHandler<?> oHandler : _listHandlers)
+            {
+                if (oHandler.getType().isAssignableFrom(c))
+                {
+                    oResolved = oHandler;
+                    break;
+                }
+            }
+            _mapResolvedHandlers.putIfAbsent(c, oResolved);
+        }
+        return oResolved == NO_HANDLER ? null : (ICodecTypeHandler<?>)oResolved;
+    }
+
+    private static byte[] serialize(Object o) throws IOException
+    {
+        ByteArrayOutputStream osBytes = new ByteArrayOutputStream();
+        ObjectOutputStream osObject = new ObjectOutputStream(osBytes);
+        try
+        {
+            osObject.writeObject(o);
+        }
+        finally
+        {
+            osObject.close();
+        }
+        return osBytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] baBytes, int iOffset, int iLength)
+        throws IOException
+    {
+        ObjectInputStream isObject = new ObjectInputStream(
+            new ByteArrayInputStream(baBytes, iOffset, iLength));
+        try
+        {
+            return isObject.readObject();
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException("Could not decode stored object", e);
+        }
+        finally
+        {
+            isObject.close();
+        }
+    }
+
+    //Per-thread reusable encode buffer
+    private static class EncodeBuffer
+    {
+        private final ReusableByteArrayOutputStream _osBytes;
+        private final DataOutputStream _osData;
+        private boolean _bInUse;
+
+        EncodeBuffer()
+        {
+            _osBytes = new ReusableByteArrayOutputStream();
+            _osData = new DataOutputStream(_osBytes);
+            _bInUse = false;
+        }
+    }
+
+    private static class ReusableByteArrayOutputStream
+        extends ByteArrayOutputStream
+    {
+        ReusableByteArrayOutputStream()
+        {
+            super(512);
+        }
+
+        int capacity()
+        {
+            return buf.length;
+        }
+    }
+}
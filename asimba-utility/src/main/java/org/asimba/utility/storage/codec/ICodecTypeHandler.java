@@ -0,0 +1,80 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads one type of object for the {@link BinaryStorageCodec}.
+ *
+ * A handler is identified on the wire by its schema id, so the schema id of
+ * a handler may never change once data has been written with it. The schema
+ * version is written with every value and passed back to
+ * {@link #read(BinaryStorageCodec, DataInput, int)}, so a handler can keep
+ * reading values written by an older version of itself.
+ *
+ * @param <T> The type that is handled.
+ * @since 4.0
+ */
+public interface ICodecTypeHandler<T>
+{
+    /**
+     * @return The unique, fixed, schema id of this handler.
+     */
+    public int getSchemaID();
+
+    /**
+     * @return The current schema version that is written by this handler.
+     */
+    public int getSchemaVersion();
+
+    /**
+     * @return The type this handler can write; subclasses of this type are
+     *  also written by this handler.
+     */
+    public Class<T> getType();
+
+    /**
+     * Write the value.
+     *
+     * @param codec The codec, to be used for writing nested values.
+     * @param out The output to write to.
+     * @param oValue The value to write, never <code>null</code>.
+     * @throws IOException If writing fails.
+     */
+    public void write(BinaryStorageCodec codec, DataOutput out, T oValue)
+        throws IOException;
+
+    /**
+     * Read the value.
+     *
+     * @param codec The codec, to be used for reading nested values.
+     * @param in The input to read from.
+     * @param iSchemaVersion The schema version the value was written with.
+     * @return The value that was read.
+     * @throws IOException If reading fails.
+     */
+    public T read(BinaryStorageCodec codec, DataInput in, int iSchemaVersion)
+        throws IOException;
+}
@@ -0,0 +1,57 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.codec;
+
+import java.io.IOException;
+
+/**
+ * Encodes and decodes values that are stored in a persistent or replicated
+ * storage, like the session and TGT columns of a JDBC store.
+ *
+ * Implementations must be thread safe and must be able to decode values
+ * that were encoded with {@link com.alfaariss.oa.util.Serialize}, so existing
+ * stored data remains readable.
+ *
+ * @since 4.0
+ */
+public interface IStorageCodec
+{
+    /**
+     * Encode an object for storage.
+     *
+     * @param o The object to encode, may be <code>null</code>.
+     * @return The encoded bytes, or <code>null</code> if <code>o</code> is
+     *  <code>null</code>.
+     * @throws IOException If the object could not be encoded.
+     */
+    public byte[] encode(Object o) throws IOException;
+
+    /**
+     * Decode an object from storage.
+     *
+     * @param baBytes The encoded bytes, may be <code>null</code>.
+     * @return The decoded object, or <code>null</code> if <code>baBytes</code>
+     *  is <code>null</code>.
+     * @throws IOException If the bytes could not be decoded.
+     */
+    public Object decode(byte[] baBytes) throws IOException;
+}
@@ -0,0 +1,147 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.jgroups;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jgroups.Channel;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.OAException;
+import com.alfaariss.oa.SystemErrors;
+import com.alfaariss.oa.api.configuration.IConfigurationManager;
+
+/**
+ * Creates the {@link IClusterMap} that is configured for a storage factory.
+ *
+ * Configuration, all items optional:
+ * <pre>
+ * &lt;mode&gt;replicated|partitioned&lt;/mode&gt;
+ * &lt;owners&gt;2&lt;/owners&gt;
+ * &lt;near_cache_ttl&gt;1000&lt;/near_cache_ttl&gt;
+ * &lt;near_cache_size&gt;10000&lt;/near_cache_size&gt;
+ * </pre>
+ * The default mode is <code>replicated</code>; the other items only apply to
+ * the <code>partitioned</code> mode.
+ *
+ * @since 4.0
+ */
+public class ClusterMapFactory
+{
+    /** Name of the mode configuration item. */
+    public static final String EL_CONFIG_MODE = "mode";
+    /** Name of the owners configuration item. */
+    public static final String EL_CONFIG_OWNERS = "owners";
+    /** Name of the near-cache time to live configuration item. */
+    public static final String EL_CONFIG_NEAR_CACHE_TTL = "near_cache_ttl";
+    /** Name of the near-cache size configuration item. */
+    public static final String EL_CONFIG_NEAR_CACHE_SIZE = "near_cache_size";
+    /** Every member stores all entries. */
+    public static final String MODE_REPLICATED = "replicated";
+    /** Entries are stored on their owners only. */
+    public static final String MODE_PARTITIONED = "partitioned";
+
+    private static Log _logger = LogFactory.getLog(ClusterMapFactory.class);
+
+    private ClusterMapFactory()
+    {
+    }
+
+    /**
+     * Create the configured map; the map is not started.
+     *
+     * @param oConfigurationManager The configuration manager.
+     * @param eConfig The configuration section of the storage factory.
+     * @param channel The connected channel for the map.
+     * @return The map.
+     * @throws OAException If the configuration is invalid.
+     */
+    public static <K, V> IClusterMap<K, V> createMap(
+        IConfigurationManager oConfigurationManager, Element eConfig,
+        Channel channel) throws OAException
+    {
+        String sMode = oConfigurationManager.getParam(eConfig, EL_CONFIG_MODE);
+        if (sMode == null || sMode.equalsIgnoreCase(MODE_REPLICATED))
+        {
+            _logger.debug("Using replicated cluster map");
+            return new ReplicatedClusterMap<K, V>(channel);
+        }
+
+        if (!sMode.equalsIgnoreCase(MODE_PARTITIONED))
+        {
+            _logger.error("Invalid '" + EL_CONFIG_MODE + "' item in configuration: "
+                + sMode);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+
+        int iOwners = (int)readNumber(oConfigurationManager, eConfig,
+            EL_CONFIG_OWNERS, PartitionedClusterMap.DEFAULT_OWNERS, 1);
+        long lNearCacheTTL = readNumber(oConfigurationManager, eConfig,
+            EL_CONFIG_NEAR_CACHE_TTL, PartitionedClusterMap.DEFAULT_NEAR_CACHE_TTL, 0);
+        int iNearCacheSize = (int)readNumber(oConfigurationManager, eConfig,
+            EL_CONFIG_NEAR_CACHE_SIZE, PartitionedClusterMap.DEFAULT_NEAR_CACHE_SIZE, 1);
+
+        PartitionedClusterMap<K, V> map = new PartitionedClusterMap<K, V>(
+            channel, iOwners);
+        map.setNearCache(lNearCacheTTL, iNearCacheSize);
+
+        StringBuffer sbInfo = new StringBuffer("Using partitioned cluster map with ");
+        sbInfo.append(iOwners);
+        sbInfo.append(" owners per entry and near-cache TTL of ");
+        sbInfo.append(lNearCacheTTL);
+        sbInfo.append(" ms");
+        _logger.info(sbInfo.toString());
+        return map;
+    }
+
+    private static long readNumber(IConfigurationManager oConfigurationManager,
+        Element eConfig, String sName, long lDefault, long lMinimum)
+        throws OAException
+    {
+        String sValue = oConfigurationManager.getParam(eConfig, sName);
+        if (sValue == null)
+        {
+            _logger.info("No optional '" + sName
+                + "' item found in configuration, using default: " + lDefault);
+            return lDefault;
+        }
+
+        long lValue;
+        try
+        {
+            lValue = Long.parseLong(sValue);
+        }
+        catch (NumberFormatException e)
+        {
+            _logger.error("Invalid '" + sName + "' item in configuration: " + sValue);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+
+        if (lValue < lMinimum)
+        {
+            _logger.error("Invalid '" + sName + "' item in configuration, must be at least "
+                + lMinimum + ": " + sValue);
+            throw new OAException(SystemErrors.ERROR_CONFIG_READ);
+        }
+        return lValue;
+    }
+}
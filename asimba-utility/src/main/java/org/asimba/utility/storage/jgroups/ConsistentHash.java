@@ -0,0 +1,155 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.jgroups;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Immutable consistent hash ring that maps keys to an ordered list of owners.
+ * 
+ * Every member is placed on the ring a number of times (virtual nodes), so 
+ * keys are spread evenly and only a small part of the keys changes owner 
+ * when a member joins or leaves. The first owner of a key is its primary 
+ * owner, the others hold backup copies.
+ * 
+ * Members are placed by their hash code, so every node in a cluster must 
+ * use members with a hash code that is equal on all nodes (like JGroups 
+ * addresses).
+ *
+ * @param <M> The member type.
+ * @since 4.0
+ */
+public class ConsistentHash<M>
+{
+    /** The default number of virtual nodes per member. */
+    public static final int DEFAULT_VIRTUAL_NODES = 64;
+    
+    private final TreeMap<Integer, M> _mapRing;
+    private final int _iMemberCount;
+    
+    /**
+     * Create a ring with the default number of virtual nodes.
+     * @param members The members.
+     */
+    public ConsistentHash(Collection<M> members)
+    {
+        this(members, DEFAULT_VIRTUAL_NODES);
+    }
+    
+    /**
+     * Create a ring.
+     * @param members The members.
+     * @param iVirtualNodes The number of virtual nodes per member.
+     */
+    public ConsistentHash(Collection<M> members, int iVirtualNodes)
+    {
+        _mapRing = new TreeMap<Integer, M>();
+        for (M member : members)
+        {
+            int iMemberHash = member.hashCode();
+            for (int i = 0; i < iVirtualNodes; i++)
+                _mapRing.put(mix(mix(iMemberHash) + i * 0x9e3779b9), member);
+        }
+        _iMemberCount = members.size();
+    }
+    
+    /**
+     * Returns the owners of a key.
+     * 
+     * @param key The key.
+     * @param iOwners The requested number of owners.
+     * @return The owners, primary owner first; contains less owners if the 
+     *  ring has less members.
+     */
+    public List<M> getOwners(Object key, int iOwners)
+    {
+        if (_mapRing.isEmpty() || iOwners <= 0)
+            return Collections.emptyList();
+        
+        int iCount = Math.min(iOwners, _iMemberCount);
+        List<M> listOwners = new ArrayList<M>(iCount);
+        int iHash = mix(key.hashCode());
+        
+        SortedMap<Integer, M> mapTail = _mapRing.tailMap(iHash);
+        addOwners(mapTail, listOwners, iCount);
+        if (listOwners.size() < iCount)
+            addOwners(_mapRing, listOwners, iCount);
+        
+        return listOwners;
+    }
+    
+    /**
+     * Returns the primary owner of a key.
+     * @param key The key.
+     * @return The primary owner or <code>null</code> if the ring is empty.
+     */
+    public M getPrimaryOwner(Object key)
+    {
+        if (_mapRing.isEmpty())
+            return null;
+        
+        Map.Entry<Integer, M> entry = _mapRing.ceilingEntry(mix(key.hashCode()));
+        if (entry == null)
+            entry = _mapRing.firstEntry();
+        return entry.getValue();
+    }
+    
+    /**
+     * @return The number of members.
+     */
+    public int getMemberCount()
+    {
+        return _iMemberCount;
+    }
+    
+    //Walk the ring until enough distinct owners are found
+    private void addOwners(Map<Integer, M> mapRing, List<M> listOwners, 
+        int iCount)
+    {
+        for (M member : mapRing.values())
+        {
+            if (!listOwners.contains(member))
+            {
+                listOwners.add(member);
+                if (listOwners.size() >= iCount)
+                    return;
+            }
+        }
+    }
+    
+    //Spread the bits of a hash code (murmur3 finalizer)
+    private static int mix(int h)
+    {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.jgroups;
+
+import java.util.concurrent.ConcurrentMap;
+
+import org.jgroups.blocks.ReplicatedHashMap;
+
+/**
+ * Map that is shared by the members of a JGroups cluster.
+ * 
+ * Mirrors the lifecycle and tuning methods of JGroups' 
+ * <code>ReplicatedHashMap</code>, so storage factories can switch between
+ * a fully replicated and a partitioned map by configuration.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ * @since 4.0
+ */
+public interface IClusterMap<K, V> extends ConcurrentMap<K, V>
+{
+    /**
+     * Start the map.
+     * @param lStateTimeout Timeout in milliseconds for retrieving the 
+     *  initial state from the cluster.
+     * @throws Exception If starting fails.
+     */
+    public void start(long lStateTimeout) throws Exception;
+    
+    /**
+     * Stop the map.
+     */
+    public void stop();
+    
+    /**
+     * @return <code>true</code> if updates wait for the other members.
+     */
+    public boolean isBlockingUpdates();
+    
+    /**
+     * @param bBlockingUpdates <code>true</code> if updates must wait for 
+     *  the other members.
+     */
+    public void setBlockingUpdates(boolean bBlockingUpdates);
+    
+    /**
+     * @return The timeout in milliseconds for blocking calls.
+     */
+    public long getTimeout();
+    
+    /**
+     * @param lTimeout The timeout in milliseconds for blocking calls.
+     */
+    public void setTimeout(long lTimeout);
+    
+    /**
+     * Add a listener that is called when entries change on this member.
+     * @param notification The listener.
+     */
+    public void addNotifier(ReplicatedHashMap.Notification<K, V> notification);
+    
+    /**
+     * Remove a listener.
+     * @param notification The listener.
+     */
+    public void removeNotifier(ReplicatedHashMap.Notification<K, V> notification);
+}
@@ -0,0 +1,968 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.jgroups;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.cache.ExpiringCache;
+import org.jgroups.Address;
+import org.jgroups.Channel;
+import org.jgroups.MembershipListener;
+import org.jgroups.View;
+import org.jgroups.blocks.MethodCall;
+import org.jgroups.blocks.ReplicatedHashMap;
+import org.jgroups.blocks.RequestOptions;
+import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.util.Rsp;
+import org.jgroups.util.RspList;
+
+/**
+ * {@link IClusterMap} that partitions its entries over the cluster members.
+ *
+ * Every entry is stored on a configurable number of owners, chosen by a
+ * {@link ConsistentHash} over the current view. Writes are sent to the owners
+ * only and reads are routed to the owners of the key, so the memory and
+ * network cost per member no longer grow with the cluster size.
+ *
+ * Members that are not an owner of a key can keep a short lived near-cache
+ * copy of entries they read. The owners remember which members read a key 
+ * for their near-cache, and on a write or remove only those members are 
+ * asked to drop their copy. The writing member drops its own copy. The time 
+ * to live limits staleness if an invalidation is lost. When the near-cache 
+ * is full the least recently read copy is evicted.
+ *
+ * When the view changes, the first surviving owner of every entry copies it
+ * to the new owners and members that are no longer an owner drop their copy.
+ *
+ * Notifiers are called for the entries that are stored on or removed from
+ * this member, so only owners are notified of a change.
+ *
+ * Some semantics differ from a replicated map:
+ * <ul>
+ * <li>{@link #entrySet()}, {@link #size()} and {@link #clear()} only cover
+ * the entries for which this member is the primary owner, so every entry is
+ * seen by exactly one member when all members iterate their map.</li>
+ * <li>The conditional operations (<code>putIfAbsent</code>,
+ * <code>replace</code> and <code>remove(key, value)</code>) are not atomic
+ * across the cluster.</li>
+ * <li><code>put</code> and <code>remove</code> only return the previous value
+ * if this member is an owner of the key.</li>
+ * </ul>
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ * @since 4.0
+ */
+public class PartitionedClusterMap<K, V> extends AbstractMap<K, V>
+    implements IClusterMap<K, V>, MembershipListener
+{
+    /** The default number of owners of every entry. */
+    public static final int DEFAULT_OWNERS = 2;
+    /** The default near-cache time to live in milliseconds. */
+    public static final long DEFAULT_NEAR_CACHE_TTL = 1000;
+    /** The default maximum number of near-cache entries. */
+    public static final int DEFAULT_NEAR_CACHE_SIZE = 10000;
+
+    private static final long DEFAULT_TIMEOUT = 5000;
+
+    private static final Class<?>[] TYPES_KEY = {Object.class};
+    private static final Class<?>[] TYPES_KEY_VALUE = {Object.class, Object.class};
+    private static final Class<?>[] TYPES_KEY_ADDRESS = {Object.class, Address.class};
+    private static final Class<?>[] TYPES_MAP = {Map.class};
+    private static final Class<?>[] TYPES_ADDRESS = {Address.class};
+
+    private static Log _logger = LogFactory.getLog(PartitionedClusterMap.class);
+
+    private final Channel _channel;
+    private final int _iOwners;
+    private final ConcurrentMap<K, V> _mapLocal;
+    private final AtomicInteger _iPendingRebalances;
+    private final List<ReplicatedHashMap.Notification<K, V>> _listNotifiers;
+    /** key -> members that read the key from this owner for their near-cache */
+    private final ConcurrentMap<Object, Set<Address>> _mapReaders;
+
+    private final Address _oLocalAddress;
+    private final ExecutorService _rebalancer;
+    private final RpcDispatcher _dispatcher;
+
+    private volatile ExpiringCache<Object, V> _cacheNear;
+    private volatile boolean _bBlockingUpdates;
+    private volatile long _lTimeout;
+    private volatile ConsistentHash<Address> _hash;
+
+    /**
+     * Create a partitioned map with the default near-cache settings.
+     *
+     * The map receives calls from the other members as soon as it is
+     * created, like JGroups' <code>ReplicatedHashMap</code>.
+     *
+     * @param channel The connected channel, used by this map only.
+     * @param iOwners The number of members that store every entry.
+     */
+    public PartitionedClusterMap(Channel channel, int iOwners)
+    {
+        if (iOwners < 1)
+            throw new IllegalArgumentException("At least one owner is required");
+
+        _channel = channel;
+        _iOwners = iOwners;
+        _mapLocal = new ConcurrentHashMap<K, V>();
+        _iPendingRebalances = new AtomicInteger();
+        _listNotifiers = new CopyOnWriteArrayList<ReplicatedHashMap.Notification<K, V>>();
+        _mapReaders = new ConcurrentHashMap<Object, Set<Address>>();
+        _cacheNear = createNearCache(DEFAULT_NEAR_CACHE_TTL, DEFAULT_NEAR_CACHE_SIZE);
+        _bBlockingUpdates = true;
+        _lTimeout = DEFAULT_TIMEOUT;
+
+        _oLocalAddress = channel.getAddress();
+        _hash = new ConsistentHash<Address>(channel.getView().getMembers());
+        _rebalancer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "PartitionedClusterMap rebalancer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        _dispatcher = new RpcDispatcher(channel, null, this, new RemoteStore());
+    }
+
+    /**
+     * Configure the near-cache.
+     *
+     * @param lTTL The time to live of near-cache entries in milliseconds,
+     *  0 disables the near-cache.
+     * @param iMaxSize The maximum number of near-cache entries.
+     */
+    public void setNearCache(long lTTL, int iMaxSize)
+    {
+        _cacheNear = createNearCache(lTTL, iMaxSize);
+    }
+
+    /**
+     * @return The number of members that store every entry.
+     */
+    public int getOwners()
+    {
+        return _iOwners;
+    }
+
+    /**
+     * Start the map by fetching the entries this member owns from the other
+     * members.
+     *
+     * The other members may also push these entries when they see the view
+     * in which this member joined; this pull covers the pushes that arrived
+     * before the map was created.
+     * @see IClusterMap#start(long)
+     */
+    @Override
+    public void start(long lStateTimeout) throws Exception
+    {
+        List<Address> listOthers = new ArrayList<Address>(
+            _channel.getView().getMembers());
+        listOthers.remove(_oLocalAddress);
+        if (listOthers.isEmpty())
+            return;
+
+        //Reads fall back to the other owners while entries are missing
+        _iPendingRebalances.incrementAndGet();
+        try
+        {
+            RequestOptions options = RequestOptions.SYNC().setTimeout(lStateTimeout);
+            options.setAnycasting(true);
+            RspList<Map<K, V>> rspList = _dispatcher.callRemoteMethods(listOthers,
+                new MethodCall("_getOwned", new Object[] {_oLocalAddress},
+                    TYPES_ADDRESS), options);
+
+            int iReceived = 0;
+            for (Rsp<Map<K, V>> rsp : rspList.values())
+            {
+                if (rsp.wasReceived() && !rsp.hasException()
+                    && rsp.getValue() != null)
+                {
+                    for (Map.Entry<K, V> entry : rsp.getValue().entrySet())
+                    {
+                        if (_mapLocal.putIfAbsent(entry.getKey(), entry.getValue()) == null)
+                        {
+                            notifySet(entry.getKey(), entry.getValue());
+                            iReceived++;
+                        }
+                    }
+                }
+            }
+            _logger.debug("Received " + iReceived + " owned entries from "
+                + listOthers.size() + " members");
+        }
+        finally
+        {
+            _iPendingRebalances.decrementAndGet();
+        }
+    }
+
+    /**
+     * @see IClusterMap#stop()
+     */
+    @Override
+    public void stop()
+    {
+        _dispatcher.stop();
+        _rebalancer.shutdownNow();
+        _mapLocal.clear();
+        _mapReaders.clear();
+        clearNearCache();
+    }
+
+    /**
+     * @see IClusterMap#isBlockingUpdates()
+     */
+    @Override
+    public boolean isBlockingUpdates()
+    {
+        return _bBlockingUpdates;
+    }
+
+    /**
+     * @see IClusterMap#setBlockingUpdates(boolean)
+     */
+    @Override
+    public void setBlockingUpdates(boolean bBlockingUpdates)
+    {
+        _bBlockingUpdates = bBlockingUpdates;
+    }
+
+    /**
+     * @see IClusterMap#getTimeout()
+     */
+    @Override
+    public long getTimeout()
+    {
+        return _lTimeout;
+    }
+
+    /**
+     * @see IClusterMap#setTimeout(long)
+     */
+    @Override
+    public void setTimeout(long lTimeout)
+    {
+        _lTimeout = lTimeout;
+    }
+
+    /**
+     * @see IClusterMap#addNotifier(org.jgroups.blocks.ReplicatedHashMap.Notification)
+     */
+    @Override
+    public void addNotifier(ReplicatedHashMap.Notification<K, V> notification)
+    {
+        if (notification != null)
+            _listNotifiers.add(notification);
+    }
+
+    /**
+     * @see IClusterMap#removeNotifier(org.jgroups.blocks.ReplicatedHashMap.Notification)
+     */
+    @Override
+    public void removeNotifier(ReplicatedHashMap.Notification<K, V> notification)
+    {
+        _listNotifiers.remove(notification);
+    }
+
+    /**
+     * Read the entry from this member if it is an owner, otherwise from the
+     * near-cache or from the owners, primary owner first.
+     * @see java.util.Map#get(java.lang.Object)
+     */
+    @Override
+    public V get(Object key)
+    {
+        List<Address> listOwners = getOwners(key);
+        boolean bOwner = listOwners.contains(_oLocalAddress);
+        if (bOwner)
+        {
+            V value = _mapLocal.get(key);
+            //During a rebalance the entry can still be on an old owner only
+            if (value != null || _iPendingRebalances.get() == 0)
+                return value;
+        }
+
+        //A non-owner with a near-cache asks the owner to invalidate its copy
+        Address oReader = null;
+        ExpiringCache<Object, V> cacheNear = _cacheNear;
+        if (!bOwner && cacheNear != null)
+        {
+            V value = cacheNear.get(key);
+            if (value != null)
+                return value;
+            oReader = _oLocalAddress;
+        }
+
+        MethodCall call = new MethodCall("_get", new Object[] {key, oReader}, 
+            TYPES_KEY_ADDRESS);
+        RequestOptions options = RequestOptions.SYNC().setTimeout(_lTimeout);
+        for (Address owner : listOwners)
+        {
+            if (owner.equals(_oLocalAddress))
+                continue;
+
+            try
+            {
+                V value = _dispatcher.callRemoteMethod(owner, call, options);
+                if (value != null)
+                {
+                    if (!bOwner)
+                        addNearEntry(key, value);
+                    return value;
+                }
+            }
+            catch (Exception e)
+            {
+                //Try the next owner
+                _logger.debug("Could not read from owner: " + owner, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @see java.util.Map#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return get(key) != null;
+    }
+
+    /**
+     * Store the entry on all owners.
+     * @see java.util.Map#put(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public V put(K key, V value)
+    {
+        if (key == null || value == null)
+            throw new NullPointerException();
+
+        removeNearEntry(key);
+        V oldValue = null;
+        List<Address> listRemote = new ArrayList<Address>(_iOwners);
+        for (Address owner : getOwners(key))
+        {
+            if (owner.equals(_oLocalAddress))
+            {
+                oldValue = _mapLocal.put(key, value);
+                notifySet(key, value);
+                invalidateReaders(key);
+            }
+            else
+                listRemote.add(owner);
+        }
+
+        if (!listRemote.isEmpty())
+        {
+            callOwners(listRemote, new MethodCall("_put",
+                new Object[] {key, value}, TYPES_KEY_VALUE),
+                "put(" + key + ")");
+        }
+        //A read that overlapped the write can have cached the old value
+        removeNearEntry(key);
+        return oldValue;
+    }
+
+    /**
+     * Remove the entry from all owners.
+     * @see java.util.Map#remove(java.lang.Object)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key)
+    {
+        removeNearEntry(key);
+        V oldValue = null;
+        List<Address> listRemote = new ArrayList<Address>(_iOwners);
+        for (Address owner : getOwners(key))
+        {
+            if (owner.equals(_oLocalAddress))
+            {
+                oldValue = _mapLocal.remove(key);
+                if (oldValue != null)
+                    notifyRemoved((K)key);
+                invalidateReaders(key);
+            }
+            else
+                listRemote.add(owner);
+        }
+
+        if (!listRemote.isEmpty())
+        {
+            callOwners(listRemote, new MethodCall("_remove",
+                new Object[] {key}, TYPES_KEY), "remove(" + key + ")");
+        }
+        removeNearEntry(key);
+        return oldValue;
+    }
+
+    /**
+     * Not atomic across the cluster.
+     * @see java.util.concurrent.ConcurrentMap#putIfAbsent(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public V putIfAbsent(K key, V value)
+    {
+        V current = get(key);
+        if (current != null)
+            return current;
+        put(key, value);
+        return null;
+    }
+
+    /**
+     * Not atomic across the cluster.
+     * @see java.util.concurrent.ConcurrentMap#remove(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public boolean remove(Object key, Object value)
+    {
+        V current = get(key);
+        if (current == null || !current.equals(value))
+            return false;
+        remove(key);
+        return true;
+    }
+
+    /**
+     * Not atomic across the cluster.
+     * @see java.util.concurrent.ConcurrentMap#replace(java.lang.Object, java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public boolean replace(K key, V oldValue, V newValue)
+    {
+        V current = get(key);
+        if (current == null || !current.equals(oldValue))
+            return false;
+        put(key, newValue);
+        return true;
+    }
+
+    /**
+     * Not atomic across the cluster.
+     * @see java.util.concurrent.ConcurrentMap#replace(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public V replace(K key, V value)
+    {
+        V current = get(key);
+        if (current == null)
+            return null;
+        put(key, value);
+        return current;
+    }
+
+    /**
+     * @return The number of entries for which this member is the primary
+     *  owner.
+     * @see java.util.Map#size()
+     */
+    @Override
+    public int size()
+    {
+        ConsistentHash<Address> hash = _hash;
+        int iSize = 0;
+        for (K key : _mapLocal.keySet())
+        {
+            if (_oLocalAddress.equals(hash.getPrimaryOwner(key)))
+                iSize++;
+        }
+        return iSize;
+    }
+
+    /**
+     * Store the entries on all their owners.
+     * @see java.util.Map#putAll(java.util.Map)
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map)
+    {
+        //put() drops the near-cache copies
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet())
+            put(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Removes the entries for which this member is the primary owner from
+     * all their owners, and drops all near-cache copies on this member.
+     * @see java.util.Map#clear()
+     */
+    @Override
+    public void clear()
+    {
+        clearNearCache();
+        for (K key : getPrimaryEntries().keySet())
+            remove(key);
+    }
+
+    /**
+     * @return A snapshot of the entries for which this member is the primary
+     *  owner; changes to the set are not written to the map.
+     * @see java.util.AbstractMap#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        return Collections.unmodifiableSet(getPrimaryEntries().entrySet());
+    }
+
+    /**
+     * Update the ring and move entries to their new owners.
+     * @see org.jgroups.MembershipListener#viewAccepted(org.jgroups.View)
+     */
+    @Override
+    public void viewAccepted(View view)
+    {
+        final ConsistentHash<Address> oldHash = _hash;
+        final ConsistentHash<Address> newHash =
+            new ConsistentHash<Address>(view.getMembers());
+        final Set<Address> setMembers = new HashSet<Address>(view.getMembers());
+        _hash = newHash;
+        //Owners can have changed, so cached copies can not be invalidated
+        clearNearCache();
+        _mapReaders.clear();
+
+        _iPendingRebalances.incrementAndGet();
+        try
+        {
+            _rebalancer.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        rebalance(oldHash, newHash, setMembers);
+                    }
+                    catch (Exception e)
+                    {
+                        _logger.error("Could not rebalance entries", e);
+                    }
+                    finally
+                    {
+                        _iPendingRebalances.decrementAndGet();
+                    }
+                }
+            });
+        }
+        catch (Exception e)
+        {
+            _iPendingRebalances.decrementAndGet();
+            _logger.debug("Rebalance not started, map is stopped", e);
+        }
+    }
+
+    /**
+     * @see org.jgroups.MembershipListener#suspect(org.jgroups.Address)
+     */
+    @Override
+    public void suspect(Address suspectedMember)
+    {
+        //Handled by the next view
+    }
+
+    /**
+     * @see org.jgroups.MembershipListener#block()
+     */
+    @Override
+    public void block()
+    {
+        //No action needed
+    }
+
+    /**
+     * @see org.jgroups.MembershipListener#unblock()
+     */
+    @Override
+    public void unblock()
+    {
+        //No action needed
+    }
+
+    private void notifySet(K key, V value)
+    {
+        for (ReplicatedHashMap.Notification<K, V> notification : _listNotifiers)
+        {
+            try
+            {
+                notification.entrySet(key, value);
+            }
+            catch (Exception e)
+            {
+                _logger.warn("Notifier failed for: " + key, e);
+            }
+        }
+    }
+
+    private void notifyRemoved(K key)
+    {
+        for (ReplicatedHashMap.Notification<K, V> notification : _listNotifiers)
+        {
+            try
+            {
+                notification.entryRemoved(key);
+            }
+            catch (Exception e)
+            {
+                _logger.warn("Notifier failed for: " + key, e);
+            }
+        }
+    }
+
+    private List<Address> getOwners(Object key)
+    {
+        ConsistentHash<Address> hash = _hash;
+        if (hash == null)
+            throw new IllegalStateException("Map is not started");
+        return hash.getOwners(key, _iOwners);
+    }
+
+    private Map<K, V> getPrimaryEntries()
+    {
+        ConsistentHash<Address> hash = _hash;
+        Map<K, V> mapPrimary = new HashMap<K, V>();
+        for (Map.Entry<K, V> entry : _mapLocal.entrySet())
+        {
+            if (_oLocalAddress.equals(hash.getPrimaryOwner(entry.getKey())))
+                mapPrimary.put(entry.getKey(), entry.getValue());
+        }
+        return mapPrimary;
+    }
+
+    private void callOwners(List<Address> listOwners, MethodCall call,
+        String sOperation)
+    {
+        RequestOptions options = _bBlockingUpdates
+            ? RequestOptions.SYNC().setTimeout(_lTimeout)
+            : RequestOptions.ASYNC();
+        //Send to the owners only instead of multicasting to all members
+        options.setAnycasting(true);
+        try
+        {
+            _dispatcher.callRemoteMethods(listOwners, call, options);
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(sOperation + " failed", e);
+        }
+    }
+
+    private void addReader(Object key, Address reader)
+    {
+        Set<Address> setReaders = _mapReaders.get(key);
+        if (setReaders == null)
+        {
+            Set<Address> setNew = Collections.newSetFromMap(
+                new ConcurrentHashMap<Address, Boolean>());
+            setReaders = _mapReaders.putIfAbsent(key, setNew);
+            if (setReaders == null)
+                setReaders = setNew;
+        }
+        setReaders.add(reader);
+    }
+
+    //Drop the near-cache copies of the members that read the key from this owner
+    private void invalidateReaders(Object key)
+    {
+        Set<Address> setReaders = _mapReaders.remove(key);
+        if (setReaders == null)
+            return;
+
+        List<Address> listReaders = new ArrayList<Address>(setReaders);
+        listReaders.remove(_oLocalAddress);
+        if (listReaders.isEmpty())
+            return;
+
+        RequestOptions options = RequestOptions.ASYNC();
+        options.setAnycasting(true);
+        try
+        {
+            _dispatcher.callRemoteMethods(listReaders, new MethodCall(
+                "_invalidate", new Object[] {key}, TYPES_KEY), options);
+        }
+        catch (Exception e)
+        {
+            //Near-cache entries expire by themselves
+            _logger.debug("Could not invalidate near-cache entries", e);
+        }
+    }
+
+    /**
+     * @param key The key.
+     * @return The number of members that read the key from this owner for 
+     *  their near-cache and are invalidated on the next write.
+     */
+    int getReaderCount(Object key)
+    {
+        Set<Address> setReaders = _mapReaders.get(key);
+        return setReaders == null ? 0 : setReaders.size();
+    }
+
+    private void addNearEntry(Object key, V value)
+    {
+        //The cache evicts the least recently read entry when it is full
+        ExpiringCache<Object, V> cacheNear = _cacheNear;
+        if (cacheNear != null)
+            cacheNear.put(key, value);
+    }
+
+    private void removeNearEntry(Object key)
+    {
+        ExpiringCache<Object, V> cacheNear = _cacheNear;
+        if (cacheNear != null)
+            cacheNear.remove(key);
+    }
+
+    private void clearNearCache()
+    {
+        ExpiringCache<Object, V> cacheNear = _cacheNear;
+        if (cacheNear != null)
+            cacheNear.clear();
+    }
+
+    private static <V> ExpiringCache<Object, V> createNearCache(long lTTL,
+        int iMaxSize)
+    {
+        if (lTTL <= 0 || iMaxSize <= 0)
+            return null;
+        return new ExpiringCache<Object, V>("PartitionedClusterMap near-cache",
+            iMaxSize, lTTL);
+    }
+
+    private void rebalance(ConsistentHash<Address> oldHash,
+        ConsistentHash<Address> newHash, Set<Address> setMembers)
+    {
+        Map<Address, Map<K, V>> mapTransfers = new HashMap<Address, Map<K, V>>();
+        List<K> listDropped = new ArrayList<K>();
+        for (Map.Entry<K, V> entry : _mapLocal.entrySet())
+        {
+            K key = entry.getKey();
+            List<Address> listOld = oldHash.getOwners(key, _iOwners);
+            List<Address> listNew = newHash.getOwners(key, _iOwners);
+
+            //The first old owner that survived is responsible for the copy
+            Address oPusher = null;
+            for (Address owner : listOld)
+            {
+                if (setMembers.contains(owner))
+                {
+                    oPusher = owner;
+                    break;
+                }
+            }
+
+            if (_oLocalAddress.equals(oPusher))
+            {
+                for (Address owner : listNew)
+                {
+                    if (!listOld.contains(owner))
+                    {
+                        Map<K, V> mapTransfer = mapTransfers.get(owner);
+                        if (mapTransfer == null)
+                        {
+                            mapTransfer = new HashMap<K, V>();
+                            mapTransfers.put(owner, mapTransfer);
+                        }
+                        mapTransfer.put(key, entry.getValue());
+                    }
+                }
+            }
+
+            if (!listNew.contains(_oLocalAddress))
+                listDropped.add(key);
+        }
+
+        Set<K> setFailed = new HashSet<K>();
+        RequestOptions options = RequestOptions.SYNC().setTimeout(_lTimeout);
+        for (Map.Entry<Address, Map<K, V>> transfer : mapTransfers.entrySet())
+        {
+            try
+            {
+                _dispatcher.callRemoteMethod(transfer.getKey(),
+                    new MethodCall("_putAll", new Object[] {transfer.getValue()},
+                        TYPES_MAP), options);
+            }
+            catch (Exception e)
+            {
+                _logger.warn("Could not transfer " + transfer.getValue().size()
+                    + " entries to: " + transfer.getKey(), e);
+                setFailed.addAll(transfer.getValue().keySet());
+            }
+        }
+
+        //Keep entries that could not be handed over and that no surviving
+        //owner holds; they are returned when the new owner starts
+        int iDropped = 0;
+        for (K key : listDropped)
+        {
+            if (!setFailed.contains(key)
+                || isHeldByNewOwner(key, oldHash, newHash))
+            {
+                _mapLocal.remove(key);
+                _mapReaders.remove(key);
+                iDropped++;
+            }
+        }
+
+        if (_logger.isDebugEnabled())
+        {
+            StringBuffer sbDebug = new StringBuffer("Rebalanced to ");
+            sbDebug.append(newHash.getMemberCount());
+            sbDebug.append(" members, transferred to ");
+            sbDebug.append(mapTransfers.size());
+            sbDebug.append(" members, dropped ");
+            sbDebug.append(iDropped);
+            sbDebug.append(" entries");
+            _logger.debug(sbDebug.toString());
+        }
+    }
+
+    private boolean isHeldByNewOwner(K key, ConsistentHash<Address> oldHash,
+        ConsistentHash<Address> newHash)
+    {
+        List<Address> listOld = oldHash.getOwners(key, _iOwners);
+        for (Address owner : newHash.getOwners(key, _iOwners))
+        {
+            if (listOld.contains(owner) && !owner.equals(_oLocalAddress))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Methods that are invoked by the other members.
+     */
+    public class RemoteStore
+    {
+        /**
+         * Store an entry of which this member is an owner.
+         * @param key The key.
+         * @param value The value.
+         * @return The previous value.
+         */
+        @SuppressWarnings("unchecked")
+        public Object _put(Object key, Object value)
+        {
+            removeNearEntry(key);
+            V oldValue = _mapLocal.put((K)key, (V)value);
+            notifySet((K)key, (V)value);
+            invalidateReaders(key);
+            return oldValue;
+        }
+
+        /**
+         * Store entries of which this member became an owner.
+         * @param map The entries.
+         */
+        @SuppressWarnings("unchecked")
+        public void _putAll(Map<?, ?> map)
+        {
+            for (Map.Entry<?, ?> entry : map.entrySet())
+            {
+                if (_mapLocal.putIfAbsent((K)entry.getKey(), (V)entry.getValue()) == null)
+                    notifySet((K)entry.getKey(), (V)entry.getValue());
+            }
+        }
+
+        /**
+         * Returns the entries that a starting member owns. Entries this
+         * member no longer owns are dropped, as they are handed over now.
+         * @param member The starting member.
+         * @return The entries owned by the member.
+         */
+        public Map<K, V> _getOwned(Address member)
+        {
+            ConsistentHash<Address> hash = _hash;
+            Map<K, V> mapOwned = new HashMap<K, V>();
+            for (Map.Entry<K, V> entry : _mapLocal.entrySet())
+            {
+                List<Address> listOwners = hash.getOwners(entry.getKey(), _iOwners);
+                if (listOwners.contains(member))
+                {
+                    mapOwned.put(entry.getKey(), entry.getValue());
+                    if (!listOwners.contains(_oLocalAddress))
+                        _mapLocal.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            return mapOwned;
+        }
+
+        /**
+         * @param key The key.
+         * @param reader The member that keeps the value in its near-cache,
+         *  or <code>null</code>.
+         * @return The locally stored value.
+         */
+        public Object _get(Object key, Address reader)
+        {
+            //Register first, so a write after the read invalidates the copy
+            if (reader != null)
+                addReader(key, reader);
+            return _mapLocal.get(key);
+        }
+
+        /**
+         * @param key The key.
+         * @return The removed value.
+         */
+        @SuppressWarnings("unchecked")
+        public Object _remove(Object key)
+        {
+            removeNearEntry(key);
+            V oldValue = _mapLocal.remove(key);
+            if (oldValue != null)
+                notifyRemoved((K)key);
+            invalidateReaders(key);
+            return oldValue;
+        }
+
+        /**
+         * @param key The key of which the near-cache copy must be dropped.
+         */
+        public void _invalidate(Object key)
+        {
+            removeNearEntry(key);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.jgroups;
+
+import org.jgroups.Channel;
+import org.jgroups.blocks.ReplicatedHashMap;
+
+/**
+ * Fully replicated {@link IClusterMap}: every member holds every entry.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ * @since 4.0
+ */
+public class ReplicatedClusterMap<K, V> extends ReplicatedHashMap<K, V> 
+    implements IClusterMap<K, V>
+{
+    /**
+     * Create a replicated map on the supplied channel.
+     * @param channel The connected channel.
+     */
+    public ReplicatedClusterMap(Channel channel)
+    {
+        super(channel);
+    }
+}
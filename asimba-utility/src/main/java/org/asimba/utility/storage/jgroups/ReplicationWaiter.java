@@ -0,0 +1,172 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.jgroups;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.jgroups.Address;
+import org.jgroups.View;
+import org.jgroups.blocks.ReplicatedHashMap;
+
+/**
+ * Lets threads wait until an entry with a specific key arrives in a cluster
+ * map.
+ *
+ * Register the waiter as notifier of the map; a waiting thread registers a
+ * latch for the key, checks the map once more and then waits on the latch,
+ * which is released as soon as the entry is set on this member. Releasing
+ * is cheap, as notifications run on the JGroups delivery thread.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ * @since 4.0
+ */
+public class ReplicationWaiter<K, V> implements ReplicatedHashMap.Notification<K, V>
+{
+    private final ConcurrentMap<Object, Queue<CountDownLatch>> _mapWaiting;
+
+    /**
+     * Create a waiter without waiting threads.
+     */
+    public ReplicationWaiter()
+    {
+        _mapWaiting = new ConcurrentHashMap<Object, Queue<CountDownLatch>>();
+    }
+
+    /**
+     * Register interest in a key; the returned latch is released when the
+     * entry for the key is set.
+     *
+     * Must be followed by {@link #unregister(Object, CountDownLatch)}.
+     * @param key The key.
+     * @return The latch to wait on.
+     */
+    public CountDownLatch register(Object key)
+    {
+        CountDownLatch latch = new CountDownLatch(1);
+        Queue<CountDownLatch> queue = _mapWaiting.get(key);
+        if (queue == null)
+        {
+            Queue<CountDownLatch> newQueue = new ConcurrentLinkedQueue<CountDownLatch>();
+            queue = _mapWaiting.putIfAbsent(key, newQueue);
+            if (queue == null)
+                queue = newQueue;
+        }
+        queue.add(latch);
+        return latch;
+    }
+
+    /**
+     * Remove interest in a key.
+     *
+     * A thread that registers for the same key at the same moment can miss
+     * its release; waiting threads must therefore use a timeout.
+     * @param key The key.
+     * @param latch The latch that was returned by {@link #register(Object)}.
+     */
+    public void unregister(Object key, CountDownLatch latch)
+    {
+        Queue<CountDownLatch> queue = _mapWaiting.get(key);
+        if (queue != null)
+        {
+            queue.remove(latch);
+            if (queue.isEmpty())
+                _mapWaiting.remove(key, queue);
+        }
+    }
+
+    /**
+     * @return The number of keys that threads are waiting for.
+     */
+    public int getWaitingKeyCount()
+    {
+        return _mapWaiting.size();
+    }
+
+    /**
+     * Release the threads that wait for the key.
+     * @see org.jgroups.blocks.ReplicatedHashMap.Notification#entrySet(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public void entrySet(K key, V value)
+    {
+        release(key);
+    }
+
+    /**
+     * Release the threads that wait for the keys.
+     * @see org.jgroups.blocks.ReplicatedHashMap.Notification#contentsSet(java.util.Map)
+     */
+    @Override
+    public void contentsSet(Map<K, V> map)
+    {
+        if (_mapWaiting.isEmpty())
+            return;
+
+        for (K key : map.keySet())
+            release(key);
+    }
+
+    /**
+     * @see org.jgroups.blocks.ReplicatedHashMap.Notification#entryRemoved(java.lang.Object)
+     */
+    @Override
+    public void entryRemoved(K key)
+    {
+        //Waiting threads only wait for new entries
+    }
+
+    /**
+     * @see org.jgroups.blocks.ReplicatedHashMap.Notification#viewChange(org.jgroups.View, java.util.List, java.util.List)
+     */
+    @Override
+    public void viewChange(View view, List<Address> mbrsJoined,
+        List<Address> mbrsLeft)
+    {
+        //No action needed
+    }
+
+    /**
+     * @see org.jgroups.blocks.ReplicatedHashMap.Notification#contentsCleared()
+     */
+    @Override
+    public void contentsCleared()
+    {
+        //No action needed
+    }
+
+    private void release(Object key)
+    {
+        Queue<CountDownLatch> queue = _mapWaiting.remove(key);
+        if (queue != null)
+        {
+            for (CountDownLatch latch : queue)
+                latch.countDown();
+        }
+    }
+}
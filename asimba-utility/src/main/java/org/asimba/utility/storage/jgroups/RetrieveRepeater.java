@@ -7,19 +7,33 @@ package org.asimba.utility.storage.jgroups;
 
 import com.alfaariss.oa.OAException;
 import com.alfaariss.oa.SystemErrors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.asimba.utility.metrics.LatencyHistogram;
 
 /**
+ * Retrieves a value that may not have been replicated to this member yet.
+ * 
+ * When a {@link ReplicationWaiter} is set and a key is supplied, the thread
+ * waits until the entry for the key arrives, instead of sleeping; the store
+ * is also checked every <code>sleep</code> milliseconds, in case the
+ * notification is missed. The total wait is bounded by the wait time of the
+ * former sleep cycles: <code>sleep * repeats * (repeats - 1) / 2</code>.
  *
  * @author jan
  */
 public class RetrieveRepeater <T> {
-    private int repeats;
-    private long sleep;
-    private long invocations;
-    private long[] repetitions;
-    private long failures;
+    private final int repeats;
+    private final long sleep;
+    private final long maxWait;
+    private final AtomicLong invocations;
+    private final AtomicLong failures;
+    private final LatencyHistogram waits;
+    private final LatencyHistogram failedWaits;
+    private ReplicationWaiter<?, ?> waiter;
     private boolean logFailures = false;
     private String logLabel = RetrieveRepeater.class.getName();
     private static final Log log = LogFactory.getLog(RetrieveRepeater.class);
@@ -28,16 +42,43 @@ public class RetrieveRepeater <T> {
     public RetrieveRepeater(int repeats, long sleep) {
         this.repeats = repeats;
         this.sleep = sleep;
-        this.invocations = 0;
-        this.failures = 0;
-        this.repetitions = new long[repeats + 1];
+        this.maxWait = repeats > 0 ? sleep * repeats * (repeats - 1) / 2 : 0;
+        this.invocations = new AtomicLong();
+        this.failures = new AtomicLong();
+        this.waits = new LatencyHistogram("Successful retrievals (msecs)");
+        this.failedWaits = new LatencyHistogram("Failed retrievals (msecs)");
+    }
+
+
+    /**
+     * @param waiter The waiter that is registered as notifier of the map the
+     *  store reads from, or <code>null</code> to poll the store.
+     */
+    public void setWaiter(ReplicationWaiter<?, ?> waiter) {
+        this.waiter = waiter;
     }
 
 
     public T get(HashMapStore<T> store) throws OAException {
+        return get(null, store);
+    }
+
+
+    /**
+     * Retrieve the value, waiting for the entry with the supplied key.
+     * 
+     * @param key The key of the awaited entry, or <code>null</code> to poll.
+     * @param store The store to retrieve the value from.
+     * @return The value or <code>null</code> if it did not arrive in time.
+     * @throws OAException If retrieving fails or the thread is interrupted.
+     */
+    public T get(Object key, HashMapStore<T> store) throws OAException {
         T result = null;
         try {
-            result = repeat(store);
+            result = repeat(key, store);
+        }
+        catch (OAException e) {
+            throw e;
         }
         catch (Exception e) {
             throw new OAException(SystemErrors.ERROR_INTERNAL, e);
@@ -47,29 +88,53 @@ public class RetrieveRepeater <T> {
     }
 
     
-    private T repeat(HashMapStore<T> store) throws Exception {
+    private T repeat(Object key, HashMapStore<T> store) throws Exception {
         if (repeats <= 0) {
             return store.get();
         }
-        int cycle = 0;
-        T result;
 
-        invocations++;
-        while ((result = store.get()) == null && cycle < this.repeats) {
-            Thread.sleep(cycle * this.sleep);
-            this.repetitions[cycle] += 1;
-            ++cycle;
-            if (logFailures) {
-                log.debug(logLabel + ": retrieving value failed, cycle: " + cycle);
+        invocations.incrementAndGet();
+        long start = System.currentTimeMillis();
+        long deadline = start + maxWait;
+        T result = store.get();
+        long now = start;
+        while (result == null && now < deadline) {
+            long wait = Math.min(deadline - now, Math.max(sleep, 1));
+            ReplicationWaiter<?, ?> currentWaiter = this.waiter;
+            if (currentWaiter != null && key != null) {
+                CountDownLatch latch = currentWaiter.register(key);
+                try {
+                    //the entry can have arrived before the registration
+                    result = store.get();
+                    if (result == null) {
+                        latch.await(wait, TimeUnit.MILLISECONDS);
+                        result = store.get();
+                    }
+                }
+                finally {
+                    currentWaiter.unregister(key, latch);
+                }
+            }
+            else {
+                Thread.sleep(wait);
+                result = store.get();
+            }
+            now = System.currentTimeMillis();
+            if (result == null && logFailures) {
+                log.debug(logLabel + ": retrieving value failed after " + (now - start) + " msecs");
             }
         }
 
         if (result == null) {
-            ++failures;
+            failures.incrementAndGet();
+            failedWaits.record(now - start);
             if (logFailures) {
-                log.debug(logLabel + ": retrieving value failed, max cycles reached");
+                log.debug(logLabel + ": retrieving value failed, max wait reached");
             }
         }
+        else {
+            waits.record(now - start);
+        }
 
         return result;
     }
@@ -80,19 +145,38 @@ public class RetrieveRepeater <T> {
     }
     
     public void logReport(Log logger) {
-        logger.info("");
         logger.info(RetrieveRepeater.class.toString());
-        logger.info("Invocations: " + invocations);
-        logger.info("Successes per cycle (0 means direct succes):");
-        for (int i = 0; i < repetitions.length; ++i) {
-            logger.info("  " + i + " after " + (i * sleep) + " msecs: " + repetitions[i]);
-        }
-        logger.info("Failures: " + failures);
-        logger.info("");
+        logger.info("Invocations: " + invocations.get() + ", failures: " + failures.get()
+                + ", max wait: " + maxWait + " msecs");
+        waits.logReport(logger);
+        failedWaits.logReport(logger);
+    }
+    
+    /**
+     * @return The histogram of the wait times of successful retrievals, 
+     *  including retrievals that did not need to wait.
+     */
+    public LatencyHistogram getWaitHistogram() {
+        return waits;
+    }
+    
+    /**
+     * @return The histogram of the wait times of failed retrievals.
+     */
+    public LatencyHistogram getFailedWaitHistogram() {
+        return failedWaits;
+    }
+    
+    public long getInvocations() {
+        return invocations.get();
+    }
+    
+    public long getFailures() {
+        return failures.get();
     }
     
-    public long[] getRepetitions() {
-        return repetitions;
+    public long getMaxWait() {
+        return maxWait;
     }
     
     public boolean isFailureLogging() {
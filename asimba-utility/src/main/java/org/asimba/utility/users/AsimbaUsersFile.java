@@ -0,0 +1,218 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.users;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Shared, watched asimba-users.xml file.
+ *
+ * All modules that use the same file share one instance and therefore one
+ * parsed {@link AsimbaUsersModel}. A background thread checks the
+ * modification time and size of the file every check interval; a changed
+ * file is parsed again and the new model replaces the old one at once, so
+ * lookups never wait for parsing. If the changed file can not be parsed
+ * the previous model stays in use.
+ *
+ * A file is opened with {@link #open(String, long)} and must be released
+ * with {@link #release(AsimbaUsersFile)}; it stops being watched when the
+ * last module releases it.
+ *
+ * @since 4.0
+ */
+public class AsimbaUsersFile implements Runnable
+{
+    /** The default check interval in milliseconds. */
+    public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    private static Log _logger = LogFactory.getLog(AsimbaUsersFile.class);
+    private static final Map<String, AsimbaUsersFile> _mapFiles =
+        new HashMap<String, AsimbaUsersFile>();
+    private static ScheduledExecutorService _executor;
+
+    private final File _fFile;
+    private volatile AsimbaUsersModel _model;
+    private ScheduledFuture<?> _future;
+    private long _lFailedModified;
+    private int _iReferences;
+
+    /**
+     * Returns the shared instance for a file, which is read when it is not
+     * open yet.
+     *
+     * The check interval of the module that opens the file first is used.
+     *
+     * @param sFilename The file name.
+     * @param lCheckInterval The check interval in milliseconds, 0 disables
+     *  checking for changes.
+     * @return The opened file.
+     */
+    public static synchronized AsimbaUsersFile open(String sFilename,
+        long lCheckInterval)
+    {
+        File fFile = new File(sFilename).getAbsoluteFile();
+        String sKey = fFile.getPath();
+        AsimbaUsersFile oFile = _mapFiles.get(sKey);
+        if (oFile == null)
+        {
+            oFile = new AsimbaUsersFile(fFile);
+            oFile.check();
+            if (lCheckInterval > 0)
+            {
+                if (_executor == null)
+                {
+                    _executor = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactory() {
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread t = new Thread(r, "AsimbaUsersFile watcher");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                }
+                oFile._future = _executor.scheduleWithFixedDelay(oFile,
+                    lCheckInterval, lCheckInterval, TimeUnit.MILLISECONDS);
+            }
+            _mapFiles.put(sKey, oFile);
+        }
+        oFile._iReferences++;
+        return oFile;
+    }
+
+    /**
+     * Release a file; it stops being watched when it is not used anymore.
+     *
+     * @param oFile The file, may be <code>null</code>.
+     */
+    public static synchronized void release(AsimbaUsersFile oFile)
+    {
+        if (oFile == null)
+            return;
+
+        String sKey = oFile._fFile.getPath();
+        if (_mapFiles.get(sKey) != oFile)
+            return;
+
+        oFile._iReferences--;
+        if (oFile._iReferences <= 0)
+        {
+            _mapFiles.remove(sKey);
+            if (oFile._future != null)
+                oFile._future.cancel(false);
+
+            if (_mapFiles.isEmpty() && _executor != null)
+            {
+                _executor.shutdown();
+                _executor = null;
+            }
+        }
+    }
+
+    private AsimbaUsersFile(File fFile)
+    {
+        _fFile = fFile;
+        _model = AsimbaUsersModel.EMPTY;
+    }
+
+    /**
+     * @return The file.
+     */
+    public File getFile()
+    {
+        return _fFile;
+    }
+
+    /**
+     * Returns the current model of the file; the model is immutable and
+     * stays valid after the file is read again.
+     * @return The model, empty if the file does not exist.
+     */
+    public AsimbaUsersModel getModel()
+    {
+        return _model;
+    }
+
+    /**
+     * Read the file again if it was changed since it was last read.
+     * @return <code>true</code> if the model was replaced.
+     */
+    public synchronized boolean check()
+    {
+        AsimbaUsersModel current = _model;
+        if (!_fFile.exists())
+        {
+            if (current != AsimbaUsersModel.EMPTY && _lFailedModified != -1)
+                _logger.warn("Users file does not exist anymore, keeping last version: " + _fFile.getPath());
+            _lFailedModified = -1;
+            return false;
+        }
+
+        long lLastModified = _fFile.lastModified();
+        if (lLastModified == current.getLastModified()
+            && _fFile.length() == current.getLength())
+            return false;
+        //Do not read a broken file again until it is changed
+        if (lLastModified == _lFailedModified)
+            return false;
+
+        try
+        {
+            _model = AsimbaUsersModel.parse(_fFile);
+            _logger.info("Read " + _model.getUserCount() + " user(s) from: " + _fFile.getPath());
+            return true;
+        }
+        catch (IOException e)
+        {
+            _lFailedModified = lLastModified;
+            _logger.error("Could not read users file, keeping last version: " + _fFile.getPath(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Check the file from the watcher thread.
+     * @see java.lang.Runnable#run()
+     */
+    public void run()
+    {
+        try
+        {
+            check();
+        }
+        catch (Exception e)
+        {
+            _logger.error("Could not check users file: " + _fFile.getPath(), e);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.users;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Immutable, indexed contents of an asimba-users.xml file.
+ *
+ * The file is parsed once; users are indexed by id and the items of every
+ * user are resolved in advance, so lookups do not touch the document.
+ * Items are resolved like {@link com.alfaariss.oa.api.configuration.IConfigurationManager#getParam(Element, String)}:
+ * an attribute of the <code>user</code> element, otherwise the text of the
+ * first child element with that name (case insensitive).
+ *
+ * @since 4.0
+ */
+public class AsimbaUsersModel
+{
+    /** A model without users, e.g. for a file that does not exist. */
+    public static final AsimbaUsersModel EMPTY = new AsimbaUsersModel(
+        Collections.<String, User>emptyMap(), 0, -1);
+
+    private final Map<String, User> _mapUsers;
+    private final long _lLastModified;
+    private final long _lLength;
+
+    /**
+     * One user of the file.
+     */
+    public static class User
+    {
+        private final String _sID;
+        private final String _sPassword;
+        private final Map<String, String> _mapAttributes;
+        private final Map<String, String> _mapItems;
+
+        User(String sID, String sPassword, Map<String, String> mapAttributes,
+            Map<String, String> mapItems)
+        {
+            _sID = sID;
+            _sPassword = sPassword;
+            _mapAttributes = mapAttributes;
+            _mapItems = mapItems;
+        }
+
+        /**
+         * @return The user id.
+         */
+        public String getID()
+        {
+            return _sID;
+        }
+
+        /**
+         * Returns the plain password of the user, from
+         * <code>authMethod type="password-plain"</code> or the older
+         * <code>password</code> item.
+         * @return The password or <code>null</code> if none is available.
+         */
+        public String getPassword()
+        {
+            return _sPassword;
+        }
+
+        /**
+         * Returns an item of the user.
+         * @param sName The item name.
+         * @return The value or <code>null</code> if not available.
+         */
+        public String getParam(String sName)
+        {
+            String sValue = _mapAttributes.get(sName);
+            if (sValue == null)
+                sValue = _mapItems.get(sName.toLowerCase());
+            return sValue;
+        }
+    }
+
+    private AsimbaUsersModel(Map<String, User> mapUsers, long lLastModified,
+        long lLength)
+    {
+        _mapUsers = mapUsers;
+        _lLastModified = lLastModified;
+        _lLength = lLength;
+    }
+
+    /**
+     * Parse an asimba-users.xml file.
+     *
+     * @param fFile The file.
+     * @return The model of the file.
+     * @throws IOException If the file can not be read or is not valid XML.
+     */
+    public static AsimbaUsersModel parse(File fFile) throws IOException
+    {
+        //Stat first, so a change during parsing is seen by the next check
+        long lLastModified = fFile.lastModified();
+        long lLength = fFile.length();
+
+        Document oDocument;
+        try
+        {
+            DocumentBuilderFactory oDBF = DocumentBuilderFactory.newInstance();
+            DocumentBuilder oDocBuilder = oDBF.newDocumentBuilder();
+            oDocument = oDocBuilder.parse(fFile);
+        }
+        catch (ParserConfigurationException e)
+        {
+            throw new IOException("Invalid parser configuration", e);
+        }
+        catch (SAXException e)
+        {
+            throw new IOException("Invalid XML in " + fFile.getAbsolutePath(), e);
+        }
+
+        Map<String, User> mapUsers = new HashMap<String, User>();
+        NodeList nlUsers = oDocument.getDocumentElement().getChildNodes();
+        for (int i = 0; i < nlUsers.getLength(); i++)
+        {
+            Node nUser = nlUsers.item(i);
+            if (nUser.getNodeType() != Node.ELEMENT_NODE
+                || !nUser.getNodeName().equals("user"))
+                continue;
+
+            User oUser = createUser((Element)nUser);
+            //The first user with an id wins, as with a section lookup
+            if (oUser != null && !mapUsers.containsKey(oUser.getID()))
+                mapUsers.put(oUser.getID(), oUser);
+        }
+
+        return new AsimbaUsersModel(Collections.unmodifiableMap(mapUsers),
+            lLastModified, lLength);
+    }
+
+    /**
+     * Returns a user.
+     * @param sID The user id.
+     * @return The user or <code>null</code> if the file does not contain it.
+     */
+    public User getUser(String sID)
+    {
+        return _mapUsers.get(sID);
+    }
+
+    /**
+     * @return The number of users in the file.
+     */
+    public int getUserCount()
+    {
+        return _mapUsers.size();
+    }
+
+    /**
+     * @return The modification time of the file this model was read from.
+     */
+    public long getLastModified()
+    {
+        return _lLastModified;
+    }
+
+    /**
+     * @return The size of the file this model was read from.
+     */
+    public long getLength()
+    {
+        return _lLength;
+    }
+
+    private static User createUser(Element eUser)
+    {
+        if (!eUser.hasAttribute("id"))
+            return null;
+
+        Map<String, String> mapAttributes = new HashMap<String, String>();
+        NamedNodeMap nnmAttributes = eUser.getAttributes();
+        for (int i = 0; i < nnmAttributes.getLength(); i++)
+        {
+            Node nAttribute = nnmAttributes.item(i);
+            mapAttributes.put(nAttribute.getNodeName(), nAttribute.getNodeValue());
+        }
+
+        Map<String, String> mapItems = new HashMap<String, String>();
+        String sPassword = null;
+        String sLegacyPassword = null;
+        NodeList nlChilds = eUser.getChildNodes();
+        for (int i = 0; i < nlChilds.getLength(); i++)
+        {
+            Node nChild = nlChilds.item(i);
+            if (nChild.getNodeType() != Node.ELEMENT_NODE)
+                continue;
+
+            String sName = nChild.getNodeName();
+            if (sName.equals("authMethod"))
+            {
+                if (sPassword == null
+                    && "password-plain".equals(((Element)nChild).getAttribute("type")))
+                    sPassword = getProperty((Element)nChild, "password");
+                continue;
+            }
+            if (sName.equals("password") && sLegacyPassword == null)
+                sLegacyPassword = nChild.getTextContent();
+
+            String sKey = sName.toLowerCase();
+            if (!mapItems.containsKey(sKey))
+            {
+                String sText = getFirstText(nChild);
+                if (sText != null)
+                    mapItems.put(sKey, sText);
+            }
+        }
+        if (sPassword == null)
+            sPassword = sLegacyPassword;
+
+        return new User(eUser.getAttribute("id"), sPassword,
+            Collections.unmodifiableMap(mapAttributes),
+            Collections.unmodifiableMap(mapItems));
+    }
+
+    private static String getProperty(Element eAuthMethod, String sName)
+    {
+        NodeList nlChilds = eAuthMethod.getChildNodes();
+        for (int i = 0; i < nlChilds.getLength(); i++)
+        {
+            Node nChild = nlChilds.item(i);
+            if (nChild.getNodeType() == Node.ELEMENT_NODE
+                && nChild.getNodeName().equals("property")
+                && sName.equals(((Element)nChild).getAttribute("name")))
+                return nChild.getTextContent();
+        }
+        return null;
+    }
+
+    private static String getFirstText(Node nElement)
+    {
+        NodeList nlChilds = nElement.getChildNodes();
+        for (int i = 0; i < nlChilds.getLength(); i++)
+        {
+            Node nChild = nlChilds.item(i);
+            if (nChild.getNodeType() == Node.TEXT_NODE)
+            {
+                String sValue = nChild.getNodeValue();
+                return sValue == null ? "" : sValue;
+            }
+        }
+        return null;
+    }
+}
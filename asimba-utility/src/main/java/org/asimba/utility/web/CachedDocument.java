@@ -0,0 +1,197 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serialized document that is served with conditional GET support.
+ *
+ * The document is served with an <code>ETag</code>, derived from its
+ * content, and a <code>Last-Modified</code> header. A request with a
+ * matching <code>If-None-Match</code> header, or without that header and
+ * with an <code>If-Modified-Since</code> header that is not before the
+ * modification time, is answered with <code>304 Not Modified</code> and no
+ * body (RFC 2616, section 14.26 and 14.25).
+ *
+ * Instances are immutable, so a document can be replaced by a new version
+ * while other threads are still serving the old one.
+ *
+ * @since 4.0
+ */
+public class CachedDocument
+{
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] _baContent;
+    private final String _sContentType;
+    private final long _lLastModified;
+    private final String _sETag;
+
+    /**
+     * Create a document.
+     *
+     * @param baContent The serialized document; not copied, must not be
+     *  changed afterwards.
+     * @param sContentType The content type.
+     * @param lLastModified The modification time in milliseconds.
+     */
+    public CachedDocument(byte[] baContent, String sContentType,
+        long lLastModified)
+    {
+        _baContent = baContent;
+        _sContentType = sContentType;
+        //HTTP dates have a resolution of seconds
+        _lLastModified = lLastModified - (lLastModified % 1000);
+        _sETag = createETag(baContent);
+    }
+
+    /**
+     * @return The entity tag, including the quotes.
+     */
+    public String getETag()
+    {
+        return _sETag;
+    }
+
+    /**
+     * @return The modification time in milliseconds, rounded down to seconds.
+     */
+    public long getLastModified()
+    {
+        return _lLastModified;
+    }
+
+    /**
+     * @return The size of the document in bytes.
+     */
+    public int getLength()
+    {
+        return _baContent.length;
+    }
+
+    /**
+     * Verifies if the client already has this version of the document.
+     *
+     * @param oRequest The request.
+     * @return <code>true</code> if the document was not modified.
+     */
+    public boolean isNotModified(HttpServletRequest oRequest)
+    {
+        Enumeration<?> enumNoneMatch = oRequest.getHeaders("If-None-Match");
+        if (enumNoneMatch != null && enumNoneMatch.hasMoreElements())
+        {
+            while (enumNoneMatch.hasMoreElements())
+            {
+                String sValue = (String)enumNoneMatch.nextElement();
+                for (String sTag : sValue.split(","))
+                {
+                    sTag = sTag.trim();
+                    if (sTag.startsWith("W/"))
+                        sTag = sTag.substring(2);
+                    if (sTag.equals("*") || sTag.equals(_sETag))
+                        return true;
+                }
+            }
+            //If-Modified-Since must be ignored when If-None-Match is present
+            return false;
+        }
+
+        try
+        {
+            long lModifiedSince = oRequest.getDateHeader("If-Modified-Since");
+            return lModifiedSince >= 0 && _lLastModified <= lModifiedSince;
+        }
+        catch (IllegalArgumentException e)
+        {
+            //Invalid date, send the document
+            return false;
+        }
+    }
+
+    /**
+     * Write the document, or a <code>304 Not Modified</code> response if the
+     * client already has it.
+     *
+     * @param oRequest The request, or <code>null</code> to always write the
+     *  document.
+     * @param oResponse The response.
+     * @return <code>true</code> if the body was written, <code>false</code>
+     *  if <code>304</code> was sent.
+     * @throws IOException If writing fails.
+     */
+    public boolean write(HttpServletRequest oRequest,
+        HttpServletResponse oResponse) throws IOException
+    {
+        oResponse.setHeader("ETag", _sETag);
+        oResponse.setDateHeader("Last-Modified", _lLastModified);
+
+        if (oRequest != null && isNotModified(oRequest))
+        {
+            oResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return false;
+        }
+
+        oResponse.setContentType(_sContentType);
+        oResponse.setContentLength(_baContent.length);
+        OutputStream os = oResponse.getOutputStream();
+        try
+        {
+            os.write(_baContent);
+        }
+        finally
+        {
+            os.close();
+        }
+        return true;
+    }
+
+    private static String createETag(byte[] baContent)
+    {
+        byte[] baDigest;
+        try
+        {
+            baDigest = MessageDigest.getInstance("SHA-1").digest(baContent);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            //Every Java platform supports SHA-1
+            throw new IllegalStateException(e);
+        }
+
+        StringBuffer sbETag = new StringBuffer("\"");
+        for (byte b : baDigest)
+        {
+            sbETag.append(HEX[(b >> 4) & 0xF]);
+            sbETag.append(HEX[b & 0xF]);
+        }
+        sbETag.append("\"");
+        return sbETag.toString();
+    }
+}
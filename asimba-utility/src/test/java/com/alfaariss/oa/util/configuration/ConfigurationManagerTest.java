@@ -0,0 +1,119 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.util.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.util.configuration.handler.text.PlainTextConfigurationHandler;
+
+public class ConfigurationManagerTest {
+
+    private static final String CONFIG =
+        "<config enabled=\"true\">"
+        + "<Name>first</Name><name>second</name><empty/>"
+        + "<item id=\"a\"><value>1</value></item>"
+        + "<item id=\"B\"><value>2</value></item>"
+        + "<other/>"
+        + "<item id=\"c\"/>"
+        + "</config>";
+
+    private ConfigurationManager _manager;
+
+    @Before
+    public void setUp() throws Exception {
+        Properties pConfig = new Properties();
+        pConfig.put(PlainTextConfigurationHandler.PROPERTY_CONFIGURATION, CONFIG);
+        PlainTextConfigurationHandler handler = new PlainTextConfigurationHandler();
+        handler.init(pConfig);
+
+        _manager = new ConfigurationManager();
+        _manager.init(handler);
+    }
+
+    @Test
+    public void testParams() throws Exception {
+        Element eRoot = (Element)_manager.getSection(null, "item").getParentNode();
+        assertNotNull(eRoot);
+
+        assertEquals("true", _manager.getParam(eRoot, "enabled"));
+        assertEquals("first", _manager.getParam(eRoot, "NAME"));
+        assertEquals("", _manager.getParam(eRoot, "empty"));
+        assertNull(_manager.getParam(eRoot, "missing"));
+        assertEquals(Arrays.asList("first", "second"), _manager.getParams(eRoot, "name"));
+        assertNull(_manager.getParams(eRoot, "missing"));
+    }
+
+    @Test
+    public void testSections() throws Exception {
+        Element eItem = _manager.getSection(null, "item");
+        assertEquals("1", _manager.getParam(eItem, "value"));
+
+        Element eNext = _manager.getNextSection(eItem);
+        assertEquals("2", _manager.getParam(eNext, "value"));
+        Element eLast = _manager.getNextSection(eNext);
+        assertEquals("c", eLast.getAttribute("id"));
+        assertNull(_manager.getNextSection(eLast));
+
+        assertSame(eNext, _manager.getSection(null, "ITEM", "id=b"));
+        assertNull(_manager.getSection(null, "item", "id=d"));
+        assertNull(_manager.getSection(null, "Item"));
+    }
+
+    @Test
+    public void testChangesAreVisible() throws Exception {
+        Element eItem = _manager.getSection(null, "item");
+        _manager.setParam(eItem, "value", "changed", false);
+        assertEquals("changed", _manager.getParam(eItem, "value"));
+
+        Element eNew = _manager.createSection("new");
+        _manager.setParam(eNew, "id", "x", true);
+        _manager.setSection(null, eNew);
+        assertSame(eNew, _manager.getSection(null, "new", "id=x"));
+
+        _manager.removeSection(null, "new");
+        assertNull(_manager.getSection(null, "new"));
+        //removed sections are read from the DOM
+        assertEquals("x", _manager.getParam(eNew, "id"));
+    }
+
+    @Test
+    public void testForeignSection() throws Exception {
+        Document oDocument = DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder().newDocument();
+        Element eForeign = oDocument.createElement("foreign");
+        eForeign.setAttribute("key", "value");
+        assertEquals("value", _manager.getParam(eForeign, "key"));
+    }
+}
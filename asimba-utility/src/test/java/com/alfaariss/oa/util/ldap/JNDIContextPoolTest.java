@@ -0,0 +1,172 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.util.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.Context;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+import javax.naming.spi.InitialContextFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class JNDIContextPoolTest {
+
+    private static final AtomicInteger CREATED = new AtomicInteger();
+    private static final AtomicInteger CLOSED = new AtomicInteger();
+
+    /** Creates directory contexts that only count close calls. */
+    public static class CountingContextFactory implements InitialContextFactory {
+        @Override
+        public Context getInitialContext(Hashtable<?, ?> environment) {
+            CREATED.incrementAndGet();
+            return (Context)Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {DirContext.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("close"))
+                            CLOSED.incrementAndGet();
+                        return null;
+                    }
+                });
+        }
+    }
+
+    private Hashtable<String, String> _htEnvironment;
+
+    @Before
+    public void setUp() {
+        CREATED.set(0);
+        CLOSED.set(0);
+        _htEnvironment = new Hashtable<String, String>();
+        _htEnvironment.put(Context.INITIAL_CONTEXT_FACTORY, 
+            CountingContextFactory.class.getName());
+    }
+
+    @Test
+    public void testContextIsReused() throws Exception {
+        JNDIContextPool pool = new JNDIContextPool(_htEnvironment, 2, 100, 60000);
+        DirContext oContext = pool.getContext();
+        pool.releaseContext(oContext, true);
+        assertSame(oContext, pool.getContext());
+        assertEquals(1, CREATED.get());
+        assertEquals(1, pool.getActiveCount());
+    }
+
+    @Test
+    public void testWaitIsBounded() throws Exception {
+        JNDIContextPool pool = new JNDIContextPool(_htEnvironment, 1, 50, 60000);
+        DirContext oContext = pool.getContext();
+        try {
+            pool.getContext();
+            fail("Pool should be exhausted");
+        }
+        catch (ServiceUnavailableException e) {
+            //expected
+        }
+        assertEquals(1, pool.getTimeoutCount());
+        assertEquals(2, pool.getWaitHistogram().getCount());
+        
+        pool.releaseContext(oContext, true);
+        pool.releaseContext(pool.getContext(), true);
+        assertEquals(1, CREATED.get());
+    }
+
+    @Test
+    public void testFailedContextIsClosed() throws Exception {
+        JNDIContextPool pool = new JNDIContextPool(_htEnvironment, 1, 50, 60000);
+        DirContext oContext = pool.getContext();
+        pool.releaseContext(oContext, false);
+        assertEquals(1, CLOSED.get());
+        assertNotSame(oContext, pool.getContext());
+        assertEquals(2, CREATED.get());
+    }
+
+    @Test
+    public void testFailureClosesIdleContexts() throws Exception {
+        JNDIContextPool pool = new JNDIContextPool(_htEnvironment, 3, 50, 60000);
+        DirContext oFailed = pool.getContext();
+        DirContext oIdle1 = pool.getContext();
+        DirContext oIdle2 = pool.getContext();
+        pool.releaseContext(oIdle1, true);
+        pool.releaseContext(oIdle2, true);
+        assertEquals(2, pool.getIdleCount());
+        
+        pool.releaseContext(oFailed, false);
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(3, CLOSED.get());
+        assertEquals(3, pool.getClosedCount());
+        
+        DirContext oRetry = pool.getContext();
+        assertNotSame(oIdle1, oRetry);
+        assertNotSame(oIdle2, oRetry);
+        assertEquals(4, CREATED.get());
+        assertEquals(0, pool.getReusedCount());
+        
+        pool.releaseContext(oRetry, true);
+        pool.getContext();
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    @Test
+    public void testIdleContextIsClosed() throws Exception {
+        JNDIContextPool pool = new JNDIContextPool(_htEnvironment, 2, 50, 20);
+        DirContext oContext = pool.getContext();
+        pool.releaseContext(oContext, true);
+        Thread.sleep(50);
+        assertNotSame(oContext, pool.getContext());
+        assertEquals(1, CLOSED.get());
+        
+        pool.close();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testMinimumIsKeptOpen() throws Exception {
+        JNDIContextPool pool = new JNDIContextPool(_htEnvironment, 2, 3, 50, 20);
+        assertEquals(2, pool.fill());
+        assertEquals(0, pool.fill());
+        assertEquals(2, pool.getIdleCount());
+        
+        DirContext oContext = pool.getContext();
+        DirContext oExtra = pool.getContext();
+        DirContext oNew = pool.getContext();
+        pool.releaseContext(oNew, true);
+        pool.releaseContext(oExtra, true);
+        pool.releaseContext(oContext, true);
+        Thread.sleep(50);
+        assertSame(oContext, pool.getContext());
+        assertEquals(3, CREATED.get());
+        assertEquals(1, CLOSED.get());
+    }
+}
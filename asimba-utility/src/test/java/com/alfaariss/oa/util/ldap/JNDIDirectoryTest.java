@@ -0,0 +1,180 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package com.alfaariss.oa.util.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+import java.util.Vector;
+
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.spi.InitialContextFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import com.alfaariss.oa.util.configuration.ConfigurationManager;
+import com.alfaariss.oa.util.configuration.handler.text.PlainTextConfigurationHandler;
+
+public class JNDIDirectoryTest {
+
+    private static final List<String> CONNECTED = new Vector<String>();
+
+    private static final String CONFIG =
+        "<config>"
+        + "<directories>"
+        + "<directory id=\"corp\">"
+        + "<url>ldap://down.example.com</url>"
+        + "<url>ldap://up.example.com</url>"
+        + "<driver>" + FailoverContextFactory.class.getName() + "</driver>"
+        + "<security_principal><dn>cn=service</dn><password>secret</password></security_principal>"
+        + "<pool min=\"1\" max=\"2\" max_wait=\"50\"/>"
+        + "</directory>"
+        + "</directories>"
+        + "<resource directory=\"corp\"/>"
+        + "<resource>"
+        + "<url>ldap://up.example.com</url>"
+        + "<driver>" + FailoverContextFactory.class.getName() + "</driver>"
+        + "</resource>"
+        + "</config>";
+
+    /**
+     * Fails to connect to hosts named 'down' and to bind with the password
+     * 'wrong'.
+     */
+    public static class FailoverContextFactory implements InitialContextFactory {
+        @Override
+        public Context getInitialContext(Hashtable<?, ?> environment)
+            throws NamingException {
+            String sURL = (String)environment.get(Context.PROVIDER_URL);
+            if (sURL.contains("down"))
+                throw new CommunicationException(sURL);
+            if ("wrong".equals(environment.get(Context.SECURITY_CREDENTIALS)))
+                throw new AuthenticationException();
+            CONNECTED.add(sURL + " " + environment.get(Context.SECURITY_PRINCIPAL));
+            return (Context)Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {DirContext.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return null;
+                    }
+                });
+        }
+    }
+
+    private ConfigurationManager _manager;
+    private JNDIDirectoryRegistry _registry;
+
+    @Before
+    public void setUp() throws Exception {
+        CONNECTED.clear();
+        Properties pConfig = new Properties();
+        pConfig.put(PlainTextConfigurationHandler.PROPERTY_CONFIGURATION, CONFIG);
+        PlainTextConfigurationHandler handler = new PlainTextConfigurationHandler();
+        handler.init(pConfig);
+
+        _manager = new ConfigurationManager();
+        _manager.init(handler);
+        _registry = new JNDIDirectoryRegistry();
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        Element eResource = _manager.getSection(null, "resource");
+        JNDIDirectory oDirectory = _registry.getDirectory(_manager, eResource);
+        assertEquals("ldap://up.example.com", oDirectory.getURL());
+        assertEquals(1, oDirectory.getFailoverCount());
+        assertEquals(1, oDirectory.getPool().getIdleCount());
+        assertEquals("ldap://up.example.com cn=service", CONNECTED.get(0));
+
+        //The active server is tried first
+        oDirectory.createContext("cn=user", "password").close();
+        assertEquals(1, oDirectory.getFailoverCount());
+        assertEquals("ldap://up.example.com cn=user", CONNECTED.get(1));
+        _registry.release(oDirectory);
+    }
+
+    @Test
+    public void testBindPerRequest() throws Exception {
+        Element eResource = _manager.getSection(null, "resource");
+        JNDIDirectory oDirectory = _registry.getDirectory(_manager, eResource);
+        try {
+            oDirectory.createContext("cn=user", "wrong");
+            fail("Bind should fail");
+        }
+        catch (AuthenticationException e) {
+            //expected
+        }
+        try {
+            oDirectory.createContext("cn=user", "");
+            fail("Empty password should be rejected");
+        }
+        catch (AuthenticationException e) {
+            //expected
+        }
+        assertEquals(0, oDirectory.getPool().getActiveCount());
+        _registry.release(oDirectory);
+    }
+
+    @Test
+    public void testSharedByID() throws Exception {
+        Element eResource = _manager.getSection(null, "resource");
+        JNDIDirectory oFirst = _registry.getDirectory(_manager, eResource);
+        JNDIDirectory oSecond = _registry.getDirectory(_manager, "corp");
+        assertSame(oFirst, oSecond);
+
+        _registry.release(oFirst);
+        assertEquals(1, oSecond.getPool().getIdleCount());
+        _registry.release(oSecond);
+        assertEquals(0, oSecond.getPool().getIdleCount());
+
+        assertNotSame(oSecond, _registry.getDirectory(_manager, "corp"));
+    }
+
+    @Test
+    public void testInlineDirectory() throws Exception {
+        Element eResource = _manager.getNextSection(
+            _manager.getSection(null, "resource"));
+        JNDIDirectory oDirectory = _registry.getDirectory(_manager, eResource);
+        assertEquals(null, oDirectory.getID());
+        assertEquals(null, oDirectory.getPrincipal());
+        assertEquals(0, CONNECTED.size());
+
+        DirContext oContext = oDirectory.getContext();
+        assertEquals("ldap://up.example.com null", CONNECTED.get(0));
+        oDirectory.releaseContext(oContext, true);
+        _registry.release(oDirectory);
+    }
+}
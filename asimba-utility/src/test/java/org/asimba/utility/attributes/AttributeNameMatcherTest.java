@@ -0,0 +1,147 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.attributes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class AttributeNameMatcherTest {
+
+    @Test
+    public void testExpressionTypes() {
+        AttributeNameMatcher matcher = new AttributeNameMatcher(Arrays.asList(
+            "uid", "mail*", "*Name", "*group*", "a*b"));
+        assertTrue(matcher.matches("uid"));
+        assertFalse(matcher.matches("uidx"));
+        assertTrue(matcher.matches("mailAlternate"));
+        assertTrue(matcher.matches("mail"));
+        assertTrue(matcher.matches("displayName"));
+        assertTrue(matcher.matches("memberOfgroups"));
+        assertTrue(matcher.matches("group"));
+        assertTrue(matcher.matches("a*b"));
+        assertFalse(matcher.matches("axb"));
+        assertFalse(matcher.matches("cn"));
+    }
+
+    @Test
+    public void testMatchAll() {
+        assertTrue(new AttributeNameMatcher(Arrays.asList("*")).matches("x"));
+        assertTrue(new AttributeNameMatcher(Arrays.asList("**")).matches("x"));
+        assertFalse(new AttributeNameMatcher(new ArrayList<String>()).matches("x"));
+    }
+
+    @Test
+    public void testOverlappingContains() {
+        AttributeNameMatcher matcher = new AttributeNameMatcher(Arrays.asList(
+            "*abcd*", "*bc*", "*cde*"));
+        assertTrue(matcher.matches("xabcy"));
+        assertTrue(matcher.matches("abcde"));
+        assertTrue(matcher.matches("zzcdez"));
+        assertFalse(matcher.matches("abdce"));
+    }
+
+    @Test
+    public void testSameAsWildcardScan() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            List<String> listExpressions = new ArrayList<String>();
+            for (int j = 0; j < 6; j++)
+                listExpressions.add(randomExpression(random));
+            AttributeNameMatcher matcher = new AttributeNameMatcher(listExpressions);
+            for (int j = 0; j < 50; j++) {
+                String sName = randomName(random);
+                assertEquals(listExpressions + " " + sName, 
+                    scan(listExpressions, sName), matcher.matches(sName));
+            }
+        }
+    }
+
+    @Test
+    public void testReleasedIsCached() {
+        AttributeNameMatcher matcher = new AttributeNameMatcher(Arrays.asList(
+            "mail*"), 2);
+        Set<String> setNames = new HashSet<String>(Arrays.asList("mail", "uid"));
+        Set<String> setReleased = matcher.getReleased(setNames);
+        assertEquals(new HashSet<String>(Arrays.asList("mail")), setReleased);
+        assertSame(setReleased, matcher.getReleased(
+            new HashSet<String>(Arrays.asList("uid", "mail"))));
+        matcher.getReleased(new HashSet<String>(Arrays.asList("a")));
+        matcher.getReleased(new HashSet<String>(Arrays.asList("b")));
+        assertEquals(1, matcher.getCacheSize());
+    }
+
+    private static String randomName(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int iLength = random.nextInt(6);
+        for (int i = 0; i < iLength; i++)
+            sb.append("abc*".charAt(random.nextInt(random.nextInt(10) == 0 ? 4 : 3)));
+        return sb.toString();
+    }
+
+    private static String randomExpression(Random random) {
+        String sName = randomName(random);
+        switch (random.nextInt(4)) {
+            case 0: return "*" + sName;
+            case 1: return sName + "*";
+            case 2: return "*" + sName + "*";
+            default: return sName.length() > 0 ? sName : "a"; //empty is invalid
+        }
+    }
+
+    //The wildcard scan the release policies used before the matcher
+    private static boolean scan(List<String> listExpressions, String sName) {
+        if (listExpressions.contains(sName))
+            return true;
+        for (String sReleaseName : listExpressions) {
+            int iWildcard = sReleaseName.indexOf("*");
+            if (iWildcard == 0) {
+                String sEnd = sReleaseName.substring(1, sReleaseName.length());
+                if (sEnd.length() == 0)
+                    return true;
+                else if (sName.endsWith(sEnd))
+                    return true;
+                else if (sEnd.endsWith("*")) {
+                    String sIntermediate = sEnd.substring(0, sEnd.length() - 1);
+                    if (sName.contains(sIntermediate))
+                        return true;
+                }
+            }
+            else if (iWildcard == sReleaseName.length() - 1) {
+                String sStart = sReleaseName.substring(0, iWildcard);
+                if (sName.startsWith(sStart))
+                    return true;
+            }
+        }
+        return false;
+    }
+}
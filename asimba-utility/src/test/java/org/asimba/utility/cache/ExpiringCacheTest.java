@@ -0,0 +1,69 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+    @Test
+    public void testExpiration() throws Exception {
+        ExpiringCache<String, String> cache = new ExpiringCache<String, String>("test", 10, 30);
+        cache.put("a", "1");
+        cache.put("b", "", 60000);
+        assertEquals("1", cache.get("a"));
+        Thread.sleep(50);
+        assertNull(cache.get("a"));
+        assertEquals("", cache.get("b"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getExpiredCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        ExpiringCache<String, String> cache = new ExpiringCache<String, String>("test", 2, 60000);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(1, cache.getEvictedCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testRemoveExpired() throws Exception {
+        ExpiringCache<String, String> cache = new ExpiringCache<String, String>("test", 10, 20);
+        cache.put("a", "1");
+        cache.put("b", "2", 60000);
+        cache.put("c", "3", 0);
+        Thread.sleep(40);
+        assertEquals(1, cache.removeExpired());
+        assertEquals(1, cache.size());
+    }
+}
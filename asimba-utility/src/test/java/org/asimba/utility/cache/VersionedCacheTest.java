@@ -0,0 +1,131 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alfaariss.oa.util.configuration.ConfigurationManager;
+import com.alfaariss.oa.util.configuration.handler.text.PlainTextConfigurationHandler;
+
+public class VersionedCacheTest {
+
+    private static final String CONFIG =
+        "<config>"
+        + "<cache enabled=\"true\" ttl=\"60000\" max_size=\"10\" check_interval=\"20\""
+        + " version_query=\"SELECT MAX(version) FROM profiles\"/>"
+        + "</config>";
+
+    private static volatile String _sVersion;
+
+    /**
+     * Returns a DataSource of which every query returns a row with one
+     * column containing the current version.
+     */
+    private static DataSource createDataSource() {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String sName = method.getName();
+                Class<?> cReturn = method.getReturnType();
+                if (sName.equals("next"))
+                    return true;
+                if (sName.equals("getString"))
+                    return _sVersion;
+                if (sName.equals("getColumnCount"))
+                    return 1;
+                if (cReturn.isInterface())
+                    return Proxy.newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[] {cReturn}, this);
+                return null;
+            }
+        };
+        return (DataSource)Proxy.newProxyInstance(
+            VersionedCacheTest.class.getClassLoader(),
+            new Class<?>[] {DataSource.class}, handler);
+    }
+
+    private ConfigurationManager _manager;
+
+    @Before
+    public void setUp() throws Exception {
+        _sVersion = "1";
+        Properties pConfig = new Properties();
+        pConfig.put(PlainTextConfigurationHandler.PROPERTY_CONFIGURATION, CONFIG);
+        PlainTextConfigurationHandler handler = new PlainTextConfigurationHandler();
+        handler.init(pConfig);
+
+        _manager = new ConfigurationManager();
+        _manager.init(handler);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        VersionedCache<String, String> cache = new VersionedCache<String, String>("test");
+        cache.start(_manager, null, null);
+        assertFalse(cache.isEnabled());
+        cache.put("a", "1", cache.getGeneration());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testInvalidateDuringLoad() throws Exception {
+        VersionedCache<String, String> cache = new VersionedCache<String, String>("test");
+        cache.start(_manager, _manager.getSection(null, "cache"), createDataSource());
+
+        cache.put("a", "1", cache.getGeneration());
+        assertEquals("1", cache.get("a"));
+
+        long lGeneration = cache.getGeneration();
+        cache.invalidate();
+        cache.put("b", "2", lGeneration);
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        cache.stop();
+    }
+
+    @Test
+    public void testVersionChange() throws Exception {
+        VersionedCache<String, String> cache = new VersionedCache<String, String>("test");
+        cache.start(_manager, _manager.getSection(null, "cache"), createDataSource());
+
+        cache.put("a", "1", cache.getGeneration());
+        Thread.sleep(100);
+        assertEquals("1", cache.get("a"));
+
+        _sVersion = "2";
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+        cache.stop();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ExpiryIndexTest {
+
+    @Test
+    public void testPollInExpirationOrder() {
+        ExpiryIndex<String> index = new ExpiryIndex<String>();
+        index.schedule("c", 30);
+        index.schedule("a", 10);
+        index.schedule("b", 20);
+        index.schedule("d", 40);
+
+        assertEquals(Arrays.asList("a", "b", "c"), index.pollExpired(30, 0));
+        assertEquals(1, index.size());
+        assertTrue(index.pollExpired(39, 0).isEmpty());
+        assertEquals(Arrays.asList("d"), index.pollExpired(40, 0));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testRescheduleAndRemove() {
+        ExpiryIndex<String> index = new ExpiryIndex<String>();
+        index.schedule("a", 10);
+        index.schedule("b", 10);
+        index.schedule("a", 50);
+        index.remove("b");
+
+        assertTrue(index.pollExpired(20, 0).isEmpty());
+        assertEquals(Arrays.asList("a"), index.pollExpired(50, 0));
+    }
+
+    @Test
+    public void testPollMaximum() {
+        ExpiryIndex<Integer> index = new ExpiryIndex<Integer>();
+        for (int i = 0; i < 10; i++)
+            index.schedule(Integer.valueOf(i), 5);
+
+        List<Integer> listFirst = index.pollExpired(5, 4);
+        assertEquals(Arrays.asList(0, 1, 2, 3), listFirst);
+        assertEquals(6, index.pollExpired(5, 0).size());
+        assertEquals(0, index.size());
+    }
+}
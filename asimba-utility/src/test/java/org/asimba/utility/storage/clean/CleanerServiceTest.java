@@ -0,0 +1,214 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.clean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alfaariss.oa.api.persistence.PersistenceException;
+import com.alfaariss.oa.api.storage.clean.ICleanable;
+
+public class CleanerServiceTest {
+
+    private CleanerService _service;
+
+    @Before
+    public void setUp() {
+        _service = new CleanerService(1);
+    }
+
+    @After
+    public void tearDown() {
+        _service.shutdown();
+    }
+
+    @Test
+    public void testSweepsAndStatistics() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        CleanerRegistration registration = _service.register(new ICleanable() {
+            public void removeExpired() throws PersistenceException {
+                latch.countDown();
+            }
+        }, "plain", 10, 0);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        registration.cancel();
+        assertTrue(registration.getSweepCount() >= 2);
+        assertEquals(0, registration.getFailureCount());
+        assertEquals(0, _service.getRegistrationCount());
+    }
+
+    @Test
+    public void testBudgetedSweepIsContinued() throws Exception {
+        //sweeps are run by the test; the delays are recorded, not scheduled
+        RecordingService service = new RecordingService();
+        try {
+            final AtomicInteger iBacklog = new AtomicInteger(5);
+            CleanerRegistration registration = service.register(new IBudgetedCleanable() {
+                public void removeExpired() throws PersistenceException {
+                    removeExpired(Long.MAX_VALUE);
+                }
+
+                public int removeExpired(long lDeadline) throws PersistenceException {
+                    //removes one entity per sweep and then runs out of time
+                    if (iBacklog.get() == 0)
+                        return 0;
+                    while (System.currentTimeMillis() < lDeadline) {
+                        try {
+                            Thread.sleep(1);
+                        }
+                        catch (InterruptedException e) {
+                            return 0;
+                        }
+                    }
+                    iBacklog.decrementAndGet();
+                    return 1;
+                }
+            }, "budgeted", 1000, 5);
+            assertDelay(service.nextDelay(), 1000);
+
+            //continuations are scheduled after a pause of one budget
+            for (int i = 1; i <= 5; i++) {
+                registration.run();
+                assertEquals(5, service.nextDelay());
+                assertEquals(i, registration.getRemovedCount());
+                assertEquals(i, registration.getIncompleteCount());
+            }
+
+            //the backlog is empty; back to the interval
+            registration.run();
+            assertDelay(service.nextDelay(), 1000);
+            assertEquals(6, registration.getSweepCount());
+            assertEquals(5, registration.getRemovedCount());
+            assertEquals(5, registration.getIncompleteCount());
+            assertEquals(0, registration.getOverrunCount());
+
+            registration.cancel();
+            registration.run();
+            assertEquals(6, registration.getSweepCount());
+            assertTrue(service._queueDelays.isEmpty());
+        }
+        finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharedLifecycle() throws Exception {
+        final ICleanable cleanable = new ICleanable() {
+            public void removeExpired() throws PersistenceException {
+                //nothing to clean
+            }
+        };
+
+        //register and cancel concurrently, so the last store is unregistered
+        //while others register at the (possibly shut down) shared instance
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger iFailures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < 500; j++) {
+                            CleanerService.registerShared(
+                                cleanable, "shared", 60000, 0).cancel();
+                        }
+                    }
+                    catch (Exception e) {
+                        iFailures.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(0, iFailures.get());
+        CleanerRegistration registration = CleanerService.registerShared(
+            cleanable, "shared", 60000, 0);
+        assertEquals(1, CleanerService.getInstance().getRegistrationCount());
+        registration.cancel();
+    }
+
+    @Test
+    public void testFailureDoesNotStopCleaning() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        CleanerRegistration registration = _service.register(new ICleanable() {
+            public void removeExpired() throws PersistenceException {
+                latch.countDown();
+                throw new IllegalStateException("test");
+            }
+        }, "failing", 10, 0);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        registration.cancel();
+        assertTrue(registration.getFailureCount() >= 1);
+    }
+
+    @Test
+    public void testJitter() {
+        for (int i = 0; i < 100; i++)
+            assertDelay(CleanerService.jitter(1000), 1000);
+        assertEquals(5, CleanerService.jitter(5));
+    }
+
+    private static void assertDelay(long lDelay, long lInterval) {
+        assertTrue("delay: " + lDelay, 
+            lDelay >= lInterval * 0.9 && lDelay <= lInterval * 1.1);
+    }
+
+    /** Records the scheduled delays instead of scheduling the sweeps. */
+    private static class RecordingService extends CleanerService {
+        private final BlockingQueue<Long> _queueDelays = new LinkedBlockingQueue<Long>();
+
+        RecordingService() {
+            super(1);
+        }
+
+        @Override
+        void schedule(CleanerRegistration registration, long lDelay) {
+            if (!registration.isCancelled())
+                _queueDelays.add(lDelay);
+        }
+
+        long nextDelay() {
+            Long lDelay = _queueDelays.poll();
+            assertNotNull("no sweep scheduled", lDelay);
+            return lDelay;
+        }
+    }
+}
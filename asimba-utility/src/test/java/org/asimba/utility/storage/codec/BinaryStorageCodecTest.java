@@ -0,0 +1,208 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.alfaariss.oa.util.Serialize;
+
+public class BinaryStorageCodecTest {
+
+    @Test
+    public void testRoundTripBuiltinTypes() throws Exception {
+        BinaryStorageCodec codec = new BinaryStorageCodec();
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("string", "value €");
+        map.put("int", Integer.valueOf(42));
+        map.put("long", Long.valueOf(-1L));
+        map.put("bool", Boolean.TRUE);
+        map.put("locale", new Locale("nl", "NL"));
+        map.put("bytes", new byte[] {1, 2, 3});
+        Vector<String> vector = new Vector<String>();
+        vector.add("a");
+        vector.add(null);
+        map.put("vector", vector);
+
+        byte[] baEncoded = codec.encode(map);
+        assertEquals(BinaryStorageCodec.MAGIC, baEncoded[0]);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> decoded = (Map<String, Object>)codec.decode(baEncoded);
+        assertEquals(HashMap.class, decoded.getClass());
+        assertEquals("value €", decoded.get("string"));
+        assertEquals(Integer.valueOf(42), decoded.get("int"));
+        assertEquals(Long.valueOf(-1L), decoded.get("long"));
+        assertEquals(Boolean.TRUE, decoded.get("bool"));
+        assertEquals(new Locale("nl", "NL"), decoded.get("locale"));
+        assertArrayEquals(new byte[] {1, 2, 3}, (byte[])decoded.get("bytes"));
+        assertEquals(Vector.class, decoded.get("vector").getClass());
+        assertEquals(vector, decoded.get("vector"));
+    }
+
+    @Test
+    public void testNull() throws Exception {
+        BinaryStorageCodec codec = new BinaryStorageCodec();
+        assertNull(codec.encode(null));
+        assertNull(codec.decode(null));
+    }
+
+    @Test
+    public void testReadsLegacySerialization() throws Exception {
+        List<String> list = new ArrayList<String>();
+        list.add("requestor1");
+        list.add("requestor2");
+
+        byte[] baLegacy = Serialize.encode(list);
+        assertTrue(BinaryStorageCodec.isLegacy(baLegacy));
+        assertEquals(list, new BinaryStorageCodec().decode(baLegacy));
+    }
+
+    @Test
+    public void testWriteLegacy() throws Exception {
+        BinaryStorageCodec codec = new BinaryStorageCodec(true);
+        byte[] baEncoded = codec.encode("value");
+        assertTrue(BinaryStorageCodec.isLegacy(baEncoded));
+        assertEquals("value", Serialize.decode(baEncoded));
+    }
+
+    @Test
+    public void testHandlerAndFallback() throws Exception {
+        BinaryStorageCodec codec = new BinaryStorageCodec();
+        codec.registerHandler(new PointHandler());
+
+        Hashtable<String, Object> table = new Hashtable<String, Object>();
+        table.put("point", new Point(3, 4));
+        table.put("other", new Other("x"));
+
+        @SuppressWarnings("unchecked")
+        Hashtable<String, Object> decoded =
+            (Hashtable<String, Object>)codec.decode(codec.encode(table));
+        assertEquals(new Point(3, 4), decoded.get("point"));
+        assertEquals(new Other("x"), decoded.get("other"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownHandler() throws Exception {
+        BinaryStorageCodec codec = new BinaryStorageCodec();
+        codec.registerHandler(new PointHandler());
+        byte[] baEncoded = codec.encode(new Point(1, 2));
+
+        new BinaryStorageCodec().decode(baEncoded);
+    }
+
+    @Test
+    public void testVarInt() throws Exception {
+        BinaryStorageCodec codec = new BinaryStorageCodec();
+        byte[] baLarge = new byte[70000];
+        baLarge[69999] = 7;
+        assertArrayEquals(baLarge, (byte[])codec.decode(codec.encode(baLarge)));
+        //buffer is not retained but encoding keeps working
+        assertEquals("small", codec.decode(codec.encode("small")));
+    }
+
+    private static class Point {
+        final int x;
+        final int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Point && ((Point)o).x == x && ((Point)o).y == y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * x + y;
+        }
+    }
+
+    private static class PointHandler implements ICodecTypeHandler<Point> {
+        @Override
+        public int getSchemaID() {
+            return 100;
+        }
+
+        @Override
+        public int getSchemaVersion() {
+            return 1;
+        }
+
+        @Override
+        public Class<Point> getType() {
+            return Point.class;
+        }
+
+        @Override
+        public void write(BinaryStorageCodec codec, DataOutput out, Point oValue)
+            throws IOException {
+            out.writeInt(oValue.x);
+            out.writeInt(oValue.y);
+        }
+
+        @Override
+        public Point read(BinaryStorageCodec codec, DataInput in, int iSchemaVersion)
+            throws IOException {
+            return new Point(in.readInt(), in.readInt());
+        }
+    }
+
+    private static class Other implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final String value;
+
+        Other(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Other && ((Other)o).value.equals(value);
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.jgroups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConsistentHashTest {
+
+    private static final List<String> MEMBERS = Arrays.asList("a", "b", "c", "d");
+
+    @Test
+    public void testOwners() {
+        ConsistentHash<String> hash = new ConsistentHash<String>(MEMBERS);
+        for (int i = 0; i < 1000; i++) {
+            String sKey = "key" + i;
+            List<String> owners = hash.getOwners(sKey, 2);
+            assertEquals(2, owners.size());
+            assertEquals(2, new HashSet<String>(owners).size());
+            assertEquals(hash.getPrimaryOwner(sKey), owners.get(0));
+        }
+        assertEquals(4, hash.getOwners("key", 10).size());
+    }
+
+    @Test
+    public void testEmpty() {
+        ConsistentHash<String> hash =
+            new ConsistentHash<String>(Collections.<String>emptyList());
+        assertTrue(hash.getOwners("key", 2).isEmpty());
+        assertNull(hash.getPrimaryOwner("key"));
+    }
+
+    @Test
+    public void testBalance() {
+        ConsistentHash<String> hash = new ConsistentHash<String>(MEMBERS);
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < 10000; i++) {
+            String sOwner = hash.getPrimaryOwner("key" + i);
+            Integer count = counts.get(sOwner);
+            counts.put(sOwner, count == null ? 1 : count + 1);
+        }
+        assertEquals(4, counts.size());
+        for (int iCount : counts.values())
+            assertTrue("unbalanced: " + counts, iCount > 1500 && iCount < 3500);
+    }
+
+    @Test
+    public void testJoinMovesFewKeys() {
+        ConsistentHash<String> hash = new ConsistentHash<String>(MEMBERS);
+        List<String> joined = new ArrayList<String>(MEMBERS);
+        joined.add("e");
+        ConsistentHash<String> newHash = new ConsistentHash<String>(joined);
+
+        int iMoved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String sKey = "key" + i;
+            String sNewOwner = newHash.getPrimaryOwner(sKey);
+            if (!sNewOwner.equals(hash.getPrimaryOwner(sKey))) {
+                //keys only move to the new member
+                assertEquals("e", sNewOwner);
+                iMoved++;
+            }
+        }
+        assertTrue("moved: " + iMoved, iMoved > 1000 && iMoved < 3500);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.storage.jgroups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jgroups.Address;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.SHARED_LOOPBACK;
+import org.jgroups.protocols.SHARED_LOOPBACK_PING;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartitionedClusterMapTest {
+
+    private static final int MEMBERS = 3;
+    private static final String CLUSTER = "PartitionedClusterMapTest";
+
+    private List<JChannel> _channels;
+    private List<PartitionedClusterMap<String, String>> _maps;
+
+    @Before
+    public void setUp() throws Exception {
+        _channels = new ArrayList<JChannel>();
+        for (int i = 0; i < MEMBERS; i++) {
+            JChannel channel = new JChannel(new Protocol[] {
+                new SHARED_LOOPBACK(), new SHARED_LOOPBACK_PING(),
+                new NAKACK2(), new UNICAST3(), new STABLE(), new GMS()});
+            channel.setName("member" + i);
+            channel.connect(CLUSTER);
+            _channels.add(channel);
+        }
+        for (int i = 0; i < 100 && _channels.get(0).getView().size() < MEMBERS; i++)
+            Thread.sleep(50);
+        assertEquals(MEMBERS, _channels.get(0).getView().size());
+
+        _maps = new ArrayList<PartitionedClusterMap<String, String>>();
+        for (JChannel channel : _channels) {
+            //one owner, so every key has non-owners that use the near-cache
+            PartitionedClusterMap<String, String> map =
+                new PartitionedClusterMap<String, String>(channel, 1);
+            map.setNearCache(60000, 100);
+            _maps.add(map);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (PartitionedClusterMap<String, String> map : _maps)
+            map.stop();
+        for (JChannel channel : _channels)
+            channel.close();
+    }
+
+    @Test
+    public void testRemoveOnNonOwner() throws Exception {
+        String sKey = getKeyNotOwnedBy(0);
+        PartitionedClusterMap<String, String> map = _maps.get(0);
+
+        _maps.get(1).put(sKey, "value");
+        //cached in the near-cache of the non-owner
+        assertEquals("value", map.get(sKey));
+
+        map.remove(sKey);
+        assertNull(map.get(sKey));
+        assertFalse(map.containsKey(sKey));
+        for (PartitionedClusterMap<String, String> other : _maps)
+            assertNull(other.get(sKey));
+    }
+
+    @Test
+    public void testPutOnNonOwner() throws Exception {
+        String sKey = getKeyNotOwnedBy(0);
+        PartitionedClusterMap<String, String> map = _maps.get(0);
+
+        map.put(sKey, "value");
+        assertEquals("value", map.get(sKey));
+
+        map.put(sKey, "updated");
+        assertEquals("updated", map.get(sKey));
+    }
+
+    @Test
+    public void testPutAllAndClearOnNonOwner() throws Exception {
+        PartitionedClusterMap<String, String> map = _maps.get(0);
+        Map<String, String> mapEntries = new HashMap<String, String>();
+        for (int i = 0; i < 5; i++)
+            mapEntries.put(getKeyNotOwnedBy(0, i), "value" + i);
+
+        map.putAll(mapEntries);
+        for (String sKey : mapEntries.keySet())
+            assertTrue(map.containsKey(sKey));
+
+        Map<String, String> mapUpdated = new HashMap<String, String>();
+        for (String sKey : mapEntries.keySet())
+            mapUpdated.put(sKey, "updated");
+        map.putAll(mapUpdated);
+        for (String sKey : mapEntries.keySet())
+            assertEquals("updated", map.get(sKey));
+
+        //every member clears the entries it is primary owner of
+        for (PartitionedClusterMap<String, String> other : _maps)
+            other.clear();
+        map.clear();
+        for (String sKey : mapEntries.keySet())
+            assertNull(map.get(sKey));
+    }
+
+    @Test
+    public void testNearCacheEviction() throws Exception {
+        PartitionedClusterMap<String, String> map = _maps.get(0);
+        map.setNearCache(60000, 2);
+        List<String> listKeys = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            String sKey = getKeyNotOwnedBy(0, i);
+            listKeys.add(sKey);
+            _maps.get(1).put(sKey, "value" + i);
+        }
+
+        //reading more keys than fit evicts copies instead of failing
+        for (int i = 0; i < listKeys.size(); i++)
+            assertEquals("value" + i, map.get(listKeys.get(i)));
+        for (int i = 0; i < listKeys.size(); i++)
+            assertEquals("value" + i, map.get(listKeys.get(i)));
+
+        map.remove(listKeys.get(4));
+        assertNull(map.get(listKeys.get(4)));
+    }
+
+    @Test
+    public void testWriteInvalidatesReadersOnly() throws Exception {
+        String sKey = getKeyNotOwnedBy(0);
+        int iOwner = getOwner(sKey);
+        //the member that is neither the owner nor the reader
+        int iOther = 3 - iOwner;
+        PartitionedClusterMap<String, String> owner = _maps.get(iOwner);
+
+        owner.put(sKey, "value");
+        assertEquals(0, owner.getReaderCount(sKey));
+        assertEquals("value", _maps.get(0).get(sKey));
+        //only the member that read the key is tracked
+        assertEquals(1, owner.getReaderCount(sKey));
+
+        _maps.get(iOther).put(sKey, "updated");
+        assertEquals(0, owner.getReaderCount(sKey));
+        String sValue = null;
+        for (int i = 0; i < 100 && !"updated".equals(sValue); i++) {
+            Thread.sleep(20);
+            sValue = _maps.get(0).get(sKey);
+        }
+        assertEquals("updated", sValue);
+        assertEquals(1, owner.getReaderCount(sKey));
+
+        _maps.get(0).remove(sKey);
+        assertEquals(0, owner.getReaderCount(sKey));
+        assertNull(_maps.get(0).get(sKey));
+    }
+
+    private int getOwner(String sKey) {
+        ConsistentHash<Address> hash =
+            new ConsistentHash<Address>(_channels.get(0).getView().getMembers());
+        Address owner = hash.getOwners(sKey, 1).get(0);
+        for (int i = 0; i < _channels.size(); i++) {
+            if (_channels.get(i).getAddress().equals(owner))
+                return i;
+        }
+        return -1;
+    }
+
+    private String getKeyNotOwnedBy(int iMember) {
+        return getKeyNotOwnedBy(iMember, 0);
+    }
+
+    //Returns the n-th key that is not owned by the member
+    private String getKeyNotOwnedBy(int iMember, int n) {
+        Address member = _channels.get(iMember).getAddress();
+        ConsistentHash<Address> hash =
+            new ConsistentHash<Address>(_channels.get(iMember).getView().getMembers());
+        int iFound = 0;
+        for (int i = 0; ; i++) {
+            String sKey = "key" + i;
+            if (!hash.getOwners(sKey, 1).contains(member) && iFound++ == n)
+                return sKey;
+        }
+    }
+}
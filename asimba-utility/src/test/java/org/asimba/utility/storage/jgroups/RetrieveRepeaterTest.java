@@ -7,6 +7,7 @@ package org.asimba.utility.storage.jgroups;
 
 import com.alfaariss.oa.OAException;
 import static junit.framework.TestCase.assertTrue;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import static org.hamcrest.CoreMatchers.*;
@@ -28,15 +29,20 @@ public class RetrieveRepeaterTest {
 
         RetrieveRepeater<String> rr = new RetrieveRepeater<>(REPEATS, SLEEP);
         rr.setFailureLogging(true, RetrieveRepeaterTest.class.getName());
-        checkCycles(rr, -1);
+        long start = System.currentTimeMillis();
         String result = rr.get(new HashMapStore<String>() {
             @Override
             public String get() throws OAException {
                 return null;
             }
         });
+        long stop = System.currentTimeMillis();
         assertThat(result, equalTo(null));
-        checkCycles(rr, REPEATS);
+        assertThat(rr.getFailures(), equalTo(1l));
+        assertThat(rr.getFailedWaitHistogram().getCount(), equalTo(1l));
+        assertThat(rr.getWaitHistogram().getCount(), equalTo(0l));
+        assertTrue("Max wait is expected to have passed (" + (stop - start) + " >= " + rr.getMaxWait() + ")", stop - start >= rr.getMaxWait());
+        rr.logReport(log);
     }
     
     @Test
@@ -46,7 +52,6 @@ public class RetrieveRepeaterTest {
 
         RetrieveRepeater<String> rr = new RetrieveRepeater<>(REPEATS, SLEEP);
         rr.setFailureLogging(true, RetrieveRepeaterTest.class.getName());
-        checkCycles(rr, -1);
         String result = rr.get(new HashMapStore<String>() {
             @Override
             public String get() throws OAException {
@@ -54,10 +59,12 @@ public class RetrieveRepeaterTest {
             }
         });
         assertThat(result, not(equalTo(null)));
-        checkCycles(rr, 0);
+        assertThat(rr.getFailures(), equalTo(0l));
+        assertThat(rr.getWaitHistogram().getCount(), equalTo(1l));
+        assertThat(rr.getWaitHistogram().getCounts()[0], equalTo(1l));
     }
     
-    private class DelayedStore implements HashMapStore {
+    private class DelayedStore implements HashMapStore<String> {
         private int invocations = 0;
         private int delay;
         
@@ -82,35 +89,68 @@ public class RetrieveRepeaterTest {
 
         RetrieveRepeater<String> rr = new RetrieveRepeater<>(REPEATS, SLEEP);
         rr.setFailureLogging(true, RetrieveRepeaterTest.class.getName());
-        checkCycles(rr, -1);
         
         long start = System.currentTimeMillis();
         String result = rr.get(new DelayedStore(DELAY));
         long stop = System.currentTimeMillis();
         
         assertThat(result, not(equalTo(null)));
-        checkCycles(rr, DELAY);
-        assertTrue("Some time is expected to have passed (" + (stop - start) + " > " + expectedDelay(SLEEP, DELAY) + ")", stop - start >= expectedDelay(SLEEP, DELAY));
+        assertThat(rr.getFailures(), equalTo(0l));
+        assertThat(rr.getWaitHistogram().getCount(), equalTo(1l));
+        assertTrue("Some time is expected to have passed (" + (stop - start) + " >= " + (SLEEP * (DELAY - 1)) + ")", stop - start >= SLEEP * (DELAY - 1));
     }
 
-    
-    public void checkCycles(RetrieveRepeater rr, int expectedSuccessIndex) {
-        long[] repeats = rr.getRepetitions();
-        for (int i = 0; i < repeats.length; ++i) {
-            if (i < expectedSuccessIndex) {
-                assertThat("repeats[" + i + "] should be 1", repeats[i], equalTo(1l));
+    @Test
+    public void testWaitIsEndedByNotification() throws Exception {
+        final int REPEATS = 10;
+        final long SLEEP = 1000;
+
+        final ReplicationWaiter<String, String> waiter = new ReplicationWaiter<>();
+        final AtomicReference<String> value = new AtomicReference<>();
+        RetrieveRepeater<String> rr = new RetrieveRepeater<>(REPEATS, SLEEP);
+        rr.setWaiter(waiter);
+
+        Thread replicator = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                value.set("success");
+                waiter.entrySet("key", "success");
             }
-            else {
-                assertThat("repeats[" + i + "] should be 0", repeats[i], equalTo(0l));
+        };
+        replicator.start();
+
+        long start = System.currentTimeMillis();
+        String result = rr.get("key", new HashMapStore<String>() {
+            @Override
+            public String get() throws OAException {
+                return value.get();
             }
-        }
+        });
+        long stop = System.currentTimeMillis();
+        replicator.join();
+
+        assertThat(result, equalTo("success"));
+        assertTrue("Wait is expected to end before the poll interval (" + (stop - start) + " < " + SLEEP + ")", stop - start < SLEEP);
+        assertThat(waiter.getWaitingKeyCount(), equalTo(0));
     }
 
-    public long expectedDelay(long sleep, int repeats) {
-        long delay = 0;
-        for (int i = 0; i < repeats; ++i) {
-            delay += i * sleep;
-        }
-        return delay;
+    @Test
+    public void testNoRepeats() throws Exception {
+        RetrieveRepeater<String> rr = new RetrieveRepeater<>(0, 5);
+        String result = rr.get("key", new HashMapStore<String>() {
+            @Override
+            public String get() throws OAException {
+                return null;
+            }
+        });
+        assertThat(result, equalTo(null));
+        assertThat(rr.getInvocations(), equalTo(0l));
+        assertThat(rr.getMaxWait(), equalTo(0l));
     }
 }
@@ -0,0 +1,117 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.users;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import org.asimba.utility.users.AsimbaUsersModel.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsimbaUsersFileTest {
+
+    private static final String USERS =
+        "<asimba-users version=\"1.1\">"
+        + "<global><country>Netherlands</country></global>"
+        + "<user id=\"alice\" org=\"Asimba\">"
+        + "<authMethod type=\"password-plain\"><property name=\"password\">secret</property></authMethod>"
+        + "<FirstName>Alice</FirstName>"
+        + "</user>"
+        + "<user id=\"bob\"><password>legacy</password><email>bob@asimba.org</email></user>"
+        + "<user id=\"alice\"><firstname>Duplicate</firstname></user>"
+        + "</asimba-users>";
+
+    private File _file;
+
+    @Before
+    public void setUp() throws Exception {
+        _file = File.createTempFile("asimba-users", ".xml");
+        write(USERS, 1000000L);
+    }
+
+    @After
+    public void tearDown() {
+        _file.delete();
+    }
+
+    @Test
+    public void testModel() throws Exception {
+        AsimbaUsersModel model = AsimbaUsersModel.parse(_file);
+        assertEquals(2, model.getUserCount());
+
+        User alice = model.getUser("alice");
+        assertEquals("secret", alice.getPassword());
+        assertEquals("Asimba", alice.getParam("org"));
+        assertEquals("Alice", alice.getParam("firstname"));
+        assertNull(alice.getParam("country"));
+
+        User bob = model.getUser("bob");
+        assertEquals("legacy", bob.getPassword());
+        assertEquals("bob@asimba.org", bob.getParam("email"));
+        assertNull(model.getUser("carol"));
+    }
+
+    @Test
+    public void testChangeIsPickedUp() throws Exception {
+        AsimbaUsersFile oFile = AsimbaUsersFile.open(_file.getPath(), 0);
+        try {
+            AsimbaUsersModel model = oFile.getModel();
+            assertFalse(oFile.check());
+            assertSame(oFile, AsimbaUsersFile.open(_file.getPath(), 0));
+            AsimbaUsersFile.release(oFile);
+
+            write("<asimba-users><user id=\"carol\"/></asimba-users>", 2000000L);
+            assertTrue(oFile.check());
+            assertEquals(1, oFile.getModel().getUserCount());
+            //Old model is not changed
+            assertEquals("secret", model.getUser("alice").getPassword());
+
+            //Broken file keeps the last version
+            write("<asimba-users>", 3000000L);
+            assertFalse(oFile.check());
+            assertEquals(1, oFile.getModel().getUserCount());
+        }
+        finally {
+            AsimbaUsersFile.release(oFile);
+        }
+    }
+
+    private void write(String sContent, long lLastModified) throws Exception {
+        OutputStream os = new FileOutputStream(_file);
+        try {
+            os.write(sContent.getBytes("UTF-8"));
+        }
+        finally {
+            os.close();
+        }
+        _file.setLastModified(lLastModified);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Asimba Server
+ *
+ * Copyright (C) 2015 Asimba
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see www.gnu.org/licenses
+ *
+ * Asimba - Serious Open Source SSO - More information on www.asimba.org
+ *
+ */
+package org.asimba.utility.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class CachedDocumentTest {
+
+    private static final long MODIFIED = 1400000000123L;
+
+    private final Map<String, Object> _headers = new HashMap<String, Object>();
+    private final ByteArrayOutputStream _body = new ByteArrayOutputStream();
+
+    @Test
+    public void testWritesDocument() throws Exception {
+        CachedDocument document = new CachedDocument("<a/>".getBytes("UTF-8"), "text/xml", MODIFIED);
+        assertTrue(document.write(request(null, -1), response()));
+        assertEquals("<a/>", _body.toString("UTF-8"));
+        assertEquals(document.getETag(), _headers.get("ETag"));
+        assertEquals(1400000000000L, _headers.get("Last-Modified"));
+        assertEquals("text/xml", _headers.get("Content-Type"));
+    }
+
+    @Test
+    public void testETagMatch() throws Exception {
+        CachedDocument document = new CachedDocument("<a/>".getBytes("UTF-8"), "text/xml", MODIFIED);
+        assertTrue(document.isNotModified(request("\"x\", " + document.getETag(), -1)));
+        assertTrue(document.isNotModified(request("W/" + document.getETag(), -1)));
+        assertTrue(document.isNotModified(request("*", -1)));
+        //A non matching tag wins over the date
+        assertFalse(document.isNotModified(request("\"x\"", MODIFIED)));
+
+        CachedDocument changed = new CachedDocument("<b/>".getBytes("UTF-8"), "text/xml", MODIFIED);
+        assertFalse(changed.isNotModified(request(document.getETag(), -1)));
+
+        assertFalse(document.write(request(document.getETag(), -1), response()));
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, _headers.get("Status"));
+        assertEquals(0, _body.size());
+    }
+
+    @Test
+    public void testModifiedSince() throws Exception {
+        CachedDocument document = new CachedDocument("<a/>".getBytes("UTF-8"), "text/xml", MODIFIED);
+        assertTrue(document.isNotModified(request(null, 1400000000000L)));
+        assertFalse(document.isNotModified(request(null, 1399999999000L)));
+        assertFalse(document.isNotModified(request(null, -1)));
+    }
+
+    @Test
+    public void testWritesWithoutRequest() throws Exception {
+        CachedDocument document = new CachedDocument("<a/>".getBytes("UTF-8"), "text/xml", MODIFIED);
+        assertTrue(document.write(null, response()));
+        assertEquals("<a/>", _body.toString("UTF-8"));
+        assertEquals(document.getETag(), _headers.get("ETag"));
+    }
+
+    private HttpServletRequest request(final String sNoneMatch, final long lModifiedSince) {
+        return (HttpServletRequest)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] {HttpServletRequest.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("getHeaders"))
+                        return sNoneMatch == null ? Collections.enumeration(Collections.emptyList())
+                            : Collections.enumeration(Collections.singletonList(sNoneMatch));
+                    if (method.getName().equals("getDateHeader"))
+                        return lModifiedSince;
+                    return null;
+                }
+            });
+    }
+
+    private HttpServletResponse response() {
+        return (HttpServletResponse)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] {HttpServletResponse.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String sName = method.getName();
+                    if (sName.equals("setHeader") || sName.equals("setDateHeader"))
+                        _headers.put((String)args[0], args[1]);
+                    else if (sName.equals("setStatus"))
+                        _headers.put("Status", args[0]);
+                    else if (sName.equals("setContentType"))
+                        _headers.put("Content-Type", args[0]);
+                    else if (sName.equals("getOutputStream"))
+                        return new ServletOutputStream() {
+                            @Override
+                            public void write(int b) throws IOException {
+                                _body.write(b);
+                            }
+                        };
+                    return null;
+                }
+            });
+    }
+}